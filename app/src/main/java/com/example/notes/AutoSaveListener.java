@@ -0,0 +1,12 @@
+package com.example.notes;
+
+/**
+ * Listener that is responsible for saving the note when the AutoSaver decides it is time to.
+ */
+public interface AutoSaveListener {
+
+    /**
+     * Save the note as it is now, calling AutoSaver.onSaveStarted if an upload was started.
+     */
+    void onAutoSave();
+}
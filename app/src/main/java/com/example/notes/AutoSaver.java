@@ -0,0 +1,158 @@
+package com.example.notes;
+
+/**
+ * Decides when to save the note while the user is editing it. A burst of changes is saved once
+ * the user stops for a moment, or once the first change has waited long enough, whichever comes
+ * first, so that neither every keystroke is uploaded nor long typing sessions go unsaved. Only one
+ * upload runs at a time; changes made while it runs are saved right after it, in a single upload
+ * of the note as it is by then. Must only be used on the main thread.
+ */
+public class AutoSaver implements NoteChangedListener {
+
+    // How long the user has to stop changing the note before it is saved, in milliseconds.
+    final static long DEBOUNCE_DELAY = 2000;
+
+    // Longest a change waits before it is saved, even if the user keeps changing the note, in
+    // milliseconds.
+    final static long MAX_DELAY = 15000;
+
+    private MainThread mainThread;
+
+    private AutoSaveListener listener;
+
+    // Whether or not saving is allowed. Not while what is saved is unknown, or in conflict.
+    private boolean enabled = false;
+
+    // Whether or not a save is scheduled, and when the first change it is for was made.
+    private boolean scheduled = false;
+    private long firstChangeTime;
+
+    // Whether or not an upload is running.
+    private boolean saving = false;
+
+    // Whether or not there are changes that could not be saved yet, because an upload was
+    // running or saving was not allowed. They are saved as soon as that is no longer the case.
+    private boolean pending = false;
+
+    // Runs when a scheduled save is due.
+    private Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            AutoSaver.this.scheduled = false;
+            AutoSaver.this.save();
+        }
+    };
+
+    /**
+     * Creates a new AutoSaver, which does not save until it is enabled.
+     * @param listener The listener to ask to save the note.
+     */
+    public AutoSaver(AutoSaveListener listener) {
+        this(listener, new MainThread());
+    }
+
+    /**
+     * Creates a new AutoSaver, which does not save until it is enabled.
+     * @param listener The listener to ask to save the note.
+     * @param mainThread The main thread to schedule saves on.
+     */
+    AutoSaver(AutoSaveListener listener, MainThread mainThread) {
+        this.listener = listener;
+        this.mainThread = mainThread;
+    }
+
+    @Override
+    public void onNoteChanged() {
+        this.schedule();
+    }
+
+    /**
+     * Sets whether or not the note may be saved. Changes made while it may not are saved once it
+     * may again.
+     * @param enabled True for yes, False for no.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        // If an upload is running, they are saved once it finishes instead.
+        if (enabled && this.pending && !this.saving) {
+            this.pending = false;
+            this.schedule();
+        }
+    }
+
+    /**
+     * Saves the changes right away instead of waiting for the user to stop, such as when the app
+     * is about to be left. If an upload is running, they are saved right after it.
+     */
+    public void saveNow() {
+        if (!this.scheduled && !this.pending) {
+            return;
+        }
+        this.mainThread.removeCallbacks(this.saveTask);
+        this.scheduled = false;
+        this.pending = false;
+        this.save();
+    }
+
+    /**
+     * Lets the AutoSaver know that an upload started, including ones it did not ask for.
+     */
+    public void onSaveStarted() {
+        this.saving = true;
+    }
+
+    /**
+     * Lets the AutoSaver know that the upload that was running finished. If there are changes
+     * waiting for it, they are saved now.
+     */
+    public void onSaveComplete() {
+        this.saving = false;
+        if (this.pending && this.enabled) {
+            this.pending = false;
+            this.save();
+        }
+    }
+
+    /**
+     * Returns whether or not an upload is running.
+     * @return True for yes, False for no.
+     */
+    public boolean isSaving() {
+        return this.saving;
+    }
+
+    /**
+     * Stops waiting to save. Changes that were waiting are forgotten.
+     */
+    public void cancel() {
+        this.mainThread.removeCallbacks(this.saveTask);
+        this.scheduled = false;
+        this.pending = false;
+    }
+
+    /**
+     * Schedules a save for once the user stops changing the note, but no later than the longest a
+     * change may wait.
+     */
+    private void schedule() {
+        long now = this.mainThread.uptimeMillis();
+        if (!this.scheduled) {
+            this.scheduled = true;
+            this.firstChangeTime = now;
+        }
+        this.mainThread.removeCallbacks(this.saveTask);
+        this.mainThread.postAtTime(this.saveTask,
+                Math.min(now + DEBOUNCE_DELAY, this.firstChangeTime + MAX_DELAY));
+    }
+
+    /**
+     * Saves the note, unless that has to wait.
+     */
+    private void save() {
+        if (!this.enabled || this.saving) {
+            this.pending = true;
+            return;
+        }
+        this.listener.onAutoSave();
+    }
+}
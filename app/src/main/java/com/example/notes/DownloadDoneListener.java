@@ -1,14 +1,52 @@
 package com.example.notes;
 
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.List;
+
 /**
  * Interface that is responsible for letting user know that a download has just been
- * completed.
+ * completed. The items are passed on in chunks while they are being downloaded.
  */
 public interface DownloadDoneListener {
 
     /**
-     * Handle the data that was downloaded.
-     * @param saveData The data. If unable to load data, it is null.
+     * The first items have been downloaded, and are about to be passed on. Not called if the
+     * download failed before any items arrived.
+     * @param fontSize The size of the font stored with the data.
+     */
+    void onDownloadStarted(int fontSize);
+
+    /**
+     * Handle the next chunk of items that were downloaded, in order.
+     * @param items The items.
+     */
+    void onItemsDownloaded(List<ItemViewData> items);
+
+    /**
+     * The download has finished.
+     * @param successful Whether or not every item was downloaded.
+     * @param changes The changes saved after the items, to apply to them in order. Empty if the
+     * download was not successful.
+     * @param version The version of the data, to record with DriveService.setKnownVersion once
+     * the items and changes are applied, or null if the download was not successful.
+     */
+    void onDownloadComplete(boolean successful, List<EditOperation> changes, String version);
+
+    /**
+     * The download has finished, and how the data differs from the data being displayed was
+     * worked out. Called instead of onDownloadStarted, onItemsDownloaded and onDownloadComplete
+     * if the data being displayed was given, unless the download failed.
+     * @param data The downloaded data.
+     * @param diff How the data differs from the data that was being displayed.
+     * @param version The version of the data, to record with DriveService.setKnownVersion once
+     * it is displayed.
+     */
+    void onDownloadDiffed(SaveData data, DiffUtil.DiffResult diff, String version);
+
+    /**
+     * The data did not change since it was last downloaded or uploaded, so nothing was
+     * downloaded. Called instead of every other method.
      */
-    void onDownloadComplete(SaveData saveData);
+    void onDownloadSkipped();
 }
@@ -0,0 +1,359 @@
+package com.example.notes;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects requests for the metadata of files on Google Drive, and sends them together, as one
+ * batch request, so that many of them cost a single round trip. Each request gets its own result.
+ * Requests that failed for reasons that are likely to go away are sent again, in a batch of their
+ * own, as the retry policy allows. Contents of files can not be sent in a batch.
+ */
+public class DriveBatch {
+
+    // AppDataFolder Scope.
+    final private static String APPDATAFOLDER = "appDataFolder";
+
+    // Where Drive takes batch requests.
+    final private static String BATCH_URL = "https://www.googleapis.com/batch/drive/v3";
+
+    // Number of requests Drive accepts in one batch.
+    final private static int MAX_BATCH_SIZE = 100;
+
+    // HTTP status code for creating a file with an ID that is already taken.
+    final private static int STATUS_CONFLICT = 409;
+
+    private Drive service;
+
+    private RetryPolicy retryPolicy;
+
+    // The requests that have not been sent yet, in order.
+    private List<Entry<?>> entries = new ArrayList<>();
+
+    /**
+     * Interface for receiving the result of a single request of a batch.
+     */
+    public interface Callback<T> {
+
+        /**
+         * The request succeeded.
+         * @param result The result.
+         */
+        void onSuccess(T result);
+
+        /**
+         * The request failed for good, or was retried for as long as the retry policy allows.
+         * @param e The error of the last attempt.
+         */
+        void onFailure(IOException e);
+    }
+
+    /**
+     * Creates a new, empty batch.
+     * @param service The Drive service.
+     * @param retryPolicy What to retry requests that failed with.
+     */
+    public DriveBatch(Drive service, RetryPolicy retryPolicy) {
+        this.service = service;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Adds a request for the metadata of a file.
+     * @param fileId The ID of the file.
+     * @param fields The fields of the file to ask for.
+     * @param callback The callback to pass the file to.
+     * @return This batch.
+     */
+    public DriveBatch get(final String fileId, final String fields, Callback<File> callback) {
+        this.entries.add(new Entry<File>(callback) {
+            @Override
+            void queue(BatchRequest batch, int attempt) throws IOException {
+                DriveBatch.this.service.files().get(fileId).setFields(fields)
+                        .queue(batch, this.createCallback());
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds a request for the files matching a query, such as to check the versions of the save
+     * files of a note. Only the first page of files is asked for.
+     * @param query The query, as described by the Drive API.
+     * @param fields The fields of the files to ask for, such as "id, name".
+     * @param callback The callback to pass the files to.
+     * @return This batch.
+     */
+    public DriveBatch list(final String query, final String fields,
+                           final Callback<List<File>> callback) {
+        this.entries.add(new Entry<FileList>(new Callback<FileList>() {
+            @Override
+            public void onSuccess(FileList result) {
+                callback.onSuccess(result.getFiles() == null ? Collections.<File>emptyList()
+                        : result.getFiles());
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                callback.onFailure(e);
+            }
+        }) {
+            @Override
+            void queue(BatchRequest batch, int attempt) throws IOException {
+                DriveBatch.this.service.files().list()
+                        .setSpaces(APPDATAFOLDER)
+                        .setQ(query)
+                        .setFields("files(" + fields + ")")
+                        .queue(batch, this.createCallback());
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds a request to create a file without contents. The metadata has to hold an ID generated
+     * by Drive, so that if an attempt whose answer was lost did create it, retrying does not
+     * create it twice.
+     * @param metadata The metadata of the file, including its ID.
+     * @param fields The fields of the file to ask for.
+     * @param callback The callback to pass the file to.
+     * @return This batch.
+     */
+    public DriveBatch create(final File metadata, final String fields,
+                             Callback<File> callback) {
+        if (metadata.getId() == null) {
+            throw new IllegalArgumentException("Files created in a batch need an ID.");
+        }
+        this.entries.add(new Entry<File>(callback) {
+            @Override
+            void queue(BatchRequest batch, int attempt) throws IOException {
+                Drive.Files files = DriveBatch.this.service.files();
+                if (this.createdEarlier) {
+                    files.get(metadata.getId()).setFields(fields)
+                            .queue(batch, this.createCallback());
+                } else {
+                    files.create(metadata).setFields(fields).queue(batch, this.createCallback());
+                }
+            }
+
+            @Override
+            boolean shouldRetry(IOException e, int attempt) {
+                if (attempt > 0 && e instanceof HttpResponseException
+                        && ((HttpResponseException) e).getStatusCode() == STATUS_CONFLICT) {
+                    // An earlier attempt created it after all, so ask for it instead.
+                    this.createdEarlier = true;
+                    return true;
+                }
+                return super.shouldRetry(e, attempt);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds a request to rename a file.
+     * @param fileId The ID of the file.
+     * @param name The new name.
+     * @param fields The fields of the file to ask for.
+     * @param callback The callback to pass the file to.
+     * @return This batch.
+     */
+    public DriveBatch rename(final String fileId, final String name, final String fields,
+                             Callback<File> callback) {
+        this.entries.add(new Entry<File>(callback) {
+            @Override
+            void queue(BatchRequest batch, int attempt) throws IOException {
+                DriveBatch.this.service.files().update(fileId, new File().setName(name))
+                        .setFields(fields)
+                        .queue(batch, this.createCallback());
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Adds a request to delete a file.
+     * @param fileId The ID of the file.
+     * @param callback The callback to notify once it is deleted.
+     * @return This batch.
+     */
+    public DriveBatch delete(final String fileId, Callback<Void> callback) {
+        this.entries.add(new Entry<Void>(callback) {
+            @Override
+            void queue(BatchRequest batch, int attempt) throws IOException {
+                DriveBatch.this.service.files().delete(fileId)
+                        .queue(batch, this.createCallback());
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Returns the number of requests that have not been sent yet.
+     * @return The number of requests.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Sends every request, in as few batches as Drive allows, and passes each result on to its
+     * callback. Requests that failed for reasons that are likely to go away are sent again until
+     * they succeed, or the retry policy gives up on them. Every callback is called exactly once,
+     * on the calling thread. The batch is empty afterwards.
+     */
+    public void execute() {
+        final List<Entry<?>> remaining = new ArrayList<>(this.entries);
+        this.entries.clear();
+        try {
+            this.retryPolicy.execute(new RetryPolicy.Call<Void>() {
+                @Override
+                public Void call(int attempt) throws IOException {
+                    DriveBatch.this.send(remaining, attempt);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            // Given up on, or failed for good while the batch itself was being sent.
+            for (Entry<?> entry : remaining) {
+                entry.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Sends the given requests, in batches of at most MAX_BATCH_SIZE. Requests whose result was
+     * passed on are removed from the list, even if a batch could not be sent, so that only what
+     * is left is sent again.
+     * @param entries The requests.
+     * @param attempt The number of the attempt, starting at 0.
+     * @throws IOException A transient error if any request should be sent again, whatever it
+     * failed with, or the error of a batch that could not be sent.
+     */
+    private void send(List<Entry<?>> entries, int attempt) throws IOException {
+        // Whether or not any request should be sent again. Their own errors may not be
+        // transient, such as a conflict when a file that was created earlier is created again.
+        boolean retry = false;
+        try {
+            for (int start = 0; start < entries.size(); start += MAX_BATCH_SIZE) {
+                List<Entry<?>> chunk = entries.subList(start,
+                        Math.min(entries.size(), start + MAX_BATCH_SIZE));
+                BatchRequest batch = this.service.batch();
+                batch.setBatchUrl(new GenericUrl(BATCH_URL));
+                for (Entry<?> entry : chunk) {
+                    entry.error = null;
+                    entry.queue(batch, attempt);
+                }
+                batch.execute();
+                for (Entry<?> entry : chunk) {
+                    if (entry.done) {
+                        continue;
+                    }
+                    if (entry.error == null || entry.shouldRetry(entry.error, attempt)) {
+                        // Including when no answer came for it, as it may never have arrived.
+                        retry = true;
+                    } else {
+                        entry.fail(entry.error);
+                    }
+                }
+            }
+        } finally {
+            for (int i = entries.size() - 1; i >= 0; i --) {
+                if (entries.get(i).done) {
+                    entries.remove(i);
+                }
+            }
+        }
+        if (retry) {
+            throw new RetryPolicy.TransientException("Batched requests to send again.");
+        }
+    }
+
+    /**
+     * A single request of a batch, along with its callback.
+     */
+    private abstract static class Entry<T> {
+
+        private Callback<T> callback;
+
+        // Error of the latest attempt, or null if it succeeded.
+        private IOException error;
+
+        // Whether or not the result has been passed on.
+        private boolean done = false;
+
+        // Whether or not an earlier attempt is known to have created the file. Only used by
+        // requests that create a file.
+        boolean createdEarlier = false;
+
+        Entry(Callback<T> callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Adds the request to the given batch.
+         * @param batch The batch.
+         * @param attempt The number of the attempt, starting at 0.
+         * @throws IOException If the request could not be added.
+         */
+        abstract void queue(BatchRequest batch, int attempt) throws IOException;
+
+        /**
+         * Returns whether or not the request should be sent again after failing with the given
+         * error.
+         * @param e The error.
+         * @param attempt The number of the attempt that failed, starting at 0.
+         * @return True for yes, False for no.
+         */
+        boolean shouldRetry(IOException e, int attempt) {
+            return RetryPolicy.isTransient(e);
+        }
+
+        /**
+         * Creates the callback to pass the result of the request on with. Failures that should
+         * be retried are only recorded.
+         * @return The callback.
+         */
+        JsonBatchCallback<T> createCallback() {
+            return new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(T result, HttpHeaders responseHeaders) {
+                    // Marked right away, since the rest of the batch may still fail.
+                    Entry.this.done = true;
+                    Entry.this.callback.onSuccess(result);
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                    Entry.this.error = new GoogleJsonResponseException(
+                            new HttpResponseException.Builder(error.getCode(), error.getMessage(),
+                                    responseHeaders), error);
+                }
+            };
+        }
+
+        /**
+         * Passes the given error on, unless the result was passed on already.
+         * @param e The error.
+         */
+        void fail(IOException e) {
+            if (!this.done) {
+                this.done = true;
+                this.callback.onFailure(this.error != null ? this.error : e);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.notes;
+
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists files of the appDataFolder on Google Drive. Only the files matching a query are listed,
+ * with only the fields that are asked for, so that a listing costs one small request instead of
+ * the full metadata of every file. Every page of results is read, not just the first one, and
+ * each page can be handed on as soon as it arrives.
+ */
+public class DriveFileLister {
+
+    // AppDataFolder Scope.
+    final private static String APPDATAFOLDER = "appDataFolder";
+
+    // Number of files to ask for per page. The most Drive allows.
+    final private static int PAGE_SIZE = 1000;
+
+    private Drive service;
+
+    // Retries pages that failed for reasons that are likely to go away.
+    private RetryPolicy retryPolicy;
+
+    /**
+     * Interface for receiving the files a page at a time, while they are being listed.
+     */
+    public interface PageListener {
+
+        /**
+         * The next page of files was listed.
+         * @param files The files of the page.
+         */
+        void onPageListed(List<File> files);
+    }
+
+    /**
+     * Creates a new lister.
+     * @param service The Drive service.
+     * @param retryPolicy What to retry pages that failed with.
+     */
+    public DriveFileLister(Drive service, RetryPolicy retryPolicy) {
+        this.service = service;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Lists every file matching the given query.
+     * @param query The query, as described by the Drive API, or null to list every file.
+     * @param fields The fields of the files to ask for, such as "id, name".
+     * @return The files.
+     * @throws IOException If a page could not be listed.
+     */
+    public List<File> list(String query, String fields) throws IOException {
+        final ArrayList<File> files = new ArrayList<>();
+        this.list(query, fields, new PageListener() {
+            @Override
+            public void onPageListed(List<File> page) {
+                files.addAll(page);
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Lists every file matching the given query, handing each page to the listener as soon as
+     * it arrives. If a page fails, the pages before it have already been handed on.
+     * @param query The query, as described by the Drive API, or null to list every file.
+     * @param fields The fields of the files to ask for, such as "id, name".
+     * @param listener The listener to hand the pages to. Called on the calling thread.
+     * @throws IOException If a page could not be listed.
+     */
+    public void list(final String query, final String fields, PageListener listener)
+            throws IOException {
+        String pageToken = null;
+        do {
+            final String token = pageToken;
+            FileList page = this.retryPolicy.execute(new RetryPolicy.Call<FileList>() {
+                @Override
+                public FileList call(int attempt) throws IOException {
+                    Drive.Files.List fileSearch = DriveFileLister.this.service.files().list()
+                            .setSpaces(APPDATAFOLDER)
+                            .setPageSize(PAGE_SIZE)
+                            .setFields("nextPageToken, files(" + fields + ")");
+                    if (query != null) {
+                        fileSearch.setQ(query);
+                    }
+                    if (token != null) {
+                        fileSearch.setPageToken(token);
+                    }
+                    return fileSearch.execute();
+                }
+            });
+            if (page.getFiles() != null) {
+                listener.onPageListed(page.getFiles());
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+    }
+
+    /**
+     * Returns a query for files with the given name.
+     * @param name The name.
+     * @return The query.
+     */
+    public static String nameIs(String name) {
+        return "name = " + quote(name);
+    }
+
+    /**
+     * Returns a query for files whose name starts with the given prefix. Drive matches the
+     * prefix against whole words of the name, so this may match more than asked for, and the
+     * names of the results should be checked.
+     * @param prefix The prefix.
+     * @return The query.
+     */
+    public static String nameStartsWith(String prefix) {
+        return "name contains " + quote(prefix);
+    }
+
+    /**
+     * Returns a query for files matching any of the given queries.
+     * @param queries The queries.
+     * @return The query.
+     */
+    public static String anyOf(String... queries) {
+        StringBuilder query = new StringBuilder();
+        for (String part : queries) {
+            if (query.length() > 0) {
+                query.append(" or ");
+            }
+            query.append('(').append(part).append(')');
+        }
+        return query.toString();
+    }
+
+    /**
+     * Quotes the given String for use in a query.
+     * @param value The String.
+     * @return The quoted String.
+     */
+    private static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
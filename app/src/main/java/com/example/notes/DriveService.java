@@ -2,19 +2,30 @@ package com.example.notes;
 
 import android.util.Log;
 
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.File;
-import com.google.api.services.drive.model.FileList;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Class that is responsible for storing and loading data from Google Drive using REST API.
+ * Class that is responsible for storing and loading data from Google Drive using REST API. Every
+ * note is saved in files of its own, so that only the note being opened or saved is transferred,
+ * and a small manifest lists every note, so that they can be listed without downloading them.
  */
 public class DriveService {
 
@@ -23,137 +34,848 @@ public class DriveService {
     // AppDataFolder Scope.
     final private static String APPDATAFOLDER = "appDataFolder";
 
-    // Name for save data file.
+    // Name for the save file of the note that was saved before there could be more than one.
     final private static String SAVE_FILE_NAME = "save_data";
 
+    // Names of the save files of every other note start with this, followed by the ID of the note.
+    final private static String NOTE_FILE_PREFIX = "note_";
+
+    // Name for the file listing every note.
+    final private static String MANIFEST_FILE_NAME = "manifest";
+
     // Type for save data file.
-    final private static String SAVE_FILE_TYPE = "text/txt";
+    final private static String SAVE_FILE_TYPE = "application/octet-stream";
+
+    // Names of files holding changes saved after a save file are the name of the save file,
+    // followed by this, the generation of the save file they apply to and their sequence number.
+    final private static String CHANGES_FILE_INFIX = ".changes.";
+
+    // Property of the save file holding the number of times it has been rewritten.
+    final private static String GENERATION_PROPERTY = "generation";
+
+    // Name of the file holding the copy of a note that can be merged without conflicts is the
+    // name of the save file, followed by this.
+    final private static String CRDT_FILE_SUFFIX = ".crdt";
+
+    // Property of that file holding the version of the save files it matches.
+    final private static String SAVE_VERSION_PROPERTY = "saveVersion";
+
+    // Whether or not to compress the items of the save file. Files of changes are small enough to
+    // not be worth it.
+    final private static boolean COMPRESS_SAVE_FILE = true;
+
+    // Save data at least this many bytes long, uncompressed, is uploaded in chunks that can be
+    // resumed, instead of in a single request. Smaller files are sent along with their metadata.
+    final private static long RESUMABLE_UPLOAD_THRESHOLD = 1024 * 1024;
+
+    // Number of bytes to send per request of a resumable upload.
+    final static int UPLOAD_CHUNK_SIZE = 4 * ResumableUpload.CHUNK_GRANULARITY;
+
+    // Number of files of changes to allow before they are compacted into the save file.
+    final static int MAX_CHANGES_FILES = 16;
+
+    // How long the size, version and modified time of a note in the manifest may be out of date,
+    // in milliseconds. The manifest is only written on a save once they are, or the title of the
+    // note changed, so that most saves cost no more than before.
+    final private static long MANIFEST_MAX_AGE = 10 * 60 * 1000;
+
+    // Number of items passed on in the first chunk of a download. Enough to fill the screen.
+    final private static int FIRST_CHUNK_SIZE = 64;
+
+    // Number of items passed on in every other chunk of a download.
+    final private static int CHUNK_SIZE = 1024;
+
+    // Fields of the save files to ask for, so that their version can be worked out.
+    final private static String FILE_FIELDS =
+            "id, name, appProperties, version, md5Checksum, modifiedTime";
+
+    // Fields of the files to ask for when listing the notes.
+    final private static String LISTING_FIELDS = "id, name, size, modifiedTime";
+
+    // HTTP status code for a file that does not exist.
+    final private static int STATUS_NOT_FOUND = 404;
+
+    // HTTP status code for creating a file with an ID that is already taken.
+    final private static int STATUS_CONFLICT = 409;
+
+    // Number of file IDs to ask for at a time.
+    final private static int FILE_ID_BATCH_SIZE = 10;
 
     // Drive to use to perform operations.
     private Drive service;
 
-    private boolean isBusy;
+    // The save files of every note as they were last listed or written, by the ID of the note.
+    // They are checked against Drive before they are used. Concurrent, since downloads and uploads
+    // may run on different threads; the files cached are never changed, only replaced.
+    private ConcurrentHashMap<String, SaveFiles> cachedFiles = new ConcurrentHashMap<>();
+
+    // What the manifest said about every note when it was last read or written, by the ID of the
+    // note, so that a save can tell whether the manifest needs writing without downloading it.
+    private ConcurrentHashMap<String, NoteInfo> knownNotes = new ConcurrentHashMap<>();
 
+    // Held while uploading, so that two uploads never write the save files or the manifest at the
+    // same time.
+    final private Object uploadLock = new Object();
+
+    // Retries requests that failed for reasons that are likely to go away.
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
+    // Lists only the files that are needed, a page at a time.
+    private DriveFileLister lister;
+
+    // IDs generated for files that have not been created yet. Only used while uploading.
+    private ArrayDeque<String> spareFileIds = new ArrayDeque<>();
+
+    // Where to remember the version of the save files that was last downloaded or uploaded.
+    private SaveVersionStore versionStore;
+
+    // Uploads large save data in chunks. Only used while uploading.
+    private ResumableUpload resumableUpload;
 
     /**
      * Initializes a new Drive Service wrapper given a Drive object obtained from credentials.
      * @param service The Drive service.
+     * @param versionStore Where to remember the version of the save files that was last
+     * downloaded or uploaded.
+     * @param sessionStore Where to remember the upload in progress, so that it can be resumed.
      */
-    public DriveService(Drive service) {
+    public DriveService(Drive service, SaveVersionStore versionStore,
+                        UploadSessionStore sessionStore) {
         this.service = service;
-        this.setBusy(false);
+        this.versionStore = versionStore;
+        this.lister = new DriveFileLister(service, this.retryPolicy);
+        this.resumableUpload = new ResumableUpload(service, sessionStore, this.retryPolicy,
+                UPLOAD_CHUNK_SIZE);
     }
 
     /**
-     * Returns the save file. Returns null if the file does not exist. Throws exception if there
-     * was an error accessing the file.
-     * @return The file.
+     * Returns the name of the save file of the given note.
+     * @param noteId The ID of the note.
+     * @return The name.
+     */
+    private static String getFileName(String noteId) {
+        if (NoteInfo.DEFAULT_ID.equals(noteId)) {
+            return SAVE_FILE_NAME;
+        }
+        return NOTE_FILE_PREFIX + noteId;
+    }
+
+    /**
+     * Finds the save file of the given note, and the files holding the changes saved after it, by
+     * listing only the files whose names start with the name of the save file. The result is
+     * cached.
+     * @param noteId The ID of the note.
+     * @return The files.
+     * @throws IOException If the files could not be listed.
+     */
+    private SaveFiles findSaveFiles(String noteId) throws IOException {
+        String fileName = getFileName(noteId);
+        SaveFiles files = new SaveFiles(fileName,
+                this.lister.list(DriveFileLister.nameStartsWith(fileName), FILE_FIELDS));
+        this.cachedFiles.put(noteId, files);
+        return new SaveFiles(files);
+    }
+
+    /**
+     * Returns the save files of the given note, as they are on Drive. The cached ones are used if
+     * they are still current, which costs a single batch; the files are only listed again if
+     * they are not, or if nothing is cached.
+     * @param noteId The ID of the note.
+     * @return The files, which the caller may change.
+     * @throws IOException If the files could not be checked or listed.
+     */
+    private SaveFiles getSaveFiles(String noteId) throws IOException {
+        SaveFiles files = this.cachedFiles.get(noteId);
+        if (files == null || files.saveFile == null || !this.isCurrent(files)) {
+            return this.findSaveFiles(noteId);
+        }
+        return new SaveFiles(files);
+    }
+
+    /**
+     * Checks whether or not the given save files are still the ones on Drive, in a single batch:
+     * the save file is asked for by its ID, and the next file of changes, as well as the copy
+     * that can be merged without conflicts if there is none yet, by their names. Devices only
+     * ever add the next file of changes, and they rewrite the save file whenever they remove any.
+     * @param files The save files. The save file must exist.
+     * @return True for yes, False for no.
+     * @throws IOException If the files could not be checked.
      */
-    private File getSaveFile() {
-        // File searcher.
-        Drive.Files.List fileSearch;
+    private boolean isCurrent(final SaveFiles files) throws IOException {
+        final boolean[] current = {true};
+        final ArrayList<IOException> errors = new ArrayList<>();
+        String query = DriveFileLister.nameIs(files.getNextChangesFileName());
+        if (files.crdtFile == null) {
+            query = DriveFileLister.anyOf(query,
+                    DriveFileLister.nameIs(files.fileName + CRDT_FILE_SUFFIX));
+        }
+        new DriveBatch(this.service, this.retryPolicy)
+                .get(files.saveFile.getId(), FILE_FIELDS, new DriveBatch.Callback<File>() {
+                    @Override
+                    public void onSuccess(File file) {
+                        if (!files.isSaveFile(file)) {
+                            current[0] = false;
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(IOException e) {
+                        if (isNotFound(e)) {
+                            current[0] = false;
+                        } else {
+                            errors.add(e);
+                        }
+                    }
+                })
+                .list(query, "id", new DriveBatch.Callback<List<File>>() {
+                    @Override
+                    public void onSuccess(List<File> added) {
+                        if (!added.isEmpty()) {
+                            current[0] = false;
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(IOException e) {
+                        errors.add(e);
+                    }
+                })
+                .execute();
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+        return current[0];
+    }
+
+    /**
+     * Checks whether or not the given error means that the file asked for does not exist.
+     * @param e The error.
+     * @return True for yes, False for no.
+     */
+    private static boolean isNotFound(IOException e) {
+        return e instanceof HttpResponseException
+                && ((HttpResponseException) e).getStatusCode() == STATUS_NOT_FOUND;
+    }
+
+    /**
+     * Lists every note that is saved, as the manifest describes them. The manifest is checked
+     * against the save files that exist, listed a page at a time, so that a note whose entry
+     * could not be written is still listed, without a title until it is saved again, and a note
+     * whose save file is gone is not. What is remembered about the notes is brought in line too.
+     * @return The notes, the most recently saved first, or null if they could not be listed.
+     */
+    public List<NoteInfo> listNotes() {
         try {
-            fileSearch = this.service.files().list();
-            // Where to search.
-            fileSearch.setSpaces(APPDATAFOLDER);
-            // Start search.
-            FileList files = fileSearch.execute();
-            // Look for the right file and return it.
-            for (File file : files.getFiles()) {
-                if (file.getName().equals(SAVE_FILE_NAME)) {
-                    return file;
+            List<File> files = this.lister.list(DriveFileLister.anyOf(
+                    DriveFileLister.nameIs(MANIFEST_FILE_NAME),
+                    DriveFileLister.nameIs(SAVE_FILE_NAME)), LISTING_FIELDS);
+            NoteManifest manifest = this.readManifest(files);
+            files.addAll(this.lister.list(DriveFileLister.nameStartsWith(NOTE_FILE_PREFIX),
+                    LISTING_FIELDS));
+
+            NoteManifest notes = new NoteManifest();
+            HashSet<String> listedIds = new HashSet<>();
+            for (File file : files) {
+                String noteId = getNoteId(file.getName());
+                if (noteId == null) {
+                    continue;
+                }
+                NoteInfo note = manifest.get(noteId);
+                if (note != null) {
+                    listedIds.add(noteId);
+                } else {
+                    long size = file.getSize() == null ? 0 : file.getSize();
+                    note = new NoteInfo(noteId, "", size, null, getModifiedTime(file));
                 }
+                notes.put(note);
             }
+            // Forget the entries of notes that are gone, so that saving one writes its entry again.
+            this.knownNotes.keySet().retainAll(listedIds);
+            return notes.getNotes();
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
-        return null;
     }
 
     /**
-     * Returns the id of the save data file. Returns null if the file does not exist/inaccessible.
-     * @return The id.
+     * Returns the ID of the note the given file is the save file of.
+     * @param fileName The name of the file.
+     * @return The ID, or null if the file is not a save file.
      */
-    private String getSaveFileID() {
-        File saveFile = this.getSaveFile();
-        if (saveFile == null) {
+    private static String getNoteId(String fileName) {
+        if (fileName.equals(SAVE_FILE_NAME)) {
+            return NoteInfo.DEFAULT_ID;
+        }
+        if (!fileName.startsWith(NOTE_FILE_PREFIX)) {
             return null;
-        } else {
-            return saveFile.getId();
         }
+        // Files of changes and copies of notes are named after the save file, with a suffix.
+        String noteId = fileName.substring(NOTE_FILE_PREFIX.length());
+        return noteId.isEmpty() || noteId.indexOf('.') >= 0 ? null : noteId;
     }
 
     /**
-     * Determines whether or not the save file exists on the user`s Drive.
-     * @return True for yes, false for no.
+     * Downloads the manifest, and remembers what it says about every note.
+     * @param files The files of the appDataFolder, or at least the manifest files among them.
+     * @return The manifest, which is empty if there is none.
+     * @throws IOException If the manifest could not be downloaded, or it is corrupt.
      */
-    private boolean saveFileExists() {
-        return this.getSaveFile() != null;
+    private NoteManifest readManifest(List<File> files) throws IOException {
+        File manifestFile = findManifestFile(files);
+        NoteManifest manifest = new NoteManifest();
+        if (manifestFile != null) {
+            InputStream input = this.openFile(manifestFile.getId());
+            try {
+                manifest = NoteManifest.readFrom(input);
+            } finally {
+                this.closeQuietly(input);
+            }
+        }
+        for (NoteInfo note : manifest.getNotes()) {
+            this.knownNotes.put(note.getId(), note);
+        }
+        return manifest;
     }
 
     /**
-     * Downloads and returns the app data.
-     * @return The app data. Returns empty String if it does not exist.
+     * Finds the manifest among the given files. If two devices created one at the same time, the
+     * one saved last is used.
+     * @param files The files of the appDataFolder.
+     * @return The manifest file, or null if there is none.
      */
-    public String downloadData() {
+    private static File findManifestFile(List<File> files) {
+        File manifestFile = null;
+        for (File file : files) {
+            if (!file.getName().equals(MANIFEST_FILE_NAME)) {
+                continue;
+            }
+            if (manifestFile == null || getModifiedTime(file) > getModifiedTime(manifestFile)) {
+                manifestFile = file;
+            }
+        }
+        return manifestFile;
+    }
 
-        this.setBusy(true);
+    /**
+     * Returns when the given file was last modified.
+     * @param file The file.
+     * @return The time, in milliseconds since the epoch, or 0 if it is not known.
+     */
+    private static long getModifiedTime(File file) {
+        return file.getModifiedTime() == null ? 0 : file.getModifiedTime().getValue();
+    }
 
-        // Default value to return.
-        String downloadUrl = this.getSaveFileID();
+    /**
+     * Brings the entry of the given note in the manifest up to date, if its title changed, it is
+     * not listed yet, or the entry is too old. The manifest is downloaded again right before it
+     * is written, so that notes saved from other devices in the meantime are kept; if two devices
+     * write it at the same time, the one that writes last wins, and the note the other one added
+     * is listed again the next time it is saved. A failure is not passed on, since the note
+     * itself was saved; the entry is written on the next save instead.
+     * @param noteId The ID of the note.
+     * @param files The save files of the note, as they are after the save.
+     * @param data The note.
+     */
+    private void updateManifest(String noteId, SaveFiles files, SaveData data) {
+        String title = data.getTitle();
+        long now = System.currentTimeMillis();
+        NoteInfo known = this.knownNotes.get(noteId);
+        if (known != null && known.getTitle().equals(title)
+                && now - known.getModifiedTime() < MANIFEST_MAX_AGE) {
+            return;
+        }
+        try {
+            List<File> manifestFiles = this.lister.list(
+                    DriveFileLister.nameIs(MANIFEST_FILE_NAME), LISTING_FIELDS);
+            NoteManifest manifest = this.readManifest(manifestFiles);
+            NoteInfo note = new NoteInfo(noteId, title, data.getEncodedLength(),
+                    files.getVersion(), now);
+            manifest.put(note);
 
-        // Make sure downloadURL is valid.
-        if (downloadUrl == null) {
-            this.setBusy(false);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            manifest.writeTo(bytes);
+            final ByteArrayContent content = new ByteArrayContent(SAVE_FILE_TYPE,
+                    bytes.toByteArray());
+            this.writeFile(findManifestFile(manifestFiles), MANIFEST_FILE_NAME, content, null);
+            this.knownNotes.put(noteId, note);
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.knownNotes.remove(noteId);
+        }
+    }
+
+    /**
+     * Downloads the app data, passing the items on to the listener in chunks while they are being
+     * parsed. The first chunk is small so that it arrives as soon as possible. The save files are
+     * listed first, along with their versions and checksums, and if they did not change since
+     * they were last downloaded or uploaded, nothing else is downloaded.
+     * @param noteId The ID of the note to download.
+     * @param listener The listener to pass the items to. Called on the calling thread.
+     * @param onlyIfChanged Whether or not to skip the download if the data did not change. Should
+     * only be true if the data that was last downloaded or uploaded is still at hand.
+     * @return The version of the data that was downloaded, or found to be unchanged, or null if
+     * it does not exist or could not be read. The version is not recorded as downloaded, since
+     * the data may still fail to apply; pass it to setKnownVersion once it has been.
+     */
+    public String downloadData(String noteId, DownloadProgressListener listener,
+                               boolean onlyIfChanged) {
+
+        try {
+            // Always checked here, since files of changes may have been saved from somewhere else.
+            SaveFiles files = this.getSaveFiles(noteId);
+
+            // Make sure the save file exists.
+            if (files.saveFile == null) {
+                return null;
+            }
+            String version = files.getVersion();
+            if (onlyIfChanged && version.equals(this.versionStore.getVersion(noteId))) {
+                listener.onDataUnchanged();
+                return version;
+            }
+            this.download(files, listener);
+            return version;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the whole note as it is saved on Drive, with the changes saved after the save file
+     * applied to it, so that it can be merged with the note on this device. Like downloadData,
+     * this does not record the version as downloaded, since the note is not shown as it is.
+     * The copy of the note that can be merged without conflicts is downloaded along with it, if
+     * there is one.
+     * @param noteId The ID of the note to download.
+     * @return The note, or null if it could not be downloaded.
+     */
+    public RemoteNote downloadSaveData(String noteId) {
+        try {
+            SaveFiles files = this.findSaveFiles(noteId);
+            if (files.saveFile == null) {
+                return new RemoteNote(null, null, null, false);
+            }
+            SaveDataCollector collector = new SaveDataCollector();
+            this.download(files, collector);
+            SaveData data = collector.toSaveData();
+            if (data == null) {
+                return null;
+            }
+            String version = files.getVersion();
+            NoteCrdt crdt = null;
+            boolean crdtCurrent = false;
+            if (files.crdtFile != null) {
+                crdt = this.readCrdt(files.crdtFile.getId());
+                Map<String, String> properties = files.crdtFile.getAppProperties();
+                crdtCurrent = crdt != null && properties != null
+                        && version.equals(properties.get(SAVE_VERSION_PROPERTY));
+            }
+            return new RemoteNote(data, version, crdt, crdtCurrent);
+        } catch (IOException e) {
+            e.printStackTrace();
             return null;
         }
+    }
+
+    /**
+     * Records the given version of a note as the one that was last downloaded or uploaded, once
+     * the note downloaded with downloadData was applied, or the one downloaded with
+     * downloadSaveData was merged into the one on this device.
+     * @param noteId The ID of the note.
+     * @param version The version.
+     */
+    public void setKnownVersion(String noteId, String version) {
+        this.versionStore.setVersion(noteId, version);
+    }
 
+    /**
+     * Downloads the save file and the files of changes saved after it, passing the items on to
+     * the listener in chunks while they are being parsed.
+     * @param files The save files. The save file must exist.
+     * @param listener The listener to pass the items to. Called on the calling thread.
+     * @throws IOException If a file could not be downloaded or read.
+     */
+    private void download(SaveFiles files, DownloadProgressListener listener) throws IOException {
+        InputStream input = null;
         try {
+            // Decode the file contents straight from the stream.
+            input = this.openFile(files.saveFile.getId());
+            SaveDataReader reader = new SaveDataReader(input);
+            listener.onHeaderDownloaded(reader.getFontSize());
 
-            // Stream the file contents to a String.
-            InputStream input = this.service.files().get(downloadUrl).executeMediaAsInputStream();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-            StringBuilder stringBuilder = new StringBuilder();
-            String line;
-            boolean firstLine = true;
-            while ((line = reader.readLine()) != null) {
-                if (firstLine) {
-                    firstLine = false;
-                } else {
-                    // BufferedReader does not keep new line character, so add it back.
-                    stringBuilder.append("\n");
+            int chunkSize = FIRST_CHUNK_SIZE;
+            ArrayList<ItemViewData> chunk = new ArrayList<>(chunkSize);
+            while (reader.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // Cancelled, or taking too long. Stop instead of reading the rest.
+                    throw new InterruptedIOException("Download interrupted.");
+                }
+                chunk.add(reader.readItem());
+                if (chunk.size() == chunkSize) {
+                    listener.onItemsDownloaded(chunk);
+                    chunkSize = CHUNK_SIZE;
+                    chunk = new ArrayList<>(chunkSize);
                 }
-                stringBuilder.append(line);
             }
-            setBusy(false);
+            if (!chunk.isEmpty()) {
+                listener.onItemsDownloaded(chunk);
+            }
             input.close();
-            return stringBuilder.toString();
+
+            // Then the changes saved since, in the order they were saved.
+            ArrayList<EditOperation> changes = new ArrayList<>();
+            for (File changesFile : files.changesFiles) {
+                input = this.openFile(changesFile.getId());
+                changes.addAll(EditLog.read(input));
+                input.close();
+            }
+            listener.onChangesDownloaded(changes);
+        } finally {
+            this.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Starts downloading the contents of the given file. Only starting is retried, since what
+     * was read before a failure has already been passed on.
+     * @param fileId The ID of the file.
+     * @return A stream of the contents.
+     * @throws IOException If the download could not be started.
+     */
+    private InputStream openFile(final String fileId) throws IOException {
+        return this.retryPolicy.execute(new RetryPolicy.Call<InputStream>() {
+            @Override
+            public InputStream call(int attempt) throws IOException {
+                return DriveService.this.service.files().get(fileId).executeMediaAsInputStream();
+            }
+        });
+    }
+
+    /**
+     * Downloads the copy of a note that can be merged without conflicts.
+     * @param fileId The ID of the file holding it.
+     * @return The copy, or null if it could not be read.
+     * @throws IOException If the download could not be started.
+     */
+    private NoteCrdt readCrdt(String fileId) throws IOException {
+        InputStream input = this.openFile(fileId);
+        try {
+            return NoteCrdt.readFrom(input, this.versionStore.getReplicaId());
         } catch (IOException e) {
-            setBusy(false);
+            // The file is damaged, from a newer version of the app, or was cut off. The note can
+            // still be merged without it, and it is rewritten on the next upload.
+            e.printStackTrace();
             return null;
+        } finally {
+            this.closeQuietly(input);
         }
     }
 
     /**
-     * Uploads data to Google.
+     * Returns the ID this device uses to mark its edits to the copies of notes that can be merged
+     * without conflicts.
+     * @return The ID.
+     */
+    public String getReplicaId() {
+        return this.versionStore.getReplicaId();
+    }
+
+    /**
+     * Checks whether or not the save files of the given note changed since they were last
+     * downloaded or uploaded, without downloading them.
+     * @param noteId The ID of the note.
+     * @return True if they changed, False if they did not, or null if they could not be listed.
+     */
+    public Boolean isRemoteChanged(String noteId) {
+        try {
+            String version = this.getSaveFiles(noteId).getVersion();
+            String knownVersion = this.versionStore.getVersion(noteId);
+            return version == null ? knownVersion != null : !version.equals(knownVersion);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Uploads data to Google. If the changes made since the last save are given, only they are
+     * uploaded, into a file of their own. Once there are too many of those files, or the changes
+     * are not much smaller than the data, the whole data is uploaded instead, and the files of
+     * changes are deleted. The manifest is brought up to date afterwards, if needed.
+     *
+     * The save files are checked first, and if their version is not the one that was last
+     * downloaded or uploaded, the note was saved from somewhere else in the meantime. Nothing is
+     * uploaded then, since it would overwrite what was saved; the two have to be merged first.
+     * @param noteId The ID of the note to upload.
+     * @param data The data to upload.
+     * @param changes The changes made since the data was last saved or loaded, or null if the
+     * whole data has to be uploaded.
+     * @param crdt The copy of the data that can be merged without conflicts, to upload along with
+     * it, or null if there is none.
+     * @param listener The listener to tell whenever a chunk of large data was received, or null.
+     * @return Whether the upload was successful, failed, or was not made because of a conflict.
+     */
+    public UploadResult uploadData(String noteId, SaveData data, List<EditOperation> changes,
+                                   NoteCrdt crdt, ResumableUpload.ProgressListener listener) {
+        synchronized (this.uploadLock) {
+            // Whether or not anything may have been written to Drive.
+            boolean written = false;
+            try {
+                SaveFiles files = this.getSaveFiles(noteId);
+                String version = files.getVersion();
+                if (version != null && !version.equals(this.versionStore.getVersion(noteId))) {
+                    return UploadResult.CONFLICT;
+                }
+                try {
+                    written = true;
+                    this.upload(files, data, changes, listener);
+                } catch (IOException e) {
+                    if (!isNotFound(e)) {
+                        throw e;
+                    }
+                    // The save file was deleted since it was listed, so look again and retry.
+                    // Nothing is written before the save file is, so nothing was written yet.
+                    written = false;
+                    files = this.findSaveFiles(noteId);
+                    written = true;
+                    this.upload(files, data, changes, listener);
+                }
+                // What is saved now is what was just uploaded, so it does not need downloading.
+                this.versionStore.setVersion(noteId, files.getVersion());
+                if (crdt != null) {
+                    this.writeCrdt(files, crdt);
+                }
+                this.updateManifest(noteId, files, data);
+                this.cachedFiles.put(noteId, files);
+                return UploadResult.SUCCESS;
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (written) {
+                    // It is unknown what made it to Drive, so it has to be merged before the next
+                    // save. If the save files could not even be checked, nothing changed.
+                    this.cachedFiles.remove(noteId);
+                    this.versionStore.setVersion(noteId, null);
+                }
+                return UploadResult.FAILED;
+            }
+        }
+    }
+
+    /**
+     * Uploads the data or the changes, as described in uploadData, and keeps the given save files
+     * up to date with what was written. Nothing is written before the save file is, so this can be
+     * retried if the save file does not exist.
+     * @param files The current save files.
      * @param data The data to upload.
-     * @return Whether or not the upload was successful.
+     * @param changes The changes made since the data was last saved or loaded, or null.
+     * @param listener The listener to tell whenever a chunk of large data was received, or null.
+     * @throws IOException If the upload failed.
      */
-    public boolean uploadData(String data) {
-        setBusy(true);
+    private void upload(SaveFiles files, SaveData data, List<EditOperation> changes,
+                        ResumableUpload.ProgressListener listener) throws IOException {
+        File saveFile;
+        if (files.saveFile == null) {
+            saveFile = this.createAndUpload(files.fileName, data, listener);
+        } else if (changes == null || files.changesFiles.size() >= MAX_CHANGES_FILES
+                || !this.uploadChanges(files, changes, data)) {
+            // Compact everything into the save file.
+            saveFile = this.updateData(files.saveFile.getId(), files.fileName, data,
+                    files.generation + 1, listener);
+        } else {
+            return;
+        }
+        // Whatever changes were saved before are now part of the save file.
+        boolean compacted = files.saveFile != null;
+        ArrayList<File> oldFiles = new ArrayList<>(files.changesFiles);
+        oldFiles.addAll(files.staleFiles);
+        files.setSaveFile(saveFile);
         try {
-            if (this.saveFileExists()) {
-                this.updateData(data);
-            } else {
-                this.createAndUpload(data);
+            this.deleteFiles(oldFiles);
+        } catch (IOException e) {
+            if (!compacted) {
+                throw e;
             }
-            setBusy(false);
+            // The save file was rewritten under a new generation, so the files left behind are
+            // ignored from now on, and deleted after the next compaction. The save went through.
+            e.printStackTrace();
+            files.staleFiles.addAll(oldFiles);
+        }
+    }
+
+    /**
+     * Uploads the changes into a new file of changes, unless they are not much smaller than the
+     * data itself.
+     * @param files The current save files.
+     * @param changes The changes.
+     * @param data The data the changes lead to.
+     * @return Whether or not the changes were uploaded. If not, the data should be uploaded.
+     * @throws IOException If the upload failed.
+     */
+    private boolean uploadChanges(SaveFiles files, List<EditOperation> changes, SaveData data)
+            throws IOException {
+        if (changes.isEmpty()) {
             return true;
-        } catch (IOException e) {
-            setBusy(false);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EditLog.write(bytes, changes);
+        if (bytes.size() > data.getEncodedLength() / 2) {
             return false;
         }
+
+        File metadata = new File()
+                .setParents(Collections.singletonList(APPDATAFOLDER))
+                .setMimeType(SAVE_FILE_TYPE)
+                .setName(files.getNextChangesFileName());
+        ByteArrayContent content = new ByteArrayContent(SAVE_FILE_TYPE, bytes.toByteArray());
+        File changesFile = this.createFile(metadata, content, FILE_FIELDS);
+        files.addChangesFile(changesFile);
+        return true;
+    }
+
+    /**
+     * Deletes the given files, all in a single batch request. Files that no longer exist are
+     * skipped.
+     * @param files The files.
+     * @throws IOException If a file could not be deleted.
+     */
+    private void deleteFiles(List<File> files) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+        final ArrayList<IOException> errors = new ArrayList<>();
+        DriveBatch batch = new DriveBatch(this.service, this.retryPolicy);
+        for (File file : files) {
+            batch.delete(file.getId(), new DriveBatch.Callback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    // Nothing to pass on.
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    // A retry may find it already deleted by an attempt whose answer was lost.
+                    if (!isNotFound(e)) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        batch.execute();
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+    }
+
+    /**
+     * Writes a small file in a single request, creating it if it does not exist yet.
+     * @param existing The file, or null to create it.
+     * @param name The name of the file.
+     * @param content The contents of the file.
+     * @param appProperties Properties to set on the file, or null for none.
+     * @return The file, holding its ID.
+     * @throws IOException If the file could not be written.
+     */
+    private File writeFile(final File existing, String name,
+                           final AbstractInputStreamContent content,
+                           final Map<String, String> appProperties) throws IOException {
+        if (existing == null) {
+            File metadata = new File()
+                    .setParents(Collections.singletonList(APPDATAFOLDER))
+                    .setMimeType(SAVE_FILE_TYPE)
+                    .setName(name)
+                    .setAppProperties(appProperties);
+            return this.createFile(metadata, content, "id");
+        }
+        // Writing the same contents again is harmless, so this can simply be retried.
+        return this.retryPolicy.execute(new RetryPolicy.Call<File>() {
+            @Override
+            public File call(int attempt) throws IOException {
+                Drive.Files.Update update = DriveService.this.service.files()
+                        .update(existing.getId(), new File().setAppProperties(appProperties),
+                                content);
+                update.getMediaHttpUploader().setDirectUploadEnabled(true);
+                return update.setFields("id").execute();
+            }
+        });
+    }
+
+    /**
+     * Writes the copy of a note that can be merged without conflicts, marked with the version of
+     * the save files it matches. If this fails, the copy on Drive no longer matches, which
+     * devices merging it can tell, so it is only logged.
+     * @param files The save files, as they are after being written.
+     * @param crdt The copy.
+     */
+    private void writeCrdt(SaveFiles files, NoteCrdt crdt) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            crdt.writeTo(bytes);
+            // Kept, so that the next save updates it instead of creating another one.
+            files.crdtFile = this.writeFile(files.crdtFile, files.fileName + CRDT_FILE_SUFFIX,
+                    new ByteArrayContent(SAVE_FILE_TYPE, bytes.toByteArray()),
+                    Collections.singletonMap(SAVE_VERSION_PROPERTY, files.getVersion()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a file. The file is given an ID up front, so that if an attempt whose answer was
+     * lost did create it, retrying does not create it twice.
+     * @param metadata The metadata of the file.
+     * @param content The contents of the file, or null if it starts out empty.
+     * @param fields The fields of the file to ask for.
+     * @return The file.
+     * @throws IOException If the file could not be created.
+     */
+    private File createFile(final File metadata, final AbstractInputStreamContent content,
+                            final String fields) throws IOException {
+        metadata.setId(this.nextFileId());
+        return this.retryPolicy.execute(new RetryPolicy.Call<File>() {
+            @Override
+            public File call(int attempt) throws IOException {
+                Drive.Files files = DriveService.this.service.files();
+                try {
+                    Drive.Files.Create create = content == null ? files.create(metadata)
+                            : files.create(metadata, content);
+                    if (content != null && content.getLength() < RESUMABLE_UPLOAD_THRESHOLD) {
+                        // Sent along with the metadata, rather than in a session of its own.
+                        create.getMediaHttpUploader().setDirectUploadEnabled(true);
+                    }
+                    return create.setFields(fields).execute();
+                } catch (HttpResponseException e) {
+                    if (attempt == 0 || e.getStatusCode() != STATUS_CONFLICT) {
+                        throw e;
+                    }
+                    // An earlier attempt created it after all.
+                    return files.get(metadata.getId()).setFields(fields).execute();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns an ID for a new file, asking Drive for more when there are none left.
+     * @return The ID.
+     * @throws IOException If no more IDs could be generated.
+     */
+    private String nextFileId() throws IOException {
+        if (this.spareFileIds.isEmpty()) {
+            List<String> ids = this.retryPolicy.execute(new RetryPolicy.Call<List<String>>() {
+                @Override
+                public List<String> call(int attempt) throws IOException {
+                    return DriveService.this.service.files().generateIds()
+                            .setSpace(APPDATAFOLDER)
+                            .setCount(FILE_ID_BATCH_SIZE)
+                            .execute()
+                            .getIds();
+                }
+            });
+            this.spareFileIds.addAll(ids);
+        }
+        return this.spareFileIds.remove();
     }
 
     /**
@@ -183,44 +905,68 @@ public class DriveService {
     }*/
 
     /**
-     * Update the data file. Throws IO exception whenever
+     * Update the data file. Large data is uploaded in chunks, picking up where an earlier upload
+     * of the same data left off. Throws IO exception whenever
+     * @param fileID The id of the data file.
+     * @param fileName The name of the data file.
      * @param data The data.
+     * @param generation The number of times the data file has been rewritten.
+     * @param listener The listener to tell whenever a chunk of large data was received, or null.
+     * @return The data file, as it is after the update.
      */
-    private void updateData(String data) throws IOException {
+    private File updateData(final String fileID, String fileName, SaveData data, int generation,
+                            ResumableUpload.ProgressListener listener) throws IOException {
 
         // Create a new File.
-        File metadata = new File().setName(SAVE_FILE_NAME);
+        final File metadata = new File().setName(fileName)
+                .setAppProperties(Collections.singletonMap(GENERATION_PROPERTY,
+                        Integer.toString(generation)));
 
-        // Convert content to an AbstractInputStreamContent instance.
-        // This means we don't actually have to create a new file.
-        ByteArrayContent contentStream = ByteArrayContent.fromString(SAVE_FILE_TYPE, data);
+        if (data.getEncodedLength() >= RESUMABLE_UPLOAD_THRESHOLD) {
+            File file = this.resumableUpload.upload(fileID, metadata, data, COMPRESS_SAVE_FILE,
+                    FILE_FIELDS, listener);
+            this.resumableUpload.clear();
+            return file;
+        }
 
-        // Update the metadata and contents.
-        String fileID = this.getSaveFileID();
+        // Wrap the content in an AbstractInputStreamContent instance that encodes it while it is
+        // being sent. This means we don't actually have to create a new file.
+        final SaveDataContent contentStream = new SaveDataContent(SAVE_FILE_TYPE, data,
+                COMPRESS_SAVE_FILE);
 
-        // Update the metadata and contents.
-        this.service.files().update(fileID, metadata, contentStream).execute();
+        // Writing the same contents again is harmless, so this can simply be retried.
+        return this.retryPolicy.execute(new RetryPolicy.Call<File>() {
+            @Override
+            public File call(int attempt) throws IOException {
+                // Update the metadata and contents in a single request, so the content is
+                // streamed.
+                Drive.Files.Update update = DriveService.this.service.files()
+                        .update(fileID, metadata, contentStream);
+                update.getMediaHttpUploader().setDirectUploadEnabled(true);
+                // Ask for what the version is worked out from, so it does not have to be listed.
+                update.setFields(FILE_FIELDS);
+                return update.execute();
+            }
+        });
     }
 
     /**
      * Creates a new data file and uploads it.
+     * @param fileName The name of the data file.
      * @param data The data.
-     * @return True if creation was successful, False if it wasn't.
+     * @param listener The listener to tell whenever a chunk of large data was received, or null.
+     * @return The data file.
      */
-    private boolean createAndUpload(String data) throws IOException {
+    private File createAndUpload(String fileName, SaveData data,
+                                 ResumableUpload.ProgressListener listener) throws IOException {
 
         File fileMetadata = new File()
-                .setSpaces(Collections.singletonList(APPDATAFOLDER))
+                .setParents(Collections.singletonList(APPDATAFOLDER))
                 .setMimeType(SAVE_FILE_TYPE)
-                .setName(SAVE_FILE_NAME);
+                .setName(fileName);
 
-        File file = this.service.files().create(fileMetadata).execute();
-        // Let user know of failure.
-        if (file == null) {
-            return false;
-        }
-        this.updateData(data);
-        return true;
+        File file = this.createFile(fileMetadata, null, "id");
+        return this.updateData(file.getId(), fileName, data, 0, listener);
     }
 
     /**
@@ -228,42 +974,352 @@ public class DriveService {
      */
     public void printFileNames() {
 
-        setBusy(true);
         Log.d(DRIVE_SERVICE_TAG, "Files: ");
 
-        // File searcher.
-        Drive.Files.List fileSearch;
         try {
-            fileSearch = this.service.files().list();
-            // Where to search.
-            fileSearch.setSpaces(APPDATAFOLDER);
-            // Start search.
-            FileList files = fileSearch.execute();
-
-            // Look for the right file and return it.
-            for (File file : files.getFiles()) {
-                Log.d(DRIVE_SERVICE_TAG, file.getName());
-            }
-            setBusy(false);
+            // Print every page as it arrives, asking for nothing but the names.
+            this.lister.list(null, "name", new DriveFileLister.PageListener() {
+                @Override
+                public void onPageListed(List<File> files) {
+                    for (File file : files) {
+                        Log.d(DRIVE_SERVICE_TAG, file.getName());
+                    }
+                }
+            });
         } catch (IOException e) {
-            setBusy(false);
             e.printStackTrace();
         }
     }
 
     /**
-     * Checks whether or not Service is busy.
-     * @return True for yes, False for no.
+     * Closes the given stream, ignoring any errors.
+     * @param closeable The stream to close. May be null.
      */
-    public boolean isBusy() {
-        return isBusy;
+    private void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Sets whether or not Service is busy.
-     * @param busy True for yes, False for no.
+     * Interface for receiving the data while it is being downloaded.
      */
-    private void setBusy(boolean busy) {
-        isBusy = busy;
+    public interface DownloadProgressListener {
+
+        /**
+         * The data did not change since it was last downloaded or uploaded, so it was not
+         * downloaded again. Nothing else is called.
+         */
+        void onDataUnchanged();
+
+        /**
+         * The header of the data was downloaded.
+         * @param fontSize The size of the font stored with the data.
+         */
+        void onHeaderDownloaded(int fontSize);
+
+        /**
+         * The next chunk of items was downloaded.
+         * @param items The items, in order.
+         */
+        void onItemsDownloaded(List<ItemViewData> items);
+
+        /**
+         * The changes saved after the items were downloaded. Called after every item was passed on.
+         * @param changes The changes, in order.
+         */
+        void onChangesDownloaded(List<EditOperation> changes);
+    }
+
+    /**
+     * How an upload went.
+     */
+    public enum UploadResult {
+
+        // Everything was uploaded.
+        SUCCESS,
+
+        // The upload failed. Unless it failed before anything was written, it is unknown what
+        // made it to Drive.
+        FAILED,
+
+        // Nothing was uploaded, since the note was saved from somewhere else in the meantime.
+        CONFLICT
+    }
+
+    /**
+     * A note as it is saved on Drive, along with the version of its save files.
+     */
+    public static class RemoteNote {
+
+        private SaveData data;
+
+        private String version;
+
+        // The copy of the note that can be merged without conflicts, or null if there is none.
+        private NoteCrdt crdt;
+
+        // Whether or not the copy matches the note, rather than an older version of it.
+        private boolean crdtCurrent;
+
+        RemoteNote(SaveData data, String version, NoteCrdt crdt, boolean crdtCurrent) {
+            this.data = data;
+            this.version = version;
+            this.crdt = crdt;
+            this.crdtCurrent = crdtCurrent;
+        }
+
+        /**
+         * Returns the note.
+         * @return The note, or null if it is not saved on Drive.
+         */
+        public SaveData getData() {
+            return this.data;
+        }
+
+        /**
+         * Returns the version of the save files the note was read from.
+         * @return The version, or null if the note is not saved on Drive.
+         */
+        public String getVersion() {
+            return this.version;
+        }
+
+        /**
+         * Returns the copy of the note that can be merged without conflicts. It may be missing
+         * edits made to the note, if it could not be written along with them.
+         * @return The copy, or null if there is none.
+         */
+        public NoteCrdt getCrdt() {
+            return this.crdt;
+        }
+
+        /**
+         * Returns whether or not the copy of the note matches the note.
+         * @return True for yes, False for no.
+         */
+        public boolean isCrdtCurrent() {
+            return this.crdtCurrent;
+        }
+    }
+
+    /**
+     * Collects a downloaded note as a whole, instead of passing it on in chunks.
+     */
+    private static class SaveDataCollector implements DownloadProgressListener {
+
+        private NoteDocument document = new NoteDocument();
+
+        private int fontSize;
+
+        // Whether or not the changes saved after the save file could be applied to it.
+        private boolean valid = true;
+
+        @Override
+        public void onDataUnchanged() {
+            // Never called, since the whole note is always downloaded.
+        }
+
+        @Override
+        public void onHeaderDownloaded(int fontSize) {
+            this.fontSize = fontSize;
+        }
+
+        @Override
+        public void onItemsDownloaded(List<ItemViewData> items) {
+            this.document.addAll(items);
+        }
+
+        @Override
+        public void onChangesDownloaded(List<EditOperation> changes) {
+            try {
+                for (EditOperation change : changes) {
+                    change.apply(this.document);
+                }
+            } catch (IndexOutOfBoundsException e) {
+                e.printStackTrace();
+                this.valid = false;
+            }
+        }
+
+        /**
+         * Returns the collected note.
+         * @return The note, or null if the changes did not apply to it.
+         */
+        SaveData toSaveData() {
+            return this.valid ? new SaveData(this.document.toList(), this.fontSize) : null;
+        }
+    }
+
+    /**
+     * The save file of a note, along with the files holding changes saved after it.
+     */
+    private static class SaveFiles {
+
+        // Name of the save file.
+        private String fileName;
+
+        // Names of the files of changes start with this.
+        private String changesFilePrefix;
+
+        // The save file, or null if it does not exist. Holds its ID, version and modifiedTime.
+        private File saveFile;
+
+        // Number of times the save file has been rewritten.
+        private int generation = 0;
+
+        // Files of changes to the current save file, in the order they were saved.
+        private ArrayList<File> changesFiles = new ArrayList<>();
+
+        // Sequence number of the last file of changes, or 0 if there are none.
+        private int lastSequence = 0;
+
+        // Files of changes to older versions of the save file, which are no longer needed.
+        private ArrayList<File> staleFiles = new ArrayList<>();
+
+        // The copy of the note that can be merged without conflicts, or null if there is none.
+        private File crdtFile;
+
+        /**
+         * Sorts out the files of the appDataFolder that belong to the given save file.
+         * @param fileName The name of the save file.
+         * @param files The files.
+         */
+        SaveFiles(String fileName, List<File> files) {
+            this.fileName = fileName;
+            this.changesFilePrefix = fileName + CHANGES_FILE_INFIX;
+            for (File file : files) {
+                if (file.getName().equals(fileName)) {
+                    this.setSaveFile(file);
+                } else if (file.getName().equals(fileName + CRDT_FILE_SUFFIX)) {
+                    this.crdtFile = file;
+                }
+            }
+            for (File file : files) {
+                if (!file.getName().startsWith(this.changesFilePrefix)) {
+                    continue;
+                }
+                String[] parts = file.getName().substring(this.changesFilePrefix.length())
+                        .split("\\.");
+                if (parts.length == 2 && parseNumber(parts[0]) == this.generation
+                        && parseNumber(parts[1]) >= 0) {
+                    this.changesFiles.add(file);
+                    this.lastSequence = Math.max(this.lastSequence, parseNumber(parts[1]));
+                } else {
+                    this.staleFiles.add(file);
+                }
+            }
+            Collections.sort(this.changesFiles, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    return Integer.compare(getSequence(first), getSequence(second));
+                }
+            });
+        }
+
+        /**
+         * Copies the given save files, so that the copy can be changed on its own.
+         * @param files The save files.
+         */
+        SaveFiles(SaveFiles files) {
+            this.fileName = files.fileName;
+            this.changesFilePrefix = files.changesFilePrefix;
+            this.saveFile = files.saveFile;
+            this.generation = files.generation;
+            this.changesFiles.addAll(files.changesFiles);
+            this.lastSequence = files.lastSequence;
+            this.staleFiles.addAll(files.staleFiles);
+            this.crdtFile = files.crdtFile;
+        }
+
+        /**
+         * Returns the name of the next file of changes to the current save file.
+         * @return The name.
+         */
+        String getNextChangesFileName() {
+            return this.changesFilePrefix + this.generation + "." + (this.lastSequence + 1);
+        }
+
+        /**
+         * Checks whether or not the given file is the save file as it is known here, rather than
+         * a version of it written since.
+         * @param file The file, as it is on Drive.
+         * @return True for yes, False for no.
+         */
+        boolean isSaveFile(File file) {
+            return this.saveFile != null && this.saveFile.getId().equals(file.getId())
+                    && String.valueOf(this.saveFile.getVersion())
+                            .equals(String.valueOf(file.getVersion()))
+                    && String.valueOf(this.saveFile.getMd5Checksum())
+                            .equals(String.valueOf(file.getMd5Checksum()));
+        }
+
+        /**
+         * Returns a version that changes whenever the save file, or the files of changes saved
+         * after it, change.
+         * @return The version, or null if there is no save file.
+         */
+        String getVersion() {
+            if (this.saveFile == null) {
+                return null;
+            }
+            return this.saveFile.getId() + ":" + this.saveFile.getVersion() + ":"
+                    + this.saveFile.getMd5Checksum() + ":" + this.generation + "."
+                    + this.lastSequence + "." + this.changesFiles.size();
+        }
+
+        /**
+         * Sets the save file, as it is after being written. Every file of changes is assumed to
+         * be part of it, or deleted.
+         * @param file The save file.
+         */
+        void setSaveFile(File file) {
+            this.saveFile = file;
+            this.generation = 0;
+            Map<String, String> properties = file.getAppProperties();
+            if (properties != null && properties.containsKey(GENERATION_PROPERTY)) {
+                this.generation = Math.max(0, parseNumber(properties.get(GENERATION_PROPERTY)));
+            }
+            this.changesFiles.clear();
+            this.lastSequence = 0;
+            this.staleFiles.clear();
+        }
+
+        /**
+         * Adds a file of changes that was just saved after the others.
+         * @param file The file.
+         */
+        void addChangesFile(File file) {
+            this.changesFiles.add(file);
+            this.lastSequence = getSequence(file);
+        }
+
+        /**
+         * Returns the sequence number of the given file of changes.
+         * @param file The file.
+         * @return The sequence number.
+         */
+        private static int getSequence(File file) {
+            String name = file.getName();
+            return parseNumber(name.substring(name.lastIndexOf('.') + 1));
+        }
+
+        /**
+         * Parses the given non-negative number.
+         * @param number The number as a String.
+         * @return The number, or -1 if it is not a valid number.
+         */
+        private static int parseNumber(String number) {
+            try {
+                return Integer.parseInt(number);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.example.notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps track of the changes made to a note since it was last saved, so that only the changes
+ * have to be uploaded rather than the whole note. Changes to the structure of the note are
+ * recorded as they happen. Changes to the text of an item are only marked on the item itself,
+ * and are collected when the changes are taken.
+ */
+public class EditLog {
+
+    // Bytes that every file of changes starts with.
+    final private static byte[] MAGIC = {'N', 'O', 'P', 'S'};
+
+    // Version of the format of the file of changes.
+    final private static int VERSION = 1;
+
+    private ArrayList<EditOperation> operations = new ArrayList<>();
+
+    // Whether or not the note matches what is saved, apart from the recorded changes.
+    private boolean synced = false;
+
+    /**
+     * Records that an item was inserted.
+     * @param index Where the item was inserted.
+     * @param item The item.
+     */
+    public void recordInsert(int index, ItemViewData item) {
+        this.operations.add(EditOperation.insert(index, item));
+    }
+
+    /**
+     * Records that an item was removed.
+     * @param index Where the item was.
+     */
+    public void recordRemove(int index) {
+        this.operations.add(EditOperation.remove(index));
+    }
+
+    /**
+     * Records that an item was moved.
+     * @param fromIndex Where the item was.
+     * @param toIndex Where the item was moved to.
+     */
+    public void recordMove(int fromIndex, int toIndex) {
+        this.operations.add(EditOperation.move(fromIndex, toIndex));
+    }
+
+    /**
+     * Returns whether or not the note matches what is saved, apart from the recorded changes. If
+     * not, the changes alone are not enough, and the whole note has to be saved.
+     * @return True for yes, False for no.
+     */
+    public boolean isSynced() {
+        return this.synced;
+    }
+
+    /**
+     * Sets whether or not the note matches what is saved, apart from the recorded changes.
+     * @param synced True for yes, False for no.
+     */
+    public void setSynced(boolean synced) {
+        this.synced = synced;
+    }
+
+    /**
+     * Returns every change made since the changes were last taken, and starts recording anew.
+     * Items whose text changed are added as replacements at their current position. The changes
+     * hold copies of the items as they are now, so they can be written on another thread while
+     * the note is still being edited.
+     * @param document The document that the changes were made to.
+     * @return The changes, in order.
+     */
+    public List<EditOperation> takeChanges(NoteDocument document) {
+        ArrayList<EditOperation> changes = this.operations;
+        this.operations = new ArrayList<>();
+        int index = 0;
+        for (ItemViewData item : document) {
+            if (item.isChanged()) {
+                changes.add(EditOperation.set(index, item));
+                item.clearChanged();
+            }
+            index ++;
+        }
+        return changes;
+    }
+
+    /**
+     * Puts back changes that were taken but could not be saved, ahead of any changes made since.
+     * @param changes The changes.
+     */
+    public void restoreChanges(List<EditOperation> changes) {
+        ArrayList<EditOperation> restored = new ArrayList<>(changes.size()
+                + this.operations.size());
+        restored.addAll(changes);
+        restored.addAll(this.operations);
+        this.operations = restored;
+    }
+
+    /**
+     * Writes the given changes to the given stream. The stream is not closed.
+     * @param out The stream.
+     * @param changes The changes.
+     * @throws IOException If the stream could not be written to.
+     */
+    public static void write(OutputStream out, List<EditOperation> changes) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(changes.size());
+        for (EditOperation change : changes) {
+            change.writeTo(data);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads changes from the given stream. The stream is not closed.
+     * @param in The stream.
+     * @return The changes, in order.
+     * @throws IOException If the stream could not be read, or the changes are corrupt.
+     */
+    public static List<EditOperation> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Corrupt edit log: invalid header.");
+        }
+        int version = data.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported edit log version: " + version);
+        }
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt edit log: negative count.");
+        }
+        ArrayList<EditOperation> changes = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i ++) {
+            changes.add(EditOperation.readFrom(data));
+        }
+        return changes;
+    }
+}
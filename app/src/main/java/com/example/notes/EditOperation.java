@@ -0,0 +1,149 @@
+package com.example.notes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A single change made to the items of a note: inserting, removing, replacing or moving an item.
+ * Replaying the changes in order on the note they were made to gives the changed note.
+ */
+public class EditOperation {
+
+    // Constants for use in identifying which kind of change this is.
+    final public static int INSERT = 0;
+    final public static int REMOVE = 1;
+    final public static int SET = 2;
+    final public static int MOVE = 3;
+
+    private int kind;
+
+    private int index;
+
+    // Where the item was moved to. Only used by MOVE.
+    private int toIndex;
+
+    // The new item. Only used by INSERT and SET.
+    private ItemViewData item;
+
+    /**
+     * Creates a new change.
+     * @param kind The kind of change.
+     * @param index The position of the item that changed.
+     * @param toIndex Where the item was moved to, for MOVE.
+     * @param item The new item, for INSERT and SET.
+     */
+    private EditOperation(int kind, int index, int toIndex, ItemViewData item) {
+        this.kind = kind;
+        this.index = index;
+        this.toIndex = toIndex;
+        this.item = item;
+    }
+
+    /**
+     * Returns a change that inserts a copy of the given item.
+     * @param index Where the item was inserted.
+     * @param item The item.
+     * @return The change.
+     */
+    public static EditOperation insert(int index, ItemViewData item) {
+        return new EditOperation(INSERT, index, 0, copy(item));
+    }
+
+    /**
+     * Returns a change that removes an item.
+     * @param index Where the item was.
+     * @return The change.
+     */
+    public static EditOperation remove(int index) {
+        return new EditOperation(REMOVE, index, 0, null);
+    }
+
+    /**
+     * Returns a change that replaces an item with a copy of the given item.
+     * @param index Where the item is.
+     * @param item The new item.
+     * @return The change.
+     */
+    public static EditOperation set(int index, ItemViewData item) {
+        return new EditOperation(SET, index, 0, copy(item));
+    }
+
+    /**
+     * Returns a change that moves an item.
+     * @param fromIndex Where the item was.
+     * @param toIndex Where the item was moved to.
+     * @return The change.
+     */
+    public static EditOperation move(int fromIndex, int toIndex) {
+        return new EditOperation(MOVE, fromIndex, toIndex, null);
+    }
+
+    /**
+     * Makes the change to the given document.
+     * @param document The document.
+     */
+    public void apply(NoteDocument document) {
+        switch (this.kind) {
+            case INSERT:
+                document.insert(this.index, copy(this.item));
+                break;
+            case REMOVE:
+                document.remove(this.index);
+                break;
+            case SET:
+                document.set(this.index, copy(this.item));
+                break;
+            case MOVE:
+                document.move(this.index, this.toIndex);
+                break;
+        }
+    }
+
+    /**
+     * Writes the change to the given stream.
+     * @param out The stream.
+     * @throws IOException If the stream could not be written to.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(this.kind);
+        out.writeInt(this.index);
+        if (this.kind == MOVE) {
+            out.writeInt(this.toIndex);
+        } else if (this.kind == INSERT || this.kind == SET) {
+            SaveDataWriter.writeItem(out, this.item);
+        }
+    }
+
+    /**
+     * Reads a change from the given stream.
+     * @param in The stream.
+     * @return The change.
+     * @throws IOException If the stream could not be read, or the change is corrupt.
+     */
+    static EditOperation readFrom(DataInputStream in) throws IOException {
+        int kind = in.readUnsignedByte();
+        int index = in.readInt();
+        switch (kind) {
+            case INSERT:
+            case SET:
+                return new EditOperation(kind, index, 0,
+                        SaveDataReader.readItem(in, SaveDataWriter.VERSION));
+            case REMOVE:
+                return new EditOperation(kind, index, 0, null);
+            case MOVE:
+                return new EditOperation(kind, index, in.readInt(), null);
+            default:
+                throw new IOException("Corrupt edit log: unknown operation " + kind);
+        }
+    }
+
+    /**
+     * Returns a copy of the given item, so that later edits to either one do not affect the other.
+     * @param item The item.
+     * @return The copy.
+     */
+    private static ItemViewData copy(ItemViewData item) {
+        return new ItemViewData(item.getData(), item.getViewType(), item.getHash());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.notes;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Works out how the items of a note differ from the ones being displayed, so that only the items
+ * that changed are inserted, removed and bound again, instead of every item. Working it out takes
+ * a while for long notes, so it is meant to be done in the background.
+ */
+public class ItemDiff extends DiffUtil.Callback {
+
+    private List<ItemViewData> oldItems;
+
+    private List<ItemViewData> newItems;
+
+    /**
+     * Creates a new comparison between two lists of items.
+     * @param oldItems The items being displayed.
+     * @param newItems The items to display instead.
+     */
+    private ItemDiff(List<ItemViewData> oldItems, List<ItemViewData> newItems) {
+        this.oldItems = oldItems;
+        this.newItems = newItems;
+    }
+
+    /**
+     * Works out how the given items differ. Can be called from any thread, as long as the items
+     * do not change in the meantime.
+     * @param oldItems The items being displayed.
+     * @param newItems The items to display instead.
+     * @return The difference, to pass to RecyclerViewAdapter.applyDisplayData.
+     */
+    public static DiffUtil.DiffResult calculate(List<ItemViewData> oldItems,
+                                               List<ItemViewData> newItems) {
+        // Items are never moved by syncing, so do not look for moves, which is much slower.
+        return DiffUtil.calculateDiff(new ItemDiff(oldItems, newItems), false);
+    }
+
+    @Override
+    public int getOldListSize() {
+        return this.oldItems.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return this.newItems.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        ItemViewData oldItem = this.oldItems.get(oldItemPosition);
+        ItemViewData newItem = this.newItems.get(newItemPosition);
+        // Items keep their IDs while they are edited, and merging keeps them where it can, but
+        // items changed elsewhere may be new, so those can only be matched by their data.
+        return (oldItem.getId() == newItem.getId()
+                && oldItem.getViewType() == newItem.getViewType())
+                || hasSameData(oldItem, newItem);
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return hasSameData(this.oldItems.get(oldItemPosition),
+                this.newItems.get(newItemPosition));
+    }
+
+    /**
+     * Checks whether or not two items hold the same data, whatever their IDs.
+     * @param oldItem The first item.
+     * @param newItem The second item.
+     * @return True for yes, False for no.
+     */
+    static boolean hasSameData(ItemViewData oldItem, ItemViewData newItem) {
+        if (oldItem.getViewType() != newItem.getViewType()) {
+            return false;
+        }
+        if (oldItem.getViewType() == ItemViewData.TYPE_PHOTO) {
+            return equal(oldItem.getHash(), newItem.getHash())
+                    && oldItem.getData().equals(newItem.getData());
+        }
+        return oldItem.getDataLength() == newItem.getDataLength()
+                && oldItem.getData().equals(newItem.getData());
+    }
+
+    /**
+     * Checks whether or not two Strings that may be null are equal.
+     * @param first The first String.
+     * @param second The second String.
+     * @return True for yes, False for no.
+     */
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
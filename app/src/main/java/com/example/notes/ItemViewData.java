@@ -1,5 +1,7 @@
 package com.example.notes;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A class for purposes of storing data for a single ItemView in a RecyclerView.
  */
@@ -9,9 +11,26 @@ public class ItemViewData implements TextChangeListener {
     final public static int TYPE_PHOTO = 0;
     final public static int TYPE_TEXT = 1;
 
+    // ID that no item has, for items that are to be given a new one.
+    final public static long NO_ID = 0;
+
+    // Highest ID given to an item so far, or read from a save file.
+    private static AtomicLong lastId = new AtomicLong(NO_ID);
+
+    // Identifies the item for as long as it exists, while its data changes. Unique within the
+    // note, and kept in the save format, so that the same item keeps it across restarts.
+    private long id;
+
     private int viewType;
 
-    private String data;
+    // Text of the item, or the location/uri for photos.
+    private LineBuffer data;
+
+    // Whether or not the data changed since the changes were last collected.
+    private boolean changed = false;
+
+    // Hash of the contents of a photo. Null for text, and for photos not kept in the PhotoStore.
+    private String hash;
 
     /**
      * Create a new wrapper for a ItemView.
@@ -19,13 +38,73 @@ public class ItemViewData implements TextChangeListener {
      * @param viewType The type. Will set type to TYPE_TEXT if invalid input.
      */
     public ItemViewData(String data, int viewType) {
-        this.data = data;
+        this(data, viewType, null);
+    }
+
+    /**
+     * Create a new wrapper for a ItemView.
+     * @param data The data.
+     * @param viewType The type. Will set type to TYPE_TEXT if invalid input.
+     * @param hash The hash of the contents of the photo, or null if there is none.
+     */
+    public ItemViewData(String data, int viewType, String hash) {
+        this(data, viewType, hash, NO_ID);
+    }
+
+    /**
+     * Create a new wrapper for a ItemView.
+     * @param data The data.
+     * @param viewType The type. Will set type to TYPE_TEXT if invalid input.
+     * @param hash The hash of the contents of the photo, or null if there is none.
+     * @param id The ID of the item, or NO_ID to give it a new one.
+     */
+    public ItemViewData(String data, int viewType, String hash, long id) {
+        this.id = id == NO_ID ? nextId() : reserveId(id);
+        this.data = new LineBuffer(data);
         this.viewType = viewType;
+        this.hash = hash;
         if (this.viewType != TYPE_PHOTO && this.viewType != TYPE_TEXT) {
             this.viewType = TYPE_TEXT;
         }
     }
 
+    /**
+     * Returns a new ID, higher than any given out or read so far.
+     * @return The ID.
+     */
+    private static long nextId() {
+        return lastId.incrementAndGet();
+    }
+
+    /**
+     * Makes sure that the given ID, which was read from somewhere, is never given out as a new
+     * one.
+     * @param id The ID.
+     * @return The ID.
+     */
+    private static long reserveId(long id) {
+        long last = lastId.get();
+        while (id > last && !lastId.compareAndSet(last, id)) {
+            last = lastId.get();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the ID of the item.
+     * @return The ID.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gives the item a new ID, such as when another item of the note already has its ID.
+     */
+    public void renewId() {
+        this.id = nextId();
+    }
+
     /**
      * Returns what kind type this ItemView is.
      * @return The type.
@@ -36,11 +115,28 @@ public class ItemViewData implements TextChangeListener {
 
     /**
      * Returns the data associated with this ItemView instance. If it is text data, it will return
-     * the text, whereas if it is photo, it will have the uri.
+     * the text, whereas if it is photo, it will have the location of the photo within the
+     * PhotoStore, or the uri if it has no hash.
      * @return The data.
      */
     public String getData() {
-        return data;
+        return data.toString();
+    }
+
+    /**
+     * Returns the length of the data, without turning it into a String.
+     * @return The length.
+     */
+    public int getDataLength() {
+        return data.length();
+    }
+
+    /**
+     * Returns the hash of the contents of the photo, used to identify it within the PhotoStore.
+     * @return The hash, or null if there is none.
+     */
+    public String getHash() {
+        return hash;
     }
 
     /**
@@ -48,11 +144,34 @@ public class ItemViewData implements TextChangeListener {
      * @param appendData The data to append.
      */
     public void appendData(String appendData) {
-        this.data += appendData;
+        this.data.append(appendData);
+        this.changed = true;
+    }
+
+    /**
+     * Returns whether or not the data changed since the changes were last collected.
+     * @return True for yes, False for no.
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * Marks the changes to the data as collected.
+     */
+    public void clearChanged() {
+        this.changed = false;
     }
 
     @Override
-    public void onTextChanged(String newText) {
-        this.data = newText;
+    public void onTextChanged(CharSequence text, int start, int before, int count) {
+        if (start + before <= this.data.length()) {
+            this.data.replace(start, start + before, text, start, start + count);
+        }
+        // Should never happen, but if the edit did not line up, take the whole text instead.
+        if (this.data.length() != text.length()) {
+            this.data.set(text);
+        }
+        this.changed = true;
     }
 }
@@ -0,0 +1,145 @@
+package com.example.notes;
+
+/**
+ * Gap buffer holding the text of a single line. Edits are made in place at the gap, so typing
+ * and deleting at the cursor does not copy the rest of the line. The text is only turned into a
+ * String when it is asked for, and that String is kept until the next edit. Lines that are never
+ * edited only hold their String.
+ */
+public class LineBuffer {
+
+    final private static int MIN_GAP = 16;
+
+    // Null until the first edit.
+    private char[] buffer;
+
+    // The gap is the range [gapStart, gapEnd) of the buffer.
+    private int gapStart;
+    private int gapEnd;
+
+    // The text as a String, or null if it changed since it was last asked for.
+    private String text;
+
+    /**
+     * Creates a new buffer holding the given text.
+     * @param text The text.
+     */
+    public LineBuffer(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Returns the number of characters in the line.
+     * @return The length.
+     */
+    public int length() {
+        if (this.buffer == null) {
+            return this.text.length();
+        }
+        return this.buffer.length - (this.gapEnd - this.gapStart);
+    }
+
+    /**
+     * Replaces the characters in [start, end) of the line with the characters in
+     * [replacementStart, replacementEnd) of the replacement.
+     * @param start Where the replaced range starts.
+     * @param end Where the replaced range ends.
+     * @param replacement Holds the new characters.
+     * @param replacementStart Where the new characters start.
+     * @param replacementEnd Where the new characters end.
+     */
+    public void replace(int start, int end, CharSequence replacement, int replacementStart,
+                        int replacementEnd) {
+        if (start < 0 || end < start || end > this.length()) {
+            throw new IndexOutOfBoundsException("Invalid range [" + start + ", " + end
+                    + ") for length " + this.length());
+        }
+        if (this.buffer == null) {
+            this.createBuffer();
+        }
+        this.moveGap(start);
+        // Deleting just widens the gap.
+        this.gapEnd += end - start;
+
+        int count = replacementEnd - replacementStart;
+        this.ensureGap(count);
+        for (int i = replacementStart; i < replacementEnd; i ++) {
+            this.buffer[this.gapStart ++] = replacement.charAt(i);
+        }
+        this.text = null;
+    }
+
+    /**
+     * Adds the given text to the end of the line.
+     * @param append The text.
+     */
+    public void append(CharSequence append) {
+        int length = this.length();
+        this.replace(length, length, append, 0, append.length());
+    }
+
+    /**
+     * Replaces the whole line with the given text.
+     * @param text The text.
+     */
+    public void set(CharSequence text) {
+        this.replace(0, this.length(), text, 0, text.length());
+    }
+
+    /**
+     * Copies the String into a new buffer, with the gap at the end.
+     */
+    private void createBuffer() {
+        this.buffer = new char[this.text.length() + MIN_GAP];
+        this.text.getChars(0, this.text.length(), this.buffer, 0);
+        this.gapStart = this.text.length();
+        this.gapEnd = this.buffer.length;
+    }
+
+    /**
+     * Moves the gap so that it starts at the given position.
+     * @param position The position.
+     */
+    private void moveGap(int position) {
+        if (position < this.gapStart) {
+            int count = this.gapStart - position;
+            System.arraycopy(this.buffer, position, this.buffer, this.gapEnd - count, count);
+            this.gapStart -= count;
+            this.gapEnd -= count;
+        } else if (position > this.gapStart) {
+            int count = position - this.gapStart;
+            System.arraycopy(this.buffer, this.gapEnd, this.buffer, this.gapStart, count);
+            this.gapStart += count;
+            this.gapEnd += count;
+        }
+    }
+
+    /**
+     * Grows the buffer if needed so that the gap can hold at least the given number of characters.
+     * @param size The number of characters.
+     */
+    private void ensureGap(int size) {
+        if (this.gapEnd - this.gapStart >= size) {
+            return;
+        }
+        int length = this.length();
+        int capacity = Math.max(this.buffer.length * 2, length + size + MIN_GAP);
+        char[] grown = new char[capacity];
+        System.arraycopy(this.buffer, 0, grown, 0, this.gapStart);
+        int tail = this.buffer.length - this.gapEnd;
+        System.arraycopy(this.buffer, this.gapEnd, grown, capacity - tail, tail);
+        this.buffer = grown;
+        this.gapEnd = capacity - tail;
+    }
+
+    @Override
+    public String toString() {
+        if (this.text == null) {
+            StringBuilder builder = new StringBuilder(this.length());
+            builder.append(this.buffer, 0, this.gapStart);
+            builder.append(this.buffer, this.gapEnd, this.buffer.length - this.gapEnd);
+            this.text = builder.toString();
+        }
+        return this.text;
+    }
+}
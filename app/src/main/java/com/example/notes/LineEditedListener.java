@@ -0,0 +1,14 @@
+package com.example.notes;
+
+/**
+ * Listener that should be notified whenever the user edits the text of a line.
+ */
+public interface LineEditedListener {
+
+    /**
+     * The text of a line was just edited.
+     * @param position Position within RecyclerView of the line, or RecyclerView.NO_POSITION if
+     * it is not known.
+     */
+    void onLineEdited(int position);
+}
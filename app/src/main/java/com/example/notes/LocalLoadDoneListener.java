@@ -0,0 +1,14 @@
+package com.example.notes;
+
+/**
+ * Interface that is responsible for letting user know that the note stored on the device has
+ * just been read.
+ */
+public interface LocalLoadDoneListener {
+
+    /**
+     * Handle the note that was read.
+     * @param data The note, or null if none is stored or it could not be read.
+     */
+    void onLocalLoadComplete(SaveData data);
+}
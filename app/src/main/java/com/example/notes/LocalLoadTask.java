@@ -0,0 +1,46 @@
+package com.example.notes;
+
+import android.os.AsyncTask;
+
+import androidx.core.os.TraceCompat;
+
+import java.util.List;
+
+/**
+ * Task that is responsible for reading the note stored on the device, recovering any changes
+ * that were journaled before the app was closed.
+ */
+public class LocalLoadTask extends AsyncTask<Void, Void, SaveData> {
+
+    private LocalNoteStore store;
+    private List<LocalLoadDoneListener> listeners;
+
+    /**
+     * Creates a new task that reads the note from the given store.
+     * @param store The store.
+     * @param listeners The listeners to notify when the note has been read.
+     */
+    public LocalLoadTask(LocalNoteStore store, List<LocalLoadDoneListener> listeners) {
+        this.store = store;
+        this.listeners = listeners;
+    }
+
+    @Override
+    protected SaveData doInBackground(Void... voids) {
+        // Shows up in systrace, as part of startup.
+        TraceCompat.beginSection("LocalNoteStore.load");
+        try {
+            return this.store.load();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    @Override
+    protected void onPostExecute(SaveData data) {
+        super.onPostExecute(data);
+        for (LocalLoadDoneListener listener : this.listeners) {
+            listener.onLocalLoadComplete(data);
+        }
+    }
+}
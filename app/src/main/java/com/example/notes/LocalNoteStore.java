@@ -0,0 +1,788 @@
+package com.example.notes;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a copy of the note in the app`s own storage, so that it survives the app being closed or
+ * killed. The copy is a snapshot of the whole note, followed by a journal of the changes made
+ * since. Changes are collected on the main thread and appended to the journal in batches on a
+ * background thread, with a single fsync per batch. Once the journal grows too long, a new
+ * snapshot is written instead, and the journal starts over.
+ *
+ * Every journal record is its length, followed by a CRC32 of the change, followed by the change
+ * in the same encoding as the files of changes on Drive. A record that was only partly written
+ * when the app died fails its check, and it and everything after it is dropped on recovery. The
+ * snapshot and the journal both hold the number of the checkpoint they belong to, so a journal
+ * left over from before the latest snapshot is never replayed onto it. The snapshot also records
+ * whether or not it matches what is saved on Drive; any change journaled after it means it no
+ * longer does.
+ *
+ * Next to them is the base: the note as it was last downloaded or uploaded, which is what changes
+ * made here and changes saved elsewhere are merged from. If the note is merged without conflicts,
+ * its copy that records every change is kept there too.
+ */
+public class LocalNoteStore {
+
+    // Files of the note that was kept before there could be more than one. Every other note has
+    // its ID between the name and the extension.
+    final private static String SNAPSHOT_FILE = "note.snapshot";
+    final private static String JOURNAL_FILE = "note.journal";
+    final private static String BASE_FILE = "note.base";
+    final private static String CRDT_FILE = "note.crdt";
+
+    // Bytes that the snapshot and the journal start with.
+    final private static byte[] SNAPSHOT_MAGIC = {'N', 'S', 'N', 'P'};
+    final private static byte[] JOURNAL_MAGIC = {'N', 'J', 'N', 'L'};
+
+    // Version of the format of the snapshot and the journal. Snapshots only record whether or not
+    // they match what is saved from version 2 on.
+    final private static int VERSION = 2;
+
+    // Magic, version and checkpoint number.
+    final private static int HEADER_LENGTH = 4 + 2 + 8;
+
+    // Length and CRC32 in front of every journal record.
+    final private static int RECORD_HEADER_LENGTH = 4 + 4;
+
+    // Largest journal record that will be accepted. Anything bigger means the record is corrupt.
+    final private static int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    // How long to collect changes for before writing them out, in milliseconds.
+    final private static long FLUSH_DELAY = 1000;
+
+    // Length of the journal after which a new snapshot is written instead.
+    final private static long MAX_JOURNAL_LENGTH = 1024 * 1024;
+
+    private File snapshotFile;
+    private File journalFile;
+    private File baseFile;
+    private File crdtFile;
+
+    // Writes the files, one task at a time and in order.
+    private ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private Handler handler = new Handler(Looper.getMainLooper());
+
+    // Where to get the note from when a new snapshot is needed. Null until started.
+    private SnapshotSource source;
+
+    // Changes made since the last batch was written. Only used on the main thread.
+    private ArrayList<PendingChange> pending = new ArrayList<>();
+
+    // Number of the latest snapshot.
+    private long checkpoint = 0;
+
+    // Whether or not the loaded note matches what is saved on Drive.
+    private boolean synced = false;
+
+    // Length the journal will have once every batch handed to the writer is written.
+    private long journalLength = 0;
+
+    // Whether or not a flush is waiting to run.
+    private boolean flushScheduled = false;
+
+    // Set when a write failed, so the files no longer match the note, or the position of a
+    // change was not known. The next flush writes a new snapshot. Only used on the main thread
+    // once the store is started; the writer posts its failures there.
+    private boolean needsCheckpoint = false;
+
+    // The journal, while it is open for appending, and the number of the snapshot it belongs to.
+    // Only used by the writer.
+    private FileOutputStream journalOut;
+    private long journalCheckpoint;
+
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            LocalNoteStore.this.flushScheduled = false;
+            LocalNoteStore.this.flush();
+        }
+    };
+
+    /**
+     * Creates a new store that keeps the given note in the storage of the given Context.
+     * @param context The Context.
+     * @param noteId The ID of the note.
+     */
+    public LocalNoteStore(Context context, String noteId) {
+        File directory = context.getApplicationContext().getFilesDir();
+        this.snapshotFile = new File(directory, getFileName(SNAPSHOT_FILE, noteId));
+        this.journalFile = new File(directory, getFileName(JOURNAL_FILE, noteId));
+        this.baseFile = new File(directory, getFileName(BASE_FILE, noteId));
+        this.crdtFile = new File(directory, getFileName(CRDT_FILE, noteId));
+    }
+
+    /**
+     * Returns the name of the file of the given note.
+     * @param fileName The name of the file of the note that was kept before there could be more
+     * than one.
+     * @param noteId The ID of the note.
+     * @return The name.
+     */
+    private static String getFileName(String fileName, String noteId) {
+        if (NoteInfo.DEFAULT_ID.equals(noteId)) {
+            return fileName;
+        }
+        int extension = fileName.lastIndexOf('.');
+        return fileName.substring(0, extension) + "." + noteId + fileName.substring(extension);
+    }
+
+    /**
+     * Reads the stored note: the snapshot, with every change in the journal replayed onto it. A
+     * journal with a damaged end is cut off after its last intact record. Reads the whole note,
+     * so should not be called on the main thread, and must be called before the store is started.
+     * @return The note, or null if none is stored or it could not be read.
+     */
+    public SaveData load() {
+        this.synced = false;
+        NoteDocument document;
+        int fontSize;
+        DataInputStream in = null;
+        try {
+            if (!this.snapshotFile.exists()) {
+                return null;
+            }
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(this.snapshotFile)));
+            int version = readHeader(in, SNAPSHOT_MAGIC);
+            this.checkpoint = in.readLong();
+            boolean synced = version >= 2 && in.readBoolean();
+            SaveData snapshot = SaveData.readFrom(in);
+            document = new NoteDocument(snapshot.getItems());
+            fontSize = snapshot.getFontSize();
+            this.synced = synced;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+        if (this.replayJournal(document)) {
+            this.synced = false;
+        }
+        return new SaveData(document.toList(), fontSize);
+    }
+
+    /**
+     * Returns whether or not the loaded note matches what is saved on Drive, without any changes
+     * made since it was last downloaded or uploaded.
+     * @return True for yes, False for no.
+     */
+    public boolean isSynced() {
+        return this.synced;
+    }
+
+    /**
+     * Replays the changes in the journal onto the given note, and cuts off whatever could not be
+     * replayed. A journal that belongs to another snapshot is deleted.
+     * @param document The note, as it is in the snapshot.
+     * @return Whether or not any change was replayed.
+     */
+    private boolean replayJournal(NoteDocument document) {
+        this.journalLength = 0;
+        if (!this.journalFile.exists()) {
+            return false;
+        }
+        long validLength = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(this.journalFile)));
+            readHeader(in, JOURNAL_MAGIC);
+            if (in.readLong() != this.checkpoint) {
+                throw new IOException("Journal does not belong to the snapshot.");
+            }
+            validLength = HEADER_LENGTH;
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = in.readInt();
+                int expected = in.readInt();
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+                EditOperation.readFrom(new DataInputStream(new ByteArrayInputStream(record)))
+                        .apply(document);
+                validLength += RECORD_HEADER_LENGTH + length;
+            }
+        } catch (EOFException e) {
+            // The end of the journal, or a record that was only partly written.
+        } catch (IOException | IndexOutOfBoundsException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (validLength == 0) {
+            this.journalFile.delete();
+            return false;
+        }
+        this.journalLength = validLength;
+        if (this.journalFile.length() > validLength) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(this.journalFile, "rw");
+                file.setLength(validLength);
+            } catch (IOException e) {
+                e.printStackTrace();
+                // Records appended after the damage would never be replayed.
+                this.needsCheckpoint = true;
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        return validLength > HEADER_LENGTH;
+    }
+
+    /**
+     * Starts recording changes. A new snapshot of the note is written first, so that the changes
+     * recorded from now on apply to it.
+     * @param source Where to get the note from whenever a new snapshot is needed.
+     */
+    public void start(SnapshotSource source) {
+        this.source = source;
+        this.checkpoint(source.getSaveData(), this.synced);
+    }
+
+    /**
+     * Records that an item was inserted.
+     * @param index Where the item was inserted.
+     * @param item The item.
+     */
+    public void recordInsert(int index, ItemViewData item) {
+        this.record(new PendingChange(EditOperation.insert(index, item)));
+    }
+
+    /**
+     * Records that an item was removed.
+     * @param index Where the item was.
+     */
+    public void recordRemove(int index) {
+        this.record(new PendingChange(EditOperation.remove(index)));
+    }
+
+    /**
+     * Records that an item was moved.
+     * @param fromIndex Where the item was.
+     * @param toIndex Where the item was moved to.
+     */
+    public void recordMove(int fromIndex, int toIndex) {
+        this.record(new PendingChange(EditOperation.move(fromIndex, toIndex)));
+    }
+
+    /**
+     * Records that the text of an item changed. The text is only copied once the batch is
+     * written, so typing into the same item only records it once per batch.
+     * @param index Where the item is.
+     * @param item The item.
+     */
+    public void recordEdit(int index, ItemViewData item) {
+        if (!this.pending.isEmpty()) {
+            PendingChange last = this.pending.get(this.pending.size() - 1);
+            if (last.item == item && last.index == index) {
+                return;
+            }
+        }
+        this.record(new PendingChange(index, item));
+    }
+
+    /**
+     * Records that something changed without knowing exactly what, so a new snapshot is needed.
+     */
+    public void recordUnknownChange() {
+        this.needsCheckpoint = true;
+        this.scheduleFlush();
+    }
+
+    /**
+     * Adds a change to the batch, and makes sure the batch will be written.
+     * @param change The change.
+     */
+    private void record(PendingChange change) {
+        this.pending.add(change);
+        this.scheduleFlush();
+    }
+
+    /**
+     * Makes sure the batch will be written once enough time has passed.
+     */
+    private void scheduleFlush() {
+        if (this.source == null || this.flushScheduled) {
+            return;
+        }
+        this.flushScheduled = true;
+        this.handler.postDelayed(this.flushRunnable, FLUSH_DELAY);
+    }
+
+    /**
+     * Hands the changes collected so far to the writer, without waiting for the rest of the
+     * batch. Writes a new snapshot instead if one is needed.
+     */
+    public void flush() {
+        if (this.source == null) {
+            return;
+        }
+        this.handler.removeCallbacks(this.flushRunnable);
+        this.flushScheduled = false;
+        // Anything journaled means the note no longer matches what is saved.
+        if (this.needsCheckpoint || this.journalLength > MAX_JOURNAL_LENGTH) {
+            this.checkpoint(this.source.getSaveData(), false);
+            return;
+        }
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        final byte[] records;
+        try {
+            records = this.encodePending();
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.checkpoint(this.source.getSaveData(), false);
+            return;
+        }
+        this.pending.clear();
+        this.journalLength += records.length;
+
+        final long checkpoint = this.checkpoint;
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                LocalNoteStore.this.appendJournal(checkpoint, records);
+            }
+        });
+    }
+
+    /**
+     * Stops recording changes, writes out the ones that were collected, and lets the writer go
+     * once it is done. The store can not be used afterwards.
+     */
+    public void close() {
+        this.flush();
+        this.source = null;
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly(LocalNoteStore.this.journalOut);
+                LocalNoteStore.this.journalOut = null;
+            }
+        });
+        this.writer.shutdown();
+    }
+
+    /**
+     * Writes a new snapshot of the note, replacing the old snapshot and the journal. Changes that
+     * were not written yet are part of the snapshot, so they are dropped. If the snapshot can not
+     * be written, the old snapshot and journal are kept as they are, nothing is appended to them
+     * any more, and the next flush tries again.
+     * @param data The note.
+     * @param synced Whether or not the note matches what is saved on Drive.
+     */
+    public void checkpoint(final SaveData data, final boolean synced) {
+        this.handler.removeCallbacks(this.flushRunnable);
+        this.flushScheduled = false;
+        this.pending.clear();
+        this.needsCheckpoint = false;
+        this.checkpoint ++;
+        this.journalLength = 0;
+
+        final long checkpoint = this.checkpoint;
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                LocalNoteStore.this.writeSnapshot(checkpoint, data, synced);
+            }
+        });
+    }
+
+    /**
+     * Replaces the base: the note as it was last downloaded or uploaded.
+     * @param data The note.
+     */
+    public void saveBase(final SaveData data) {
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                LocalNoteStore.this.writeFile(LocalNoteStore.this.baseFile, new FileContents() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        data.writeTo(out);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the base: the note as it was last downloaded or uploaded. Reads the whole note, so
+     * should not be called on the main thread.
+     * @return The note, or null if there is no base or it could not be read.
+     */
+    public SaveData loadBase() {
+        if (!this.baseFile.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(this.baseFile));
+            return SaveData.readFrom(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replaces the copy of the note that records every change, for merging without conflicts.
+     * The copy is written on the writer, so it must not be changed afterwards.
+     * @param crdt The copy.
+     */
+    public void saveCrdt(final NoteCrdt crdt) {
+        this.writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                LocalNoteStore.this.writeFile(LocalNoteStore.this.crdtFile, new FileContents() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        crdt.writeTo(out);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the copy of the note that records every change. Waits for every write handed to the
+     * writer before, so that the latest copy is read, and should not be called on the main thread.
+     * @param replicaId The ID of this device.
+     * @return The copy, or null if there is none or it could not be read.
+     */
+    public NoteCrdt loadCrdt(final String replicaId) {
+        try {
+            return this.writer.submit(new Callable<NoteCrdt>() {
+                @Override
+                public NoteCrdt call() throws IOException {
+                    File file = LocalNoteStore.this.crdtFile;
+                    if (!file.exists()) {
+                        return null;
+                    }
+                    InputStream in = new BufferedInputStream(new FileInputStream(file));
+                    try {
+                        return NoteCrdt.readFrom(in, replicaId);
+                    } finally {
+                        closeQuietly(in);
+                    }
+                }
+            }).get();
+        } catch (InterruptedException | ExecutionException | RejectedExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the collected changes as journal records.
+     * @return The records.
+     * @throws IOException If a change could not be encoded.
+     */
+    private byte[] encodePending() throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        CRC32 crc = new CRC32();
+        for (PendingChange change : this.pending) {
+            record.reset();
+            change.toOperation().writeTo(recordOut);
+            recordOut.flush();
+            crc.reset();
+            crc.update(record.toByteArray(), 0, record.size());
+            recordsOut.writeInt(record.size());
+            recordsOut.writeInt((int) crc.getValue());
+            record.writeTo(recordsOut);
+        }
+        recordsOut.flush();
+        return records.toByteArray();
+    }
+
+    /**
+     * Appends records to the journal and syncs it to the disk. Runs on the writer.
+     * @param checkpoint The number of the snapshot the records apply to.
+     * @param records The records.
+     */
+    private void appendJournal(long checkpoint, byte[] records) {
+        try {
+            if (this.journalOut != null && this.journalCheckpoint != checkpoint) {
+                closeQuietly(this.journalOut);
+                this.journalOut = null;
+            }
+            if (this.journalOut == null) {
+                boolean isNew = this.journalFile.length() == 0;
+                // A journal left over from a snapshot that could not be replaced belongs to the
+                // snapshot still on the disk, which the records do not apply to.
+                if (!isNew && this.readJournalCheckpoint() != checkpoint) {
+                    throw new IOException("Journal does not belong to the snapshot.");
+                }
+                this.journalOut = new FileOutputStream(this.journalFile, true);
+                this.journalCheckpoint = checkpoint;
+                if (isNew) {
+                    this.journalOut.write(createHeader(JOURNAL_MAGIC, checkpoint));
+                }
+            }
+            this.journalOut.write(records);
+            this.journalOut.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(this.journalOut);
+            this.journalOut = null;
+            this.requestCheckpoint(checkpoint);
+        }
+    }
+
+    /**
+     * Reads the number of the snapshot the journal belongs to. Runs on the writer.
+     * @return The number.
+     * @throws IOException If the header of the journal could not be read.
+     */
+    private long readJournalCheckpoint() throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(this.journalFile));
+        try {
+            readHeader(in, JOURNAL_MAGIC);
+            return in.readLong();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Has the next flush write a new snapshot, since a write for the given snapshot failed. Runs
+     * on the writer, and hands the request to the main thread, where it is dropped if another
+     * snapshot was asked for since.
+     * @param checkpoint The number of the snapshot the failed write was for.
+     */
+    private void requestCheckpoint(final long checkpoint) {
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (checkpoint == LocalNoteStore.this.checkpoint) {
+                    LocalNoteStore.this.needsCheckpoint = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and renames it over the old one once it is safely
+     * on the disk, then deletes the journal. Runs on the writer.
+     * @param checkpoint The number of the snapshot.
+     * @param data The note.
+     * @param synced Whether or not the note matches what is saved on Drive.
+     */
+    private void writeSnapshot(long checkpoint, SaveData data, boolean synced) {
+        File temp = new File(this.snapshotFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+            dataOut.write(createHeader(SNAPSHOT_MAGIC, checkpoint));
+            dataOut.writeBoolean(synced);
+            data.writeTo(dataOut);
+            dataOut.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(this.snapshotFile)) {
+                throw new IOException("Unable to replace " + this.snapshotFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(out);
+            temp.delete();
+            // The old snapshot and journal still match each other, so they are kept. Records for
+            // the new snapshot are not appended to the journal, since its header does not match.
+            closeQuietly(this.journalOut);
+            this.journalOut = null;
+            this.requestCheckpoint(checkpoint);
+            return;
+        }
+        // The journal belongs to the old snapshot now. A new one is started on the next append.
+        closeQuietly(this.journalOut);
+        this.journalOut = null;
+        this.journalFile.delete();
+    }
+
+    /**
+     * Writes a file to a temporary file and renames it over the old one once it is safely on the
+     * disk. Runs on the writer.
+     * @param file The file.
+     * @param contents What to write into it.
+     */
+    private void writeFile(File file, FileContents contents) {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+            contents.writeTo(bufferedOut);
+            bufferedOut.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Returns the header of the snapshot or the journal.
+     * @param magic The bytes that the file starts with.
+     * @param checkpoint The number of the snapshot.
+     * @return The header.
+     */
+    private static byte[] createHeader(byte[] magic, long checkpoint) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(magic);
+            out.writeShort(VERSION);
+            out.writeLong(checkpoint);
+        } catch (IOException e) {
+            // Never happens when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the header of the snapshot or the journal, up to the number of the snapshot.
+     * @param in The stream to read from.
+     * @param magic The bytes that the file should start with.
+     * @return The version of the format.
+     * @throws IOException If the header is invalid.
+     */
+    private static int readHeader(DataInputStream in, byte[] magic) throws IOException {
+        byte[] read = new byte[magic.length];
+        in.readFully(read);
+        if (!Arrays.equals(read, magic)) {
+            throw new IOException("Corrupt local note: invalid header.");
+        }
+        int version = in.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported local note version: " + version);
+        }
+        return version;
+    }
+
+    /**
+     * Closes the given stream, ignoring any errors.
+     * @param closeable The stream to close. May be null.
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Interface for getting the whole note whenever a new snapshot is needed.
+     */
+    public interface SnapshotSource {
+
+        /**
+         * Returns the note as it is now. Must not change when the note is edited later on.
+         * @return The note.
+         */
+        SaveData getSaveData();
+    }
+
+    /**
+     * What to write into a file.
+     */
+    private interface FileContents {
+
+        /**
+         * Writes the contents to the given stream.
+         * @param out The stream to write to.
+         * @throws IOException If the stream could not be written to.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A change that has not been written yet. Edits to the text of an item keep the item itself,
+     * and are only turned into a change once they are written.
+     */
+    private static class PendingChange {
+
+        // The change, or null for an edit.
+        private EditOperation operation;
+
+        // The position and the item that was edited. Only used for edits.
+        private int index;
+        private ItemViewData item;
+
+        PendingChange(EditOperation operation) {
+            this.operation = operation;
+        }
+
+        PendingChange(int index, ItemViewData item) {
+            this.index = index;
+            this.item = item;
+        }
+
+        /**
+         * Returns the change to write.
+         * @return The change.
+         */
+        EditOperation toOperation() {
+            if (this.operation != null) {
+                return this.operation;
+            }
+            return EditOperation.set(this.index, this.item);
+        }
+    }
+}
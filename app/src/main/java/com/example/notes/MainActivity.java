@@ -5,6 +5,7 @@ import android.app.Activity;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -16,8 +17,10 @@ import androidx.appcompat.app.ActionBarDrawerToggle;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
+import androidx.core.os.TraceCompat;
 import androidx.core.view.GravityCompat;
 import androidx.drawerlayout.widget.DrawerLayout;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -41,10 +44,12 @@ import com.google.api.services.drive.DriveScopes;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity
         implements NavigationView.OnNavigationItemSelectedListener, DownloadDoneListener,
-        UploadDoneListener {
+        UploadDoneListener, PhotoImportDoneListener, LocalLoadDoneListener, SyncCheckDoneListener,
+        AutoSaveListener, SyncStateListener, NotesListedListener, MergeDoneListener {
 
     // Tag used for debugging.
     final private static String MAIN_ACTIVITY_TAG = "Main Activity:";
@@ -61,6 +66,12 @@ public class MainActivity extends AppCompatActivity
     // Request code to capture photo.
     final private static int REQUEST_CODE_PHOTO = 3;
 
+    // Key of the preference holding the ID of the note that was open last.
+    final private static String CURRENT_NOTE_KEY = "current_note";
+
+    // Position of the first note in the drawer, after New Note and before Settings.
+    final private static int NOTE_ITEM_ORDER = 1;
+
     // The layout that contains the loading screen.
     private LinearLayout loadingScreen;
 
@@ -82,11 +93,250 @@ public class MainActivity extends AppCompatActivity
     // Helper to manage files.
     private DriveService service;
 
+    // Runs the operations on Drive in the background.
+    private SyncScheduler syncScheduler = new SyncScheduler();
+
+    // Makes sure only one operation on Drive runs at a time, and queues the rest.
+    private SyncStateMachine syncState = new SyncStateMachine();
+
+    // Saves the note while it is being edited. Only enabled once it is known that the note being
+    // edited is the one that is saved, or the user chose to keep it.
+    private AutoSaver autoSaver = new AutoSaver(this);
+
+    // ID of the note being edited.
+    private String currentNoteId;
+
+    // The notes listed in the drawer, in order. Empty until they have been listed.
+    private List<NoteInfo> notes = new ArrayList<>();
+
+    // Copy of the note kept on the device.
+    private LocalNoteStore localStore;
+
+    // Whether or not a note was found on the device at startup.
+    private boolean hasLocalNote = false;
+
+    // Whether or not the current download or upload runs behind the note being edited, in which
+    // case neither the loading screen nor a message on success is shown.
+    private boolean quietSync = false;
+
+    // The data being uploaded, which is what both copies are merged from once it is saved.
+    private SaveData uploadingData;
+
+    // Number of changes the user had made when the current merge, or download behind the note
+    // being edited, started.
+    private int syncChangeCount;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        this.setupComponents();
-        this.signIn();
+        StartupTrace.start();
+        TraceCompat.beginSection("MainActivity.onCreate");
+        try {
+            this.setupComponents();
+            this.loadLocalData();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Nothing is left to pass the results on to.
+        this.autoSaver.cancel();
+        this.syncState.clearQueue();
+        this.syncScheduler.shutdown();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The app may be killed from here on, so write out what has been typed.
+        this.autoSaver.saveNow();
+        if (this.localStore != null) {
+            this.localStore.flush();
+        }
+    }
+
+    /**
+     * Reads the note that was open last from the device, so that it can be edited straight away
+     * and changes made before the app was closed are not lost. Signs in once it has been read.
+     */
+    private void loadLocalData() {
+        this.currentNoteId = this.getPreferences(MODE_PRIVATE).getString(CURRENT_NOTE_KEY,
+                NoteInfo.DEFAULT_ID);
+        this.localStore = new LocalNoteStore(this, this.currentNoteId);
+        LocalLoadTask task = new LocalLoadTask(this.localStore,
+                Collections.singletonList((LocalLoadDoneListener) this));
+        task.execute();
+    }
+
+    @Override
+    public void onLocalLoadComplete(SaveData data) {
+        this.hasLocalNote = data != null && data.isValid();
+        if (this.hasLocalNote) {
+            this.adapter.setDisplayData(data);
+            if (this.localStore.isSynced()) {
+                this.adapter.markSynced();
+            }
+            // The note can be edited straight away, while signing in and syncing happen behind it.
+            this.stopLoadScreen();
+            StartupTrace.mark("Local note editable");
+        }
+        // Record every change from now on, on top of what was read.
+        this.adapter.setLocalStore(this.localStore);
+        if (this.service != null) {
+            // Another note was opened, after signing in.
+            this.syncAfterSignIn();
+        } else {
+            this.silentSignIn();
+        }
+    }
+
+    /**
+     * Switches to the given note once nothing else is running on Drive. Changes to the note being
+     * edited are saved first; they are kept on the device either way.
+     * @param noteId The ID of the note.
+     * @param isNew Whether or not the note is a new one, which is not saved anywhere yet.
+     */
+    private void openNote(final String noteId, final boolean isNew) {
+        if (noteId.equals(this.currentNoteId)) {
+            return;
+        }
+        if (this.syncState.isBusy()) {
+            Snackbar message = Snackbar.make(this.background, getString(R.string.note_busy_msg),
+                    Snackbar.LENGTH_LONG);
+            message.show();
+            return;
+        }
+        if (this.service != null && this.adapter.hasUnsavedChanges()) {
+            this.autoSaver.cancel();
+            this.saveData(true);
+        }
+        this.syncState.runOrQueue(SyncStateMachine.Kind.SWITCH, new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.this.switchNote(noteId, isNew);
+            }
+        });
+    }
+
+    /**
+     * Stops editing the current note, and starts editing the given one. A new note starts out
+     * empty; any other note is read from the device, and synced like at startup.
+     * @param noteId The ID of the note.
+     * @param isNew Whether or not the note is a new one, which is not saved anywhere yet.
+     */
+    private void switchNote(String noteId, boolean isNew) {
+        // Whatever was left to save of the last note belongs to it, not to this one, and is
+        // saved from its copy on the device the next time it is opened.
+        this.syncState.clearQueue();
+        this.autoSaver.cancel();
+        this.autoSaver.setEnabled(false);
+        this.adapter.setLocalStore(null);
+        this.localStore.close();
+
+        this.currentNoteId = noteId;
+        this.getPreferences(MODE_PRIVATE).edit().putString(CURRENT_NOTE_KEY, noteId).apply();
+        this.localStore = new LocalNoteStore(this, noteId);
+        this.adapter.setDisplayData(new SaveData(Collections.singletonList(
+                new ItemViewData("", ItemViewData.TYPE_TEXT)), this.adapter.getTextSize()));
+        this.showNotes();
+
+        if (isNew) {
+            this.hasLocalNote = true;
+            this.adapter.setLocalStore(this.localStore);
+            this.stopLoadScreen();
+            this.autoSaver.setEnabled(true);
+        } else {
+            this.hasLocalNote = false;
+            this.startLoadScreen(getString(R.string.loading_message));
+            LocalLoadTask task = new LocalLoadTask(this.localStore,
+                    Collections.singletonList((LocalLoadDoneListener) this));
+            task.execute();
+        }
+    }
+
+    /**
+     * Lists the notes saved on Drive in the drawer, if signed in.
+     */
+    private void listNotes() {
+        if (this.service != null) {
+            this.syncScheduler.listNotes(this.service, this);
+        }
+    }
+
+    @Override
+    public void onNotesListed(List<NoteInfo> notes) {
+        // Keep whatever was listed before if they could not be listed.
+        if (notes != null) {
+            this.notes = notes;
+            this.showNotes();
+        }
+    }
+
+    /**
+     * Shows the notes that were listed in the drawer, with the one being edited checked.
+     */
+    private void showNotes() {
+        NavigationView navigationView = findViewById(R.id.nav_view);
+        Menu menu = navigationView.getMenu();
+        menu.removeGroup(R.id.nav_notes);
+        for (int i = 0; i < this.notes.size(); i ++) {
+            NoteInfo note = this.notes.get(i);
+            String title = note.getTitle().isEmpty() ? getString(R.string.untitled_note)
+                    : note.getTitle();
+            MenuItem item = menu.add(R.id.nav_notes, Menu.FIRST + i, NOTE_ITEM_ORDER + i, title);
+            item.setCheckable(true);
+            item.setChecked(note.getId().equals(this.currentNoteId));
+        }
+    }
+
+    /**
+     * Signs in to Google without asking the user, using the account they signed in with before.
+     * Only asks the user if that is not possible and there is no note to edit in the meantime.
+     */
+    private void silentSignIn() {
+        GoogleSignInAccount account = GoogleSignIn.getLastSignedInAccount(this);
+        if (account != null && GoogleSignIn.hasPermissions(account,
+                new Scope(DriveScopes.DRIVE_APPDATA))) {
+            this.onSignedIn(account);
+            return;
+        }
+        this.buildGoogleSignInClient().silentSignIn()
+                .addOnSuccessListener(new OnSuccessListener<GoogleSignInAccount>() {
+                    @Override
+                    public void onSuccess(GoogleSignInAccount googleSignInAccount) {
+                        MainActivity.this.onSignedIn(googleSignInAccount);
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(Exception e) {
+                        MainActivity.this.onSilentSignInFailed();
+                    }
+                });
+    }
+
+    /**
+     * Handles case where signing in without asking the user failed.
+     */
+    private void onSilentSignInFailed() {
+        if (!this.hasLocalNote) {
+            this.signIn();
+            return;
+        }
+        // Don't interrupt editing; let the user sign in when they are ready.
+        StartupTrace.finish("Not signed in");
+        Snackbar message = Snackbar.make(this.background, getString(R.string.sign_in_needed_msg),
+                Snackbar.LENGTH_INDEFINITE);
+        message.setAction(R.string.sign_in_action, new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                MainActivity.this.signIn();
+            }
+        });
+        message.show();
     }
 
     /**
@@ -108,12 +358,21 @@ public class MainActivity extends AppCompatActivity
         ActionBarDrawerToggle toggle = new ActionBarDrawerToggle(
                 this, drawer, toolbar, R.string.navigation_drawer_open, R.string.navigation_drawer_close);
         drawer.addDrawerListener(toggle);
+        drawer.addDrawerListener(new DrawerLayout.SimpleDrawerListener() {
+            @Override
+            public void onDrawerOpened(View drawerView) {
+                // Notes may have been added or renamed since, here or on another device.
+                MainActivity.this.listNotes();
+            }
+        });
         toggle.syncState();
         navigationView.setNavigationItemSelectedListener(this);
 
         // Setup adapter and RecyclerView.
         this.adapter = new RecyclerViewAdapter(this,
                 new ArrayList<ItemViewData>(0), this.recyclerView);
+        this.adapter.setNoteChangedListener(this.autoSaver);
+        this.syncState.addListener(this);
         // Attach Callback so that this helper will notify the callback, which will in turn notify
         // adapter.
         ItemTouchHelper.Callback callback = new ItemMoveCallback(this.adapter);
@@ -203,11 +462,33 @@ public class MainActivity extends AppCompatActivity
                     Uri photoUri = data.getParcelableExtra("photo");
                     if (photoUri == null)
                         break;
-                    this.adapter.addData(new ItemViewData(photoUri.toString(), ItemViewData.TYPE_PHOTO));
+                    this.importPhoto(photoUri);
                 }
         }
     }
 
+    /**
+     * Copies the photo into the app`s own storage, so that it can be displayed again after the
+     * note is reloaded. The photo is added once it has been copied.
+     * @param photoUri The Uri of the photo.
+     */
+    private void importPhoto(Uri photoUri) {
+        PhotoImportTask task = new PhotoImportTask(new PhotoStore(this), photoUri,
+                Collections.singletonList((PhotoImportDoneListener) this));
+        task.execute();
+    }
+
+    @Override
+    public void onPhotoImportComplete(ItemViewData item) {
+        if (item != null) {
+            this.adapter.addData(item);
+        } else {
+            Snackbar message = Snackbar.make(this.background,
+                    getString(R.string.photo_import_failed_msg), Snackbar.LENGTH_LONG);
+            message.show();
+        }
+    }
+
     /**
      * Sign in was successful, so handle it.
      * @param result The data.
@@ -218,20 +499,7 @@ public class MainActivity extends AppCompatActivity
                 .addOnSuccessListener(new OnSuccessListener<GoogleSignInAccount>() {
                     @Override
                     public void onSuccess(GoogleSignInAccount googleSignInAccount) {
-                        // Use the authenticated account to sign in to the Drive service.
-                        GoogleAccountCredential credential =
-                                GoogleAccountCredential.usingOAuth2(MainActivity.this,
-                                        Collections.singleton(DriveScopes.DRIVE_APPDATA));
-                        credential.setSelectedAccount(googleSignInAccount.getAccount());
-                        JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
-                        Drive googleDriveService = new Drive.Builder(new NetHttpTransport(),
-                                jsonFactory, credential)
-                                .setApplicationName(getString(R.string.app_name))
-                                .build();
-
-                        // The DriveService encapsulates all REST API and SAF functionality.
-                        MainActivity.this.service = new DriveService(googleDriveService);
-                        MainActivity.this.loadData();
+                        MainActivity.this.onSignedIn(googleSignInAccount);
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
@@ -245,6 +513,164 @@ public class MainActivity extends AppCompatActivity
                 });
     }
 
+    /**
+     * Connects to Drive with the account that was signed in to, then syncs.
+     * @param account The account.
+     */
+    private void onSignedIn(GoogleSignInAccount account) {
+        StartupTrace.mark("Signed in");
+        // Use the authenticated account to sign in to the Drive service.
+        GoogleAccountCredential credential = GoogleAccountCredential.usingOAuth2(this,
+                Collections.singleton(DriveScopes.DRIVE_APPDATA));
+        credential.setSelectedAccount(account.getAccount());
+        JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+        Drive googleDriveService = new Drive.Builder(new NetHttpTransport(), jsonFactory,
+                credential)
+                .setApplicationName(getString(R.string.app_name))
+                .build();
+
+        // The DriveService encapsulates all REST API and SAF functionality.
+        this.service = new DriveService(googleDriveService, new SaveVersionStore(this),
+                new UploadSessionStore(this));
+        this.syncAfterSignIn();
+    }
+
+    /**
+     * Brings the note up to date with what is saved, once signed in. Without a note on the
+     * device, the saved note is loaded behind the loading screen. Otherwise the sync happens
+     * behind the note while it is being edited: if it has no unsaved changes, the saved note is
+     * only downloaded if it changed, and if it has, they are saved if the saved note did not
+     * change in the meantime, and merged with it if it did.
+     */
+    private void syncAfterSignIn() {
+        if (!this.hasLocalNote) {
+            this.loadData(false);
+        } else if (!this.adapter.hasUnsavedChanges()) {
+            this.loadData(true);
+        } else {
+            this.syncState.runOrQueue(SyncStateMachine.Kind.CHECK, new Runnable() {
+                @Override
+                public void run() {
+                    MainActivity.this.checkForChanges();
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks whether or not the saved note changed since it was last loaded or saved.
+     */
+    private void checkForChanges() {
+        if (!this.syncState.begin(SyncState.DOWNLOADING)) {
+            this.syncAfterSignIn();
+            return;
+        }
+        this.syncScheduler.checkForChanges(this.service, this.currentNoteId, this);
+    }
+
+    @Override
+    public void onSyncCheckComplete(Boolean changed) {
+        if (changed == null) {
+            this.syncState.finish(SyncState.ERROR);
+            StartupTrace.finish("Sync failed");
+            this.onDownloadFailed();
+        } else if (!changed) {
+            this.syncState.finish(SyncState.IDLE);
+            this.saveData(true);
+        } else {
+            // Both copies changed, so merge them before saving.
+            this.syncState.finish(SyncState.IDLE);
+            this.mergeData(true);
+        }
+    }
+
+    /**
+     * Merges the note being edited with the saved note once nothing else is running on Drive, from
+     * the version both were last known to be the same, and saves the result.
+     * @param quiet Whether or not to merge behind the note being edited, without the loading
+     * screen.
+     */
+    private void mergeData(final boolean quiet) {
+        this.syncState.runOrQueue(SyncStateMachine.Kind.MERGE, new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.this.startMerge(quiet);
+            }
+        });
+    }
+
+    /**
+     * Starts merging the note being edited with the saved note.
+     * @param quiet Whether or not to merge behind the note being edited, without the loading
+     * screen.
+     */
+    private void startMerge(boolean quiet) {
+        if (!this.syncState.begin(SyncState.DOWNLOADING)) {
+            this.mergeData(quiet);
+            return;
+        }
+        this.quietSync = quiet;
+        if (!quiet) {
+            this.startLoadScreen(getString(R.string.loading_message));
+        }
+        // Nothing may be saved until the saved note is part of the note being edited.
+        this.autoSaver.setEnabled(false);
+        this.syncChangeCount = this.adapter.getChangeCount();
+        this.syncScheduler.merge(this.service, this.currentNoteId, this.adapter.getSaveData(),
+                this.localStore, this.isCrdtSyncEnabled(), this);
+    }
+
+    /**
+     * Checks whether or not the user chose to merge notes without conflicts, using the copies of
+     * notes that can be merged that way.
+     * @return True for yes, False for no.
+     */
+    private boolean isCrdtSyncEnabled() {
+        return PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(getString(R.string.crdt_sync_pref), false);
+    }
+
+    @Override
+    public void onMergeComplete(NoteMerger.Result result, DriveService.RemoteNote remote,
+                                NoteCrdt crdt, DiffUtil.DiffResult diff) {
+        this.stopLoadScreen();
+        if (result == null) {
+            this.syncState.finish(SyncState.ERROR);
+            StartupTrace.finish("Sync failed");
+            this.onDownloadFailed();
+            return;
+        }
+        if (this.adapter.getChangeCount() != this.syncChangeCount) {
+            // Edited while merging, so the result is missing the latest changes. Merge again.
+            this.syncState.finish(SyncState.IDLE);
+            this.mergeData(this.quietSync);
+            return;
+        }
+        if (remote.getData() != null) {
+            // Only the lines that changed are displayed again, so the user can keep editing.
+            this.adapter.applyDisplayData(result.getData(), diff, false);
+            // What is saved is now part of the note, so it is what both are merged from next.
+            this.service.setKnownVersion(this.currentNoteId, remote.getVersion());
+            this.localStore.saveBase(remote.getData());
+        } else {
+            this.adapter.markUnsynced();
+        }
+        if (crdt != null) {
+            this.localStore.saveCrdt(crdt);
+        }
+        this.syncState.finish(result.getConflicts() > 0 ? SyncState.CONFLICT : SyncState.IDLE);
+        StartupTrace.finish("Merged");
+        this.autoSaver.setEnabled(true);
+        this.saveData(true);
+        if (result.getConflicts() > 0) {
+            Snackbar message = Snackbar.make(this.background,
+                    getString(R.string.merge_conflict_msg), Snackbar.LENGTH_LONG);
+            message.show();
+        } else {
+            this.onDownloadSuccess();
+        }
+    }
+
     /**
      * Handles case where Sign in to Google failed.
      */
@@ -256,25 +682,114 @@ public class MainActivity extends AppCompatActivity
     }
 
     /**
-     * Loads data from Google.
+     * Loads data from Google once nothing else is running on Drive. If the note being displayed
+     * was loaded or saved before, it is only downloaded again if it changed since.
+     * @param quiet Whether or not to load behind the note being edited, without the loading
+     * screen.
      */
-    private void loadData() {
-        this.startLoadScreen(getString(R.string.loading_message));
-        DataDownloadTask task = new DataDownloadTask(this.service, Collections.singletonList((
-                DownloadDoneListener) this));
-        task.execute();
+    private void loadData(final boolean quiet) {
+        this.syncState.runOrQueue(SyncStateMachine.Kind.LOAD, new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.this.startDownload(quiet);
+            }
+        });
+    }
+
+    /**
+     * Starts loading data from Google.
+     * @param quiet Whether or not to load behind the note being edited, without the loading
+     * screen.
+     */
+    private void startDownload(boolean quiet) {
+        if (!this.syncState.begin(SyncState.DOWNLOADING)) {
+            this.loadData(quiet);
+            return;
+        }
+        this.quietSync = quiet;
+        if (!quiet) {
+            this.startLoadScreen(getString(R.string.loading_message));
+        }
+        // The note is incomplete until the download is finished.
+        this.autoSaver.setEnabled(false);
+        // Behind the note being edited, replace only the lines that changed once the download is
+        // finished, rather than displaying the note again from the top while it downloads.
+        this.syncChangeCount = this.adapter.getChangeCount();
+        this.syncScheduler.download(this.service, this.currentNoteId, this.adapter.isSynced(),
+                quiet ? this.adapter.getSaveData() : null, this);
+    }
+
+    @Override
+    public void onDownloadStarted(int fontSize) {
+        // Show the note as soon as the first items arrive, rather than once all of them have.
+        this.stopLoadScreen();
+        this.adapter.startLoading(fontSize);
     }
 
     @Override
-    public void onDownloadComplete(SaveData saveData) {
+    public void onItemsDownloaded(List<ItemViewData> items) {
+        this.adapter.addLoadedData(items);
+    }
+
+    @Override
+    public void onDownloadComplete(boolean successful, List<EditOperation> changes,
+                                   String version) {
         this.stopLoadScreen();
-        if (saveData != null) {
-            this.onDownloadSuccess(saveData);
+        if (successful) {
+            successful = this.adapter.applyLoadedChanges(changes);
+        }
+        this.adapter.finishLoading(successful);
+        if (successful) {
+            // Only now is the note on this device the downloaded version.
+            this.service.setKnownVersion(this.currentNoteId, version);
+        }
+        this.syncState.finish(successful ? SyncState.IDLE : SyncState.ERROR);
+        StartupTrace.finish("Synced");
+        if (successful && !this.adapter.hasUnsavedChanges()) {
+            // The note is exactly what is saved, so it is what both copies are merged from.
+            this.localStore.saveBase(this.adapter.getSaveData());
+        }
+        if (successful) {
+            this.autoSaver.setEnabled(true);
+            this.onDownloadSuccess();
         } else {
             this.onDownloadFailed();
         }
     }
 
+    @Override
+    public void onDownloadDiffed(SaveData data, DiffUtil.DiffResult diff, String version) {
+        this.stopLoadScreen();
+        if (this.adapter.getChangeCount() != this.syncChangeCount) {
+            // Edited while downloading, so both changed, and have to be merged.
+            this.syncState.finish(SyncState.IDLE);
+            this.mergeData(this.quietSync);
+            return;
+        }
+        this.adapter.applyDisplayData(data, diff, true);
+        this.service.setKnownVersion(this.currentNoteId, version);
+        this.syncState.finish(SyncState.IDLE);
+        StartupTrace.finish("Synced");
+        // The note is exactly what is saved, so it is what both copies are merged from.
+        this.localStore.saveBase(this.adapter.getSaveData());
+        this.autoSaver.setEnabled(true);
+        this.onDownloadSuccess();
+    }
+
+    @Override
+    public void onDownloadSkipped() {
+        // The note being displayed is already up to date.
+        this.stopLoadScreen();
+        this.syncState.finish(SyncState.IDLE);
+        this.autoSaver.setEnabled(true);
+        StartupTrace.finish("Synced");
+        if (!this.adapter.hasUnsavedChanges()) {
+            // In case the base was never kept, such as for notes saved by older versions.
+            this.localStore.saveBase(this.adapter.getSaveData());
+        }
+        this.onDownloadSuccess();
+    }
+
     /**
      * Handles case where data download failed.
      */
@@ -286,10 +801,11 @@ public class MainActivity extends AppCompatActivity
 
     /**
      * Handles case where data download succeeded.
-     * @param saveData The data.
      */
-    private void onDownloadSuccess(SaveData saveData) {
-        this.adapter.setDisplayData(saveData);
+    private void onDownloadSuccess() {
+        if (this.quietSync) {
+            return;
+        }
         Snackbar message = Snackbar.make(this.background, getString(R.string.download_success_msg),
                 Snackbar.LENGTH_LONG);
         message.show();
@@ -297,18 +813,60 @@ public class MainActivity extends AppCompatActivity
     }
 
     /**
-     * Saves data onto Google appDataFolder.
+     * Saves data onto Google appDataFolder once nothing else is running on Drive.
+     * @param quiet Whether or not to save behind the note being edited, without the loading
+     * screen.
      */
-    private void saveData() {
-        this.startLoadScreen(getString(R.string.saving_message));
-        DataUploadTask task = new DataUploadTask(this.service, this.adapter.getSaveData(),
-                Collections.singletonList((UploadDoneListener) this));
-        task.execute();
+    private void saveData(final boolean quiet) {
+        this.syncState.runOrQueue(SyncStateMachine.Kind.SAVE, new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.this.startUpload(quiet);
+            }
+        });
+    }
+
+    /**
+     * Starts saving data onto Google appDataFolder.
+     * @param quiet Whether or not to save behind the note being edited, without the loading
+     * screen.
+     */
+    private void startUpload(boolean quiet) {
+        if (!this.syncState.begin(SyncState.UPLOADING)) {
+            this.saveData(quiet);
+            return;
+        }
+        this.quietSync = quiet;
+        if (!quiet) {
+            this.startLoadScreen(getString(R.string.saving_message));
+        }
+        this.autoSaver.onSaveStarted();
+        this.uploadingData = this.adapter.getSaveData();
+        this.syncScheduler.upload(this.service, this.currentNoteId, this.uploadingData,
+                this.adapter.takeChanges(), this.localStore, this.isCrdtSyncEnabled(), this);
     }
 
     @Override
-    public void onUploadComplete(boolean successful) {
+    public void onAutoSave() {
+        if (this.service != null && this.adapter.hasUnsavedChanges()) {
+            this.saveData(true);
+        }
+    }
+
+    @Override
+    public void onUploadComplete(boolean successful, List<EditOperation> changes) {
         this.stopLoadScreen();
+        this.adapter.onChangesSaved(changes, successful);
+        this.syncState.finish(successful ? SyncState.IDLE : SyncState.ERROR);
+        if (successful) {
+            // What is saved is now the note being edited, so the next changes can be saved too.
+            this.autoSaver.setEnabled(true);
+            this.localStore.saveBase(this.uploadingData);
+        }
+        this.uploadingData = null;
+        // Save whatever was changed while uploading.
+        this.autoSaver.onSaveComplete();
+        StartupTrace.finish("Synced");
         if (successful) {
             this.onUploadSuccess();
         } else {
@@ -316,10 +874,25 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    @Override
+    public void onUploadConflict(List<EditOperation> changes) {
+        // Saved from somewhere else in the meantime. Keep the changes, and merge before saving.
+        this.stopLoadScreen();
+        this.adapter.onChangesSaved(changes, false);
+        this.uploadingData = null;
+        this.syncState.finish(SyncState.IDLE);
+        this.autoSaver.setEnabled(false);
+        this.autoSaver.onSaveComplete();
+        this.mergeData(this.quietSync);
+    }
+
     /**
      * Handle situation where data upload was successful.
      */
     private void onUploadSuccess() {
+        if (this.quietSync) {
+            return;
+        }
         Snackbar message = Snackbar.make(this.background, getString(R.string.upload_success_msg),
                 Snackbar.LENGTH_LONG);
         message.show();
@@ -367,6 +940,21 @@ public class MainActivity extends AppCompatActivity
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem photoItem = menu.findItem(R.id.action_photo);
+        if (photoItem != null) {
+            photoItem.setEnabled(!this.syncState.isBusy());
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public void onSyncStateChanged(SyncState state) {
+        // Let the menu reflect what can be done now.
+        this.invalidateOptionsMenu();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -379,22 +967,26 @@ public class MainActivity extends AppCompatActivity
             this.signIn();
             return super.onOptionsItemSelected(item);
         }
-        if (this.service.isBusy()) {
-            return super.onOptionsItemSelected(item);
-        }
 
+        // Syncing and saving wait for whatever is running on Drive to finish.
         switch (id) {
             case R.id.action_sync:
-                if (!this.service.isBusy())
-                    this.loadData();
+                // Loading would overwrite the changes, so merge them with what is saved instead.
+                if (this.adapter.hasUnsavedChanges()) {
+                    this.mergeData(false);
+                } else {
+                    this.loadData(false);
+                }
                 break;
 
             case R.id.action_save:
-                if (!this.service.isBusy())
-                    this.saveData();
+                this.saveData(false);
                 break;
 
             case R.id.action_photo:
+                // Don't change the note while it is being loaded.
+                if (this.syncState.isBusy())
+                    break;
                 Intent intent = new Intent(this, PhotoActivity.class);
                 startActivityForResult(intent, REQUEST_CODE_PHOTO);
                 break;
@@ -408,7 +1000,11 @@ public class MainActivity extends AppCompatActivity
         // Handle navigation view item clicks here.
         int id = item.getItemId();
 
-        if (id == R.id.nav_tools) {
+        if (item.getGroupId() == R.id.nav_notes) {
+            this.openNote(this.notes.get(id - Menu.FIRST).getId(), false);
+        } else if (id == R.id.nav_new_note) {
+            this.openNote(NoteInfo.createId(), true);
+        } else if (id == R.id.nav_tools) {
             Intent intent = new Intent(this, SettingsActivity.class);
             String textSize = "";
             if (this.adapter.getTextSize() == getResources().getInteger(R.integer.Tiny)) {
@@ -437,11 +1033,8 @@ public class MainActivity extends AppCompatActivity
      */
     private void testDrive() {
 
-        PrintFilesTask task2 = new PrintFilesTask(this.service);
-        task2.execute();
-        DataDownloadTask task3 = new DataDownloadTask(this.service,
-                Collections.singletonList((DownloadDoneListener) this));
-        task3.execute();
+        this.syncScheduler.printFileNames(this.service);
+        this.syncScheduler.download(this.service, this.currentNoteId, false, null, this);
     }
 
     /**
@@ -449,9 +1042,11 @@ public class MainActivity extends AppCompatActivity
      * empty String.
      */
     private void resetData() {
-        DataUploadTask task = new DataUploadTask(this.service, new SaveData(
-                "Reset Data", 12),
-                Collections.singletonList((UploadDoneListener) this));
-        task.execute();
+        SaveData saveData = new SaveData(
+                Collections.singletonList(new ItemViewData("Reset Data", ItemViewData.TYPE_TEXT)),
+                12);
+        // Display what is being uploaded, so that the note matches what is saved afterwards.
+        this.adapter.setDisplayData(saveData);
+        this.saveData(false);
     }
 }
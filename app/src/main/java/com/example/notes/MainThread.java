@@ -0,0 +1,47 @@
+package com.example.notes;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Hands work to the main thread, and tells the time that work is scheduled by. The classes that
+ * do so take one of these, so that their tests can stand in for the main thread and the clock.
+ */
+class MainThread {
+
+    private Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the time that work is scheduled by.
+     * @return The milliseconds since boot, not counting deep sleep.
+     */
+    long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Runs the given work on the main thread, after the work handed to it before.
+     * @param work The work.
+     */
+    void post(Runnable work) {
+        this.handler.post(work);
+    }
+
+    /**
+     * Runs the given work on the main thread at the given time.
+     * @param work The work.
+     * @param uptimeMillis When to run it, as returned by uptimeMillis().
+     */
+    void postAtTime(Runnable work, long uptimeMillis) {
+        this.handler.postAtTime(work, uptimeMillis);
+    }
+
+    /**
+     * Forgets the given work, if it has not run yet.
+     * @param work The work.
+     */
+    void removeCallbacks(Runnable work) {
+        this.handler.removeCallbacks(work);
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.notes;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+/**
+ * Interface that is responsible for letting user know that the note on this device was merged
+ * with the one saved on Google Drive.
+ */
+public interface MergeDoneListener {
+
+    /**
+     * Handle the merged note.
+     * @param result The merged note, or null if the merge failed.
+     * @param remote The note as it is saved on Drive, or null if the merge failed.
+     * @param crdt The copy of the merged note that can be merged without conflicts, or null if
+     * those are not used, or the merge failed.
+     * @param diff How the merged note differs from the note that was being displayed, or null if
+     * nothing was merged.
+     */
+    void onMergeComplete(NoteMerger.Result result, DriveService.RemoteNote remote,
+                         NoteCrdt crdt, DiffUtil.DiffResult diff);
+}
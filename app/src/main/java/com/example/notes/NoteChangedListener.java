@@ -0,0 +1,12 @@
+package com.example.notes;
+
+/**
+ * Listener that should be notified whenever the user changes the note in any way.
+ */
+public interface NoteChangedListener {
+
+    /**
+     * The note was just changed by the user.
+     */
+    void onNoteChanged();
+}
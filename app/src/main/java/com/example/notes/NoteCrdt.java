@@ -0,0 +1,711 @@
+package com.example.notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A copy of a note that any number of devices can change on their own, and that ends up the same
+ * on every device once they have merged each other's copies, in whatever order that happens. Used
+ * instead of a three-way merge when the user turns it on.
+ *
+ * It is a replicated growable array (RGA) of the lines of the note, as NoteMerger splits them.
+ * Every line is an element with an ID that never changes: a counter, and the device that added
+ * it. Every element is added right after another one, its origin, and elements added after the
+ * same origin are ordered newest first, so the order only depends on which elements there are.
+ * Removed elements are kept as tombstones without their contents, since other devices may still
+ * add elements after them. Changing a line removes it and adds the new one.
+ *
+ * Every copy records how far it has seen the changes of every device, and how far every other
+ * device had seen them, as far as it knows. A tombstone is dropped once every device is known to
+ * have seen it removed, and nothing is left that was added after it, so that only as many are
+ * kept as some device may still need. A device that never syncs again keeps its tombstones
+ * around.
+ */
+public class NoteCrdt {
+
+    // Bytes that the stored form starts with.
+    final private static byte[] MAGIC = {'N', 'C', 'R', 'D'};
+
+    // Version of the stored form. Version 1 stored photos as Save Data items.
+    final private static int VERSION = 2;
+
+    // Version of the Save Data format that photos were stored in by version 1.
+    final private static int SAVE_DATA_ITEM_VERSION = 2;
+
+    // Kinds of elements, in the lowest bits of their flags.
+    final private static int KIND_TEXT = 0;
+    final private static int KIND_PHOTO = 1;
+    final private static int KIND_END = 2;
+    final private static int KIND_MASK = 3;
+
+    // Flag of elements that were removed. Their contents are not stored.
+    final private static int FLAG_DELETED = 4;
+
+    // Flag of elements whose origin is the element stored before them.
+    final private static int FLAG_ORIGIN_PREVIOUS = 8;
+
+    // Flag of elements that were added at the start, without an origin.
+    final private static int FLAG_ORIGIN_START = 16;
+
+    // Longest line that will be accepted. Anything longer means the stored form is corrupt.
+    final private static int MAX_LINE_LENGTH = 64 * 1024 * 1024;
+
+    // ID of the device this copy belongs to.
+    private String replicaId;
+
+    // Highest counter seen so far, from any device.
+    private long clock = 0;
+
+    // Every element, including tombstones, by ID.
+    private HashMap<Id, Element> elements = new HashMap<>();
+
+    // For every device, the highest counter it had seen from every device.
+    private HashMap<String, HashMap<String, Long>> knowledge = new HashMap<>();
+
+    // Every device ID, so that equal IDs share a single String.
+    private HashMap<String, String> replicas = new HashMap<>();
+
+    /**
+     * Creates a new, empty copy.
+     * @param replicaId The ID of the device the copy belongs to.
+     */
+    public NoteCrdt(String replicaId) {
+        this.replicaId = this.intern(replicaId);
+        this.knowledge.put(this.replicaId, new HashMap<String, Long>());
+    }
+
+    /**
+     * Returns the items of the note, in order.
+     * @return The items.
+     */
+    public List<ItemViewData> getItems() {
+        NoteMerger.LineList lines = new NoteMerger.LineList(this.elements.size());
+        for (Element element : this.getOrder()) {
+            if (element.deleted == null) {
+                lines.add(element.value, element.itemId);
+            }
+        }
+        return NoteMerger.toItems(lines);
+    }
+
+    /**
+     * Returns the number of elements, including tombstones.
+     * @return The number of elements.
+     */
+    public int size() {
+        return this.elements.size();
+    }
+
+    /**
+     * Records the changes that turn the note into the given items, as changes made on this
+     * device: lines that are gone are removed, and new ones are added. Lines remember which of
+     * the given items they are part of, so that the items keep their IDs through getItems.
+     * @param items The items the note has now.
+     */
+    public void update(List<ItemViewData> items) {
+        List<Element> visible = new ArrayList<>();
+        for (Element element : this.getOrder()) {
+            if (element.deleted == null) {
+                visible.add(element);
+            }
+        }
+        Object[] oldValues = new Object[visible.size()];
+        for (int i = 0; i < oldValues.length; i ++) {
+            oldValues[i] = visible.get(i).value;
+        }
+        HashMap<String, Integer> ids = new HashMap<>();
+        NoteMerger.Lines oldLines = new NoteMerger.Lines(oldValues, ids);
+        NoteMerger.Lines newLines = new NoteMerger.Lines(items, ids);
+
+        int unchanged = 0;
+        for (NoteMerger.Hunk hunk : NoteMerger.diff(oldLines.ids, newLines.ids, true)) {
+            // Lines between changes are the same in both, only shifted.
+            for (int i = unchanged; i < hunk.baseStart; i ++) {
+                visible.get(i).itemId = newLines.itemIds[i + hunk.sideStart - hunk.baseStart];
+            }
+            unchanged = hunk.baseEnd;
+            for (int i = hunk.baseStart; i < hunk.baseEnd; i ++) {
+                visible.get(i).delete(this.nextId());
+            }
+            // Every new line goes right after the one before it.
+            Id origin = hunk.baseStart > 0 ? visible.get(hunk.baseStart - 1).id : null;
+            for (int j = hunk.sideStart; j < hunk.sideEnd; j ++) {
+                Element element = new Element(this.nextId(), origin, newLines.values[j]);
+                element.itemId = newLines.itemIds[j];
+                this.elements.put(element.id, element);
+                origin = element.id;
+            }
+        }
+        int shift = newLines.ids.length - oldLines.ids.length;
+        for (int i = unchanged; i < visible.size(); i ++) {
+            visible.get(i).itemId = newLines.itemIds[i + shift];
+        }
+    }
+
+    /**
+     * Merges the changes of another copy into this one. Merging is commutative, associative and
+     * idempotent, so every copy ends up the same once every change has reached it.
+     * @param other The other copy. Not changed.
+     */
+    public void merge(NoteCrdt other) {
+        for (Element theirs : other.elements.values()) {
+            Element ours = this.elements.get(theirs.id);
+            if (ours == null) {
+                ours = new Element(this.intern(theirs.id),
+                        theirs.origin == null ? null : this.intern(theirs.origin), theirs.value);
+                this.elements.put(ours.id, ours);
+            }
+            if (theirs.deleted != null && (ours.deleted == null
+                    || theirs.deleted.compareTo(ours.deleted) < 0)) {
+                ours.delete(this.intern(theirs.deleted));
+            }
+        }
+        this.clock = Math.max(this.clock, other.clock);
+
+        HashMap<String, Long> seen = this.knowledge.get(this.replicaId);
+        for (Map.Entry<String, HashMap<String, Long>> entry : other.knowledge.entrySet()) {
+            String replica = this.intern(entry.getKey());
+            HashMap<String, Long> vector = this.knowledge.get(replica);
+            if (vector == null) {
+                vector = new HashMap<>();
+                this.knowledge.put(replica, vector);
+            }
+            this.mergeVector(vector, entry.getValue());
+            // Whatever the other copy had seen, this one has seen now too.
+            this.mergeVector(seen, entry.getValue());
+        }
+    }
+
+    /**
+     * Checks whether or not this copy and another one come from the same copy. Two copies that
+     * were started on their own each hold every line as an element of their own, so merging them
+     * would repeat every line.
+     * @param other The other copy.
+     * @return True for yes, False for no.
+     */
+    public boolean sharesHistory(NoteCrdt other) {
+        if (this.elements.isEmpty() || other.elements.isEmpty()) {
+            return true;
+        }
+        for (Map.Entry<String, HashMap<String, Long>> entry : this.knowledge.entrySet()) {
+            HashMap<String, Long> vector = other.knowledge.get(entry.getKey());
+            if (!entry.getValue().isEmpty() && vector != null && !vector.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the tombstones that no device can need anymore: those that every device is known to
+     * have seen removed, and that nothing left was added after.
+     */
+    public void collectGarbage() {
+        List<Element> order = this.getOrder();
+        HashMap<Id, Integer> children = new HashMap<>();
+        for (Element element : order) {
+            if (element.origin != null) {
+                Integer count = children.get(element.origin);
+                children.put(element.origin, count == null ? 1 : count + 1);
+            }
+        }
+        // Backwards, so that everything added after an element is looked at before it.
+        for (int i = order.size() - 1; i >= 0; i --) {
+            Element element = order.get(i);
+            if (element.deleted == null || children.containsKey(element.id)
+                    || !this.isSeenByAll(element.deleted)) {
+                continue;
+            }
+            this.elements.remove(element.id);
+            if (element.origin != null) {
+                int count = children.get(element.origin) - 1;
+                if (count == 0) {
+                    children.remove(element.origin);
+                } else {
+                    children.put(element.origin, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the copy to the given stream, compressed. The stream is not closed.
+     * @param out The stream to write to.
+     * @throws IOException If the stream could not be written to.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION >> 8);
+        out.write(VERSION);
+        GZIPOutputStream zip = new GZIPOutputStream(out);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(zip));
+
+        // Every device ID once, so that elements only refer to them by index.
+        HashMap<String, Integer> indices = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>(this.replicas.keySet());
+        Collections.sort(names);
+        writeVarLong(data, names.size());
+        for (String name : names) {
+            indices.put(name, indices.size());
+            writeString(data, name);
+        }
+
+        writeVarLong(data, this.clock);
+        writeVarLong(data, this.knowledge.size());
+        for (Map.Entry<String, HashMap<String, Long>> entry : this.knowledge.entrySet()) {
+            writeVarLong(data, indices.get(entry.getKey()));
+            writeVarLong(data, entry.getValue().size());
+            for (Map.Entry<String, Long> seen : entry.getValue().entrySet()) {
+                writeVarLong(data, indices.get(seen.getKey()));
+                writeVarLong(data, seen.getValue());
+            }
+        }
+
+        List<Element> order = this.getOrder();
+        writeVarLong(data, order.size());
+        Id previous = null;
+        for (Element element : order) {
+            int flags;
+            if (element.value == null) {
+                flags = KIND_END;
+            } else if (element.value instanceof String) {
+                flags = KIND_TEXT;
+            } else {
+                flags = KIND_PHOTO;
+            }
+            if (element.deleted != null) {
+                flags |= FLAG_DELETED;
+            }
+            if (element.origin == null) {
+                flags |= FLAG_ORIGIN_START;
+            } else if (element.origin.equals(previous)) {
+                flags |= FLAG_ORIGIN_PREVIOUS;
+            }
+            data.writeByte(flags);
+            writeId(data, element.id, indices);
+            if ((flags & (FLAG_ORIGIN_START | FLAG_ORIGIN_PREVIOUS)) == 0) {
+                writeId(data, element.origin, indices);
+            }
+            if (element.deleted != null) {
+                writeId(data, element.deleted, indices);
+            } else if (element.value instanceof String) {
+                writeString(data, (String) element.value);
+            } else if (element.value != null) {
+                ItemViewData photo = (ItemViewData) element.value;
+                writeString(data, photo.getData());
+                writeString(data, photo.getHash() == null ? "" : photo.getHash());
+            }
+            previous = element.id;
+        }
+        data.flush();
+        zip.finish();
+    }
+
+    /**
+     * Reads a copy from the given stream. The stream is not closed.
+     * @param in The stream to read from.
+     * @param replicaId The ID of the device the copy is read on, which it belongs to from now on.
+     * @return The copy.
+     * @throws IOException If the stream could not be read, or it is corrupt.
+     */
+    public static NoteCrdt readFrom(InputStream in, String replicaId) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        DataInputStream header = new DataInputStream(in);
+        header.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Corrupt note copy: invalid header.");
+        }
+        int version = header.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported note copy version: " + version);
+        }
+        DataInputStream data = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(in)));
+
+        NoteCrdt crdt = new NoteCrdt(replicaId);
+        int count = readCount(data);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i ++) {
+            names[i] = crdt.intern(readString(data));
+        }
+
+        crdt.clock = readVarLong(data);
+        count = readCount(data);
+        for (int i = 0; i < count; i ++) {
+            String replica = readName(data, names);
+            HashMap<String, Long> vector = crdt.knowledge.get(replica);
+            if (vector == null) {
+                vector = new HashMap<>();
+                crdt.knowledge.put(replica, vector);
+            }
+            int entries = readCount(data);
+            for (int j = 0; j < entries; j ++) {
+                String seen = readName(data, names);
+                vector.put(seen, readVarLong(data));
+            }
+        }
+
+        count = readCount(data);
+        Id previous = null;
+        for (int i = 0; i < count; i ++) {
+            int flags = data.readUnsignedByte();
+            Id id = readId(data, names);
+            Id origin;
+            if ((flags & FLAG_ORIGIN_START) != 0) {
+                origin = null;
+            } else if ((flags & FLAG_ORIGIN_PREVIOUS) != 0) {
+                origin = previous;
+            } else {
+                origin = readId(data, names);
+            }
+            Element element;
+            if ((flags & FLAG_DELETED) != 0) {
+                element = new Element(id, origin, null);
+                element.delete(readId(data, names));
+            } else if ((flags & KIND_MASK) == KIND_TEXT) {
+                element = new Element(id, origin, readString(data));
+            } else if ((flags & KIND_MASK) == KIND_PHOTO) {
+                element = new Element(id, origin, readPhoto(data, version));
+            } else {
+                element = new Element(id, origin, null);
+            }
+            crdt.elements.put(id, element);
+            previous = id;
+        }
+        return crdt;
+    }
+
+    /**
+     * Returns every element, including tombstones, in the order of the note. Elements whose
+     * origin is missing are put at the start.
+     * @return The elements.
+     */
+    private List<Element> getOrder() {
+        HashMap<Id, ArrayList<Element>> children = new HashMap<>();
+        for (Element element : this.elements.values()) {
+            Id origin = element.origin != null && this.elements.containsKey(element.origin)
+                    ? element.origin : null;
+            ArrayList<Element> siblings = children.get(origin);
+            if (siblings == null) {
+                siblings = new ArrayList<>(1);
+                children.put(origin, siblings);
+            }
+            siblings.add(element);
+        }
+
+        // Depth first, without recursion, since lines typed one after another form long chains.
+        ArrayList<Element> order = new ArrayList<>(this.elements.size());
+        ArrayDeque<Element> stack = new ArrayDeque<>();
+        pushChildren(stack, children.get(null));
+        while (!stack.isEmpty()) {
+            Element element = stack.pop();
+            order.add(element);
+            pushChildren(stack, children.get(element.id));
+        }
+        return order;
+    }
+
+    /**
+     * Pushes the elements added after the same origin onto the stack, so that the newest one is
+     * taken off first.
+     * @param stack The stack.
+     * @param siblings The elements, or null if there are none.
+     */
+    private static void pushChildren(ArrayDeque<Element> stack, ArrayList<Element> siblings) {
+        if (siblings == null) {
+            return;
+        }
+        Collections.sort(siblings);
+        for (int i = siblings.size() - 1; i >= 0; i --) {
+            stack.push(siblings.get(i));
+        }
+    }
+
+    /**
+     * Returns the ID of the next change made on this device.
+     * @return The ID.
+     */
+    private Id nextId() {
+        this.clock ++;
+        this.knowledge.get(this.replicaId).put(this.replicaId, this.clock);
+        return new Id(this.clock, this.replicaId);
+    }
+
+    /**
+     * Returns whether or not every device is known to have seen the given change.
+     * @param change The ID of the change.
+     * @return True for yes, False for no.
+     */
+    private boolean isSeenByAll(Id change) {
+        for (HashMap<String, Long> vector : this.knowledge.values()) {
+            Long seen = vector.get(change.replica);
+            if (seen == null || seen < change.counter) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Raises every counter of a vector to the one of another, where that is higher.
+     * @param vector The vector to raise.
+     * @param other The other vector.
+     */
+    private void mergeVector(HashMap<String, Long> vector, HashMap<String, Long> other) {
+        for (Map.Entry<String, Long> entry : other.entrySet()) {
+            Long seen = vector.get(entry.getKey());
+            if (seen == null || seen < entry.getValue()) {
+                vector.put(this.intern(entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the single String kept for the given device ID.
+     * @param replica The device ID.
+     * @return The String.
+     */
+    private String intern(String replica) {
+        String interned = this.replicas.get(replica);
+        if (interned == null) {
+            this.replicas.put(replica, replica);
+            interned = replica;
+        }
+        return interned;
+    }
+
+    /**
+     * Returns the given ID, with its device ID shared with the rest of this copy.
+     * @param id The ID.
+     * @return The ID.
+     */
+    private Id intern(Id id) {
+        return new Id(id.counter, this.intern(id.replica));
+    }
+
+    /**
+     * Writes an ID as its counter and the index of its device.
+     * @param out The stream to write to.
+     * @param id The ID.
+     * @param indices The index of every device ID.
+     * @throws IOException If the stream could not be written to.
+     */
+    private static void writeId(DataOutputStream out, Id id, Map<String, Integer> indices)
+            throws IOException {
+        writeVarLong(out, id.counter);
+        writeVarLong(out, indices.get(id.replica));
+    }
+
+    /**
+     * Reads an ID written by writeId.
+     * @param in The stream to read from.
+     * @param names Every device ID, by index.
+     * @return The ID.
+     * @throws IOException If the stream could not be read, or the ID is invalid.
+     */
+    private static Id readId(DataInputStream in, String[] names) throws IOException {
+        long counter = readVarLong(in);
+        return new Id(counter, readName(in, names));
+    }
+
+    /**
+     * Reads the index of a device ID.
+     * @param in The stream to read from.
+     * @param names Every device ID, by index.
+     * @return The device ID.
+     * @throws IOException If the stream could not be read, or the index is invalid.
+     */
+    private static String readName(DataInputStream in, String[] names) throws IOException {
+        long index = readVarLong(in);
+        if (index < 0 || index >= names.length) {
+            throw new IOException("Corrupt note copy: invalid device index " + index);
+        }
+        return names[(int) index];
+    }
+
+    /**
+     * Reads a photo, as the given version of the stored form wrote it.
+     * @param in The stream to read from.
+     * @param version The version of the stored form.
+     * @return The photo.
+     * @throws IOException If the stream could not be read, or the photo is corrupt.
+     */
+    private static ItemViewData readPhoto(DataInputStream in, int version) throws IOException {
+        if (version < 2) {
+            // Pinned, so that these stay readable however Save Data items change.
+            return SaveDataReader.readItem(in, SAVE_DATA_ITEM_VERSION);
+        }
+        String path = readString(in);
+        String hash = readString(in);
+        return new ItemViewData(path, ItemViewData.TYPE_PHOTO, hash.isEmpty() ? null : hash);
+    }
+
+    /**
+     * Writes the length of the given String followed by its UTF-8 bytes.
+     * @param out The stream to write to.
+     * @param string The String.
+     * @throws IOException If the stream could not be written to.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String written by writeString.
+     * @param in The stream to read from.
+     * @return The String.
+     * @throws IOException If the stream could not be read, or the length is invalid.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > MAX_LINE_LENGTH) {
+            throw new IOException("Corrupt note copy: invalid line length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a number of entries that follow.
+     * @param in The stream to read from.
+     * @return The number.
+     * @throws IOException If the stream could not be read, or the number is invalid.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt note copy: invalid count " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Writes a number that is not negative in as few bytes as it needs, 7 bits at a time.
+     * @param out The stream to write to.
+     * @param value The number.
+     * @throws IOException If the stream could not be written to.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a number written by writeVarLong.
+     * @param in The stream to read from.
+     * @return The number.
+     * @throws IOException If the stream could not be read, or the number is too long.
+     */
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt note copy: number too long.");
+    }
+
+    /**
+     * The ID of an element, or of a removal: a counter, and the device that made it. IDs are
+     * ordered by counter first, and by device for changes made at the same time.
+     */
+    private static class Id implements Comparable<Id> {
+
+        final long counter;
+        final String replica;
+
+        Id(long counter, String replica) {
+            this.counter = counter;
+            this.replica = replica;
+        }
+
+        @Override
+        public int compareTo(Id other) {
+            if (this.counter != other.counter) {
+                return this.counter < other.counter ? -1 : 1;
+            }
+            return this.replica.compareTo(other.replica);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Id)) {
+                return false;
+            }
+            Id id = (Id) other;
+            return this.counter == id.counter && this.replica.equals(id.replica);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (this.counter ^ (this.counter >>> 32)) * 31 + this.replica.hashCode();
+        }
+    }
+
+    /**
+     * A line of the note. Elements are ordered newest first, for ordering elements added after
+     * the same origin.
+     */
+    private static class Element implements Comparable<Element> {
+
+        final Id id;
+
+        // The element this one was added right after, or null if it was added at the start.
+        final Id origin;
+
+        // A String for a line of text, an item for a photo, or null for the end of a text item,
+        // or for a tombstone.
+        Object value;
+
+        // ID of the removal, or null if the element was not removed.
+        Id deleted;
+
+        // ID of the item the line is part of on this device, or NO_ID if it is not known. Not
+        // stored, since items are only given IDs on the device they are on.
+        long itemId = ItemViewData.NO_ID;
+
+        Element(Id id, Id origin, Object value) {
+            this.id = id;
+            this.origin = origin;
+            this.value = value;
+        }
+
+        /**
+         * Turns the element into a tombstone.
+         * @param deleted The ID of the removal.
+         */
+        void delete(Id deleted) {
+            this.deleted = deleted;
+            this.value = null;
+        }
+
+        @Override
+        public int compareTo(Element other) {
+            return other.id.compareTo(this.id);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.notes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * The items of a note, in order. Stored as a rope of items (a tree balanced by random priorities,
+ * where every node knows the size of its subtree) so that getting, inserting, removing and moving
+ * an item at any position takes O(log n) time, no matter how long the note grows.
+ */
+public class NoteDocument implements Iterable<ItemViewData> {
+
+    private Node root;
+
+    private Random random = new Random();
+
+    /**
+     * Creates a new empty document.
+     */
+    public NoteDocument() {
+        this.root = null;
+    }
+
+    /**
+     * Creates a new document holding the given items, in order.
+     * @param items The items.
+     */
+    public NoteDocument(List<ItemViewData> items) {
+        this.addAll(items);
+    }
+
+    /**
+     * Returns the number of items in the document.
+     * @return The number of items.
+     */
+    public int size() {
+        return size(this.root);
+    }
+
+    /**
+     * Returns the item at the given position.
+     * @param index The position.
+     * @return The item.
+     */
+    public ItemViewData get(int index) {
+        return this.getNode(index).item;
+    }
+
+    /**
+     * Replaces the item at the given position.
+     * @param index The position.
+     * @param item The new item.
+     * @return The item that was replaced.
+     */
+    public ItemViewData set(int index, ItemViewData item) {
+        Node node = this.getNode(index);
+        ItemViewData replaced = node.item;
+        node.item = item;
+        return replaced;
+    }
+
+    /**
+     * Adds the given item to the end.
+     * @param item The item.
+     */
+    public void add(ItemViewData item) {
+        this.root = merge(this.root, new Node(item, this.random.nextInt()));
+    }
+
+    /**
+     * Adds all of the given items to the end, in order. The items are built into a tree of their
+     * own in one pass, which is then joined on, so adding n items takes O(n) time rather than
+     * O(n log n).
+     * @param items The items.
+     */
+    public void addAll(List<ItemViewData> items) {
+        // Every node on the stack is the right child of the one below it. A new node becomes the
+        // right child of the last node with a higher priority, taking the nodes above that one as
+        // its left subtree. Nodes only leave the stack once their subtrees are complete.
+        ArrayList<Node> stack = new ArrayList<>();
+        for (ItemViewData item : items) {
+            Node node = new Node(item, this.random.nextInt());
+            Node popped = null;
+            while (!stack.isEmpty() && stack.get(stack.size() - 1).priority <= node.priority) {
+                popped = stack.remove(stack.size() - 1);
+                popped.update();
+            }
+            node.left = popped;
+            if (!stack.isEmpty()) {
+                stack.get(stack.size() - 1).right = node;
+            }
+            stack.add(node);
+        }
+        if (stack.isEmpty()) {
+            return;
+        }
+        for (int i = stack.size() - 1; i >= 0; i --) {
+            stack.get(i).update();
+        }
+        this.root = merge(this.root, stack.get(0));
+    }
+
+    /**
+     * Inserts the given item at the given position, moving everything after it down by one.
+     * @param index The position.
+     * @param item The item.
+     */
+    public void insert(int index, ItemViewData item) {
+        this.checkIndex(index, this.size() + 1);
+        Node[] parts = split(this.root, index);
+        this.root = merge(merge(parts[0], new Node(item, this.random.nextInt())), parts[1]);
+    }
+
+    /**
+     * Removes the item at the given position, moving everything after it up by one.
+     * @param index The position.
+     * @return The removed item.
+     */
+    public ItemViewData remove(int index) {
+        this.checkIndex(index, this.size());
+        Node[] before = split(this.root, index);
+        Node[] after = split(before[1], 1);
+        this.root = merge(before[0], after[1]);
+        return after[0].item;
+    }
+
+    /**
+     * Moves the item at one position to another position.
+     * @param fromIndex Where the item is.
+     * @param toIndex Where the item should end up.
+     */
+    public void move(int fromIndex, int toIndex) {
+        if (fromIndex == toIndex) {
+            return;
+        }
+        this.insert(toIndex, this.remove(fromIndex));
+    }
+
+    /**
+     * Removes every item.
+     */
+    public void clear() {
+        this.root = null;
+    }
+
+    /**
+     * Returns all of the items in order, as a new list.
+     * @return The items.
+     */
+    public ArrayList<ItemViewData> toList() {
+        ArrayList<ItemViewData> list = new ArrayList<>(this.size());
+        for (ItemViewData item : this) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    @Override
+    public Iterator<ItemViewData> iterator() {
+        return new NodeIterator(this.root);
+    }
+
+    /**
+     * Returns the node holding the item at the given position.
+     * @param index The position.
+     * @return The node.
+     */
+    private Node getNode(int index) {
+        this.checkIndex(index, this.size());
+        Node node = this.root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Makes sure the given index is within [0, limit).
+     * @param index The index.
+     * @param limit The limit.
+     */
+    private void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size());
+        }
+    }
+
+    /**
+     * Returns the number of items under the given node, including itself.
+     * @param node The node. May be null.
+     * @return The number of items.
+     */
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Splits the tree into the first count items and the rest.
+     * @param node The root of the tree.
+     * @param count The number of items that go into the first tree.
+     * @return The roots of the two trees.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node[] parts = split(node.left, count);
+            node.left = parts[1];
+            node.update();
+            return new Node[] {parts[0], node};
+        } else {
+            Node[] parts = split(node.right, count - leftSize - 1);
+            node.right = parts[0];
+            node.update();
+            return new Node[] {node, parts[1]};
+        }
+    }
+
+    /**
+     * Joins two trees, with every item of the first one before every item of the second one.
+     * @param left The root of the first tree.
+     * @param right The root of the second tree.
+     * @return The root of the joined tree.
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    /**
+     * A single item within the tree.
+     */
+    private static class Node {
+
+        private ItemViewData item;
+        private int priority;
+
+        // Number of items under this node, including itself.
+        private int size = 1;
+
+        private Node left;
+        private Node right;
+
+        Node(ItemViewData item, int priority) {
+            this.item = item;
+            this.priority = priority;
+        }
+
+        /**
+         * Recalculates the size after the children changed.
+         */
+        void update() {
+            this.size = 1 + NoteDocument.size(this.left) + NoteDocument.size(this.right);
+        }
+    }
+
+    /**
+     * Goes through the items in order, without recursion.
+     */
+    private static class NodeIterator implements Iterator<ItemViewData> {
+
+        private ArrayList<Node> stack = new ArrayList<>();
+
+        NodeIterator(Node root) {
+            this.pushLeft(root);
+        }
+
+        private void pushLeft(Node node) {
+            while (node != null) {
+                this.stack.add(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.stack.isEmpty();
+        }
+
+        @Override
+        public ItemViewData next() {
+            if (this.stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = this.stack.remove(this.stack.size() - 1);
+            this.pushLeft(node.right);
+            return node.item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.notes;
+
+import java.util.UUID;
+
+/**
+ * What the manifest on Google Drive knows about a note, so that the notes can be listed without
+ * downloading any of them.
+ */
+public class NoteInfo {
+
+    // ID of the note that was saved before there could be more than one.
+    final public static String DEFAULT_ID = "default";
+
+    private String id;
+
+    // Title of the note, or an empty String if it has none.
+    private String title;
+
+    // Number of bytes the note takes up, uncompressed.
+    private long size;
+
+    // Version of the save files of the note, as they were when this was written.
+    private String version;
+
+    // When the note was last saved, in milliseconds since the epoch.
+    private long modifiedTime;
+
+    /**
+     * Creates a new description of a note.
+     * @param id The ID of the note.
+     * @param title The title of the note, or an empty String if it has none.
+     * @param size The number of bytes the note takes up, uncompressed.
+     * @param version The version of the save files of the note.
+     * @param modifiedTime When the note was last saved, in milliseconds since the epoch.
+     */
+    public NoteInfo(String id, String title, long size, String version, long modifiedTime) {
+        this.id = id;
+        this.title = title;
+        this.size = size;
+        this.version = version;
+        this.modifiedTime = modifiedTime;
+    }
+
+    /**
+     * Creates an ID for a new note, which is not taken by any other note.
+     * @return The ID.
+     */
+    public static String createId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * Returns the ID of the note.
+     * @return The ID.
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the title of the note.
+     * @return The title, or an empty String if it has none.
+     */
+    public String getTitle() {
+        return this.title;
+    }
+
+    /**
+     * Returns the number of bytes the note takes up, uncompressed.
+     * @return The number of bytes.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns the version of the save files of the note, as they were when this was written.
+     * @return The version.
+     */
+    public String getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns when the note was last saved.
+     * @return The time, in milliseconds since the epoch.
+     */
+    public long getModifiedTime() {
+        return this.modifiedTime;
+    }
+}
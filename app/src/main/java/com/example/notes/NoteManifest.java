@@ -0,0 +1,117 @@
+package com.example.notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The list of every note saved on Google Drive, kept in a small file of its own so that the notes
+ * can be listed without downloading them. The format is a header (magic bytes, version, count)
+ * followed by every note as its ID, title, size, version and modified time.
+ */
+public class NoteManifest {
+
+    // Bytes that the manifest starts with.
+    final private static byte[] MAGIC = {'N', 'M', 'A', 'N'};
+
+    // Version of the format of the manifest.
+    final private static int VERSION = 1;
+
+    // The notes, by ID.
+    private LinkedHashMap<String, NoteInfo> notes = new LinkedHashMap<>();
+
+    /**
+     * Returns the note with the given ID.
+     * @param id The ID.
+     * @return The note, or null if it is not listed.
+     */
+    public NoteInfo get(String id) {
+        return this.notes.get(id);
+    }
+
+    /**
+     * Lists the given note, replacing whatever was listed with the same ID.
+     * @param note The note.
+     */
+    public void put(NoteInfo note) {
+        this.notes.put(note.getId(), note);
+    }
+
+    /**
+     * Returns every note that is listed, the most recently saved first.
+     * @return The notes.
+     */
+    public List<NoteInfo> getNotes() {
+        ArrayList<NoteInfo> notes = new ArrayList<>(this.notes.values());
+        Collections.sort(notes, new Comparator<NoteInfo>() {
+            @Override
+            public int compare(NoteInfo first, NoteInfo second) {
+                return Long.compare(second.getModifiedTime(), first.getModifiedTime());
+            }
+        });
+        return notes;
+    }
+
+    /**
+     * Writes the manifest to the given stream. The stream is not closed.
+     * @param out The stream.
+     * @throws IOException If the stream could not be written to.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(this.notes.size());
+        for (NoteInfo note : this.notes.values()) {
+            data.writeUTF(note.getId());
+            data.writeUTF(note.getTitle());
+            data.writeLong(note.getSize());
+            data.writeUTF(note.getVersion() == null ? "" : note.getVersion());
+            data.writeLong(note.getModifiedTime());
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a manifest from the given stream. The stream is not closed.
+     * @param in The stream.
+     * @return The manifest.
+     * @throws IOException If the stream could not be read, or the manifest is corrupt.
+     */
+    public static NoteManifest readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Corrupt manifest: invalid header.");
+        }
+        int version = data.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported manifest version: " + version);
+        }
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt manifest: negative count.");
+        }
+        NoteManifest manifest = new NoteManifest();
+        for (int i = 0; i < count; i ++) {
+            String id = data.readUTF();
+            String title = data.readUTF();
+            long size = data.readLong();
+            String noteVersion = data.readUTF();
+            long modifiedTime = data.readLong();
+            manifest.put(new NoteInfo(id, title, size, noteVersion, modifiedTime));
+        }
+        return manifest;
+    }
+}
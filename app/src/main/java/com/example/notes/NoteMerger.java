@@ -0,0 +1,711 @@
+package com.example.notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Merges two copies of a note that were both changed since a common version of it, the base, line
+ * by line. Every line of text counts as a line, and so does every photo. Lines that only one copy
+ * changed are taken from that copy. Where both copies changed the same lines differently, both
+ * versions are kept, between conflict markers, so that nothing is lost and the user can pick.
+ * Changes to lines that are next to each other count as changes to the same lines, as they do in
+ * other merge tools. Items keep the IDs they have on this device wherever their lines are, so
+ * that they are still the same items to the adapter. Lines taken from the other copy do not
+ * bring the IDs of their items along, since those may stand for other items on this device.
+ *
+ * Each copy is compared with the base by a diff that first lines up the lines that occur exactly
+ * once in both, and only runs Myers' algorithm on the stretches in between, which are usually
+ * short. This keeps the cost close to linear for notes of tens of thousands of lines, even if
+ * many lines changed.
+ */
+public class NoteMerger {
+
+    // Lines put around the two versions of lines that were changed differently in both copies.
+    final static String CONFLICT_START = "<<<<<<< This device";
+    final static String CONFLICT_SEPARATOR = "=======";
+    final static String CONFLICT_END = ">>>>>>> Other device";
+
+    // Most edits Myers' algorithm looks for in a stretch without unique lines, before the whole
+    // stretch is taken as changed instead. Keeps the worst case from being quadratic.
+    final private static int MAX_EDIT_COST = 256;
+
+    /**
+     * The result of a merge.
+     */
+    public static class Result {
+
+        private SaveData data;
+
+        // Number of places where both copies changed the same lines differently.
+        private int conflicts;
+
+        Result(SaveData data, int conflicts) {
+            this.data = data;
+            this.conflicts = conflicts;
+        }
+
+        /**
+         * Returns the merged note.
+         * @return The note.
+         */
+        public SaveData getData() {
+            return this.data;
+        }
+
+        /**
+         * Returns the number of places where both copies changed the same lines differently, and
+         * both versions were kept between conflict markers.
+         * @return The number of conflicts.
+         */
+        public int getConflicts() {
+            return this.conflicts;
+        }
+    }
+
+    /**
+     * Merges the changes made to two copies of a note since the given base.
+     * @param base The version both copies were changed from.
+     * @param local The copy on this device.
+     * @param remote The copy saved from somewhere else.
+     * @return The merged note.
+     */
+    public static Result merge(SaveData base, SaveData local, SaveData remote) {
+        // Compare numbers instead of Strings from here on.
+        HashMap<String, Integer> ids = new HashMap<>();
+        Lines baseLines = new Lines(base, ids);
+        Lines localLines = new Lines(local, ids);
+        Lines remoteLines = new Lines(remote, ids);
+
+        ArrayList<Hunk> hunks = new ArrayList<>();
+        hunks.addAll(diff(baseLines.ids, localLines.ids, true));
+        hunks.addAll(diff(baseLines.ids, remoteLines.ids, false));
+        Collections.sort(hunks, new Comparator<Hunk>() {
+            @Override
+            public int compare(Hunk first, Hunk second) {
+                return Integer.compare(first.baseStart, second.baseStart);
+            }
+        });
+
+        LineList merged = new LineList(Math.max(localLines.ids.length, remoteLines.ids.length));
+        int conflicts = 0;
+        int basePosition = 0;
+        // How far the lines of each copy are shifted from those of the base, outside of hunks.
+        int localShift = 0;
+        int remoteShift = 0;
+        int next = 0;
+        while (next < hunks.size()) {
+            // Group the hunks of both copies that overlap or touch.
+            int groupStart = hunks.get(next).baseStart;
+            int groupEnd = hunks.get(next).baseEnd;
+            int localGrowth = 0;
+            int remoteGrowth = 0;
+            boolean localChanged = false;
+            boolean remoteChanged = false;
+            while (next < hunks.size() && hunks.get(next).baseStart <= groupEnd) {
+                Hunk hunk = hunks.get(next);
+                groupEnd = Math.max(groupEnd, hunk.baseEnd);
+                int growth = (hunk.sideEnd - hunk.sideStart) - (hunk.baseEnd - hunk.baseStart);
+                if (hunk.local) {
+                    localChanged = true;
+                    localGrowth += growth;
+                } else {
+                    remoteChanged = true;
+                    remoteGrowth += growth;
+                }
+                next ++;
+            }
+
+            // Lines no copy changed are part of the same items as in the copy on this device.
+            merged.add(baseLines, basePosition, groupStart, localLines, basePosition + localShift);
+            int localStart = groupStart + localShift;
+            int localEnd = groupEnd + localShift + localGrowth;
+            int remoteStart = groupStart + remoteShift;
+            int remoteEnd = groupEnd + remoteShift + remoteGrowth;
+            if (!remoteChanged || (localChanged && rangeEquals(localLines.ids, localStart,
+                    localEnd, remoteLines.ids, remoteStart, remoteEnd))) {
+                merged.add(localLines, localStart, localEnd);
+            } else if (!localChanged) {
+                merged.add(remoteLines, remoteStart, remoteEnd, null, 0);
+            } else {
+                merged.add(CONFLICT_START, ItemViewData.NO_ID);
+                merged.add(localLines, localStart, localEnd);
+                merged.add(CONFLICT_SEPARATOR, ItemViewData.NO_ID);
+                merged.add(remoteLines, remoteStart, remoteEnd, null, 0);
+                merged.add(CONFLICT_END, ItemViewData.NO_ID);
+                conflicts ++;
+            }
+            localShift += localGrowth;
+            remoteShift += remoteGrowth;
+            basePosition = groupEnd;
+        }
+        merged.add(baseLines, basePosition, baseLines.ids.length, localLines,
+                basePosition + localShift);
+
+        // The font size is a single value, so whichever copy changed it wins, this one first.
+        int fontSize = local.getFontSize() != base.getFontSize() ? local.getFontSize()
+                : remote.getFontSize();
+        return new Result(new SaveData(toItems(merged), fontSize), conflicts);
+    }
+
+    /**
+     * Turns merged lines back into items. Consecutive lines of text are joined into a single text
+     * item, up to the end of an item they came from, or a photo. Every item takes the ID of the
+     * item its first line with an ID came from, unless an earlier item took it already, and
+     * gets a new one otherwise.
+     * @param lines The lines.
+     * @return The items.
+     */
+    static List<ItemViewData> toItems(LineList lines) {
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        HashSet<Long> used = new HashSet<>();
+        StringBuilder text = null;
+        long textId = ItemViewData.NO_ID;
+        for (int i = 0; i < lines.size; i ++) {
+            Object line = lines.values.get(i);
+            long id = lines.itemIds[i];
+            if (line instanceof String) {
+                if (text == null) {
+                    text = new StringBuilder((String) line);
+                } else {
+                    text.append('\n').append((String) line);
+                }
+                if (textId == ItemViewData.NO_ID && id != ItemViewData.NO_ID && used.add(id)) {
+                    textId = id;
+                }
+                continue;
+            }
+            if (text != null) {
+                items.add(new ItemViewData(text.toString(), ItemViewData.TYPE_TEXT, null,
+                        textId));
+                text = null;
+                textId = ItemViewData.NO_ID;
+            }
+            if (line != null) {
+                ItemViewData photo = (ItemViewData) line;
+                items.add(new ItemViewData(photo.getData(), photo.getViewType(),
+                        photo.getHash(), used.add(id) ? id : ItemViewData.NO_ID));
+            }
+        }
+        if (text != null) {
+            items.add(new ItemViewData(text.toString(), ItemViewData.TYPE_TEXT, null, textId));
+        }
+        return items;
+    }
+
+    /**
+     * Lines that are being put together into a note, along with the ID of the item each of them
+     * came from.
+     */
+    static class LineList {
+
+        // Strings for lines of text, items for photos, and null for the end of a text item.
+        ArrayList<Object> values;
+
+        // ID of the item each line came from, or NO_ID if it is not known.
+        long[] itemIds;
+
+        // Number of lines.
+        int size = 0;
+
+        /**
+         * Creates an empty list of lines.
+         * @param capacity The number of lines to make room for.
+         */
+        LineList(int capacity) {
+            this.values = new ArrayList<>(capacity);
+            this.itemIds = new long[Math.max(capacity, 16)];
+        }
+
+        /**
+         * Adds a line.
+         * @param value A String for a line of text, an item for a photo, or null for the end of
+         * a text item.
+         * @param itemId The ID of the item the line came from, or NO_ID if it is not known.
+         */
+        void add(Object value, long itemId) {
+            if (this.size == this.itemIds.length) {
+                this.itemIds = Arrays.copyOf(this.itemIds, this.size * 2);
+            }
+            this.values.add(value);
+            this.itemIds[this.size] = itemId;
+            this.size ++;
+        }
+
+        /**
+         * Adds the given range of lines of a note, from the items they are part of.
+         * @param lines The lines of the note.
+         * @param start Where the range starts.
+         * @param end Where the range ends, exclusive.
+         */
+        void add(Lines lines, int start, int end) {
+            this.add(lines, start, end, lines, start);
+        }
+
+        /**
+         * Adds the given range of lines of a note, as part of the items that the same lines are
+         * part of in another copy of it.
+         * @param lines The lines of the note.
+         * @param start Where the range starts.
+         * @param end Where the range ends, exclusive.
+         * @param items The lines of the other copy, or null if the items are not known.
+         * @param itemsStart Where the same range starts in the other copy.
+         */
+        void add(Lines lines, int start, int end, Lines items, int itemsStart) {
+            for (int i = start; i < end; i ++) {
+                this.add(lines.values[i], items == null ? ItemViewData.NO_ID
+                        : items.itemIds[itemsStart + i - start]);
+            }
+        }
+    }
+
+    /**
+     * The lines of a note: every line of its text items, and every photo, in order.
+     */
+    static class Lines {
+
+        // Number of every line, the same for equal lines.
+        int[] ids;
+
+        // Strings for lines of text, items for photos, and null for the end of a text item.
+        Object[] values;
+
+        // ID of the item each line is part of.
+        long[] itemIds;
+
+        /**
+         * Splits the items of the given note into lines.
+         * @param data The note.
+         * @param ids The numbers given to lines so far, by what they hold.
+         */
+        Lines(SaveData data, HashMap<String, Integer> ids) {
+            this(data.getItems(), ids);
+        }
+
+        /**
+         * Splits the given items into lines.
+         * @param items The items.
+         * @param ids The numbers given to lines so far, by what they hold.
+         */
+        Lines(List<ItemViewData> items, HashMap<String, Integer> ids) {
+            this(split(items), ids);
+            this.itemIds = new long[this.values.length];
+            int line = 0;
+            for (ItemViewData item : items) {
+                int count = item.getViewType() == ItemViewData.TYPE_TEXT
+                        ? countLines(item.getData()) + 1 : 1;
+                Arrays.fill(this.itemIds, line, line + count, item.getId());
+                line += count;
+            }
+        }
+
+        /**
+         * Numbers the given lines, which are not known to be part of any items.
+         * @param values The lines: Strings for lines of text, items for photos, and null for the
+         * end of a text item.
+         * @param ids The numbers given to lines so far, by what they hold.
+         */
+        Lines(Object[] values, HashMap<String, Integer> ids) {
+            this.values = values;
+            this.itemIds = new long[values.length];
+            this.ids = new int[values.length];
+            for (int i = 0; i < values.length; i ++) {
+                Object value = values[i];
+                String key;
+                if (value == null) {
+                    key = "";
+                } else if (value instanceof String) {
+                    key = "t" + value;
+                } else {
+                    ItemViewData photo = (ItemViewData) value;
+                    key = "p" + photo.getHash() + ":" + photo.getData();
+                }
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key, id);
+                }
+                this.ids[i] = id;
+            }
+        }
+
+        /**
+         * Splits the given items into lines.
+         * @param items The items.
+         * @return The lines: Strings for lines of text, items for photos, and null for the end of
+         * a text item.
+         */
+        static Object[] split(List<ItemViewData> items) {
+            ArrayList<Object> values = new ArrayList<>(items.size());
+            for (ItemViewData item : items) {
+                if (item.getViewType() == ItemViewData.TYPE_TEXT) {
+                    String text = item.getData();
+                    int start = 0;
+                    int end;
+                    while ((end = text.indexOf('\n', start)) >= 0) {
+                        values.add(text.substring(start, end));
+                        start = end + 1;
+                    }
+                    values.add(text.substring(start));
+                    values.add(null);
+                } else {
+                    values.add(item);
+                }
+            }
+            return values.toArray();
+        }
+
+        /**
+         * Counts the lines of text that a text item is split into.
+         * @param text The text of the item.
+         * @return The number of lines.
+         */
+        private static int countLines(String text) {
+            int count = 1;
+            for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+                count ++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns whether or not the given ranges hold the same items.
+     * @param first The first items.
+     * @param firstStart Where the first range starts.
+     * @param firstEnd Where the first range ends, exclusive.
+     * @param second The second items.
+     * @param secondStart Where the second range starts.
+     * @param secondEnd Where the second range ends, exclusive.
+     * @return True for yes, False for no.
+     */
+    private static boolean rangeEquals(int[] first, int firstStart, int firstEnd, int[] second,
+                                       int secondStart, int secondEnd) {
+        if (firstEnd - firstStart != secondEnd - secondStart) {
+            return false;
+        }
+        for (int i = 0; i < firstEnd - firstStart; i ++) {
+            if (first[firstStart + i] != second[secondStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the ranges of lines that differ between the base and a copy of it.
+     * @param base The lines of the base.
+     * @param side The lines of the copy.
+     * @param local Whether or not the copy is the one on this device.
+     * @return The ranges, in order.
+     */
+    static List<Hunk> diff(int[] base, int[] side, boolean local) {
+        Diff diff = new Diff(base, side);
+        diff.compare(0, base.length, 0, side.length);
+
+        ArrayList<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < base.length || j < side.length) {
+            if (i < base.length && j < side.length && !diff.baseChanged[i]
+                    && !diff.sideChanged[j]) {
+                i ++;
+                j ++;
+                continue;
+            }
+            int baseStart = i;
+            int sideStart = j;
+            while (i < base.length && diff.baseChanged[i]) {
+                i ++;
+            }
+            while (j < side.length && diff.sideChanged[j]) {
+                j ++;
+            }
+            hunks.add(new Hunk(baseStart, i, sideStart, j, local));
+        }
+        return hunks;
+    }
+
+    /**
+     * A range of lines of the base that a copy replaced with a range of lines of its own.
+     */
+    static class Hunk {
+
+        // The lines of the base, from start to end, exclusive.
+        int baseStart;
+        int baseEnd;
+
+        // The lines of the copy, from start to end, exclusive.
+        int sideStart;
+        int sideEnd;
+
+        // Whether or not the copy is the one on this device.
+        boolean local;
+
+        Hunk(int baseStart, int baseEnd, int sideStart, int sideEnd, boolean local) {
+            this.baseStart = baseStart;
+            this.baseEnd = baseEnd;
+            this.sideStart = sideStart;
+            this.sideEnd = sideEnd;
+            this.local = local;
+        }
+    }
+
+    /**
+     * Marks the lines of two sequences that are not part of a common subsequence of them, which
+     * is as long as can be found cheaply.
+     */
+    private static class Diff {
+
+        private int[] base;
+        private int[] side;
+
+        // Whether or not each line is not part of the common subsequence.
+        private boolean[] baseChanged;
+        private boolean[] sideChanged;
+
+        // Furthest reaching paths of Myers' algorithm, forwards and backwards, by diagonal.
+        private int[] forward;
+        private int[] backward;
+
+        Diff(int[] base, int[] side) {
+            this.base = base;
+            this.side = side;
+            this.baseChanged = new boolean[base.length];
+            this.sideChanged = new boolean[side.length];
+            int size = 2 * Math.min((base.length + side.length + 1) / 2, MAX_EDIT_COST) + 2;
+            this.forward = new int[size];
+            this.backward = new int[size];
+        }
+
+        /**
+         * Compares the given ranges of the two sequences, and marks what differs.
+         * @param baseStart Where the range of the base starts.
+         * @param baseEnd Where the range of the base ends, exclusive.
+         * @param sideStart Where the range of the copy starts.
+         * @param sideEnd Where the range of the copy ends, exclusive.
+         */
+        void compare(int baseStart, int baseEnd, int sideStart, int sideEnd) {
+            // Skip what the ranges start and end with in common.
+            while (baseStart < baseEnd && sideStart < sideEnd
+                    && this.base[baseStart] == this.side[sideStart]) {
+                baseStart ++;
+                sideStart ++;
+            }
+            while (baseStart < baseEnd && sideStart < sideEnd
+                    && this.base[baseEnd - 1] == this.side[sideEnd - 1]) {
+                baseEnd --;
+                sideEnd --;
+            }
+            if (baseStart == baseEnd || sideStart == sideEnd) {
+                this.markChanged(baseStart, baseEnd, sideStart, sideEnd);
+                return;
+            }
+            if (this.compareUnique(baseStart, baseEnd, sideStart, sideEnd)) {
+                return;
+            }
+            int[] split = this.findMiddleSnake(baseStart, baseEnd, sideStart, sideEnd);
+            if (split == null || (split[0] == baseStart && split[1] == sideStart)
+                    || (split[0] == baseEnd && split[1] == sideEnd)) {
+                // Too costly to compare, or no progress; take it all as changed.
+                this.markChanged(baseStart, baseEnd, sideStart, sideEnd);
+                return;
+            }
+            this.compare(baseStart, split[0], sideStart, split[1]);
+            this.compare(split[0], baseEnd, split[1], sideEnd);
+        }
+
+        /**
+         * Lines up the lines that occur exactly once in both ranges, keeping as many as possible
+         * in order, and compares the stretches in between.
+         * @param baseStart Where the range of the base starts.
+         * @param baseEnd Where the range of the base ends, exclusive.
+         * @param sideStart Where the range of the copy starts.
+         * @param sideEnd Where the range of the copy ends, exclusive.
+         * @return Whether or not any lines could be lined up. If not, nothing was marked.
+         */
+        private boolean compareUnique(int baseStart, int baseEnd, int sideStart, int sideEnd) {
+            // For every line: how often it occurs in each range, and where.
+            HashMap<Integer, int[]> occurrences = new HashMap<>();
+            for (int i = baseStart; i < baseEnd; i ++) {
+                int[] occurrence = occurrences.get(this.base[i]);
+                if (occurrence == null) {
+                    occurrence = new int[] {0, 0, i, -1};
+                    occurrences.put(this.base[i], occurrence);
+                }
+                occurrence[0] ++;
+            }
+            for (int j = sideStart; j < sideEnd; j ++) {
+                int[] occurrence = occurrences.get(this.side[j]);
+                if (occurrence != null) {
+                    occurrence[1] ++;
+                    occurrence[3] = j;
+                }
+            }
+            // Positions in the copy of the unique lines, in the order of the base.
+            int[] matches = new int[baseEnd - baseStart];
+            int[] matchBase = new int[baseEnd - baseStart];
+            int count = 0;
+            for (int i = baseStart; i < baseEnd; i ++) {
+                int[] occurrence = occurrences.get(this.base[i]);
+                if (occurrence[0] == 1 && occurrence[1] == 1) {
+                    matchBase[count] = i;
+                    matches[count] = occurrence[3];
+                    count ++;
+                }
+            }
+            if (count == 0) {
+                return false;
+            }
+
+            // Keep the longest run of them that is in order in the copy too.
+            int[] kept = longestIncreasing(matches, count);
+            int lastBase = baseStart;
+            int lastSide = sideStart;
+            for (int index : kept) {
+                this.compare(lastBase, matchBase[index], lastSide, matches[index]);
+                lastBase = matchBase[index] + 1;
+                lastSide = matches[index] + 1;
+            }
+            this.compare(lastBase, baseEnd, lastSide, sideEnd);
+            return true;
+        }
+
+        /**
+         * Finds a point that a shortest edit script between the ranges passes through, using
+         * Myers' algorithm from both ends at once, so that only linear space is needed.
+         * @param baseStart Where the range of the base starts.
+         * @param baseEnd Where the range of the base ends, exclusive.
+         * @param sideStart Where the range of the copy starts.
+         * @param sideEnd Where the range of the copy ends, exclusive.
+         * @return The point, as a position in the base and one in the copy, or null if more
+         * than MAX_EDIT_COST edits would have to be looked for.
+         */
+        private int[] findMiddleSnake(int baseStart, int baseEnd, int sideStart, int sideEnd) {
+            int n = baseEnd - baseStart;
+            int m = sideEnd - sideStart;
+            int maxCost = Math.min((n + m + 1) / 2, MAX_EDIT_COST);
+            // Diagonals run from -maxCost to maxCost, so shift them to start at 0.
+            int offset = maxCost;
+            int length = 2 * maxCost;
+            int[] forward = this.forward;
+            int[] backward = this.backward;
+            Arrays.fill(forward, 0, length, -1);
+            Arrays.fill(backward, 0, length, -1);
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int delta = n - m;
+            // Whether or not the paths can first meet while going forwards.
+            boolean front = (delta & 1) != 0;
+            // Diagonals on either end that ran off the edges, and need no further looking at.
+            int forwardStart = 0;
+            int forwardEnd = 0;
+            int backwardStart = 0;
+            int backwardEnd = 0;
+            for (int d = 0; d < maxCost; d ++) {
+                for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                    int index = offset + k;
+                    int x = (k == -d || (k != d && forward[index - 1] < forward[index + 1]))
+                            ? forward[index + 1] : forward[index - 1] + 1;
+                    int y = x - k;
+                    while (x < n && y < m
+                            && this.base[baseStart + x] == this.side[sideStart + y]) {
+                        x ++;
+                        y ++;
+                    }
+                    forward[index] = x;
+                    if (x > n) {
+                        forwardEnd += 2;
+                    } else if (y > m) {
+                        forwardStart += 2;
+                    } else if (front) {
+                        int other = offset + delta - k;
+                        if (other >= 0 && other < length && backward[other] != -1
+                                && x >= n - backward[other]) {
+                            return new int[] {baseStart + x, sideStart + y};
+                        }
+                    }
+                }
+                for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                    int index = offset + k;
+                    int x = (k == -d || (k != d && backward[index - 1] < backward[index + 1]))
+                            ? backward[index + 1] : backward[index - 1] + 1;
+                    int y = x - k;
+                    while (x < n && y < m && this.base[baseEnd - 1 - x]
+                            == this.side[sideEnd - 1 - y]) {
+                        x ++;
+                        y ++;
+                    }
+                    backward[index] = x;
+                    if (x > n) {
+                        backwardEnd += 2;
+                    } else if (y > m) {
+                        backwardStart += 2;
+                    } else if (!front) {
+                        int other = offset + delta - k;
+                        if (other >= 0 && other < length && forward[other] != -1
+                                && forward[other] >= n - x) {
+                            int forwardX = forward[other];
+                            return new int[] {baseStart + forwardX,
+                                    sideStart + forwardX - (other - offset)};
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Marks the given ranges as changed.
+         * @param baseStart Where the range of the base starts.
+         * @param baseEnd Where the range of the base ends, exclusive.
+         * @param sideStart Where the range of the copy starts.
+         * @param sideEnd Where the range of the copy ends, exclusive.
+         */
+        private void markChanged(int baseStart, int baseEnd, int sideStart, int sideEnd) {
+            Arrays.fill(this.baseChanged, baseStart, baseEnd, true);
+            Arrays.fill(this.sideChanged, sideStart, sideEnd, true);
+        }
+
+        /**
+         * Finds a longest strictly increasing subsequence of the given numbers, by patience
+         * sorting.
+         * @param values The numbers.
+         * @param count How many of the numbers to look at.
+         * @return The indices of the subsequence, in order.
+         */
+        private static int[] longestIncreasing(int[] values, int count) {
+            // Index of the smallest last value of an increasing run of each length.
+            int[] tails = new int[count];
+            int[] previous = new int[count];
+            int length = 0;
+            for (int i = 0; i < count; i ++) {
+                int low = 0;
+                int high = length;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (values[tails[middle]] < values[i]) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                previous[i] = low > 0 ? tails[low - 1] : -1;
+                tails[low] = i;
+                if (low == length) {
+                    length ++;
+                }
+            }
+            int[] result = new int[length];
+            for (int i = length - 1, index = tails[length - 1]; i >= 0; i --) {
+                result[i] = index;
+                index = previous[index];
+            }
+            return result;
+        }
+    }
+}
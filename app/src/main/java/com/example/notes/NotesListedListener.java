@@ -0,0 +1,15 @@
+package com.example.notes;
+
+import java.util.List;
+
+/**
+ * Interface that is responsible for letting user know which notes are saved on Google Drive.
+ */
+public interface NotesListedListener {
+
+    /**
+     * Handle the notes that were listed.
+     * @param notes The notes, the most recently saved first, or null if they could not be listed.
+     */
+    void onNotesListed(List<NoteInfo> notes);
+}
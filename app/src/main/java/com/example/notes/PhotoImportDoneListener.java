@@ -0,0 +1,14 @@
+package com.example.notes;
+
+/**
+ * Interface that is responsible for letting user know that a photo has just been copied into the
+ * PhotoStore.
+ */
+public interface PhotoImportDoneListener {
+
+    /**
+     * Handle the photo that was imported.
+     * @param item The item for the photo. If unable to import the photo, it is null.
+     */
+    void onPhotoImportComplete(ItemViewData item);
+}
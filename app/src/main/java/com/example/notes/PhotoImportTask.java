@@ -0,0 +1,47 @@
+package com.example.notes;
+
+import android.net.Uri;
+import android.os.AsyncTask;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Task that is responsible for copying a photo the user chose into the PhotoStore.
+ */
+public class PhotoImportTask extends AsyncTask<Void, Void, ItemViewData> {
+
+    private PhotoStore store;
+    private Uri uri;
+    private List<PhotoImportDoneListener> listeners;
+
+    /**
+     * Creates a new task that imports the photo at the given Uri.
+     * @param store The PhotoStore to import the photo into.
+     * @param uri The Uri of the photo.
+     * @param listeners The listeners to notify when the import is complete.
+     */
+    public PhotoImportTask(PhotoStore store, Uri uri, List<PhotoImportDoneListener> listeners) {
+        this.store = store;
+        this.uri = uri;
+        this.listeners = listeners;
+    }
+
+    @Override
+    protected ItemViewData doInBackground(Void... voids) {
+        try {
+            return this.store.importPhoto(this.uri);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(ItemViewData item) {
+        super.onPostExecute(item);
+        for (PhotoImportDoneListener listener : this.listeners) {
+            listener.onPhotoImportComplete(item);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.notes;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores the photos that are part of the notes inside of the app`s own storage. Every photo is
+ * stored once, under the SHA-256 hash of its contents, so that it can be found again later from
+ * its hash alone without needing access to the Uri it originally came from.
+ */
+public class PhotoStore {
+
+    // Directory inside of the app`s files directory that holds the photos.
+    final private static String PHOTO_DIRECTORY = "photos";
+
+    final private static String HASH_ALGORITHM = "SHA-256";
+
+    final private static int BUFFER_SIZE = 16 * 1024;
+
+    private Context context;
+
+    /**
+     * Creates a new PhotoStore that keeps its photos in the storage of the given Context.
+     * @param context The Context.
+     */
+    public PhotoStore(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Copies the photo at the given Uri into the store, and returns an item referencing the copy.
+     * Reads the whole photo, so should not be called on the main thread.
+     * @param uri The Uri of the photo.
+     * @return The item for the photo.
+     * @throws IOException If the photo could not be read or stored.
+     */
+    public ItemViewData importPhoto(Uri uri) throws IOException {
+        File directory = this.getDirectory();
+        File temp = File.createTempFile("import", null, directory);
+        try {
+            MessageDigest digest = this.newDigest();
+            this.copy(uri, temp, digest);
+
+            String hash = this.toHex(digest.digest());
+            String location = PHOTO_DIRECTORY + "/" + hash;
+            File blob = new File(directory, hash);
+
+            // The same photo may already be stored, in which case the copy is not needed.
+            if (!blob.exists() && !temp.renameTo(blob)) {
+                throw new IOException("Unable to store photo " + hash);
+            }
+            return new ItemViewData(location, ItemViewData.TYPE_PHOTO, hash);
+        } finally {
+            // Whatever is left of the copy is not needed, whether or not it was stored. Once it
+            // has been renamed, there is nothing left to delete.
+            temp.delete();
+        }
+    }
+
+    /**
+     * Copies the photo at the given Uri into the given file, hashing it along the way.
+     * @param uri The Uri of the photo.
+     * @param file The file to copy it into.
+     * @param digest The MessageDigest to hash it with.
+     * @throws IOException If the photo could not be read or copied.
+     */
+    private void copy(Uri uri, File file, MessageDigest digest) throws IOException {
+        InputStream in = this.context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            // Close both, even if closing the first one fails.
+            try {
+                in.close();
+            } finally {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the Uri to display the photo of the given item. Photos that were saved before
+     * they were kept in the store still refer to their original Uri.
+     * @param item The photo item.
+     * @return The Uri.
+     */
+    public Uri getUri(ItemViewData item) {
+        if (item.getHash() == null) {
+            return Uri.parse(item.getData());
+        }
+        return Uri.fromFile(new File(this.context.getFilesDir(), item.getData()));
+    }
+
+    /**
+     * Returns the directory that holds the photos, creating it if necessary.
+     * @return The directory.
+     * @throws IOException If the directory could not be created.
+     */
+    private File getDirectory() throws IOException {
+        File directory = new File(this.context.getFilesDir(), PHOTO_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Returns a new MessageDigest used to hash the photos.
+     * @return The MessageDigest.
+     */
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Converts the given bytes to a lowercase hexadecimal String.
+     * @param bytes The bytes.
+     * @return The String.
+     */
+    private String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
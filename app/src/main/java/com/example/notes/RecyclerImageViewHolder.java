@@ -38,10 +38,10 @@ public class RecyclerImageViewHolder extends RecyclerView.ViewHolder {
 
     /**
      * Set the image to display.
-     * @param uri The uri of the image as a String.
+     * @param uri The uri of the image.
      */
-    public void setImage(String uri) {
-        this.imageView.setImageURI(Uri.parse(uri));
+    public void setImage(Uri uri) {
+        this.imageView.setImageURI(uri);
     }
 
     /**
@@ -5,13 +5,12 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 /**
  * A custom Adapter for a RecyclerView that can hold TextAreas and PhotoViews. Allows user to drag
@@ -20,9 +19,14 @@ import java.util.Collections;
  * when user presses ENTER.
  */
 public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> implements
-        ItemMoveCallback.ItemTouchHelperContract, AddLineListener, RemoveLineListener {
+        ItemMoveCallback.ItemTouchHelperContract, AddLineListener, RemoveLineListener,
+        LineEditedListener, LocalNoteStore.SnapshotSource {
 
-    private ArrayList<ItemViewData> data;
+    // Payload of items that only need their text size updated, rather than being bound again.
+    final private static Object PAYLOAD_TEXT_SIZE = new Object();
+
+    // The items being displayed.
+    private NoteDocument data;
 
     // The size at which to display the text.
     private int textSize = 12;
@@ -38,6 +42,39 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     // RecyclerView that this adapter should be used for.
     private RecyclerView recyclerView;
 
+    // What was displayed before a load started. Restored if the load fails, null otherwise.
+    private NoteDocument dataBeforeLoad;
+
+    // Changes made since the data was last saved or loaded.
+    private EditLog editLog = new EditLog();
+
+    // The changes from before a load started. Restored if the load fails, null otherwise.
+    private EditLog editLogBeforeLoad;
+
+    // IDs of the items loaded so far by the current load, or null if nothing is being loaded.
+    private HashSet<Long> loadedIds;
+
+    // Where the photos being displayed are stored.
+    private PhotoStore photoStore;
+
+    // Where every change is recorded so that the note survives the app closing. Null until set.
+    private LocalNoteStore localStore;
+
+    // Number of changes the user made so far.
+    private int changeCount = 0;
+
+    // Value of changeCount when the data last matched what is saved, or -1 if it never did.
+    private int savedChangeCount = -1;
+
+    // Value of changeCount when the changes were last taken to be saved.
+    private int takenChangeCount = 0;
+
+    // Value of changeCount when the current load started.
+    private int loadChangeCount = 0;
+
+    // Notified whenever the user changes the data. May be null.
+    private NoteChangedListener noteChangedListener;
+
     /**
      * Adapter for displaying TextAreas and PhotoViews.
      * @param context The Context.
@@ -47,12 +84,14 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     public RecyclerViewAdapter(Context context, ArrayList<ItemViewData> data,
                                RecyclerView recyclerView) {
         this.context = context;
-        this.data = data;
+        this.data = new NoteDocument();
         this.recyclerView = recyclerView;
-        if (this.data == null) {
-            this.data = new ArrayList<>(0);
+        this.photoStore = new PhotoStore(context);
+        if (data != null) {
+            this.data.addAll(data);
         }
-        this.notifyDataSetChanged();
+        // Items keep their views while they move around, and are only bound again if they change.
+        this.setHasStableIds(true);
     }
 
     /**
@@ -61,7 +100,12 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
      */
     public void addData(ItemViewData data) {
         // Add data to top.
-        this.data.add(0, data);
+        this.data.insert(0, data);
+        this.editLog.recordInsert(0, data);
+        this.countChange();
+        if (this.isJournaling()) {
+            this.localStore.recordInsert(0, data);
+        }
         this.focusPosition = 0;
         this.notifyItemInserted(0);
         this.recyclerView.scrollToPosition(0);
@@ -73,45 +117,297 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
      */
     public void setDisplayData(SaveData saveData) {
         this.data.clear();
-        BufferedReader reader = new BufferedReader(new StringReader(saveData.getText()));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
-                ItemViewData item = new ItemViewData(line, ItemViewData.TYPE_TEXT);
-                this.data.add(item);
+        this.data.addAll(saveData.getItems());
+        makeIdsUnique(this.data, new HashSet<Long>());
+        // Nothing is known about where the data came from, so the next save has to be complete.
+        this.editLog = new EditLog();
+        this.savedChangeCount = -1;
+        this.takenChangeCount = this.changeCount;
+        this.focusPosition = 0;
+        this.textSize = saveData.getFontSize();
+        this.notifyDataSetChanged();
+        this.saveLocally();
+    }
+
+    /**
+     * Replaces the data being displayed with the given data, only inserting, removing and binding
+     * again the items that changed, so that the position the user scrolled to and the line being
+     * edited stay where they are. Items whose data did not change are kept as they are, since
+     * their views are not bound again and still edit them.
+     * @param saveData The data to display.
+     * @param diff How the data differs from the data being displayed, which must not have
+     * changed since it was worked out.
+     * @param synced Whether or not the data is what is saved, such as when it was just downloaded.
+     */
+    public void applyDisplayData(SaveData saveData, DiffUtil.DiffResult diff, boolean synced) {
+        List<ItemViewData> newItems = saveData.getItems();
+        ArrayList<ItemViewData> items = new ArrayList<>(newItems.size());
+        // Items that are kept have views with their IDs, so only the others may get new ones.
+        HashSet<Long> keptIds = new HashSet<>();
+        ArrayList<ItemViewData> addedItems = new ArrayList<>();
+        for (int i = 0; i < newItems.size(); i ++) {
+            int oldPosition = diff.convertNewPositionToOld(i);
+            ItemViewData item = newItems.get(i);
+            if (oldPosition != DiffUtil.DiffResult.NO_POSITION
+                    && ItemDiff.hasSameData(this.data.get(oldPosition), item)) {
+                item = this.data.get(oldPosition);
+                keptIds.add(item.getId());
+            } else {
+                addedItems.add(item);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            items.add(item);
+        }
+        makeIdsUnique(addedItems, keptIds);
+        if (this.focusPosition >= 0 && this.focusPosition < this.data.size()) {
+            // If the line to focus is gone, leave the focus wherever it is.
+            this.focusPosition = diff.convertOldPositionToNew(this.focusPosition);
+        }
+        this.data.clear();
+        this.data.addAll(items);
+        this.editLog = new EditLog();
+        this.editLog.setSynced(synced);
+        this.savedChangeCount = synced ? this.changeCount : -1;
+        this.takenChangeCount = this.changeCount;
+        diff.dispatchUpdatesTo(this);
+        if (this.textSize != saveData.getFontSize()) {
+            this.textSize = saveData.getFontSize();
+            this.notifyItemRangeChanged(0, this.data.size(), PAYLOAD_TEXT_SIZE);
+        }
+        this.saveLocally();
+    }
+
+    /**
+     * Marks the data being displayed as matching what is saved, when that is known from
+     * elsewhere, such as the copy kept on the device.
+     */
+    public void markSynced() {
+        this.editLog.setSynced(true);
+        this.savedChangeCount = this.changeCount;
+    }
+
+    /**
+     * Marks the data being displayed as no longer matching what is saved apart from the recorded
+     * changes, such as when what is saved changed elsewhere. The next save has to be complete.
+     */
+    public void markUnsynced() {
+        this.editLog.setSynced(false);
+        this.savedChangeCount = -1;
+    }
+
+    /**
+     * Returns whether or not the user changed the data being displayed since it last matched what
+     * is saved.
+     * @return True for yes, False for no.
+     */
+    public boolean hasUnsavedChanges() {
+        return this.changeCount != this.savedChangeCount;
+    }
+
+    /**
+     * Returns the number of changes the user made so far, so that it can be told whether or not
+     * the data was changed while something ran in the background.
+     * @return The number of changes.
+     */
+    public int getChangeCount() {
+        return this.changeCount;
+    }
+
+    /**
+     * Starts recording every change into the given store, beginning with the data being displayed
+     * now.
+     * @param localStore The store, or null to stop recording changes.
+     */
+    public void setLocalStore(LocalNoteStore localStore) {
+        this.localStore = localStore;
+        if (this.localStore != null) {
+            this.localStore.start(this);
+        }
+    }
+
+    /**
+     * Sets the listener to notify whenever the user changes the data.
+     * @param noteChangedListener The listener.
+     */
+    public void setNoteChangedListener(NoteChangedListener noteChangedListener) {
+        this.noteChangedListener = noteChangedListener;
+    }
+
+    /**
+     * Counts a change the user just made, and lets the listener know about it.
+     */
+    private void countChange() {
+        this.changeCount ++;
+        if (this.noteChangedListener != null) {
+            this.noteChangedListener.onNoteChanged();
         }
+    }
+
+    /**
+     * Returns whether or not changes should be recorded into the local store. They are not while
+     * loading, since the data is only complete once the load is finished.
+     * @return True for yes, False for no.
+     */
+    private boolean isJournaling() {
+        return this.localStore != null && this.dataBeforeLoad == null;
+    }
+
+    /**
+     * Stores the whole data being displayed in the local store, replacing the changes recorded so
+     * far.
+     */
+    private void saveLocally() {
+        if (this.isJournaling()) {
+            this.localStore.checkpoint(this.getSaveData(), !this.hasUnsavedChanges());
+        }
+    }
+
+    /**
+     * Removes the data being displayed, so that the data being loaded can be added to it in
+     * chunks. The removed data is kept until the load is finished, in case the load fails.
+     * @param fontSize The size of the font of the data being loaded.
+     */
+    public void startLoading(int fontSize) {
+        // Write out the changes made so far, since none are recorded while loading.
+        if (this.localStore != null) {
+            this.localStore.flush();
+        }
+        this.dataBeforeLoad = this.data;
+        this.data = new NoteDocument();
+        this.editLogBeforeLoad = this.editLog;
+        this.editLog = new EditLog();
+        this.loadChangeCount = this.changeCount;
+        this.loadedIds = new HashSet<>();
         this.focusPosition = 0;
-        this.setTextSize(saveData.getFontSize());
+        this.textSize = fontSize;
         this.notifyDataSetChanged();
     }
 
     /**
-     * Returns the Data that is currently being displayed.
+     * Adds the next chunk of loaded data to the end, only notifying about the inserted range.
+     * @param items The loaded items.
+     */
+    public void addLoadedData(List<ItemViewData> items) {
+        if (this.loadedIds != null) {
+            makeIdsUnique(items, this.loadedIds);
+        }
+        int start = this.data.size();
+        this.data.addAll(items);
+        this.notifyItemRangeInserted(start, items.size());
+    }
+
+    /**
+     * Applies changes that were saved after the loaded data, in order. Only valid while loading.
+     * @param changes The changes.
+     * @return Whether or not the changes could be applied. If not, the load should be failed.
+     */
+    public boolean applyLoadedChanges(List<EditOperation> changes) {
+        try {
+            for (EditOperation change : changes) {
+                change.apply(this.data);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (!changes.isEmpty()) {
+            this.notifyDataSetChanged();
+        }
+        return true;
+    }
+
+    /**
+     * Finishes loading data. If the load failed, the data that was displayed before it started is
+     * displayed again.
+     * @param successful Whether or not every chunk was loaded.
+     */
+    public void finishLoading(boolean successful) {
+        if (!successful && this.dataBeforeLoad != null) {
+            this.data = this.dataBeforeLoad;
+            this.editLog = this.editLogBeforeLoad;
+            this.notifyDataSetChanged();
+        } else if (successful) {
+            // The data now matches what is saved, so from now on only changes need saving.
+            this.editLog.setSynced(true);
+            if (this.changeCount == this.loadChangeCount) {
+                this.savedChangeCount = this.changeCount;
+            }
+        }
+        this.dataBeforeLoad = null;
+        this.editLogBeforeLoad = null;
+        this.loadedIds = null;
+        this.saveLocally();
+    }
+
+    /**
+     * Gives every item whose ID is already taken a new one, so that no two items of the note have
+     * the same ID. That can happen when items added on different devices are put together.
+     * @param items The items.
+     * @param ids The IDs taken so far. The IDs of the items are added to them.
+     */
+    private static void makeIdsUnique(Iterable<ItemViewData> items, HashSet<Long> ids) {
+        for (ItemViewData item : items) {
+            if (!ids.add(item.getId())) {
+                item.renewId();
+                ids.add(item.getId());
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not the data being displayed was loaded or saved, so that it matches
+     * what is saved apart from the changes made since.
+     * @return True for yes, False for no.
+     */
+    public boolean isSynced() {
+        return this.editLog.isSynced();
+    }
+
+    /**
+     * Returns the changes made since the last time they were taken, so that they can be saved.
+     * Like getSaveData, the changes hold copies of the items, so later edits do not change them.
+     * @return The changes, or null if the data has never matched what is saved, in which case
+     * the whole data has to be saved instead.
+     */
+    public List<EditOperation> takeChanges() {
+        this.takenChangeCount = this.changeCount;
+        List<EditOperation> changes = this.editLog.takeChanges(this.data);
+        if (!this.editLog.isSynced()) {
+            return null;
+        }
+        return changes;
+    }
+
+    /**
+     * Handles the result of saving changes that were taken.
+     * @param changes The changes that were taken, or null if the whole data was saved.
+     * @param successful Whether or not the save was successful.
+     */
+    public void onChangesSaved(List<EditOperation> changes, boolean successful) {
+        if (successful) {
+            this.editLog.setSynced(true);
+            this.savedChangeCount = this.takenChangeCount;
+            // Let the local copy know it matches, unless more changes were made since.
+            if (!this.hasUnsavedChanges()) {
+                this.saveLocally();
+            }
+        } else if (changes != null) {
+            this.editLog.restoreChanges(changes);
+        }
+    }
+
+    /**
+     * Returns the Data that is currently being displayed. The items are copied, so later edits
+     * do not change the returned SaveData.
      * @return The SaveData.
      */
+    @Override
     public SaveData getSaveData() {
-        String dataString = "";
-
-        for (int i = 0; i < this.getItemCount(); i ++) {
-            dataString += this.data.get(i).getData();
-            dataString += "\n";
-
-            // We have reached the end.
-            if (i == this.getItemCount() - 1) {
-
-                /*
-                If the last line is empty, must insert a extra new line character. This is because
-                BufferedReader will ignore any instances of the last line being empty. Thus, we must
-                work around this by inserting an extra new line.
-                 */
-                if (this.data.get(i).getData().equals(""))
-                    dataString += "\n";
-            }
+        ArrayList<ItemViewData> items = new ArrayList<>(this.data.size());
+        for (ItemViewData item : this.data) {
+            items.add(new ItemViewData(item.getData(), item.getViewType(), item.getHash(),
+                    item.getId()));
         }
-        return new SaveData(dataString, this.getTextSize());
+        return new SaveData(items, this.getTextSize());
     }
 
     /**
@@ -120,7 +416,10 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
      */
     public void setTextSize(int textSize) {
         this.textSize = textSize;
-        this.notifyDataSetChanged();
+        this.countChange();
+        // Only the size changes, so there is no need to bind the items again.
+        this.notifyItemRangeChanged(0, this.data.size(), PAYLOAD_TEXT_SIZE);
+        this.saveLocally();
     }
 
     /**
@@ -131,6 +430,11 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         return this.textSize;
     }
 
+    @Override
+    public long getItemId(int position) {
+        return this.data.get(position).getId();
+    }
+
     @Override
     public int getItemViewType(int position) {
         return this.data.get(position).getViewType();
@@ -156,10 +460,10 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
-        if (this.getItemViewType(position) == ItemViewData.TYPE_TEXT) {
+        ItemViewData item = this.data.get(position);
+        if (item.getViewType() == ItemViewData.TYPE_TEXT) {
             TextAreaHolder textHolder = (TextAreaHolder) holder;
-            textHolder.setData(this.data.get(position).getData(), this.textSize,
-                    this.data.get(position),this, this);
+            textHolder.setData(item, this.textSize, this, this, this);
 
             // Request focus at the right position.
             if (position == this.focusPosition) {
@@ -169,7 +473,24 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
         } else {
             RecyclerImageViewHolder imageHolder = (RecyclerImageViewHolder) holder;
-            imageHolder.setImage(data.get(position).getData());
+            imageHolder.setImage(this.photoStore.getUri(item));
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position,
+                                 List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_TEXT_SIZE) {
+                // Anything else changed, so bind the item again.
+                this.onBindViewHolder(holder, position);
+                return;
+            }
+        }
+        if (payloads.isEmpty()) {
+            this.onBindViewHolder(holder, position);
+        } else if (holder instanceof TextAreaHolder) {
+            ((TextAreaHolder) holder).setTextSize(this.textSize);
         }
     }
 
@@ -181,7 +502,13 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     @Override
     public void addLine(int position, String newLine) {
         // Add new item because user pressed enter, so move on to next line.
-        this.data.add(position + 1, new ItemViewData(newLine, ItemViewData.TYPE_TEXT));
+        ItemViewData item = new ItemViewData(newLine, ItemViewData.TYPE_TEXT);
+        this.data.insert(position + 1, item);
+        this.editLog.recordInsert(position + 1, item);
+        this.countChange();
+        if (this.isJournaling()) {
+            this.localStore.recordInsert(position + 1, item);
+        }
         this.focusPosition = position + 1;
         this.focusCursor = 0;
         this.notifyItemInserted(position + 1);
@@ -197,10 +524,16 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             return;
         // Set new focus.
         this.focusPosition = position - 1;
-        this.focusCursor = this.data.get(position - 1).getData().length();
+        this.focusCursor = this.data.get(position - 1).getDataLength();
         // Remove line and transfer data to line above it.
         this.data.remove(position);
+        this.editLog.recordRemove(position);
         this.data.get(position - 1).appendData(line);
+        this.countChange();
+        if (this.isJournaling()) {
+            this.localStore.recordRemove(position);
+            this.localStore.recordEdit(position - 1, this.data.get(position - 1));
+        }
         this.notifyItemRemoved(position);
         this.notifyItemChanged(position - 1);
         // Scroll to the line so that it does not appear offscreen.
@@ -209,18 +542,28 @@ public class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
 
     @Override
     public void onRowMoved(int fromPosition, int toPosition) {
-        if (fromPosition < toPosition) {
-            for (int i = fromPosition; i < toPosition; i++) {
-                Collections.swap(data, i, i + 1);
-            }
-        } else {
-            for (int i = fromPosition; i > toPosition; i--) {
-                Collections.swap(data, i, i - 1);
-            }
+        this.data.move(fromPosition, toPosition);
+        this.editLog.recordMove(fromPosition, toPosition);
+        this.countChange();
+        if (this.isJournaling()) {
+            this.localStore.recordMove(fromPosition, toPosition);
         }
         notifyItemMoved(fromPosition, toPosition);
     }
 
+    @Override
+    public void onLineEdited(int position) {
+        this.countChange();
+        if (!this.isJournaling()) {
+            return;
+        }
+        if (position == RecyclerView.NO_POSITION || position >= this.data.size()) {
+            this.localStore.recordUnknownChange();
+        } else {
+            this.localStore.recordEdit(position, this.data.get(position));
+        }
+    }
+
     @Override
     public void onRowSelected(TextAreaHolder viewHolder) {
         viewHolder.setBackground(this.context.getResources().getDrawable(
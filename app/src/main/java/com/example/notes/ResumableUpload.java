@@ -0,0 +1,341 @@
+package com.example.notes;
+
+import com.google.api.client.googleapis.MethodOverride;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Uploads the contents of a file on Google Drive in chunks, using the resumable upload protocol,
+ * so that a dropped connection only costs the chunk that was being sent. The contents are written
+ * to a spool file first, and the session is remembered, so that an upload of the same contents to
+ * the same file continues where the last one left off, even after the app restarted. The upload
+ * library of the Drive client can not pick up a session it did not start, which is why the
+ * protocol is spoken here directly.
+ */
+public class ResumableUpload {
+
+    final private static String UPLOAD_URL = "https://www.googleapis.com/upload/drive/v3/files/";
+
+    // Chunks have to be a multiple of this many bytes, apart from the last one.
+    final static int CHUNK_GRANULARITY = 256 * 1024;
+
+    // HTTP status code for a chunk that was received, when more are expected.
+    final private static int STATUS_RESUME_INCOMPLETE = 308;
+
+    // HTTP status codes for a session that no longer exists.
+    final private static int STATUS_NOT_FOUND = 404;
+    final private static int STATUS_GONE = 410;
+
+    private Drive service;
+
+    private UploadSessionStore sessionStore;
+
+    private RetryPolicy retryPolicy;
+
+    // Number of bytes to send per request.
+    private int chunkSize;
+
+    /**
+     * Interface for following how far an upload got.
+     */
+    public interface ProgressListener {
+
+        /**
+         * More of the contents were received. Called on the uploading thread.
+         * @param uploaded The number of bytes received so far.
+         * @param total The number of bytes in all.
+         */
+        void onProgress(long uploaded, long total);
+    }
+
+    /**
+     * Creates a new uploader.
+     * @param service The Drive service, whose credentials are used.
+     * @param sessionStore Where to remember the session.
+     * @param retryPolicy What to retry requests that failed with.
+     * @param chunkSize The number of bytes to send per request. Must be a positive multiple of
+     * CHUNK_GRANULARITY.
+     */
+    public ResumableUpload(Drive service, UploadSessionStore sessionStore,
+                           RetryPolicy retryPolicy, int chunkSize) {
+        if (chunkSize <= 0 || chunkSize % CHUNK_GRANULARITY != 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.service = service;
+        this.sessionStore = sessionStore;
+        this.retryPolicy = retryPolicy;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Replaces the contents and metadata of the given file, resuming an earlier upload of the
+     * same thing if there is one.
+     * @param fileId The ID of the file.
+     * @param metadata The metadata to set.
+     * @param data The data to upload.
+     * @param compressed Whether or not to compress the items of the data.
+     * @param fields The fields of the file to ask for.
+     * @param listener The listener to tell whenever a chunk was received, or null.
+     * @return The file, as it is after the upload.
+     * @throws IOException If the upload failed. If it may be resumed, the session is kept.
+     */
+    public File upload(String fileId, File metadata, SaveData data, boolean compressed,
+                       String fields, ProgressListener listener) throws IOException {
+        java.io.File spoolFile = this.sessionStore.getSpoolFile();
+        String checksum = this.spool(data, compressed, spoolFile);
+        long total = spoolFile.length();
+        String key = fileId + ":" + metadata.getAppProperties() + ":" + fields + ":" + total
+                + ":" + checksum;
+
+        RandomAccessFile in = new RandomAccessFile(spoolFile, "r");
+        try {
+            String sessionUri = this.sessionStore.getSessionUri(key);
+            if (sessionUri != null) {
+                try {
+                    return this.send(sessionUri, in, total, true, listener);
+                } catch (HttpResponseException e) {
+                    if (!isSessionGone(e)) {
+                        throw e;
+                    }
+                    // It expired, so start over.
+                }
+            }
+            sessionUri = this.startSession(fileId, metadata, total, fields);
+            this.sessionStore.setSession(key, sessionUri);
+            return this.send(sessionUri, in, total, false, listener);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Forgets the upload in progress, if any.
+     */
+    public void clear() {
+        this.sessionStore.clear();
+    }
+
+    /**
+     * Writes the encoded data to the spool file.
+     * @param data The data.
+     * @param compressed Whether or not to compress the items of the data.
+     * @param spoolFile The spool file.
+     * @return The MD5 checksum of what was written, in hexadecimal.
+     * @throws IOException If the file could not be written.
+     */
+    private String spool(SaveData data, boolean compressed, java.io.File spoolFile)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        OutputStream out = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(spoolFile)), digest);
+        try {
+            data.writeTo(out, compressed);
+        } finally {
+            out.close();
+        }
+        StringBuilder checksum = new StringBuilder();
+        for (byte b : digest.digest()) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+
+    /**
+     * Starts a new session for uploading the file.
+     * @param fileId The ID of the file.
+     * @param metadata The metadata to set.
+     * @param total The number of bytes that will be uploaded.
+     * @param fields The fields of the file to ask for once the upload is complete.
+     * @return The URI of the session.
+     * @throws IOException If the session could not be started.
+     */
+    private String startSession(final String fileId, final File metadata, final long total,
+                                final String fields) throws IOException {
+        return this.retryPolicy.execute(new RetryPolicy.Call<String>() {
+            @Override
+            public String call(int attempt) throws IOException {
+                GenericUrl url = new GenericUrl(UPLOAD_URL + fileId);
+                url.put("uploadType", "resumable");
+                url.put("fields", fields);
+                JsonHttpContent content = new JsonHttpContent(
+                        ResumableUpload.this.service.getJsonFactory(), metadata);
+                HttpRequest request = ResumableUpload.this.service.getRequestFactory()
+                        .buildRequest(HttpMethods.PATCH, url, content);
+                // The transport may not know PATCH, so it is sent as POST with an override.
+                new MethodOverride().intercept(request);
+                request.getHeaders().set("X-Upload-Content-Length", total);
+                HttpResponse response = request.execute();
+                try {
+                    String location = response.getHeaders().getLocation();
+                    if (location == null) {
+                        throw new IOException("No session URI in response.");
+                    }
+                    return location;
+                } finally {
+                    response.disconnect();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends whatever the session has not received yet, one chunk at a time. A chunk that failed
+     * is retried from wherever the session says it got to.
+     * @param sessionUri The URI of the session.
+     * @param in The spool file.
+     * @param total The number of bytes in the spool file.
+     * @param resuming Whether or not the session was started earlier, in which case it is asked
+     * how much it has received first.
+     * @param listener The listener to tell whenever a chunk was received, or null.
+     * @return The file, as it is after the upload.
+     * @throws IOException If the upload failed.
+     */
+    private File send(final String sessionUri, final RandomAccessFile in, final long total,
+                      boolean resuming, ProgressListener listener) throws IOException {
+        final byte[] buffer = new byte[(int) Math.min(this.chunkSize, Math.max(total, 1))];
+        UploadStatus status = resuming ? this.queryStatus(sessionUri, total)
+                : new UploadStatus(0, null);
+        while (status.file == null) {
+            if (Thread.currentThread().isInterrupted()) {
+                // The session is kept, so that the upload can be resumed.
+                throw new InterruptedIOException("Upload interrupted.");
+            }
+            final long offset = status.offset;
+            status = this.retryPolicy.execute(new RetryPolicy.Call<UploadStatus>() {
+                @Override
+                public UploadStatus call(int attempt) throws IOException {
+                    if (attempt > 0) {
+                        // Part of the chunk may have arrived before it failed.
+                        UploadStatus current = ResumableUpload.this.queryStatus(sessionUri,
+                                total);
+                        if (current.file != null || current.offset != offset) {
+                            return current;
+                        }
+                    }
+                    return ResumableUpload.this.sendChunk(sessionUri, in, buffer, offset,
+                            total);
+                }
+            });
+            if (listener != null && (status.file != null || status.offset > offset)) {
+                listener.onProgress(status.file != null ? total : status.offset, total);
+            }
+        }
+        return status.file;
+    }
+
+    /**
+     * Sends the chunk starting at the given offset.
+     * @param sessionUri The URI of the session.
+     * @param in The spool file.
+     * @param buffer The buffer to read the chunk into.
+     * @param offset The offset of the chunk.
+     * @param total The number of bytes in the spool file.
+     * @return The status of the upload after the chunk.
+     * @throws IOException If the chunk could not be sent.
+     */
+    private UploadStatus sendChunk(String sessionUri, RandomAccessFile in, byte[] buffer,
+                                   long offset, long total) throws IOException {
+        int length = (int) Math.min(buffer.length, total - offset);
+        in.seek(offset);
+        in.readFully(buffer, 0, length);
+        String range = length == 0 ? "bytes */" + total
+                : "bytes " + offset + "-" + (offset + length - 1) + "/" + total;
+        return this.put(sessionUri, new ByteArrayContent(null, buffer, 0, length), range);
+    }
+
+    /**
+     * Asks the session how much it has received.
+     * @param sessionUri The URI of the session.
+     * @param total The number of bytes that will be uploaded.
+     * @return The status of the upload.
+     * @throws IOException If the session could not be asked.
+     */
+    private UploadStatus queryStatus(String sessionUri, long total) throws IOException {
+        return this.put(sessionUri, new EmptyContent(), "bytes */" + total);
+    }
+
+    /**
+     * Sends a request to the session.
+     * @param sessionUri The URI of the session.
+     * @param content The content to send.
+     * @param range The Content-Range header, saying what the content is.
+     * @return The status of the upload after the request.
+     * @throws IOException If the request failed.
+     */
+    private UploadStatus put(String sessionUri, HttpContent content, String range)
+            throws IOException {
+        HttpRequest request = this.service.getRequestFactory()
+                .buildPutRequest(new GenericUrl(sessionUri), content);
+        request.getHeaders().setContentRange(range);
+        request.setParser(this.service.getObjectParser());
+        // 308 is not a redirect here, and is handled below instead of being thrown.
+        request.setFollowRedirects(false);
+        request.setThrowExceptionOnExecuteError(false);
+        HttpResponse response = request.execute();
+        try {
+            if (response.isSuccessStatusCode()) {
+                return new UploadStatus(0, response.parseAs(File.class));
+            }
+            if (response.getStatusCode() == STATUS_RESUME_INCOMPLETE) {
+                // The Range header says which bytes were received, as in "bytes=0-1234".
+                String received = response.getHeaders().getRange();
+                long offset = received == null ? 0
+                        : Long.parseLong(received.substring(received.indexOf('-') + 1)) + 1;
+                return new UploadStatus(offset, null);
+            }
+            throw new HttpResponseException(response);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Returns whether or not the given error means that the session no longer exists.
+     * @param e The error.
+     * @return True for yes, False for no.
+     */
+    private static boolean isSessionGone(HttpResponseException e) {
+        return e.getStatusCode() == STATUS_NOT_FOUND || e.getStatusCode() == STATUS_GONE;
+    }
+
+    /**
+     * How far an upload got.
+     */
+    private static class UploadStatus {
+
+        // Number of bytes received so far.
+        private long offset;
+
+        // The file, once the upload is complete, or null until then.
+        private File file;
+
+        UploadStatus(long offset, File file) {
+            this.offset = offset;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.notes;
+
+import android.util.Log;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Retries requests to Google Drive that failed for reasons that are likely to go away, such as a
+ * dropped connection, the server being overloaded or too many requests being made. The time
+ * between attempts grows exponentially, and is randomized so that many clients failing at the
+ * same time do not retry at the same time. Requests that failed for good, such as ones for a file
+ * that does not exist, or that could not be authorized, are not retried.
+ */
+public class RetryPolicy {
+
+    final private static String RETRY_POLICY_TAG = "Retry Policy:";
+
+    // Time to wait before the first retry, in milliseconds.
+    final private static long INITIAL_INTERVAL = 500;
+
+    // Each wait is this many times longer than the one before.
+    final private static double MULTIPLIER = 2;
+
+    // Longest time to wait between attempts, in milliseconds.
+    final private static long MAX_INTERVAL = 16000;
+
+    // Longest time to keep retrying for, in milliseconds. Well within the time an operation may
+    // take before it is given up on.
+    final private static long MAX_ELAPSED_TIME = 60000;
+
+    // How far each wait may randomly be from its nominal length, as a fraction of it.
+    final private static double RANDOMIZATION_FACTOR = 0.5;
+
+    // HTTP status codes of failures that are likely to go away.
+    final private static int STATUS_REQUEST_TIMEOUT = 408;
+    final private static int STATUS_TOO_MANY_REQUESTS = 429;
+    final private static int STATUS_SERVER_ERROR = 500;
+    final private static int STATUS_BAD_GATEWAY = 502;
+    final private static int STATUS_UNAVAILABLE = 503;
+    final private static int STATUS_GATEWAY_TIMEOUT = 504;
+
+    // Drive answers with this, along with one of the reasons below, when it is rate limiting.
+    final private static int STATUS_FORBIDDEN = 403;
+    final private static String REASON_RATE_LIMIT = "rateLimitExceeded";
+    final private static String REASON_USER_RATE_LIMIT = "userRateLimitExceeded";
+
+    // Header some failures come with, saying how many seconds to wait before retrying.
+    final private static String RETRY_AFTER_HEADER = "Retry-After";
+
+    private Random random = new Random();
+
+    /**
+     * A request that can be made again if it fails.
+     */
+    public interface Call<T> {
+
+        /**
+         * Make the request.
+         * @param attempt The number of the attempt, starting at 0.
+         * @return The result.
+         * @throws IOException If the request failed.
+         */
+        T call(int attempt) throws IOException;
+    }
+
+    /**
+     * Makes the request, retrying it while it fails for reasons that are likely to go away and
+     * there is time left.
+     * @param call The request.
+     * @return The result of the request.
+     * @throws IOException The error of the last attempt, if it failed for good or there was no
+     * time left, or an InterruptedIOException if the thread was interrupted while waiting.
+     */
+    public <T> T execute(Call<T> call) throws IOException {
+        long start = System.currentTimeMillis();
+        long interval = INITIAL_INTERVAL;
+        for (int attempt = 0; ; attempt ++) {
+            try {
+                return call.call(attempt);
+            } catch (IOException e) {
+                if (!isTransient(e) || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                long wait = this.getWait(e, interval);
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed + wait > MAX_ELAPSED_TIME) {
+                    throw e;
+                }
+                Log.d(RETRY_POLICY_TAG, "Attempt " + attempt + " failed, retrying in " + wait
+                        + "ms: " + e);
+                sleep(wait);
+                interval = Math.min(MAX_INTERVAL, (long) (interval * MULTIPLIER));
+            }
+        }
+    }
+
+    /**
+     * Returns how long to wait before the next attempt. If the server said how long to wait, that
+     * is used, otherwise the given interval is randomized.
+     * @param e The error of the failed attempt.
+     * @param interval The nominal length of the wait, in milliseconds.
+     * @return The length of the wait, in milliseconds.
+     */
+    private long getWait(IOException e, long interval) {
+        if (e instanceof HttpResponseException) {
+            String retryAfter = ((HttpResponseException) e).getHeaders()
+                    .getFirstHeaderStringValue(RETRY_AFTER_HEADER);
+            if (retryAfter != null) {
+                try {
+                    return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException ignored) {
+                    // It can also be a date, which is rare enough to not be worth parsing.
+                }
+            }
+        }
+        double delta = RANDOMIZATION_FACTOR * interval;
+        return (long) (interval - delta + this.random.nextDouble() * 2 * delta);
+    }
+
+    /**
+     * Returns whether or not the given error is likely to go away if the request is made again.
+     * @param e The error.
+     * @return True for yes, False for no.
+     */
+    static boolean isTransient(IOException e) {
+        if (e instanceof HttpResponseException) {
+            int status = ((HttpResponseException) e).getStatusCode();
+            switch (status) {
+                case STATUS_REQUEST_TIMEOUT:
+                case STATUS_TOO_MANY_REQUESTS:
+                case STATUS_SERVER_ERROR:
+                case STATUS_BAD_GATEWAY:
+                case STATUS_UNAVAILABLE:
+                case STATUS_GATEWAY_TIMEOUT:
+                    return true;
+                case STATUS_FORBIDDEN:
+                    return isRateLimited(e);
+                default:
+                    return false;
+            }
+        }
+        // The connection failed, so the request may never have reached the server. Any other
+        // error, such as failing to get a token, or being cancelled, happens again on a retry.
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException || cause instanceof SocketException
+                    || cause instanceof UnknownHostException
+                    || cause instanceof TransientException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether or not the given error means that too many requests are being made.
+     * @param e The error, which Drive answered with 403.
+     * @return True for yes, False for no.
+     */
+    private static boolean isRateLimited(IOException e) {
+        if (!(e instanceof GoogleJsonResponseException)) {
+            return false;
+        }
+        GoogleJsonError details = ((GoogleJsonResponseException) e).getDetails();
+        if (details == null || details.getErrors() == null) {
+            return false;
+        }
+        for (GoogleJsonError.ErrorInfo error : details.getErrors()) {
+            if (REASON_RATE_LIMIT.equals(error.getReason())
+                    || REASON_USER_RATE_LIMIT.equals(error.getReason())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An error that is known to be likely to go away, even though it did not come from the
+     * connection, such as a request of a batch getting no answer.
+     */
+    public static class TransientException extends IOException {
+
+        /**
+         * Creates a new error.
+         * @param message What went wrong.
+         */
+        public TransientException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Waits for the given time.
+     * @param millis The time, in milliseconds.
+     * @throws InterruptedIOException If the thread was interrupted while waiting.
+     */
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry.");
+        }
+    }
+}
@@ -1,65 +1,97 @@
 package com.example.notes;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
- * Class that represents the Save Data. Used to encapsulate the Save Data or convert it into usable form. The Save Data
- * includes the text that the user entered, and the font the user used.
+ * Class that represents the Save Data. Used to encapsulate the Save Data or convert it to and from
+ * its stored form. The Save Data includes the items that the user entered, and the font the user
+ * used.
  */
 public class SaveData {
 
-    private String data;
+    // Longest title to take from the text of the note.
+    final private static int MAX_TITLE_LENGTH = 40;
+
+    private int fontSize;
+
+    private List<ItemViewData> items;
 
     /**
-     * Create a new SaveData object directly from the given String.
-     * @param data The data.
+     * Create a new SaveData object based on the items and the font size.
+     * @param items The items.
+     * @param fontSize The size of the font.
      */
-    public SaveData(String data) {
-        this.data = data;
+    public SaveData(List<ItemViewData> items, int fontSize) {
+        this.items = Collections.unmodifiableList(items);
+        this.fontSize = fontSize;
     }
 
     /**
-     * Create a new SaveData object based on the text and the font size.
-     * @param text The text.
-     * @param fontSize The size of the font.
+     * Reads Save Data from the given stream, in either the binary or the legacy format. The
+     * stream is not closed.
+     * @param in The stream to read from.
+     * @return The Save Data.
+     * @throws IOException If the stream could not be read, or it is not valid Save Data.
      */
-    public SaveData(String text, int fontSize) {
-
-        // First character represents number of digits of the font. This character denotes how many characters
-        // following it are dedicated to storing the font size.
-        this.data = Integer.toString(this.getNumDigits(fontSize));
-
-        // The font size.
-        this.data += Integer.toString(fontSize);
+    public static SaveData readFrom(InputStream in) throws IOException {
+        SaveDataReader reader = new SaveDataReader(in);
+        int count = reader.getItemCount();
+        ArrayList<ItemViewData> items = new ArrayList<>(count < 0 ? 16 : count);
+        while (reader.hasNext()) {
+            items.add(reader.readItem());
+        }
+        return new SaveData(items, reader.getFontSize());
+    }
 
-        // Finally, the text itself.
-        this.data += text;
+    /**
+     * Writes the Save Data to the given stream in the binary format. The stream is not closed.
+     * @param out The stream to write to.
+     * @throws IOException If the stream could not be written to.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        this.writeTo(out, false);
     }
 
     /**
-     * Returns whether or not the Save Data is valid. It is not valid when there is no data.
-     * @return True for yes, False for no.
+     * Writes the Save Data to the given stream in the binary format, compressing the items as
+     * they are written if asked to. The stream is not closed.
+     * @param out The stream to write to.
+     * @param compressed Whether or not to compress the items.
+     * @throws IOException If the stream could not be written to.
      */
-    public boolean isValid() {
-        if (this.data.equals("")) {
-            return false;
+    public void writeTo(OutputStream out, boolean compressed) throws IOException {
+        SaveDataWriter writer = new SaveDataWriter(out, this.fontSize, this.items.size(),
+                compressed);
+        for (ItemViewData item : this.items) {
+            writer.writeItem(item);
         }
-        return true;
+        writer.finish();
     }
 
     /**
-     * Returns the number of digits in the given number.
-     * @param number The number.
-     * @return The number of digits.
+     * Returns the exact number of bytes that writeTo will write uncompressed, without encoding
+     * anything.
+     * @return The number of bytes.
      */
-    private int getNumDigits(int number) {
-        return (int) Math.floor(Math.abs(Math.log10(number))) + 1;
+    public long getEncodedLength() {
+        long length = SaveDataWriter.HEADER_LENGTH;
+        for (ItemViewData item : this.items) {
+            length += SaveDataWriter.getEncodedLength(item);
+        }
+        return length;
     }
 
     /**
-     * Returns the Save Data with the text and font size in the proper save format, as a String.
-     * @return The Save Data.
+     * Returns whether or not the Save Data is valid. It is not valid when there is no data.
+     * @return True for yes, False for no.
      */
-    public String getSaveData() {
-        return this.data;
+    public boolean isValid() {
+        return this.fontSize > 0;
     }
 
     /**
@@ -67,22 +99,39 @@ public class SaveData {
      * @return The size of the font.
      */
     public int getFontSize() {
-        if (!this.isValid()) {
-            return 0;
-        }
-        int digits = Integer.parseInt(this.data.substring(0, 1));
-        return Integer.parseInt(this.data.substring(1, digits + 1));
+        return this.fontSize;
+    }
+
+    /**
+     * Returns the items that are stored here, in order.
+     * @return The items.
+     */
+    public List<ItemViewData> getItems() {
+        return this.items;
     }
 
     /**
-     * Returns the text that is stored here. If data is not valid, return empty String.
-     * @return The text.
+     * Returns the title of the note: the first line of text in it, shortened if it is long.
+     * @return The title, or an empty String if there is no text.
      */
-    public String getText() {
-        if (!this.isValid()) {
-            return "";
+    public String getTitle() {
+        for (ItemViewData item : this.items) {
+            if (item.getViewType() != ItemViewData.TYPE_TEXT) {
+                continue;
+            }
+            String title = item.getData().trim();
+            if (title.isEmpty()) {
+                continue;
+            }
+            int end = title.indexOf('\n');
+            if (end >= 0) {
+                title = title.substring(0, end).trim();
+            }
+            if (title.length() > MAX_TITLE_LENGTH) {
+                title = title.substring(0, MAX_TITLE_LENGTH).trim() + "...";
+            }
+            return title;
         }
-        int digits = Integer.parseInt(this.data.substring(0, 1));
-        return this.data.substring(digits + 1);
+        return "";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package com.example.notes;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Upload content that encodes Save Data straight into the request as it is being sent, instead
+ * of encoding all of it into memory first. Uncompressed, the length is known in advance, so the
+ * request does not have to be chunked. Compressed, it is only known once everything was sent.
+ */
+public class SaveDataContent extends AbstractInputStreamContent {
+
+    // Roughly how many times smaller notes get when compressed. Only used to size buffers.
+    final private static int ESTIMATED_COMPRESSION_RATIO = 3;
+
+    private SaveData data;
+
+    // Length of the data uncompressed.
+    private long length;
+
+    // Whether or not to compress the items.
+    private boolean compressed;
+
+    /**
+     * Creates new content for uploading the given Save Data.
+     * @param type The content type.
+     * @param data The data to upload.
+     * @param compressed Whether or not to compress the items.
+     */
+    public SaveDataContent(String type, SaveData data, boolean compressed) {
+        super(type);
+        this.data = data;
+        this.length = data.getEncodedLength();
+        this.compressed = compressed;
+    }
+
+    @Override
+    public long getLength() {
+        // Unknown when compressed.
+        return this.compressed ? -1 : this.length;
+    }
+
+    @Override
+    public boolean retrySupported() {
+        // The Save Data does not change, so it can be written as many times as needed.
+        return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        this.data.writeTo(out, this.compressed);
+        out.flush();
+    }
+
+    /**
+     * Only used by uploads that read the content in pieces. Encodes the whole Save Data into a
+     * buffer, which is of exactly the right size unless the data is compressed.
+     * @return A stream of the encoded Save Data.
+     * @throws IOException If the data could not be encoded.
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        EncodedBuffer buffer = new EncodedBuffer(this.compressed
+                ? (int) (this.length / ESTIMATED_COMPRESSION_RATIO) : (int) this.length);
+        this.data.writeTo(buffer, this.compressed);
+        return buffer.toInputStream();
+    }
+
+    /**
+     * Buffer that can be read back without copying it first.
+     */
+    private static class EncodedBuffer extends ByteArrayOutputStream {
+
+        EncodedBuffer(int size) {
+            super(size);
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(this.buf, 0, this.count);
+        }
+    }
+}
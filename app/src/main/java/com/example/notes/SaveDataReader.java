@@ -0,0 +1,305 @@
+package com.example.notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads Save Data from a stream one item at a time. Understands both the binary save format
+ * written by SaveDataWriter, compressed or not, and the legacy text format, where the first
+ * character is the number of digits in the font size, followed by the font size, followed by the
+ * text with one line per item.
+ */
+public class SaveDataReader implements Closeable {
+
+    // Largest item that will be accepted. Anything bigger means the file is corrupt.
+    final private static int MAX_ITEM_LENGTH = 64 * 1024 * 1024;
+
+    // Size of the buffer between the stream and the parser. Large, since the stream is usually
+    // coming from the network.
+    final private static int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // Size of the buffer that the bytes of an item are read into before being decoded. Bigger
+    // items get a buffer of their own.
+    final private static int ITEM_BUFFER_SIZE = 8 * 1024;
+
+    // Size of the buffers of the decompressor, and between it and the parser.
+    final private static int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    // Used for the binary format.
+    private DataInputStream binaryIn;
+
+    // Reused for the bytes of every item of the binary format, so they are not allocated per item.
+    private byte[] itemBuffer;
+
+    // Used for the legacy format.
+    private BufferedReader legacyIn;
+
+    // Next line of the legacy format, or null if there are no more lines.
+    private String nextLegacyLine;
+
+    // Line of the legacy format that had to be read ahead of time, if any.
+    private String peekedLegacyLine;
+
+    // Version of the binary format being read.
+    private int version;
+
+    private int fontSize;
+
+    // Number of items in the binary format, and the number read so far.
+    private int itemCount;
+    private int itemsRead = 0;
+
+    /**
+     * Starts reading Save Data from the given stream by reading the header.
+     * @param in The stream to read from.
+     * @throws IOException If the stream could not be read, or it is not valid Save Data.
+     */
+    public SaveDataReader(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+        buffered.mark(SaveDataWriter.MAGIC.length);
+        byte[] magic = new byte[SaveDataWriter.MAGIC.length];
+        int read = 0;
+        while (read < magic.length) {
+            int count = buffered.read(magic, read, magic.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+
+        if (read == magic.length && Arrays.equals(magic, SaveDataWriter.MAGIC)) {
+            this.readBinaryHeader(buffered);
+        } else {
+            buffered.reset();
+            this.readLegacyHeader(buffered);
+        }
+    }
+
+    /**
+     * Reads the header of the binary format. The magic bytes have already been read.
+     * @param in The stream to read from.
+     * @throws IOException If the header is invalid.
+     */
+    private void readBinaryHeader(InputStream in) throws IOException {
+        this.binaryIn = new DataInputStream(in);
+        this.itemBuffer = new byte[ITEM_BUFFER_SIZE];
+        this.version = this.binaryIn.readUnsignedShort();
+        if (this.version > SaveDataWriter.VERSION) {
+            throw new IOException("Unsupported save data version: " + this.version);
+        }
+        int flags = 0;
+        if (this.version >= SaveDataWriter.FLAGS_VERSION) {
+            flags = this.binaryIn.readUnsignedByte();
+            if ((flags & ~SaveDataWriter.FLAG_GZIP) != 0) {
+                throw new IOException("Unsupported save data flags: " + flags);
+            }
+        }
+        this.fontSize = this.binaryIn.readInt();
+        this.itemCount = this.binaryIn.readInt();
+        if (this.itemCount < 0) {
+            throw new IOException("Corrupt save data: negative item count.");
+        }
+        if ((flags & SaveDataWriter.FLAG_GZIP) != 0) {
+            // The items are decompressed as they are read.
+            this.binaryIn = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(in, GZIP_BUFFER_SIZE), GZIP_BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Reads the font size at the start of the legacy format, leaving the rest of the first line
+     * as the first item.
+     * @param in The stream to read from.
+     * @throws IOException If the header is invalid.
+     */
+    private void readLegacyHeader(InputStream in) throws IOException {
+        this.legacyIn = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String firstLine = this.legacyIn.readLine();
+        if (firstLine == null || firstLine.equals("")) {
+            // No data at all.
+            this.fontSize = 0;
+            this.nextLegacyLine = null;
+            return;
+        }
+        String remainder;
+        try {
+            int digits = Integer.parseInt(firstLine.substring(0, 1));
+            this.fontSize = Integer.parseInt(firstLine.substring(1, digits + 1));
+            remainder = firstLine.substring(digits + 1);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt save data: invalid legacy header.", e);
+        }
+        this.nextLegacyLine = this.checkLegacyLine(remainder);
+    }
+
+    /**
+     * Returns the next line of the legacy format.
+     * @return The line, or null if there are no more lines.
+     * @throws IOException If the stream could not be read.
+     */
+    private String readLegacyLine() throws IOException {
+        String line;
+        if (this.peekedLegacyLine != null) {
+            line = this.peekedLegacyLine;
+            this.peekedLegacyLine = null;
+        } else {
+            line = this.legacyIn.readLine();
+        }
+        return this.checkLegacyLine(line);
+    }
+
+    /**
+     * The old app split the file into lines, joined them back together and split them again, which
+     * dropped the last line whenever it was empty. Does the same, so legacy files load exactly
+     * like they used to.
+     * @param line The line that was just read.
+     * @return The line, or null if it is an empty last line, or there are no more lines.
+     * @throws IOException If the stream could not be read.
+     */
+    private String checkLegacyLine(String line) throws IOException {
+        if (line != null && line.equals("")) {
+            this.peekedLegacyLine = this.legacyIn.readLine();
+            if (this.peekedLegacyLine == null) {
+                return null;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Returns the font size stored in the header.
+     * @return The size of the font.
+     */
+    public int getFontSize() {
+        return this.fontSize;
+    }
+
+    /**
+     * Returns the number of items stored, or -1 if it is not known in advance, which is the case
+     * for the legacy format.
+     * @return The number of items.
+     */
+    public int getItemCount() {
+        if (this.binaryIn != null) {
+            return this.itemCount;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether or not there are more items to read.
+     * @return True for yes, False for no.
+     */
+    public boolean hasNext() {
+        if (this.binaryIn != null) {
+            return this.itemsRead < this.itemCount;
+        }
+        return this.nextLegacyLine != null;
+    }
+
+    /**
+     * Reads the next item.
+     * @return The item, or null if there are no more items.
+     * @throws IOException If the stream could not be read, or the item is corrupt.
+     */
+    public ItemViewData readItem() throws IOException {
+        if (!this.hasNext()) {
+            return null;
+        }
+        if (this.binaryIn != null) {
+            return this.readBinaryItem();
+        }
+        ItemViewData item = new ItemViewData(this.nextLegacyLine, ItemViewData.TYPE_TEXT);
+        this.nextLegacyLine = this.readLegacyLine();
+        return item;
+    }
+
+    /**
+     * Reads the next item in the binary format.
+     * @return The item.
+     * @throws IOException If the stream could not be read, or the item is corrupt.
+     */
+    private ItemViewData readBinaryItem() throws IOException {
+        long id = ItemViewData.NO_ID;
+        if (this.version >= SaveDataWriter.IDS_VERSION) {
+            id = this.binaryIn.readLong();
+            if (id < ItemViewData.NO_ID) {
+                throw new IOException("Corrupt save data: invalid item ID " + id);
+            }
+        }
+        ItemViewData item = readItem(this.binaryIn, this.version, this.itemBuffer, id);
+        this.itemsRead ++;
+        return item;
+    }
+
+    /**
+     * Reads a single item from the given stream, in the format used for items in Save Data.
+     * @param in The stream to read from.
+     * @param version The version of the format.
+     * @return The item.
+     * @throws IOException If the stream could not be read, or the item is corrupt.
+     */
+    static ItemViewData readItem(DataInputStream in, int version) throws IOException {
+        return readItem(in, version, null, ItemViewData.NO_ID);
+    }
+
+    /**
+     * Reads a single item from the given stream, in the format used for items in Save Data.
+     * @param in The stream to read from.
+     * @param version The version of the format.
+     * @param buffer Buffer to read the bytes of the item into, if they fit. May be null.
+     * @param id The ID of the item, or NO_ID to give it a new one.
+     * @return The item.
+     * @throws IOException If the stream could not be read, or the item is corrupt.
+     */
+    private static ItemViewData readItem(DataInputStream in, int version, byte[] buffer,
+                                         long id) throws IOException {
+        int type = in.readUnsignedByte();
+        String data = readString(in, buffer);
+        String hash = null;
+        if (type == ItemViewData.TYPE_PHOTO && version >= 2) {
+            hash = readString(in, buffer);
+            if (hash.equals("")) {
+                hash = null;
+            }
+        }
+        return new ItemViewData(data, type, hash, id);
+    }
+
+    /**
+     * Reads a length followed by that many UTF-8 bytes, and decodes them straight from the
+     * buffer they were read into.
+     * @param in The stream to read from.
+     * @param buffer Buffer to read the bytes into, if they fit. May be null.
+     * @return The String.
+     * @throws IOException If the stream could not be read, or the length is invalid.
+     */
+    private static String readString(DataInputStream in, byte[] buffer) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_ITEM_LENGTH) {
+            throw new IOException("Corrupt save data: invalid item length " + length);
+        }
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[length];
+        }
+        in.readFully(buffer, 0, length);
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.binaryIn != null) {
+            this.binaryIn.close();
+        } else {
+            this.legacyIn.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.notes;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes Save Data to a stream in the binary save format, one item at a time. The format is a
+ * header (magic bytes, version, flags, font size, item count) followed by every item as a type
+ * ID, a type tag, a length, and the UTF-8 bytes of its data. Photos are followed by the length
+ * and UTF-8 bytes of their hash, which is empty if they have none. If the flags say so, the items
+ * are compressed with gzip as they are written. Nothing is buffered beyond the item being
+ * written.
+ */
+public class SaveDataWriter implements Closeable {
+
+    // Bytes that every binary save file starts with. Legacy save files start with a digit instead.
+    final static byte[] MAGIC = {'N', 'O', 'T', 'E'};
+
+    // Version of the format written by this class. Version 3 did not store the IDs of items,
+    // version 2 did not have flags, and version 1 did not store the hash of photos either.
+    final static int VERSION = 4;
+
+    // First version with flags in the header.
+    final static int FLAGS_VERSION = 3;
+
+    // First version with the IDs of items.
+    final static int IDS_VERSION = 4;
+
+    // Number of bytes taken up by the ID of an item.
+    final private static int ID_LENGTH = 8;
+
+    // Flag for items that are compressed with gzip.
+    final static int FLAG_GZIP = 1;
+
+    // Number of bytes taken up by the header.
+    final static int HEADER_LENGTH = 4 + 2 + 1 + 4 + 4;
+
+    // Size of the buffer of the compressor.
+    final private static int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    private DataOutputStream out;
+
+    // Compresses the items, or null if they are not compressed.
+    private GZIPOutputStream gzipOut;
+
+    // Number of items promised in the header, and the number written so far.
+    private int itemCount;
+    private int itemsWritten = 0;
+
+    /**
+     * Starts writing Save Data to the given stream by writing the header.
+     * @param out The stream to write to.
+     * @param fontSize The size of the font.
+     * @param itemCount The number of items that will be written.
+     * @throws IOException If the stream could not be written to.
+     */
+    public SaveDataWriter(OutputStream out, int fontSize, int itemCount) throws IOException {
+        this(out, fontSize, itemCount, false);
+    }
+
+    /**
+     * Starts writing Save Data to the given stream by writing the header.
+     * @param out The stream to write to.
+     * @param fontSize The size of the font.
+     * @param itemCount The number of items that will be written.
+     * @param compressed Whether or not to compress the items.
+     * @throws IOException If the stream could not be written to.
+     */
+    public SaveDataWriter(OutputStream out, int fontSize, int itemCount, boolean compressed)
+            throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.itemCount = itemCount;
+        this.out.write(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeByte(compressed ? FLAG_GZIP : 0);
+        this.out.writeInt(fontSize);
+        this.out.writeInt(itemCount);
+        if (compressed) {
+            this.out.flush();
+            this.gzipOut = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+            this.out = new DataOutputStream(new BufferedOutputStream(this.gzipOut));
+        }
+    }
+
+    /**
+     * Writes a single item.
+     * @param item The item to write.
+     * @throws IOException If the stream could not be written to, or if more items are written
+     * than were promised in the header.
+     */
+    public void writeItem(ItemViewData item) throws IOException {
+        if (this.itemsWritten >= this.itemCount) {
+            throw new IOException("Wrote more items than declared in header.");
+        }
+        this.out.writeLong(item.getId());
+        writeItem(this.out, item);
+        this.itemsWritten ++;
+    }
+
+    /**
+     * Writes a single item to the given stream, in the format used for items in Save Data.
+     * @param out The stream to write to.
+     * @param item The item to write.
+     * @throws IOException If the stream could not be written to.
+     */
+    static void writeItem(DataOutputStream out, ItemViewData item) throws IOException {
+        out.writeByte(item.getViewType());
+        writeString(out, item.getData());
+        if (item.getViewType() == ItemViewData.TYPE_PHOTO) {
+            writeString(out, item.getHash() == null ? "" : item.getHash());
+        }
+    }
+
+    /**
+     * Writes the length of the given String followed by its UTF-8 bytes.
+     * @param out The stream to write to.
+     * @param string The String.
+     * @throws IOException If the stream could not be written to.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the exact number of bytes the given item takes up in Save Data once written
+     * uncompressed, along with its ID, without encoding it.
+     * @param item The item.
+     * @return The number of bytes.
+     */
+    static long getEncodedLength(ItemViewData item) {
+        long length = ID_LENGTH + 1 + 4 + getUtf8Length(item.getData());
+        if (item.getViewType() == ItemViewData.TYPE_PHOTO) {
+            length += 4 + (item.getHash() == null ? 0 : getUtf8Length(item.getHash()));
+        }
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes the given String takes up in UTF-8, without encoding it.
+     * Unpaired surrogates are counted as the single replacement byte that they encode to.
+     * @param string The String.
+     * @return The number of bytes.
+     */
+    private static long getUtf8Length(String string) {
+        long length = 0;
+        int size = string.length();
+        for (int i = 0; i < size; i ++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < size
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i ++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Flushes everything written so far to the underlying stream. Compressed items may still be
+     * held back by the compressor until finish is called.
+     * @throws IOException If the stream could not be written to.
+     */
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Writes out everything that is left, including the end of the compressed items, without
+     * closing the underlying stream. Nothing can be written afterwards.
+     * @throws IOException If the stream could not be written to.
+     */
+    public void finish() throws IOException {
+        this.out.flush();
+        if (this.gzipOut != null) {
+            this.gzipOut.finish();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+}
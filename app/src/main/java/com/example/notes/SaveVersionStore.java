@@ -0,0 +1,81 @@
+package com.example.notes;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers which version of the save files on Google Drive was last downloaded or uploaded, so
+ * that a sync can tell whether anything changed without downloading the data again. Kept in the
+ * SharedPreferences of the app, so that it survives restarts. Also keeps the ID of this device,
+ * which the copies of notes that can be merged without conflicts are made on.
+ */
+public class SaveVersionStore {
+
+    final private static String PREFERENCES_NAME = "save_version";
+
+    // Key of the version of the note that was saved before there could be more than one. Every
+    // other note has this key, followed by a dot and its ID.
+    final private static String VERSION_KEY = "version";
+
+    // Key of the ID of this device.
+    final private static String REPLICA_KEY = "replica";
+
+    private SharedPreferences preferences;
+
+    /**
+     * Creates a new store that keeps the version in the preferences of the given Context.
+     * @param context The Context.
+     */
+    public SaveVersionStore(Context context) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the version of the save files of the given note that was last downloaded or
+     * uploaded.
+     * @param noteId The ID of the note.
+     * @return The version, or null if it is not known.
+     */
+    public String getVersion(String noteId) {
+        return this.preferences.getString(getKey(noteId), null);
+    }
+
+    /**
+     * Sets the version of the save files of the given note that was last downloaded or uploaded.
+     * @param noteId The ID of the note.
+     * @param version The version, or null if it is not known.
+     */
+    public void setVersion(String noteId, String version) {
+        if (version == null) {
+            this.preferences.edit().remove(getKey(noteId)).apply();
+        } else {
+            this.preferences.edit().putString(getKey(noteId), version).apply();
+        }
+    }
+
+    /**
+     * Returns the ID of this device, making one up the first time.
+     * @return The ID.
+     */
+    public synchronized String getReplicaId() {
+        String replicaId = this.preferences.getString(REPLICA_KEY, null);
+        if (replicaId == null) {
+            replicaId = NoteInfo.createId();
+            this.preferences.edit().putString(REPLICA_KEY, replicaId).apply();
+        }
+        return replicaId;
+    }
+
+    /**
+     * Returns the key the version of the given note is kept under.
+     * @param noteId The ID of the note.
+     * @return The key.
+     */
+    private static String getKey(String noteId) {
+        if (NoteInfo.DEFAULT_ID.equals(noteId)) {
+            return VERSION_KEY;
+        }
+        return VERSION_KEY + "." + noteId;
+    }
+}
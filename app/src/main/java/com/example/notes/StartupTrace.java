@@ -0,0 +1,44 @@
+package com.example.notes;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measures how long each step of starting the app takes, counted from when the activity was
+ * created. The most important step is the note becoming editable.
+ */
+public class StartupTrace {
+
+    final private static String STARTUP_TRACE_TAG = "Startup Trace:";
+
+    // When startup began, or -1 if it is not being measured.
+    private static long startTime = -1;
+
+    /**
+     * Starts measuring. Called as soon as the activity is created.
+     */
+    public static void start() {
+        startTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Logs how long it took to reach the given step.
+     * @param step The step that was just reached.
+     */
+    public static void mark(String step) {
+        if (startTime < 0) {
+            return;
+        }
+        Log.d(STARTUP_TRACE_TAG, step + ": " + (SystemClock.elapsedRealtime() - startTime)
+                + " ms");
+    }
+
+    /**
+     * Logs how long it took to reach the last step, and stops measuring.
+     * @param step The last step.
+     */
+    public static void finish(String step) {
+        mark(step);
+        startTime = -1;
+    }
+}
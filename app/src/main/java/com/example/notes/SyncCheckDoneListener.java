@@ -0,0 +1,14 @@
+package com.example.notes;
+
+/**
+ * Interface that is responsible for letting user know whether or not the data saved on Google
+ * Drive changed since it was last downloaded or uploaded.
+ */
+public interface SyncCheckDoneListener {
+
+    /**
+     * Handle the result of the check.
+     * @param changed True if the data changed, False if it did not, or null if the check failed.
+     */
+    void onSyncCheckComplete(Boolean changed);
+}
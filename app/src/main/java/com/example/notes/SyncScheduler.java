@@ -0,0 +1,708 @@
+package com.example.notes;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the operations on Google Drive in the background, on threads of its own, and passes their
+ * results back on the main thread. Uploads have a thread to themselves, so that a save never waits
+ * behind a stalled download. Every operation can be cancelled, and is given up on once it takes
+ * too long. Results of operations that were cancelled or given up on are never passed on.
+ */
+public class SyncScheduler {
+
+    // Number of operations that can wait for each thread. Any more are failed straight away.
+    final private static int QUEUE_SIZE = 16;
+
+    // How long threads without work are kept around, in seconds.
+    final private static long KEEP_ALIVE = 30;
+
+    // How long each kind of operation may take before it is given up on, in seconds. Uploads of
+    // large notes get this long again whenever a chunk gets through, however long they take.
+    final private static long DOWNLOAD_TIMEOUT = 120;
+    final private static long UPLOAD_TIMEOUT = 120;
+    final private static long CHECK_TIMEOUT = 30;
+
+    // Runs the uploads, one at a time.
+    private ThreadPoolExecutor uploadExecutor = createExecutor();
+
+    // Runs everything else, one at a time.
+    private ThreadPoolExecutor downloadExecutor = createExecutor();
+
+    // Gives up on operations that take too long.
+    private ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+
+    private MainThread mainThread;
+
+    // The unit the time outs are counted in. Only tests count them in anything but seconds.
+    private TimeUnit timeoutUnit;
+
+    // Operations that have not finished yet. Only used on the main thread.
+    private List<SyncOperation> operations = new ArrayList<>();
+
+    /**
+     * Creates a new scheduler with its own threads.
+     */
+    public SyncScheduler() {
+        this(new MainThread(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a new scheduler with its own threads.
+     * @param mainThread The main thread to pass the results to.
+     * @param timeoutUnit The unit the time outs are counted in.
+     */
+    SyncScheduler(MainThread mainThread, TimeUnit timeoutUnit) {
+        this.mainThread = mainThread;
+        this.timeoutUnit = timeoutUnit;
+        // Operations usually finish long before they time out, so drop their time outs right away.
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Creates an executor with a single thread, which only lives while there is work, and a
+     * bounded queue.
+     * @return The executor.
+     */
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_SIZE));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Downloads a note. The items are passed on in chunks while they are being downloaded, unless
+     * the note being displayed is given. Then the whole note is downloaded first, and how it
+     * differs from the one being displayed is worked out in the background, so that only the
+     * items that changed have to be displayed again.
+     * @param service The DriveService wrapper to use to download.
+     * @param noteId The ID of the note.
+     * @param onlyIfChanged Whether or not to skip the download if the data did not change since
+     * it was last downloaded or uploaded.
+     * @param displayed The note being displayed, or null to pass the items on in chunks.
+     * @param listener The listener to notify. Called on the main thread.
+     * @return The operation.
+     */
+    public SyncOperation download(final DriveService service, final String noteId,
+                                  final boolean onlyIfChanged, final SaveData displayed,
+                                  final DownloadDoneListener listener) {
+        final DownloadRelay relay = new DownloadRelay(listener, displayed);
+        final SyncOperation operation = this.submit(this.downloadExecutor, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                relay.version = service.downloadData(noteId, relay, onlyIfChanged);
+                return relay.version != null && relay.calculateDiff();
+            }
+        }, DOWNLOAD_TIMEOUT, new ResultHandler<Boolean>() {
+            @Override
+            public void onResult(Boolean successful) {
+                relay.finish(successful != null && successful);
+            }
+        });
+        relay.operation = operation;
+        return operation;
+    }
+
+    /**
+     * Uploads a note.
+     * @param service The DriveService wrapper to use to upload.
+     * @param noteId The ID of the note.
+     * @param data The data to upload.
+     * @param changes The changes made since the data was last saved or loaded, or null if the
+     * whole data has to be uploaded.
+     * @param localStore The store of the note on this device.
+     * @param useCrdt Whether or not to bring the copy of the note that can be merged without
+     * conflicts up to date, and upload it along with the note. If there is no such copy yet, the
+     * upload is not made, as if there was a conflict, so that merging starts one.
+     * @param listener The listener to notify. Called on the main thread.
+     * @return The operation.
+     */
+    public SyncOperation upload(final DriveService service, final String noteId,
+                                final SaveData data, final List<EditOperation> changes,
+                                final LocalNoteStore localStore, final boolean useCrdt,
+                                final UploadDoneListener listener) {
+        final UploadProgress progress = new UploadProgress();
+        final SyncOperation operation = this.submit(this.uploadExecutor,
+                new Callable<DriveService.UploadResult>() {
+            @Override
+            public DriveService.UploadResult call() {
+                NoteCrdt crdt = null;
+                if (useCrdt) {
+                    crdt = localStore.loadCrdt(service.getReplicaId());
+                    if (crdt == null) {
+                        return DriveService.UploadResult.CONFLICT;
+                    }
+                    crdt.update(data.getItems());
+                    crdt.collectGarbage();
+                    localStore.saveCrdt(crdt);
+                }
+                return service.uploadData(noteId, data, changes, crdt, progress);
+            }
+        }, UPLOAD_TIMEOUT, new ResultHandler<DriveService.UploadResult>() {
+            @Override
+            public void onResult(DriveService.UploadResult result) {
+                if (result == DriveService.UploadResult.CONFLICT) {
+                    listener.onUploadConflict(changes);
+                } else {
+                    listener.onUploadComplete(result == DriveService.UploadResult.SUCCESS,
+                            changes);
+                }
+            }
+        });
+        progress.operation = operation;
+        return operation;
+    }
+
+    /**
+     * Downloads a note and merges it with the one on this device, from the version both were
+     * last known to be the same, which the local store keeps.
+     *
+     * If the copies of the note that can be merged without conflicts are used, and both the one
+     * on this device and the one on Drive are up to date, those are merged instead, which never
+     * conflicts. Otherwise the notes are merged as usual, and the copy on this device is started,
+     * or brought up to date, from the result.
+     * @param service The DriveService wrapper to use to download.
+     * @param noteId The ID of the note.
+     * @param local The note on this device.
+     * @param localStore The store of the note on this device.
+     * @param useCrdt Whether or not to use the copies that can be merged without conflicts.
+     * @param listener The listener to notify. Called on the main thread.
+     * @return The operation.
+     */
+    public SyncOperation merge(final DriveService service, final String noteId,
+                               final SaveData local, final LocalNoteStore localStore,
+                               final boolean useCrdt, final MergeDoneListener listener) {
+        final DriveService.RemoteNote[] remote = new DriveService.RemoteNote[1];
+        final NoteCrdt[] crdt = new NoteCrdt[1];
+        final DiffUtil.DiffResult[] diff = new DiffUtil.DiffResult[1];
+        return this.submit(this.downloadExecutor, new Callable<NoteMerger.Result>() {
+            @Override
+            public NoteMerger.Result call() {
+                remote[0] = service.downloadSaveData(noteId);
+                if (remote[0] == null) {
+                    return null;
+                }
+                NoteCrdt localCrdt = null;
+                if (useCrdt) {
+                    localCrdt = localStore.loadCrdt(service.getReplicaId());
+                }
+                if (remote[0].getData() == null) {
+                    // Nothing saved on Drive to merge with.
+                    if (useCrdt) {
+                        crdt[0] = localCrdt != null ? localCrdt
+                                : new NoteCrdt(service.getReplicaId());
+                        crdt[0].update(local.getItems());
+                    }
+                    return new NoteMerger.Result(local, 0);
+                }
+                SaveData base = localStore.loadBase();
+                if (base == null) {
+                    // Never synced, so everything on either side counts as added.
+                    base = new SaveData(Collections.<ItemViewData>emptyList(),
+                            local.getFontSize());
+                }
+                NoteCrdt remoteCrdt = remote[0].getCrdt();
+                if (localCrdt != null && remoteCrdt != null && remote[0].isCrdtCurrent()
+                        && localCrdt.sharesHistory(remoteCrdt)) {
+                    localCrdt.update(local.getItems());
+                    localCrdt.merge(remoteCrdt);
+                    localCrdt.collectGarbage();
+                    crdt[0] = localCrdt;
+                    // The font size is not part of the copy, so it is merged as usual.
+                    int fontSize = local.getFontSize() != base.getFontSize()
+                            ? local.getFontSize() : remote[0].getData().getFontSize();
+                    SaveData merged = new SaveData(localCrdt.getItems(), fontSize);
+                    diff[0] = ItemDiff.calculate(local.getItems(), merged.getItems());
+                    return new NoteMerger.Result(merged, 0);
+                }
+                NoteMerger.Result result = NoteMerger.merge(base, local, remote[0].getData());
+                if (useCrdt) {
+                    // Take over the copy on Drive, unless this one is part of it, so that
+                    // every device ends up sharing a single copy.
+                    if (remoteCrdt != null && (localCrdt == null
+                            || !localCrdt.sharesHistory(remoteCrdt))) {
+                        localCrdt = remoteCrdt;
+                    } else if (remoteCrdt != null) {
+                        localCrdt.merge(remoteCrdt);
+                    } else if (localCrdt == null) {
+                        localCrdt = new NoteCrdt(service.getReplicaId());
+                    }
+                    localCrdt.update(result.getData().getItems());
+                    localCrdt.collectGarbage();
+                    crdt[0] = localCrdt;
+                }
+                diff[0] = ItemDiff.calculate(local.getItems(), result.getData().getItems());
+                return result;
+            }
+        }, DOWNLOAD_TIMEOUT, new ResultHandler<NoteMerger.Result>() {
+            @Override
+            public void onResult(NoteMerger.Result result) {
+                if (result == null) {
+                    listener.onMergeComplete(null, null, null, null);
+                } else {
+                    listener.onMergeComplete(result, remote[0], crdt[0], diff[0]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks whether or not a note saved on Drive changed since it was last downloaded or
+     * uploaded, without downloading it.
+     * @param service The DriveService wrapper to use to check.
+     * @param noteId The ID of the note.
+     * @param listener The listener to notify. Called on the main thread.
+     * @return The operation.
+     */
+    public SyncOperation checkForChanges(final DriveService service, final String noteId,
+                                         final SyncCheckDoneListener listener) {
+        return this.submit(this.downloadExecutor, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return service.isRemoteChanged(noteId);
+            }
+        }, CHECK_TIMEOUT, new ResultHandler<Boolean>() {
+            @Override
+            public void onResult(Boolean changed) {
+                listener.onSyncCheckComplete(changed);
+            }
+        });
+    }
+
+    /**
+     * Lists every note saved on Drive, without downloading any of them.
+     * @param service The DriveService wrapper to use to list.
+     * @param listener The listener to notify. Called on the main thread.
+     * @return The operation.
+     */
+    public SyncOperation listNotes(final DriveService service,
+                                   final NotesListedListener listener) {
+        return this.submit(this.downloadExecutor, new Callable<List<NoteInfo>>() {
+            @Override
+            public List<NoteInfo> call() {
+                return service.listNotes();
+            }
+        }, CHECK_TIMEOUT, new ResultHandler<List<NoteInfo>>() {
+            @Override
+            public void onResult(List<NoteInfo> notes) {
+                listener.onNotesListed(notes);
+            }
+        });
+    }
+
+    /**
+     * Prints out the names of all the files in the app data folder.
+     * @param service The DriveService wrapper to use to search.
+     * @return The operation.
+     */
+    public SyncOperation printFileNames(final DriveService service) {
+        return this.submit(this.downloadExecutor, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                service.printFileNames();
+                return true;
+            }
+        }, CHECK_TIMEOUT, new ResultHandler<Boolean>() {
+            @Override
+            public void onResult(Boolean result) {
+                // Nothing to pass on.
+            }
+        });
+    }
+
+    /**
+     * Cancels every operation that has not finished yet. Their results are never passed on. Must
+     * be called on the main thread, such as when the listeners are going away.
+     */
+    public void cancelAll() {
+        for (SyncOperation operation : new ArrayList<>(this.operations)) {
+            operation.cancel();
+        }
+        this.operations.clear();
+    }
+
+    /**
+     * Cancels every operation and stops the threads. The scheduler can not be used afterwards.
+     */
+    public void shutdown() {
+        this.cancelAll();
+        this.uploadExecutor.shutdownNow();
+        this.downloadExecutor.shutdownNow();
+        this.timer.shutdownNow();
+    }
+
+    /**
+     * Runs the given work on the given executor, and passes its result to the handler on the main
+     * thread, unless the operation is cancelled or times out first. The time it may take is
+     * counted from when it starts running, not from when it was queued. If it times out, it is
+     * interrupted, and null is passed on instead, as it is if it can not be run at all.
+     * @param executor The executor to run the work on.
+     * @param work The work.
+     * @param timeout How long the work may take, in the unit of the time outs.
+     * @param resultHandler The handler of the result.
+     * @return The operation.
+     */
+    private <T> SyncOperation submit(ThreadPoolExecutor executor, final Callable<T> work,
+                                     final long timeout, final ResultHandler<T> resultHandler) {
+        final SyncOperation operation = new SyncOperation();
+        this.operations.add(operation);
+        try {
+            operation.future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (operation.isFinished()) {
+                        // Cancelled while it was queued.
+                        return;
+                    }
+                    SyncScheduler.this.startTimeout(operation, resultHandler, timeout);
+                    T result = null;
+                    try {
+                        result = work.call();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    SyncScheduler.this.deliver(operation, resultHandler, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Too much is queued up already.
+            e.printStackTrace();
+            this.deliver(operation, resultHandler, null);
+        }
+        return operation;
+    }
+
+    /**
+     * Starts counting down the time the operation may take. Must be called on the thread running
+     * it, which is interrupted once the time is up.
+     * @param operation The operation.
+     * @param resultHandler The handler of the result.
+     * @param timeout How long the operation may take, in the unit of the time outs.
+     */
+    private <T> void startTimeout(final SyncOperation operation,
+                                  final ResultHandler<T> resultHandler, long timeout) {
+        final Thread worker = Thread.currentThread();
+        operation.giveUp = new Runnable() {
+            @Override
+            public void run() {
+                // Only interrupt it if it had not finished yet, since the thread moves on after.
+                if (SyncScheduler.this.deliver(operation, resultHandler, null)) {
+                    worker.interrupt();
+                }
+            }
+        };
+        operation.timeoutLength = timeout;
+        operation.setTimeout(this.timer.schedule(operation.giveUp, timeout, this.timeoutUnit));
+    }
+
+    /**
+     * Starts counting down the time the operation may take from now on again, since it made
+     * progress. Does nothing if it has not started, has finished, or has timed out already. Must
+     * be called on the thread running it.
+     * @param operation The operation.
+     */
+    private void restartTimeout(SyncOperation operation) {
+        ScheduledFuture<?> previous = operation.timeout;
+        if (previous == null || !previous.cancel(false)) {
+            return;
+        }
+        operation.setTimeout(this.timer.schedule(operation.giveUp, operation.timeoutLength,
+                this.timeoutUnit));
+    }
+
+    /**
+     * Passes the result of an operation on to its handler on the main thread, if the operation has
+     * not finished already.
+     * @param operation The operation.
+     * @param resultHandler The handler of the result.
+     * @param result The result.
+     * @return Whether or not the result is passed on.
+     */
+    private <T> boolean deliver(final SyncOperation operation,
+                                final ResultHandler<T> resultHandler, final T result) {
+        if (!operation.finish()) {
+            return false;
+        }
+        this.mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                SyncScheduler.this.operations.remove(operation);
+                // It may have been cancelled while the result was on its way.
+                if (!operation.isCancelled()) {
+                    resultHandler.onResult(result);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Posts the given work to the main thread, unless the operation was cancelled by then.
+     * @param operation The operation the work belongs to.
+     * @param work The work.
+     */
+    private void post(final SyncOperation operation, final Runnable work) {
+        this.mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!operation.isCancelled()) {
+                    work.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Handles the result of an operation, on the main thread.
+     */
+    private interface ResultHandler<T> {
+
+        /**
+         * Handle the result.
+         * @param result The result, or null if the operation failed, timed out or could not be
+         * run.
+         */
+        void onResult(T result);
+    }
+
+    /**
+     * An operation that was handed to the scheduler.
+     */
+    public static class SyncOperation {
+
+        // Set once the result has been handed over, or the operation was cancelled or timed out.
+        private AtomicBoolean finished = new AtomicBoolean(false);
+
+        private volatile boolean cancelled = false;
+
+        private volatile Future<?> future;
+
+        // Gives up on the operation once it takes too long. Set once it starts running.
+        private volatile ScheduledFuture<?> timeout;
+
+        // What gives up on the operation, and how long it may take, in the unit of the time outs,
+        // so that the time can be counted again. Set once it starts running, on the thread
+        // running it.
+        private Runnable giveUp;
+        private long timeoutLength;
+
+        /**
+         * Cancels the operation, interrupting it if it is running. Its result is never passed on.
+         */
+        public void cancel() {
+            this.cancelled = true;
+            if (this.finish() && this.future != null) {
+                this.future.cancel(true);
+            }
+        }
+
+        /**
+         * Returns whether or not the operation was cancelled.
+         * @return True for yes, False for no.
+         */
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        /**
+         * Returns whether or not the operation finished, was cancelled or timed out.
+         * @return True for yes, False for no.
+         */
+        private boolean isFinished() {
+            return this.finished.get();
+        }
+
+        /**
+         * Marks the operation as finished, and stops waiting for it to time out.
+         * @return Whether or not it was not finished before.
+         */
+        private boolean finish() {
+            if (!this.finished.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            return true;
+        }
+
+        /**
+         * Sets what gives up on the operation once it takes too long.
+         * @param timeout The scheduled time out.
+         */
+        private void setTimeout(ScheduledFuture<?> timeout) {
+            this.timeout = timeout;
+            // It may have finished in the meantime, in which case nothing will cancel it.
+            if (this.isFinished()) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Gives an upload more time whenever a chunk of it gets through, so that large notes are not
+     * given up on while they are still being sent.
+     */
+    private class UploadProgress implements ResumableUpload.ProgressListener {
+
+        // The operation doing the upload. Set right after it is submitted.
+        private volatile SyncOperation operation;
+
+        @Override
+        public void onProgress(long uploaded, long total) {
+            SyncOperation operation = this.operation;
+            if (operation != null) {
+                SyncScheduler.this.restartTimeout(operation);
+            }
+        }
+    }
+
+    /**
+     * Passes the progress of a download on to the main thread, in the order it was made.
+     */
+    private class DownloadRelay implements DriveService.DownloadProgressListener {
+
+        private DownloadDoneListener listener;
+
+        // The note being displayed, to work out how the downloaded one differs from it, or null
+        // to pass the items on in chunks.
+        private SaveData displayed;
+
+        // The downloaded note, collected in the background. Only used if displayed is not null.
+        private NoteDocument document;
+
+        // The items of the downloaded note, and how they differ from the ones being displayed.
+        // Only valid once the download is complete.
+        private List<ItemViewData> items;
+        private DiffUtil.DiffResult diff;
+
+        // The operation doing the download. Set right after it is submitted.
+        private volatile SyncOperation operation;
+
+        // Font size of the data being downloaded. Only valid once the header has been read.
+        private int fontSize;
+
+        // Changes saved after the items. Only valid once the download is complete.
+        private List<EditOperation> changes = Collections.emptyList();
+
+        // Version of the downloaded data, or null if it could not be downloaded. Only valid once
+        // the download is complete.
+        private volatile String version;
+
+        // Whether or not the download was skipped because the data did not change.
+        private volatile boolean unchanged = false;
+
+        // Whether or not the listener has been told that the download started. Main thread only.
+        private boolean started = false;
+
+        DownloadRelay(DownloadDoneListener listener, SaveData displayed) {
+            this.listener = listener;
+            this.displayed = displayed;
+            if (displayed != null) {
+                this.document = new NoteDocument();
+            }
+        }
+
+        @Override
+        public void onDataUnchanged() {
+            this.unchanged = true;
+        }
+
+        @Override
+        public void onHeaderDownloaded(int fontSize) {
+            this.fontSize = fontSize;
+        }
+
+        @Override
+        public void onItemsDownloaded(final List<ItemViewData> items) {
+            if (this.document != null) {
+                this.document.addAll(items);
+                return;
+            }
+            SyncScheduler.this.post(this.operation, new Runnable() {
+                @Override
+                public void run() {
+                    DownloadRelay.this.notifyStarted();
+                    DownloadRelay.this.listener.onItemsDownloaded(items);
+                }
+            });
+        }
+
+        @Override
+        public void onChangesDownloaded(List<EditOperation> changes) {
+            this.changes = changes;
+        }
+
+        /**
+         * Applies the changes to the collected note, and works out how it differs from the one
+         * being displayed. Does nothing if the items are passed on in chunks, or nothing was
+         * downloaded. Called in the background once the download is complete.
+         * @return Whether or not the changes could be applied. If not, the download failed.
+         */
+        boolean calculateDiff() {
+            if (this.document == null || this.unchanged) {
+                return true;
+            }
+            try {
+                for (EditOperation change : this.changes) {
+                    change.apply(this.document);
+                }
+            } catch (IndexOutOfBoundsException e) {
+                e.printStackTrace();
+                return false;
+            }
+            this.items = this.document.toList();
+            this.diff = ItemDiff.calculate(this.displayed.getItems(), this.items);
+            return true;
+        }
+
+        /**
+         * Lets the listener know how the download went. Runs after every chunk was passed on,
+         * since both are posted to the main thread in order.
+         * @param successful Whether or not the download was successful.
+         */
+        void finish(boolean successful) {
+            if (this.unchanged) {
+                this.listener.onDownloadSkipped();
+                return;
+            }
+            if (successful && this.document != null) {
+                this.listener.onDownloadDiffed(new SaveData(this.items, this.fontSize),
+                        this.diff, this.version);
+                return;
+            }
+            if (successful) {
+                // The note may be empty, in which case no chunks were passed on.
+                this.notifyStarted();
+            }
+            this.listener.onDownloadComplete(successful,
+                    successful ? this.changes : Collections.<EditOperation>emptyList(),
+                    this.version);
+        }
+
+        /**
+         * Lets the listener know that the download started, if it has not been told already.
+         */
+        private void notifyStarted() {
+            if (this.started) {
+                return;
+            }
+            this.started = true;
+            this.listener.onDownloadStarted(this.fontSize);
+        }
+    }
+}
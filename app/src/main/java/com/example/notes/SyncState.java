@@ -0,0 +1,31 @@
+package com.example.notes;
+
+/**
+ * The states that syncing the note with Google Drive can be in.
+ */
+public enum SyncState {
+
+    // Nothing is running, and the last operation succeeded.
+    IDLE,
+
+    // The note is being downloaded, or checked for changes.
+    DOWNLOADING,
+
+    // The note is being uploaded.
+    UPLOADING,
+
+    // Nothing is running, but the note was changed in the same places both here and elsewhere, and
+    // holds both versions between conflict markers.
+    CONFLICT,
+
+    // Nothing is running, but the last operation failed.
+    ERROR;
+
+    /**
+     * Returns whether or not an operation is running in this state.
+     * @return True for yes, False for no.
+     */
+    public boolean isBusy() {
+        return this == DOWNLOADING || this == UPLOADING;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.notes;
+
+/**
+ * Listener that should be notified whenever the state of syncing changes.
+ */
+public interface SyncStateListener {
+
+    /**
+     * The state of syncing just changed. Called on the main thread.
+     * @param state The new state.
+     */
+    void onSyncStateChanged(SyncState state);
+}
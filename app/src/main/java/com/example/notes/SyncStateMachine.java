@@ -0,0 +1,182 @@
+package com.example.notes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of the state of syncing, so that only one operation on Google Drive runs at a time.
+ * An operation can only begin while nothing is running, which is checked and changed in one
+ * atomic step. Operations asked for while another is running are queued, and run in order once it
+ * finishes. Asking again for a kind of operation that is already queued, such as a second merge,
+ * does nothing, since the queued one works with the note as it is when it runs anyway. Other
+ * kinds are queued behind it, even if they run in the same state. Listeners are told about every
+ * change of state on the main thread. Only beginning and finishing are safe to call from other
+ * threads; queueing must happen on the main thread.
+ */
+public class SyncStateMachine {
+
+    private AtomicReference<SyncState> state = new AtomicReference<>(SyncState.IDLE);
+
+    private MainThread mainThread;
+
+    // Operations waiting for the running one to finish, in order, by their kind.
+    private LinkedHashMap<Kind, Runnable> queue = new LinkedHashMap<>();
+
+    private List<SyncStateListener> listeners = new ArrayList<>();
+
+    /**
+     * Creates a new state machine, with nothing running.
+     */
+    public SyncStateMachine() {
+        this(new MainThread());
+    }
+
+    /**
+     * Creates a new state machine, with nothing running.
+     * @param mainThread The main thread to tell the listeners on, and run queued operations on.
+     */
+    SyncStateMachine(MainThread mainThread) {
+        this.mainThread = mainThread;
+    }
+
+    /**
+     * Returns the current state.
+     * @return The state.
+     */
+    public SyncState getState() {
+        return this.state.get();
+    }
+
+    /**
+     * Returns whether or not an operation is running.
+     * @return True for yes, False for no.
+     */
+    public boolean isBusy() {
+        return this.getState().isBusy();
+    }
+
+    /**
+     * Adds a listener to tell about every change of state.
+     * @param listener The listener.
+     */
+    public void addListener(SyncStateListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Begins an operation, if nothing is running.
+     * @param busyState The state the operation runs in, DOWNLOADING or UPLOADING.
+     * @return Whether or not the operation may begin.
+     */
+    public boolean begin(SyncState busyState) {
+        if (!busyState.isBusy()) {
+            throw new IllegalArgumentException("Not a busy state: " + busyState);
+        }
+        while (true) {
+            SyncState current = this.state.get();
+            if (current.isBusy()) {
+                return false;
+            }
+            if (this.state.compareAndSet(current, busyState)) {
+                this.notifyListeners(busyState);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Runs the given operation now if nothing is running, and otherwise once everything before it
+     * has finished. If an operation of the same kind is queued already, nothing happens. The
+     * operation has to begin itself. Must be called on the main thread.
+     * @param kind The kind of operation.
+     * @param operation The operation.
+     */
+    public void runOrQueue(Kind kind, Runnable operation) {
+        if (!this.isBusy() && this.queue.isEmpty()) {
+            operation.run();
+            return;
+        }
+        if (!this.queue.containsKey(kind)) {
+            this.queue.put(kind, operation);
+        }
+    }
+
+    /**
+     * Finishes the running operation, then runs the next queued one, if any.
+     * @param endState The state to end up in, IDLE, CONFLICT or ERROR.
+     */
+    public void finish(SyncState endState) {
+        if (endState.isBusy()) {
+            throw new IllegalArgumentException("Not an end state: " + endState);
+        }
+        SyncState current = this.state.get();
+        if (!current.isBusy() || !this.state.compareAndSet(current, endState)) {
+            // Nothing was running.
+            return;
+        }
+        this.notifyListeners(endState);
+        // Run it after the caller is done handling the result.
+        this.mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                SyncStateMachine.this.runNext();
+            }
+        });
+    }
+
+    /**
+     * Forgets every queued operation.
+     */
+    public void clearQueue() {
+        this.queue.clear();
+    }
+
+    /**
+     * Runs the queued operations in order until one of them begins, since some may find there is
+     * nothing to do.
+     */
+    private void runNext() {
+        while (!this.isBusy() && !this.queue.isEmpty()) {
+            Kind next = this.queue.keySet().iterator().next();
+            this.queue.remove(next).run();
+        }
+    }
+
+    /**
+     * Tells the listeners about a change of state, on the main thread.
+     * @param state The new state.
+     */
+    private void notifyListeners(final SyncState state) {
+        this.mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SyncStateListener listener : SyncStateMachine.this.listeners) {
+                    listener.onSyncStateChanged(state);
+                }
+            }
+        });
+    }
+
+    /**
+     * The kinds of operations that can be queued. Each kind is queued at most once.
+     */
+    public enum Kind {
+
+        // Loading the note from Drive.
+        LOAD,
+
+        // Checking whether or not the saved note changed.
+        CHECK,
+
+        // Merging the note being edited with the saved note.
+        MERGE,
+
+        // Switching to another note.
+        SWITCH,
+
+        // Saving the note to Drive.
+        SAVE
+    }
+}
@@ -93,10 +93,10 @@ public class TextArea extends androidx.appcompat.widget.AppCompatEditText {
             }
             @Override
             public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
+                // Always pass on the edit first, so listeners never miss a character.
+                TextArea.this.onTextChange(charSequence, start, before, count);
                 if (before == 0 && count == 1 && charSequence.charAt(start) == '\n') {
                     TextArea.this.onEnterPressed();
-                } else {
-                    TextArea.this.onTextChange();
                 }
             }
             @Override
@@ -208,12 +208,16 @@ public class TextArea extends androidx.appcompat.widget.AppCompatEditText {
     }
 
     /**
-     * Notify listeners that the next was just changed.
+     * Notify listeners that the next was just changed, passing on only what was changed.
+     * @param text The new text.
+     * @param start Where the change starts.
+     * @param before The number of characters that were replaced.
+     * @param count The number of characters that replaced them.
      */
-    private void onTextChange() {
+    private void onTextChange(CharSequence text, int start, int before, int count) {
         if (this.textChangeListener == null)
             return;
-        this.textChangeListener.onTextChanged(this.getText().toString());
+        this.textChangeListener.onTextChanged(text, start, before, count);
     }
 
     /**
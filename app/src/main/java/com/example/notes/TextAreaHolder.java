@@ -1,6 +1,7 @@
 package com.example.notes;
 
 import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
@@ -9,11 +10,19 @@ import androidx.recyclerview.widget.RecyclerView;
  * View holder that contains a single TextArea.
  */
 public class TextAreaHolder extends RecyclerView.ViewHolder implements EnterKeyPressedListener,
-        BackKeyPressedListener {
+        BackKeyPressedListener, TextChangeListener {
 
     private TextArea textArea;
 
+    // Size of the text, so that it is not set again when it did not change. Setting it lays the
+    // text out again.
+    private float textSize = -1;
+
     // Listeners.
+    private TextChangeListener textChangeListener;
+
+    private LineEditedListener lineEditedListener;
+
     private AddLineListener addLineListener;
 
     private RemoveLineListener removeLineListener;
@@ -38,29 +47,62 @@ public class TextAreaHolder extends RecyclerView.ViewHolder implements EnterKeyP
     }
 
     /**
-     * Sets the data to display. Also sets textChangeListener that listens in and gets notified
-     * whenever the text in this item gets changed.
-     * @param data The data.
+     * Sets the item to display. Also sets the item as the textChangeListener that listens in and
+     * gets notified whenever the text in this item gets changed. If the item is already displayed
+     * with the same text and size, such as when it is bound again after a change elsewhere, the
+     * text is left as it is, so that it is not laid out again.
+     * @param item The item.
      * @param size The size of the text.
-     * @param textListener The textChangeListener that listens in.
+     * @param lineEditedListener The listener to tell which line was edited, after the
+     * textChangeListener.
      */
-    public void setData(String data, float size, TextChangeListener textListener,
-                         AddLineListener addLineListener, RemoveLineListener removeLineListener) {
+    public void setData(ItemViewData item, float size, LineEditedListener lineEditedListener,
+                        AddLineListener addLineListener, RemoveLineListener removeLineListener) {
+        // The text being replaced belongs to whichever item was displayed before, so the new
+        // item must not be told about the change.
+        this.setTextChangeListener(null);
+        // Compare the text itself, since a recycled holder may be given back an item that was
+        // edited in another holder in the meantime.
+        String data = item.getData();
+        if (!TextUtils.equals(this.textArea.getText(), data)) {
+            this.textArea.setText(data);
+        }
+        this.setTextSize(size);
         // Update which listeners to notify.
-        this.setTextChangeListener(textListener);
+        this.setTextChangeListener(item);
+        this.lineEditedListener = lineEditedListener;
         this.setEnterKeyPressedListener(addLineListener);
         this.setBackKeyPressedListesner(removeLineListener);
-        this.textArea.setText(data);
-        this.textArea.setTextSize(size);
     }
 
+    /**
+     * Sets the size of the text, without setting the data again.
+     * @param size The size of the text.
+     */
+    public void setTextSize(float size) {
+        if (size != this.textSize) {
+            this.textArea.setTextSize(size);
+            this.textSize = size;
+        }
+    }
+
+
     /**
      * Set textChangeListener that listens in and gets notified whenever the text in this item gets changed.
      * @param listener The textChangeListener that listens in.
      */
     public void setTextChangeListener(TextChangeListener listener) {
-        // Pass on to text area.
-        this.textArea.setTextChangeListener(listener);
+        // Pass on to text area through this holder, so the line that was edited is known.
+        this.textChangeListener = listener;
+        this.textArea.setTextChangeListener(listener == null ? null : this);
+    }
+
+    @Override
+    public void onTextChanged(CharSequence text, int start, int before, int count) {
+        this.textChangeListener.onTextChanged(text, start, before, count);
+        if (this.lineEditedListener != null) {
+            this.lineEditedListener.onLineEdited(this.getAdapterPosition());
+        }
     }
 
     /**
@@ -6,8 +6,12 @@ package com.example.notes;
 public interface TextChangeListener {
 
     /**
-     * The text was just changed.
-     * @param newText The new text.
+     * The text was just changed. The count characters starting at start just replaced the old
+     * text of length before.
+     * @param text The new text.
+     * @param start Where the change starts.
+     * @param before The number of characters that were replaced.
+     * @param count The number of characters that replaced them.
      */
-    void onTextChanged(String newText);
+    void onTextChanged(CharSequence text, int start, int before, int count);
 }
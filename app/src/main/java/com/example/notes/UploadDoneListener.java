@@ -1,5 +1,7 @@
 package com.example.notes;
 
+import java.util.List;
+
 /**
 * Interface that is responsible for letting user know that a download has just been
 * completed.
@@ -9,6 +11,14 @@ public interface UploadDoneListener {
     /**
      * Handle the data that was downloaded.
      * @param successful Whether or not the upload was a success.
+     * @param changes The changes that were uploaded, or null if the whole data was uploaded.
+     */
+    void onUploadComplete(boolean successful, List<EditOperation> changes);
+
+    /**
+     * Handle an upload that was not made, since the data was saved from somewhere else in the
+     * meantime, and has to be merged first.
+     * @param changes The changes that were to be uploaded, or null if the whole data was.
      */
-    void onUploadComplete(boolean successful);
+    void onUploadConflict(List<EditOperation> changes);
 }
@@ -0,0 +1,76 @@
+package com.example.notes;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+
+/**
+ * Remembers the resumable upload that is in progress, so that it can be picked up where it left
+ * off after the app restarts. The session is kept in the SharedPreferences of the app, and the
+ * contents being uploaded in a file in its cache.
+ */
+public class UploadSessionStore {
+
+    final private static String PREFERENCES_NAME = "upload_session";
+
+    // What the session uploads, so that it is only resumed to upload the same thing.
+    final private static String KEY_KEY = "key";
+
+    final private static String URI_KEY = "uri";
+
+    final private static String SPOOL_FILE_NAME = "upload.spool";
+
+    private SharedPreferences preferences;
+
+    private File spoolFile;
+
+    /**
+     * Creates a new store that keeps the session in the preferences of the given Context.
+     * @param context The Context.
+     */
+    public UploadSessionStore(Context context) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        this.spoolFile = new File(context.getApplicationContext().getCacheDir(), SPOOL_FILE_NAME);
+    }
+
+    /**
+     * Returns the file the contents being uploaded are written to before they are sent.
+     * @return The file.
+     */
+    public File getSpoolFile() {
+        return this.spoolFile;
+    }
+
+    /**
+     * Returns the URI of the session that uploads what the given key describes.
+     * @param key Describes what is being uploaded.
+     * @return The URI, or null if there is no such session.
+     */
+    public String getSessionUri(String key) {
+        if (!key.equals(this.preferences.getString(KEY_KEY, null))) {
+            return null;
+        }
+        return this.preferences.getString(URI_KEY, null);
+    }
+
+    /**
+     * Remembers the session that uploads what the given key describes.
+     * @param key Describes what is being uploaded.
+     * @param uri The URI of the session.
+     */
+    public void setSession(String key, String uri) {
+        // Committed right away, since the app may be killed while uploading.
+        this.preferences.edit().putString(KEY_KEY, key).putString(URI_KEY, uri).commit();
+    }
+
+    /**
+     * Forgets the session, along with the contents that were being uploaded.
+     */
+    public void clear() {
+        this.preferences.edit().clear().apply();
+        // If it can not be deleted, it is overwritten by the next upload anyway.
+        this.spoolFile.delete();
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.notes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests when the note is saved while it is being edited, on a main thread whose clock the tests
+ * move by hand.
+ */
+public class AutoSaverTest {
+
+    // Time between changes while the user is typing, in milliseconds.
+    final private static long TYPING_INTERVAL = 500;
+
+    private FakeMainThread mainThread;
+    private AutoSaver autoSaver;
+
+    // When the note was saved, in milliseconds.
+    private List<Long> saves = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        this.mainThread = new FakeMainThread();
+        this.autoSaver = new AutoSaver(new AutoSaveListener() {
+            @Override
+            public void onAutoSave() {
+                AutoSaverTest.this.saves.add(AutoSaverTest.this.mainThread.uptimeMillis());
+            }
+        }, this.mainThread);
+        this.autoSaver.setEnabled(true);
+    }
+
+    @Test
+    public void burstIsSavedOnceTheUserStops() {
+        this.type(3);
+        long lastChange = this.mainThread.uptimeMillis();
+        this.mainThread.advance(AutoSaver.DEBOUNCE_DELAY - 1);
+        assertEquals(Collections.<Long>emptyList(), this.saves);
+        this.mainThread.advance(1);
+        assertEquals(Collections.singletonList(lastChange + AutoSaver.DEBOUNCE_DELAY),
+                this.saves);
+    }
+
+    @Test
+    public void longBurstIsSavedAfterTheMaxDelay() {
+        this.autoSaver.onNoteChanged();
+        this.type((int) (2 * AutoSaver.MAX_DELAY / TYPING_INTERVAL));
+        assertEquals(Arrays.asList(AutoSaver.MAX_DELAY, 2 * AutoSaver.MAX_DELAY), this.saves);
+    }
+
+    @Test
+    public void changesDuringAnUploadAreSavedAfterIt() {
+        this.autoSaver.onSaveStarted();
+        this.autoSaver.onNoteChanged();
+        this.mainThread.advance(AutoSaver.MAX_DELAY);
+        assertEquals(Collections.<Long>emptyList(), this.saves);
+        this.autoSaver.onSaveComplete();
+        assertEquals(Collections.singletonList(AutoSaver.MAX_DELAY), this.saves);
+    }
+
+    @Test
+    public void changesWhileDisabledAreSavedOnceEnabled() {
+        this.autoSaver.setEnabled(false);
+        this.autoSaver.onNoteChanged();
+        this.mainThread.advance(AutoSaver.MAX_DELAY);
+        assertEquals(Collections.<Long>emptyList(), this.saves);
+        this.autoSaver.setEnabled(true);
+        this.mainThread.advance(AutoSaver.DEBOUNCE_DELAY);
+        assertEquals(Collections.singletonList(AutoSaver.MAX_DELAY + AutoSaver.DEBOUNCE_DELAY),
+                this.saves);
+    }
+
+    @Test
+    public void saveNowDoesNotSaveTwice() {
+        this.autoSaver.onNoteChanged();
+        this.autoSaver.saveNow();
+        this.mainThread.advance(AutoSaver.MAX_DELAY);
+        assertEquals(Collections.singletonList(0L), this.saves);
+    }
+
+    @Test
+    public void cancelForgetsTheChanges() {
+        this.autoSaver.onNoteChanged();
+        this.autoSaver.cancel();
+        this.mainThread.advance(AutoSaver.MAX_DELAY);
+        this.autoSaver.saveNow();
+        assertEquals(Collections.<Long>emptyList(), this.saves);
+    }
+
+    /**
+     * Changes the note the given number of times, a moment apart, as the user does when typing.
+     * @param count The number of changes.
+     */
+    private void type(int count) {
+        for (int i = 0; i < count; i ++) {
+            this.mainThread.advance(TYPING_INTERVAL);
+            this.autoSaver.onNoteChanged();
+        }
+    }
+}
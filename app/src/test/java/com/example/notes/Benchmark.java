@@ -0,0 +1,9 @@
+package com.example.notes;
+
+/**
+ * Category of the tests that measure how long things take, and print what they measured. How
+ * long something takes depends on the machine and on what else runs on it, so they are left out
+ * of the unit tests, and only run with "gradlew test -Pbenchmark".
+ */
+public interface Benchmark {
+}
@@ -0,0 +1,163 @@
+package com.example.notes;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests sending requests for the metadata of files in batches, against a fake Drive, including
+ * how requests that fail are sent again.
+ */
+public class DriveBatchTest {
+
+    final private static String FIELDS = "id, name";
+
+    private FakeDrive drive;
+
+    private Drive service;
+
+    @Before
+    public void setUp() {
+        this.drive = new FakeDrive();
+        this.service = this.drive.createService();
+    }
+
+    @Test
+    public void getListAndRename() throws IOException {
+        this.drive.putFile("first", new byte[0]);
+        this.drive.putFile("second", new byte[0]);
+        String firstId = this.drive.getId("first");
+        String secondId = this.drive.getId("second");
+
+        Result<File> got = new Result<>();
+        Result<List<File>> listed = new Result<>();
+        Result<File> renamed = new Result<>();
+        new DriveBatch(this.service, new RetryPolicy())
+                .get(firstId, FIELDS, got)
+                .list(DriveFileLister.nameIs("second"), FIELDS, listed)
+                .rename(secondId, "third", FIELDS, renamed)
+                .execute();
+
+        assertEquals("first", got.getResult().getName());
+        assertEquals(firstId, got.getResult().getId());
+        assertEquals(1, listed.getResult().size());
+        assertEquals(secondId, listed.getResult().get(0).getId());
+        assertEquals("third", renamed.getResult().getName());
+        assertEquals(Arrays.asList("first", "third"), this.drive.getFileNames());
+        // All of it in a single round trip.
+        assertEquals(Collections.singletonList("POST /batch/drive/v3"),
+                this.getBatchRequests());
+    }
+
+    @Test
+    public void createWhoseResponseWasLostIsNotCreatedTwice() {
+        Result<File> created = new Result<>();
+        Result<File> missing = new Result<>();
+        File metadata = new File().setId("generated").setName("created")
+                .setParents(Collections.singletonList("appDataFolder"));
+        this.drive.loseNextBatchResponse();
+        new DriveBatch(this.service, new RetryPolicy())
+                .create(metadata, FIELDS, created)
+                .get("missing", FIELDS, missing)
+                .execute();
+
+        // Created by the first attempt, and asked for by the last one, after the second one
+        // found it taken.
+        assertNull(created.getError());
+        assertEquals("generated", created.getResult().getId());
+        assertEquals("created", created.getResult().getName());
+        assertEquals(Collections.singletonList("created"), this.drive.getFileNames());
+        assertEquals(3, this.getBatchRequests().size());
+        assertTrue(this.drive.getRequests().contains("GET /drive/v3/files/generated"));
+
+        // A request that failed for good is not sent again, and fails with its own error.
+        assertEquals(FakeDrive.STATUS_NOT_FOUND,
+                ((HttpResponseException) missing.getError()).getStatusCode());
+    }
+
+    @Test
+    public void failedDeleteDoesNotStopTheOthers() {
+        this.drive.setDeleteStatus(FakeDrive.STATUS_FORBIDDEN);
+        Result<Void> deleted = new Result<>();
+        Result<File> created = new Result<>();
+        new DriveBatch(this.service, new RetryPolicy())
+                .delete("missing", deleted)
+                .create(new File().setId("generated").setName("created"), FIELDS, created)
+                .execute();
+        assertNotNull(deleted.getError());
+        assertEquals("created", created.getResult().getName());
+        assertEquals(1, this.getBatchRequests().size());
+    }
+
+    /**
+     * Returns the batch requests made to the fake Drive.
+     * @return The requests, in order.
+     */
+    private List<String> getBatchRequests() {
+        ArrayList<String> batches = new ArrayList<>();
+        for (String request : this.drive.getRequests()) {
+            if (request.endsWith("/batch/drive/v3")) {
+                batches.add(request);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Keeps the result of a request, and checks that it is only passed on once.
+     */
+    private static class Result<T> implements DriveBatch.Callback<T> {
+
+        private T result;
+
+        private IOException error;
+
+        // Number of times the result was passed on.
+        private int calls = 0;
+
+        @Override
+        public void onSuccess(T result) {
+            this.result = result;
+            this.calls ++;
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            this.error = e;
+            this.calls ++;
+        }
+
+        /**
+         * Returns the result, which the request must have succeeded with.
+         * @return The result.
+         */
+        T getResult() {
+            assertEquals(1, this.calls);
+            assertNull(this.error);
+            return this.result;
+        }
+
+        /**
+         * Returns the error the request failed with.
+         * @return The error, or null if it succeeded.
+         */
+        IOException getError() {
+            assertEquals(1, this.calls);
+            return this.error;
+        }
+    }
+}
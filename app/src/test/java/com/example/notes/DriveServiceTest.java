@@ -0,0 +1,400 @@
+package com.example.notes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests saving notes as a save file followed by files of changes, compacting those into the save
+ * file, and reading the note back with the changes replayed, against a fake Drive.
+ */
+public class DriveServiceTest {
+
+    final private static String NOTE_ID = "test";
+
+    final private static String SAVE_FILE = "note_" + NOTE_ID;
+
+    private FakeDrive drive;
+
+    // The device saving the note, what it keeps in its storage, and the note as it is on it.
+    private DriveService service;
+    private FakeContext context;
+    private NoteDocument document;
+
+    @Before
+    public void setUp() throws IOException {
+        this.drive = new FakeDrive();
+        this.context = new FakeContext();
+        this.service = this.createService(this.context);
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        for (int i = 0; i < 50; i ++) {
+            items.add(new ItemViewData("Line " + i, ItemViewData.TYPE_TEXT));
+        }
+        this.document = new NoteDocument(items);
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(null));
+    }
+
+    @Test
+    public void filesAreCreatedInTheAppDataFolder() throws IOException {
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(1)));
+        for (String name : this.drive.getFileNames()) {
+            assertEquals(name, Arrays.asList("appDataFolder"), this.drive.getParents(name));
+        }
+    }
+
+    @Test
+    public void changesAreAppendedAndReplayed() throws IOException {
+        for (int i = 1; i <= 3; i ++) {
+            assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(i)));
+        }
+        assertEquals(Arrays.asList("manifest", SAVE_FILE, SAVE_FILE + ".changes.0.1",
+                SAVE_FILE + ".changes.0.2", SAVE_FILE + ".changes.0.3"),
+                this.drive.getFileNames());
+        this.assertReadBack();
+    }
+
+    @Test
+    public void changesAreCompacted() throws IOException {
+        for (int i = 1; i <= DriveService.MAX_CHANGES_FILES; i ++) {
+            assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(i)));
+        }
+        assertEquals(DriveService.MAX_CHANGES_FILES + 2, this.drive.getFileNames().size());
+
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(17)));
+        assertEquals(Arrays.asList("manifest", SAVE_FILE), this.drive.getFileNames());
+        this.assertReadBack();
+
+        // Changes after the compaction belong to the next generation of the save file.
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(18)));
+        assertEquals(Arrays.asList("manifest", SAVE_FILE, SAVE_FILE + ".changes.1.1"),
+                this.drive.getFileNames());
+        this.assertReadBack();
+    }
+
+    @Test
+    public void failedDeleteAfterCompactionKeepsTheSave() throws IOException {
+        for (int i = 1; i <= 3; i ++) {
+            assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(i)));
+        }
+        this.drive.setDeleteStatus(FakeDrive.STATUS_FORBIDDEN);
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(null));
+        assertTrue(this.drive.getFileNames().contains(SAVE_FILE + ".changes.0.1"));
+        // The files left behind are not replayed onto the new save file.
+        this.assertReadBack();
+
+        // Nor do they count as a save from somewhere else.
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(4)));
+        assertTrue(this.drive.getFileNames().contains(SAVE_FILE + ".changes.1.1"));
+        this.assertReadBack();
+
+        // They are deleted after the next compaction.
+        this.drive.setDeleteStatus(0);
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(null));
+        assertEquals(Arrays.asList("manifest", SAVE_FILE), this.drive.getFileNames());
+        this.assertReadBack();
+    }
+
+    @Test
+    public void droppedConnectionResumesLargeUpload() throws IOException {
+        this.document = createLargeNote();
+
+        // The connection goes away halfway through the second chunk.
+        int chunkSize = DriveService.UPLOAD_CHUNK_SIZE;
+        this.drive.dropUploadAfter(chunkSize + chunkSize / 2);
+        int earlierRequests = this.drive.getRequests().size();
+        final ArrayList<Long> progress = new ArrayList<>();
+        DriveService.UploadResult result = this.service.uploadData(NOTE_ID,
+                new SaveData(this.document.toList(), 14), null, null,
+                new ResumableUpload.ProgressListener() {
+                    @Override
+                    public void onProgress(long uploaded, long total) {
+                        progress.add(uploaded);
+                        assertTrue(uploaded <= total);
+                    }
+                });
+        assertEquals(DriveService.UploadResult.SUCCESS, result);
+        this.assertReadBack();
+
+        // Only one session was needed, which picked up where the connection was dropped.
+        String fileId = this.drive.getId(SAVE_FILE);
+        int sessions = 0;
+        int chunks = 0;
+        List<String> requests = this.drive.getRequests();
+        for (String request : requests.subList(earlierRequests, requests.size())) {
+            if (request.equals("PATCH /upload/drive/v3/files/" + fileId)) {
+                sessions ++;
+            } else if (request.equals("PUT /upload/session/" + fileId)) {
+                chunks ++;
+            }
+        }
+        assertEquals(1, sessions);
+        int total = this.drive.getContent(SAVE_FILE).length;
+        // One request per chunk, plus the one that failed and the one asking how far it got.
+        assertEquals((total + chunkSize - 1) / chunkSize + 2, chunks);
+        assertTrue(progress.size() >= 3);
+        assertEquals(Long.valueOf(total), progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i ++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+    }
+
+    @Test
+    public void largeUploadIsResumedAfterRestart() throws IOException {
+        this.document = createLargeNote();
+
+        // The connection goes away halfway through the second chunk, and so does the app.
+        int chunkSize = DriveService.UPLOAD_CHUNK_SIZE;
+        this.drive.dropUploadAfter(chunkSize + chunkSize / 2, FakeDrive.STATUS_UNAUTHORIZED);
+        assertEquals(DriveService.UploadResult.FAILED, this.upload(null));
+
+        // Started again, with what it kept in its storage. The save failed after writing, so it
+        // has to be merged first, which here leaves the note as it is.
+        this.drive.setRequestStatus(0);
+        this.service = this.createService(this.context);
+        this.service.setKnownVersion(NOTE_ID, this.service.downloadSaveData(NOTE_ID)
+                .getVersion());
+        int earlierRequests = this.drive.getRequests().size();
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(null));
+        this.assertReadBack();
+
+        // No new session was started, and only the chunks that had not arrived were sent.
+        String fileId = this.drive.getId(SAVE_FILE);
+        int sessions = 0;
+        int chunks = 0;
+        List<String> requests = this.drive.getRequests();
+        for (String request : requests.subList(earlierRequests, requests.size())) {
+            if (request.equals("PATCH /upload/drive/v3/files/" + fileId)) {
+                sessions ++;
+            } else if (request.equals("PUT /upload/session/" + fileId)) {
+                chunks ++;
+            }
+        }
+        assertEquals(0, sessions);
+        int remaining = this.drive.getContent(SAVE_FILE).length - chunkSize - chunkSize / 2;
+        // One request per chunk left, plus the one asking how far the upload got.
+        assertEquals((remaining + chunkSize - 1) / chunkSize + 1, chunks);
+    }
+
+    @Test
+    public void listedNotesMatchTheSaveFiles() throws IOException {
+        this.drive.setMaxPageSize(2);
+        assertEquals(DriveService.UploadResult.SUCCESS, this.service.uploadData("gone",
+                new SaveData(this.document.toList(), 14), null, null, null));
+        // Saved without its entry in the manifest, such as by a device that failed to write it.
+        this.drive.putFile(SAVE_FILE + "unlisted", new byte[0]);
+        this.drive.deleteFile("note_gone");
+
+        List<NoteInfo> notes = this.service.listNotes();
+        assertNotNull(notes);
+        ArrayList<String> ids = new ArrayList<>();
+        for (NoteInfo note : notes) {
+            ids.add(note.getId());
+            if (note.getId().equals(NOTE_ID)) {
+                assertEquals(this.document.get(0).getData(), note.getTitle());
+            } else {
+                assertEquals("", note.getTitle());
+            }
+        }
+        Collections.sort(ids);
+        assertEquals(Arrays.asList(NOTE_ID, NOTE_ID + "unlisted"), ids);
+
+        // A note that was deleted gets its entry back once it is saved again.
+        assertEquals(DriveService.UploadResult.SUCCESS, this.service.uploadData("gone",
+                new SaveData(this.document.toList(), 14), null, null, null));
+        String title = null;
+        for (NoteInfo note : this.service.listNotes()) {
+            if (note.getId().equals("gone")) {
+                title = note.getTitle();
+            }
+        }
+        assertEquals(this.document.get(0).getData(), title);
+    }
+
+    @Test
+    public void downloadIsOnlyRecordedOnceApplied() throws IOException {
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(1)));
+        DriveService other = this.createService();
+        final ArrayList<ItemViewData> items = new ArrayList<>();
+        String version = other.downloadData(NOTE_ID, new DriveService.DownloadProgressListener() {
+            @Override
+            public void onDataUnchanged() {
+                // Nothing was downloaded before.
+            }
+
+            @Override
+            public void onHeaderDownloaded(int fontSize) {
+                // Only the items are checked.
+            }
+
+            @Override
+            public void onItemsDownloaded(List<ItemViewData> chunk) {
+                items.addAll(chunk);
+            }
+
+            @Override
+            public void onChangesDownloaded(List<EditOperation> changes) {
+                // Applying them is up to the caller.
+            }
+        }, true);
+        assertNotNull(version);
+        assertEquals(this.document.size(), items.size());
+
+        // Until the download is applied, the note on the other device is not the saved one.
+        assertEquals(Boolean.TRUE, other.isRemoteChanged(NOTE_ID));
+        other.setKnownVersion(NOTE_ID, version);
+        assertEquals(Boolean.FALSE, other.isRemoteChanged(NOTE_ID));
+    }
+
+    @Test
+    public void cachedSaveFilesSaveRoundTrips() {
+        // The first save of changes after the whole note finds the save files cached.
+        int roundTrips = this.drive.getRoundTrips();
+        int requests = this.drive.getRequests().size();
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(1)));
+        // A single batch checking the cached files, then the changes along with their metadata,
+        // instead of a listing followed by a session to upload the changes in.
+        assertEquals(2, this.drive.getRoundTrips() - roundTrips);
+        List<String> made = this.drive.getRequests();
+        assertEquals(Arrays.asList("POST /batch/drive/v3",
+                "GET /drive/v3/files/" + this.drive.getId(SAVE_FILE), "GET /drive/v3/files",
+                "POST /upload/drive/v3/files"), made.subList(requests, made.size()));
+
+        // Compacting costs the check, the upload of the note and the batch deleting the changes.
+        for (int i = 2; i <= DriveService.MAX_CHANGES_FILES + 1; i ++) {
+            roundTrips = this.drive.getRoundTrips();
+            assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(i)));
+        }
+        assertEquals(3, this.drive.getRoundTrips() - roundTrips);
+    }
+
+    @Test
+    public void cachedSaveFilesNoticeSavesFromElsewhere() throws IOException {
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(1)));
+        DriveService other = this.createService();
+        other.setKnownVersion(NOTE_ID, other.downloadSaveData(NOTE_ID).getVersion());
+
+        // Changes saved from the other device after the ones this device saved.
+        assertEquals(DriveService.UploadResult.SUCCESS, other.uploadData(NOTE_ID,
+                new SaveData(this.document.toList(), 14), this.edit(2), null, null));
+        assertEquals(Boolean.TRUE, this.service.isRemoteChanged(NOTE_ID));
+        assertEquals(DriveService.UploadResult.CONFLICT, this.upload(this.edit(3)));
+
+        // The whole note saved from the other device.
+        this.service.setKnownVersion(NOTE_ID, this.service.downloadSaveData(NOTE_ID)
+                .getVersion());
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(this.edit(4)));
+        other.setKnownVersion(NOTE_ID, other.downloadSaveData(NOTE_ID).getVersion());
+        assertEquals(DriveService.UploadResult.SUCCESS, other.uploadData(NOTE_ID,
+                new SaveData(this.document.toList(), 14), null, null, null));
+        assertEquals(DriveService.UploadResult.CONFLICT, this.upload(this.edit(5)));
+
+        // The save file deleted from the other device.
+        this.drive.deleteFile(SAVE_FILE);
+        assertEquals(Boolean.TRUE, this.service.isRemoteChanged(NOTE_ID));
+        this.service.setKnownVersion(NOTE_ID, null);
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(null));
+        this.assertReadBack();
+    }
+
+    @Test
+    public void saveThatWroteNothingIsNoConflict() throws IOException {
+        List<EditOperation> changes = new ArrayList<>(this.edit(1));
+        this.drive.setRequestStatus(FakeDrive.STATUS_UNAUTHORIZED);
+        assertEquals(DriveService.UploadResult.FAILED, this.upload(changes));
+        assertEquals(Arrays.asList("manifest", SAVE_FILE), this.drive.getFileNames());
+
+        // The save files could not be checked, so the next save carries on where this one was.
+        this.drive.setRequestStatus(0);
+        changes.addAll(this.edit(2));
+        assertEquals(DriveService.UploadResult.SUCCESS, this.upload(changes));
+        this.assertReadBack();
+    }
+
+    /**
+     * Creates a DriveService for a device of its own, which has not downloaded anything yet.
+     * @return The service.
+     * @throws IOException If the device could not be created.
+     */
+    private DriveService createService() throws IOException {
+        return this.createService(new FakeContext());
+    }
+
+    /**
+     * Creates a DriveService for the device that keeps its storage in the given Context, such as
+     * after the app was started again.
+     * @param context The Context.
+     * @return The service.
+     */
+    private DriveService createService(FakeContext context) {
+        return new DriveService(this.drive.createService(), new SaveVersionStore(context),
+                new UploadSessionStore(context));
+    }
+
+    /**
+     * Creates a note large enough to be uploaded in several chunks. The text is random, so that
+     * it still takes several chunks once it is compressed.
+     * @return The note.
+     */
+    private static NoteDocument createLargeNote() {
+        Random random = new Random(1);
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 40000; i ++) {
+            line.setLength(0);
+            for (int j = 0; j < 80; j ++) {
+                line.append((char) ('!' + random.nextInt(94)));
+            }
+            items.add(new ItemViewData(line.toString(), ItemViewData.TYPE_TEXT));
+        }
+        return new NoteDocument(items);
+    }
+
+    /**
+     * Changes the text of a line of the note.
+     * @param line The line.
+     * @return The change.
+     */
+    private List<EditOperation> edit(int line) {
+        ItemViewData item = new ItemViewData("Edited " + line, ItemViewData.TYPE_TEXT);
+        EditOperation change = EditOperation.set(line, item);
+        change.apply(this.document);
+        return Arrays.asList(change);
+    }
+
+    /**
+     * Saves the note.
+     * @param changes The changes made since the last save, or null to save the whole note.
+     * @return How the save went.
+     */
+    private DriveService.UploadResult upload(List<EditOperation> changes) {
+        return this.service.uploadData(NOTE_ID, new SaveData(this.document.toList(), 14),
+                changes, null, null);
+    }
+
+    /**
+     * Checks that another device reads back the note as it is on this one.
+     * @throws IOException If the other device could not be created.
+     */
+    private void assertReadBack() throws IOException {
+        DriveService.RemoteNote remote = this.createService().downloadSaveData(NOTE_ID);
+        assertNotNull(remote);
+        assertNotNull(remote.getData());
+        List<ItemViewData> items = remote.getData().getItems();
+        assertEquals(this.document.size(), items.size());
+        for (int i = 0; i < items.size(); i ++) {
+            assertEquals(this.document.get(i).getData(), items.get(i).getData());
+        }
+        assertFalse(remote.getVersion().isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.notes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests taking the changes made to a note, and writing and replaying them.
+ */
+public class EditLogTest {
+
+    @Test
+    public void takenChangesAreNotChangedByLaterEdits() throws IOException {
+        NoteDocument document = createDocument();
+        EditLog log = new EditLog();
+        ItemViewData inserted = new ItemViewData("New", ItemViewData.TYPE_TEXT);
+        document.insert(1, inserted);
+        log.recordInsert(1, inserted);
+        document.get(2).appendData(" edited");
+
+        List<EditOperation> changes = log.takeChanges(document);
+        // The note as it was when the changes were taken, which is what gets uploaded with them.
+        List<String> taken = getTexts(document.toList());
+
+        // Typing goes on while the changes are written on another thread.
+        inserted.appendData(" typed later");
+        document.get(2).appendData(" typed later");
+
+        NoteDocument replayed = createDocument();
+        for (EditOperation change : writeAndRead(changes)) {
+            change.apply(replayed);
+        }
+        assertEquals(taken, getTexts(replayed.toList()));
+
+        // The later edits are taken next time.
+        changes = log.takeChanges(document);
+        for (EditOperation change : writeAndRead(changes)) {
+            change.apply(replayed);
+        }
+        assertEquals(getTexts(document.toList()), getTexts(replayed.toList()));
+    }
+
+    /**
+     * Creates a note of a few lines.
+     * @return The note.
+     */
+    private static NoteDocument createDocument() {
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        for (int i = 0; i < 3; i ++) {
+            items.add(new ItemViewData("Line " + i, ItemViewData.TYPE_TEXT));
+        }
+        return new NoteDocument(items);
+    }
+
+    /**
+     * Writes changes as they are uploaded, and reads them back.
+     * @param changes The changes.
+     * @return The changes read back.
+     * @throws IOException If the changes could not be written or read.
+     */
+    private static List<EditOperation> writeAndRead(List<EditOperation> changes)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EditLog.write(out, changes);
+        return EditLog.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Returns the text of the given items.
+     * @param items The items.
+     * @return The text of every item, in order.
+     */
+    private static List<String> getTexts(List<ItemViewData> items) {
+        ArrayList<String> texts = new ArrayList<>(items.size());
+        for (ItemViewData item : items) {
+            texts.add(item.getData());
+        }
+        return texts;
+    }
+}
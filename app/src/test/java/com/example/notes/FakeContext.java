@@ -0,0 +1,216 @@
+package com.example.notes;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Context that keeps SharedPreferences in memory and files in a temporary directory, which is
+ * all the stores of the app need, so that they can be used in JVM tests.
+ */
+class FakeContext extends ContextWrapper {
+
+    // The preferences, by name.
+    final private HashMap<String, FakePreferences> preferences = new HashMap<>();
+
+    private File directory;
+
+    /**
+     * Creates a new Context with nothing stored.
+     * @throws IOException If the temporary directory could not be created.
+     */
+    FakeContext() throws IOException {
+        super(null);
+        this.directory = Files.createTempDirectory("notes-test").toFile();
+        this.directory.deleteOnExit();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        FakePreferences preferences = this.preferences.get(name);
+        if (preferences == null) {
+            preferences = new FakePreferences();
+            this.preferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return this.directory;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return this.directory;
+    }
+
+    /**
+     * SharedPreferences kept in memory. Edits are applied at once.
+     */
+    private static class FakePreferences implements SharedPreferences {
+
+        final private HashMap<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(this.values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return (String) this.get(key, defValue);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return (Set<String>) this.get(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return (Integer) this.get(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return (Long) this.get(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return (Float) this.get(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return (Boolean) this.get(key, defValue);
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return this.values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new FakeEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+            // Nothing listens in tests.
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+            // Nothing listens in tests.
+        }
+
+        /**
+         * Returns the value of a key.
+         * @param key The key.
+         * @param defValue The value to return if there is none.
+         * @return The value.
+         */
+        private synchronized Object get(String key, Object defValue) {
+            return this.values.containsKey(key) ? this.values.get(key) : defValue;
+        }
+
+        /**
+         * Edits the preferences they were created by.
+         */
+        private class FakeEditor implements Editor {
+
+            // The values to set, with null for the ones to remove.
+            final private HashMap<String, Object> changes = new HashMap<>();
+
+            private boolean clear = false;
+
+            @Override
+            public Editor putString(String key, String value) {
+                this.changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                this.changes.put(key, values);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                this.changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                this.changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                this.changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                this.changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                this.changes.put(key, null);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                this.clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (FakePreferences.this) {
+                    if (this.clear) {
+                        FakePreferences.this.values.clear();
+                    }
+                    for (Map.Entry<String, Object> change : this.changes.entrySet()) {
+                        if (change.getValue() == null) {
+                            FakePreferences.this.values.remove(change.getKey());
+                        } else {
+                            FakePreferences.this.values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                this.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,885 @@
+package com.example.notes;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+import com.google.api.services.drive.model.GeneratedIds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A Google Drive that keeps the files of the appDataFolder in memory, and answers the requests of
+ * the Drive client through a MockHttpTransport, so that DriveService can be tested without a
+ * network. Only what the app asks for is understood: listing files by name, creating, updating,
+ * downloading and deleting them, batches, and uploads, both multipart and resumable. Requests can
+ * be made to fail or stall, to see how failures are handled.
+ */
+class FakeDrive extends MockHttpTransport {
+
+    final private static String FILES_PATH = "/drive/v3/files";
+    final private static String UPLOAD_PATH = "/upload/drive/v3/files";
+    final private static String BATCH_PATH = "/batch/drive/v3";
+    final private static String SESSION_PATH = "/upload/session/";
+    final private static String DOWNLOAD_PREFIX = "/download";
+    final private static String ROOT_URL = "https://www.googleapis.com";
+
+    // HTTP status codes the fake answers with.
+    final static int STATUS_NO_CONTENT = 204;
+    final static int STATUS_RESUME_INCOMPLETE = 308;
+    final static int STATUS_UNAUTHORIZED = 401;
+    final static int STATUS_FORBIDDEN = 403;
+    final static int STATUS_NOT_FOUND = 404;
+    final static int STATUS_CONFLICT = 409;
+    final static int STATUS_UNAVAILABLE = 503;
+
+    // Number of files listed per page when the request does not say.
+    final private static int DEFAULT_PAGE_SIZE = 100;
+
+    final private static Pattern NAME_IS = Pattern.compile("name = '(.*)'");
+    final private static Pattern NAME_CONTAINS = Pattern.compile("name contains '(.*)'");
+    final private static Pattern REQUEST_LINE =
+            Pattern.compile("(GET|POST|PUT|PATCH|DELETE) (\\S+) HTTP/1\\.1");
+    final private static Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    final private JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+
+    // The files, by ID, in the order they were created.
+    final private LinkedHashMap<String, StoredFile> files = new LinkedHashMap<>();
+
+    // Resumable uploads that were started, by the ID of their session.
+    final private HashMap<String, Session> sessions = new HashMap<>();
+
+    // The method and path of every request made, in order, including those in batches.
+    final private ArrayList<String> requests = new ArrayList<>();
+
+    // Number of HTTP requests made, counting a batch as one.
+    private int roundTrips = 0;
+
+    private int lastId = 0;
+
+    // Stands in for the time files were modified at, so that every change gets a later time.
+    private long clock = 1000000;
+
+    // Status to answer requests to delete files with, or 0 to delete them.
+    private int deleteStatus = 0;
+
+    // Status to answer every request with, or 0 to answer them.
+    private int requestStatus = 0;
+
+    // Number of bytes of resumable uploads to receive before dropping the connection, or -1 to
+    // receive them all.
+    private long dropAfter = -1;
+
+    // Status to answer every request with once the connection was dropped, or 0 to answer them.
+    private int statusAfterDrop = 0;
+
+    // Most files to list per page, whatever the request asks for, as Drive may list fewer.
+    private int maxPageSize = DEFAULT_PAGE_SIZE;
+
+    // Whether or not to answer the next batch with an error, after carrying out its requests.
+    private boolean loseBatchResponse = false;
+
+    // Whether or not to hold every request until it is let through, as if the connection stalled.
+    private boolean stalling = false;
+
+    // Number of requests that were held, and of those that were interrupted while they were.
+    private int stalledRequests = 0;
+    private int interruptedRequests = 0;
+
+    /**
+     * Creates a Drive service that talks to this fake.
+     * @return The service.
+     */
+    Drive createService() {
+        return new Drive.Builder(this, this.jsonFactory, null)
+                .setApplicationName("Notes Test")
+                .build();
+    }
+
+    /**
+     * Makes every request to delete a file fail with the given status, or succeed again.
+     * @param status The HTTP status code, or 0 to delete files again.
+     */
+    synchronized void setDeleteStatus(int status) {
+        this.deleteStatus = status;
+    }
+
+    /**
+     * Makes every request fail with the given status, or be answered again.
+     * @param status The HTTP status code, or 0 to answer requests again.
+     */
+    synchronized void setRequestStatus(int status) {
+        this.requestStatus = status;
+    }
+
+    /**
+     * Drops the connection of the next resumable upload once the given number of its bytes have
+     * been received, as if the network went away. Later requests succeed again.
+     * @param bytes The number of bytes, or -1 to not drop it.
+     */
+    synchronized void dropUploadAfter(long bytes) {
+        this.dropUploadAfter(bytes, 0);
+    }
+
+    /**
+     * Drops the connection like dropUploadAfter, and then fails every later request with the given
+     * status, as if the app went away before it could pick up where it left off.
+     * @param bytes The number of bytes, or -1 to not drop it.
+     * @param status The HTTP status code, or 0 to answer later requests.
+     */
+    synchronized void dropUploadAfter(long bytes, int status) {
+        this.dropAfter = bytes;
+        this.statusAfterDrop = status;
+    }
+
+    /**
+     * Carries out the requests of the next batch, but answers it with an error, as if the
+     * response was lost on the way back. Later batches are answered again.
+     */
+    synchronized void loseNextBatchResponse() {
+        this.loseBatchResponse = true;
+    }
+
+    /**
+     * Holds every request until it is let through again, as if the connection stalled. A request
+     * that is interrupted while it is held fails.
+     * @param stalling True to hold requests, False to let them through.
+     */
+    synchronized void setStalling(boolean stalling) {
+        this.stalling = stalling;
+        this.notifyAll();
+    }
+
+    /**
+     * Waits until the given number of requests have been held, since the fake was created.
+     * @param count The number of requests.
+     * @param timeout Longest to wait, in milliseconds.
+     * @return Whether or not they were held in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    synchronized boolean awaitStalledRequests(int count, long timeout)
+            throws InterruptedException {
+        return this.awaitRequests(false, count, timeout);
+    }
+
+    /**
+     * Waits until the given number of requests have been interrupted while they were held, since
+     * the fake was created.
+     * @param count The number of requests.
+     * @param timeout Longest to wait, in milliseconds.
+     * @return Whether or not they were interrupted in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    synchronized boolean awaitInterruptedRequests(int count, long timeout)
+            throws InterruptedException {
+        return this.awaitRequests(true, count, timeout);
+    }
+
+    /**
+     * Waits until the given number of requests have been held, or interrupted.
+     * @param interrupted True to count the interrupted requests, False to count the held ones.
+     * @param count The number of requests.
+     * @param timeout Longest to wait, in milliseconds.
+     * @return Whether or not there were that many in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private synchronized boolean awaitRequests(boolean interrupted, int count, long timeout)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while ((interrupted ? this.interruptedRequests : this.stalledRequests) < count) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            this.wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Lists at most the given number of files per page, whatever the request asks for.
+     * @param size The number of files.
+     */
+    synchronized void setMaxPageSize(int size) {
+        this.maxPageSize = size;
+    }
+
+    /**
+     * Creates a file, as if some other device had.
+     * @param name The name of the file.
+     * @param content The contents of the file.
+     * @throws IOException If the metadata could not be encoded.
+     */
+    synchronized void putFile(String name, byte[] content) throws IOException {
+        this.write(null, new File().setName(name), content);
+    }
+
+    /**
+     * Deletes the file with the given name, as if some other device had.
+     * @param name The name of the file.
+     */
+    synchronized void deleteFile(String name) {
+        this.files.remove(this.getId(name));
+    }
+
+    /**
+     * Returns the names of the files, sorted.
+     * @return The names.
+     */
+    synchronized List<String> getFileNames() {
+        ArrayList<String> names = new ArrayList<>();
+        for (StoredFile file : this.files.values()) {
+            names.add(file.metadata.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Returns the contents of the file with the given name.
+     * @param name The name.
+     * @return The contents, or null if there is no such file.
+     */
+    synchronized byte[] getContent(String name) {
+        for (StoredFile file : this.files.values()) {
+            if (file.metadata.getName().equals(name)) {
+                return file.content;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the parents of the file with the given name.
+     * @param name The name.
+     * @return The IDs of the parents, or null if the file has none, or there is no such file.
+     */
+    synchronized List<String> getParents(String name) {
+        for (StoredFile file : this.files.values()) {
+            if (file.metadata.getName().equals(name)) {
+                return file.metadata.getParents();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ID of the file with the given name.
+     * @param name The name.
+     * @return The ID, or null if there is no such file.
+     */
+    synchronized String getId(String name) {
+        for (StoredFile file : this.files.values()) {
+            if (file.metadata.getName().equals(name)) {
+                return file.metadata.getId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the requests made so far, as their method and path, such as "DELETE
+     * /drive/v3/files/3". Requests to upload sessions are given the path of the session followed
+     * by the ID of the file being uploaded, or null if it is being created.
+     * @return The requests.
+     */
+    synchronized List<String> getRequests() {
+        return new ArrayList<>(this.requests);
+    }
+
+    /**
+     * Returns the number of HTTP requests made so far, which unlike getRequests counts a batch as
+     * a single one.
+     * @return The number of requests.
+     */
+    synchronized int getRoundTrips() {
+        return this.roundTrips;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(final String method, final String url) {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                FakeDrive.this.waitWhileStalled();
+                String override = this.getFirstHeaderValue("X-HTTP-Method-Override");
+                return FakeDrive.this.handle(override != null ? override : method, this);
+            }
+        };
+    }
+
+    /**
+     * Holds the request for as long as requests are held.
+     * @throws InterruptedIOException If the thread was interrupted while the request was held.
+     */
+    private synchronized void waitWhileStalled() throws InterruptedIOException {
+        if (!this.stalling) {
+            return;
+        }
+        this.stalledRequests ++;
+        this.notifyAll();
+        try {
+            while (this.stalling) {
+                this.wait();
+            }
+        } catch (InterruptedException e) {
+            this.interruptedRequests ++;
+            this.notifyAll();
+            throw new InterruptedIOException("Request interrupted.");
+        }
+    }
+
+    /**
+     * Answers a request.
+     * @param method The HTTP method.
+     * @param request The request.
+     * @return The response.
+     * @throws IOException If the connection is dropped.
+     */
+    private synchronized LowLevelHttpResponse handle(String method,
+                                                     MockLowLevelHttpRequest request)
+            throws IOException {
+        GenericUrl url = new GenericUrl(request.getUrl());
+        byte[] body = readContent(request);
+        this.roundTrips ++;
+        if (this.requestStatus != 0) {
+            this.requests.add(method + " " + url.getRawPath());
+            return error(this.requestStatus, "The request is not allowed.");
+        }
+        if (url.getRawPath().equals(BATCH_PATH)) {
+            this.requests.add(method + " " + url.getRawPath());
+            return this.handleBatch(request.getContentType(), body);
+        }
+        if (url.getRawPath().startsWith(SESSION_PATH)) {
+            return this.handleSession(url.getRawPath().substring(SESSION_PATH.length()),
+                    request.getFirstHeaderValue("Content-Range"), body);
+        }
+        return this.handleRequest(method, url, request.getContentType(), body);
+    }
+
+    /**
+     * Answers a request that is not part of an upload session, whether or not it is in a batch.
+     * @param method The HTTP method.
+     * @param url The URL.
+     * @param contentType The type of the body, or null if there is none.
+     * @param body The body.
+     * @return The response.
+     * @throws IOException If the body could not be parsed.
+     */
+    private MockLowLevelHttpResponse handleRequest(String method, GenericUrl url,
+                                                   String contentType, byte[] body)
+            throws IOException {
+        String path = url.getRawPath();
+        this.requests.add(method + " " + path);
+        if (path.startsWith(DOWNLOAD_PREFIX + FILES_PATH)) {
+            // Contents are downloaded from a path of their own.
+            path = path.substring(DOWNLOAD_PREFIX.length());
+        }
+        if (path.startsWith(UPLOAD_PATH)) {
+            String fileId = path.length() > UPLOAD_PATH.length()
+                    ? path.substring(UPLOAD_PATH.length() + 1) : null;
+            String uploadType = (String) url.getFirst("uploadType");
+            if ("resumable".equals(uploadType)) {
+                return this.startSession(fileId, body);
+            }
+            byte[][] parts = parseMultipart(contentType, body);
+            return this.write(fileId, this.parseFile(parts[0]), parts[1]);
+        }
+        if (path.equals(FILES_PATH)) {
+            if (method.equals("GET")) {
+                return this.list(url);
+            }
+            return this.write(null, this.parseFile(body), null);
+        }
+        if (path.equals(FILES_PATH + "/generateIds")) {
+            int count = Integer.parseInt(String.valueOf(url.getFirst("count")));
+            ArrayList<String> ids = new ArrayList<>();
+            for (int i = 0; i < count; i ++) {
+                ids.add(this.nextId());
+            }
+            return this.json(new GeneratedIds().setIds(ids).setSpace("appDataFolder"));
+        }
+        String fileId = path.substring(FILES_PATH.length() + 1);
+        StoredFile file = this.files.get(fileId);
+        if (method.equals("PATCH")) {
+            return this.write(fileId, this.parseFile(body), null);
+        }
+        if (method.equals("DELETE")) {
+            if (this.deleteStatus != 0) {
+                return error(this.deleteStatus, "Deleting is not allowed.");
+            }
+            if (this.files.remove(fileId) == null) {
+                return error(STATUS_NOT_FOUND, "File not found: " + fileId);
+            }
+            return new MockLowLevelHttpResponse().setStatusCode(STATUS_NO_CONTENT);
+        }
+        if (file == null) {
+            return error(STATUS_NOT_FOUND, "File not found: " + fileId);
+        }
+        if ("media".equals(url.getFirst("alt"))) {
+            return new MockLowLevelHttpResponse().setContent(file.content)
+                    .setContentType("application/octet-stream");
+        }
+        return this.json(file.metadata);
+    }
+
+    /**
+     * Lists the files matching the query of the given request, a page at a time.
+     * @param url The URL of the request.
+     * @return The response.
+     * @throws IOException If the page could not be encoded.
+     */
+    private MockLowLevelHttpResponse list(GenericUrl url) throws IOException {
+        String query = (String) url.getFirst("q");
+        ArrayList<File> matches = new ArrayList<>();
+        for (StoredFile file : this.files.values()) {
+            if (query == null || matches(query, file.metadata.getName())) {
+                matches.add(file.metadata);
+            }
+        }
+        Object pageSize = url.getFirst("pageSize");
+        int size = pageSize == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(pageSize.toString());
+        size = Math.min(size, this.maxPageSize);
+        Object token = url.getFirst("pageToken");
+        int start = token == null ? 0 : Integer.parseInt(token.toString());
+        int end = Math.min(matches.size(), start + size);
+        FileList page = new FileList().setFiles(new ArrayList<>(matches.subList(start, end)));
+        if (end < matches.size()) {
+            page.setNextPageToken(Integer.toString(end));
+        }
+        return this.json(page);
+    }
+
+    /**
+     * Checks whether or not the given name matches a query made of names joined with "or".
+     * @param query The query.
+     * @param name The name.
+     * @return True for yes, False for no.
+     */
+    private static boolean matches(String query, String name) {
+        for (String part : query.split(" or ")) {
+            part = part.trim();
+            if (part.startsWith("(") && part.endsWith(")")) {
+                part = part.substring(1, part.length() - 1);
+            }
+            Matcher is = NAME_IS.matcher(part);
+            if (is.matches() && name.equals(unquote(is.group(1)))) {
+                return true;
+            }
+            // Drive matches prefixes of words, which for the names of the app means prefixes.
+            Matcher contains = NAME_CONTAINS.matcher(part);
+            if (contains.matches() && name.startsWith(unquote(contains.group(1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates or updates a file.
+     * @param fileId The ID of the file to update, or null to create one.
+     * @param metadata The metadata to set. Holds the ID of a file being created, if it has one.
+     * @param content The contents to set, or null to keep them.
+     * @return The response.
+     * @throws IOException If the file could not be encoded.
+     */
+    private MockLowLevelHttpResponse write(String fileId, File metadata, byte[] content)
+            throws IOException {
+        StoredFile file;
+        if (fileId == null) {
+            String id = metadata.getId() != null ? metadata.getId() : this.nextId();
+            if (this.files.containsKey(id)) {
+                return error(STATUS_CONFLICT, "A file with this ID already exists.");
+            }
+            file = new StoredFile(new File().setId(id).setVersion(0L));
+            this.files.put(id, file);
+        } else {
+            file = this.files.get(fileId);
+            if (file == null) {
+                return error(STATUS_NOT_FOUND, "File not found: " + fileId);
+            }
+        }
+        if (metadata.getName() != null) {
+            file.metadata.setName(metadata.getName());
+        }
+        if (fileId == null) {
+            file.metadata.setParents(metadata.getParents());
+        }
+        if (metadata.getAppProperties() != null) {
+            Map<String, String> properties = file.metadata.getAppProperties() == null
+                    ? new HashMap<String, String>()
+                    : new HashMap<>(file.metadata.getAppProperties());
+            properties.putAll(metadata.getAppProperties());
+            file.metadata.setAppProperties(properties);
+        }
+        if (content != null) {
+            file.content = content;
+        }
+        file.metadata.setVersion(file.metadata.getVersion() + 1)
+                .setSize((long) file.content.length)
+                .setMd5Checksum(md5(file.content))
+                .setModifiedTime(new DateTime(this.clock ++));
+        return this.json(file.metadata);
+    }
+
+    /**
+     * Starts a resumable upload.
+     * @param fileId The ID of the file to update, or null to create one.
+     * @param body The metadata to set.
+     * @return The response, pointing to the session.
+     * @throws IOException If the metadata could not be parsed.
+     */
+    private MockLowLevelHttpResponse startSession(String fileId, byte[] body)
+            throws IOException {
+        if (fileId != null && !this.files.containsKey(fileId)) {
+            return error(STATUS_NOT_FOUND, "File not found: " + fileId);
+        }
+        String sessionId = this.nextId();
+        this.sessions.put(sessionId, new Session(fileId, this.parseFile(body)));
+        return new MockLowLevelHttpResponse()
+                .addHeader("Location", ROOT_URL + SESSION_PATH + sessionId);
+    }
+
+    /**
+     * Receives a chunk of a resumable upload, or says how much of it was received.
+     * @param sessionId The ID of the session.
+     * @param range The Content-Range header of the request.
+     * @param body The chunk.
+     * @return The response.
+     * @throws IOException If the connection is dropped.
+     */
+    private MockLowLevelHttpResponse handleSession(String sessionId, String range, byte[] body)
+            throws IOException {
+        Session session = this.sessions.get(sessionId);
+        if (session == null) {
+            this.requests.add("PUT " + SESSION_PATH + sessionId);
+            return error(STATUS_NOT_FOUND, "No such session.");
+        }
+        // Logged under the file being uploaded, so that the uploads of a file can be told apart.
+        this.requests.add("PUT " + SESSION_PATH + session.fileId);
+        long total = -1;
+        Matcher matcher = range == null ? null : CONTENT_RANGE.matcher(range);
+        if (matcher != null && matcher.matches()) {
+            long start = Long.parseLong(matcher.group(1));
+            total = Long.parseLong(matcher.group(3));
+            if (start <= session.received.size()) {
+                int skip = (int) (session.received.size() - start);
+                int length = body.length - skip;
+                if (this.dropAfter >= 0 && length > this.dropAfter) {
+                    // Part of the chunk arrives before the connection goes away.
+                    session.received.write(body, skip, (int) this.dropAfter);
+                    this.dropAfter = -1;
+                    this.requestStatus = this.statusAfterDrop;
+                    throw new SocketException("Connection reset");
+                }
+                if (this.dropAfter >= 0) {
+                    this.dropAfter -= length;
+                }
+                session.received.write(body, skip, length);
+            }
+        } else if (range != null && range.startsWith("bytes */")) {
+            total = Long.parseLong(range.substring("bytes */".length()));
+        } else {
+            // Sent in one go, as the Drive client does when it knows the length.
+            session.received.write(body, 0, body.length);
+            total = session.received.size();
+        }
+        if (session.received.size() < total) {
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                    .setStatusCode(STATUS_RESUME_INCOMPLETE);
+            if (session.received.size() > 0) {
+                response.addHeader("Range", "bytes=0-" + (session.received.size() - 1));
+            }
+            return response;
+        }
+        this.sessions.remove(sessionId);
+        return this.write(session.fileId, session.metadata, session.received.toByteArray());
+    }
+
+    /**
+     * Answers every request of a batch, in a single multipart response.
+     * @param contentType The type of the batch, holding the boundary between its requests.
+     * @param body The batch.
+     * @return The response.
+     * @throws IOException If a request could not be answered.
+     */
+    private MockLowLevelHttpResponse handleBatch(String contentType, byte[] body)
+            throws IOException {
+        String boundary = "batch_response";
+        StringBuilder response = new StringBuilder();
+        int index = 0;
+        for (byte[] part : splitMultipart(contentType, body)) {
+            String request = new String(part, StandardCharsets.UTF_8);
+            Matcher matcher = REQUEST_LINE.matcher(request);
+            if (!matcher.find()) {
+                continue;
+            }
+            GenericUrl url = new GenericUrl(matcher.group(2).startsWith("/")
+                    ? ROOT_URL + matcher.group(2) : matcher.group(2));
+            // The body of the request follows its headers, up to the end of the part.
+            int bodyStart = request.indexOf("\r\n\r\n", matcher.end());
+            byte[] requestBody = bodyStart < 0 ? new byte[0]
+                    : request.substring(bodyStart + 4).trim().getBytes(StandardCharsets.UTF_8);
+            MockLowLevelHttpResponse answer = this.handleRequest(matcher.group(1), url, null,
+                    requestBody);
+            byte[] content = readAll(answer);
+            response.append("--").append(boundary).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: <response-").append(++ index).append(">\r\n\r\n")
+                    .append("HTTP/1.1 ").append(answer.getStatusCode()).append(" Status\r\n")
+                    .append("Content-Type: application/json; charset=UTF-8\r\n")
+                    .append("Content-Length: ").append(content.length).append("\r\n\r\n")
+                    .append(new String(content, StandardCharsets.UTF_8)).append("\r\n");
+        }
+        response.append("--").append(boundary).append("--\r\n");
+        if (this.loseBatchResponse) {
+            this.loseBatchResponse = false;
+            return error(STATUS_UNAVAILABLE, "The response was lost.");
+        }
+        return new MockLowLevelHttpResponse()
+                .setContentType("multipart/mixed; boundary=" + boundary)
+                .setContent(response.toString());
+    }
+
+    /**
+     * Returns a new ID for a file or session.
+     * @return The ID.
+     */
+    private String nextId() {
+        return "id" + (++ this.lastId);
+    }
+
+    /**
+     * Parses the metadata of a file.
+     * @param json The metadata, as JSON, which may be empty.
+     * @return The metadata.
+     * @throws IOException If it could not be parsed.
+     */
+    private File parseFile(byte[] json) throws IOException {
+        if (json == null || json.length == 0) {
+            return new File();
+        }
+        return this.jsonFactory.fromInputStream(new ByteArrayInputStream(json),
+                StandardCharsets.UTF_8, File.class);
+    }
+
+    /**
+     * Creates a successful response holding the given object as JSON.
+     * @param object The object.
+     * @return The response.
+     * @throws IOException If the object could not be encoded.
+     */
+    private MockLowLevelHttpResponse json(Object object) throws IOException {
+        return new MockLowLevelHttpResponse()
+                .setContentType("application/json; charset=UTF-8")
+                .setContent(this.jsonFactory.toString(object));
+    }
+
+    /**
+     * Creates a failed response, in the format Drive answers with.
+     * @param status The HTTP status code.
+     * @param message The message.
+     * @return The response.
+     */
+    private static MockLowLevelHttpResponse error(int status, String message) {
+        return new MockLowLevelHttpResponse()
+                .setStatusCode(status)
+                .setContentType("application/json; charset=UTF-8")
+                .setContent("{\"error\": {\"code\": " + status + ", \"message\": \"" + message
+                        + "\", \"errors\": [{\"reason\": \"fake\", \"message\": \"" + message
+                        + "\"}]}}");
+    }
+
+    /**
+     * Reads the body of a request, undoing any compression the client applied.
+     * @param request The request.
+     * @return The body, which is empty if there is none.
+     * @throws IOException If it could not be read.
+     */
+    private static byte[] readContent(MockLowLevelHttpRequest request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (request.getStreamingContent() != null) {
+            request.getStreamingContent().writeTo(bytes);
+        }
+        if (!"gzip".equals(request.getContentEncoding())) {
+            return bytes.toByteArray();
+        }
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            decoded.write(buffer, 0, read);
+        }
+        return decoded.toByteArray();
+    }
+
+    /**
+     * Reads the content of a response.
+     * @param response The response.
+     * @return The content.
+     * @throws IOException If it could not be read.
+     */
+    private static byte[] readAll(MockLowLevelHttpResponse response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (response.getContent() != null) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = response.getContent().read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Splits a multipart upload into the metadata of the file and its contents.
+     * @param contentType The type of the upload, holding the boundary between its parts.
+     * @param body The upload.
+     * @return The metadata and the contents.
+     */
+    private static byte[][] parseMultipart(String contentType, byte[] body) {
+        List<byte[]> parts = splitMultipart(contentType, body);
+        byte[][] result = new byte[2][];
+        for (int i = 0; i < 2; i ++) {
+            byte[] part = parts.get(i);
+            // Each part has headers of its own, ending with an empty line.
+            int start = indexOf(part, "\r\n\r\n".getBytes(StandardCharsets.UTF_8), 0) + 4;
+            result[i] = Arrays.copyOfRange(part, start, part.length);
+        }
+        return result;
+    }
+
+    /**
+     * Splits a multipart body into its parts, headers included.
+     * @param contentType The type of the body, holding the boundary between its parts.
+     * @param body The body.
+     * @return The parts.
+     */
+    private static List<byte[]> splitMultipart(String contentType, byte[] body) {
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + 9)
+                .replace("\"", "");
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.UTF_8);
+        ArrayList<byte[]> parts = new ArrayList<>();
+        int start = indexOf(body, delimiter, 0);
+        while (start >= 0) {
+            start += delimiter.length;
+            if (start + 1 < body.length && body[start] == '-' && body[start + 1] == '-') {
+                break;
+            }
+            start += 2;
+            int end = indexOf(body, delimiter, start);
+            if (end < 0) {
+                break;
+            }
+            // The line break before the delimiter belongs to it.
+            parts.add(Arrays.copyOfRange(body, start, end - 2));
+            start = end;
+        }
+        return parts;
+    }
+
+    /**
+     * Finds the given bytes in an array.
+     * @param array The array.
+     * @param target The bytes to find.
+     * @param from Where to start looking.
+     * @return The index of the bytes, or -1 if they are not there.
+     */
+    private static int indexOf(byte[] array, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= array.length - target.length; i ++) {
+            for (int j = 0; j < target.length; j ++) {
+                if (array[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the MD5 checksum of the given bytes, as Drive does.
+     * @param bytes The bytes.
+     * @return The checksum, in hexadecimal.
+     */
+    private static String md5(byte[] bytes) {
+        try {
+            StringBuilder checksum = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+                checksum.append(String.format("%02x", b));
+            }
+            return checksum.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Undoes the quoting of a value in a query.
+     * @param value The quoted value, without the quotes around it.
+     * @return The value.
+     */
+    private static String unquote(String value) {
+        return value.replace("\\'", "'").replace("\\\\", "\\");
+    }
+
+    /**
+     * A file, along with its contents.
+     */
+    private static class StoredFile {
+
+        private File metadata;
+
+        private byte[] content = new byte[0];
+
+        StoredFile(File metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * A resumable upload in progress.
+     */
+    private static class Session {
+
+        // The file being updated, or null if it is being created.
+        private String fileId;
+
+        private File metadata;
+
+        private ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        Session(String fileId, File metadata) {
+            this.fileId = fileId;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.notes;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A main thread whose work only runs when the test says so, on the thread of the test, and whose
+ * clock only moves when the test moves it, so that scheduling can be tested on the JVM without
+ * waiting for it.
+ */
+class FakeMainThread extends MainThread {
+
+    // The time, in milliseconds.
+    private long now = 0;
+
+    // Work that has not run yet, in the order it is due.
+    final private LinkedList<Task> tasks = new LinkedList<>();
+
+    @Override
+    synchronized long uptimeMillis() {
+        return this.now;
+    }
+
+    @Override
+    synchronized void post(Runnable work) {
+        this.postAtTime(work, this.now);
+    }
+
+    @Override
+    synchronized void postAtTime(Runnable work, long uptimeMillis) {
+        // After the work due at the same time, like a Handler.
+        int index = 0;
+        while (index < this.tasks.size() && this.tasks.get(index).time <= uptimeMillis) {
+            index ++;
+        }
+        this.tasks.add(index, new Task(work, uptimeMillis));
+        this.notifyAll();
+    }
+
+    @Override
+    synchronized void removeCallbacks(Runnable work) {
+        Iterator<Task> iterator = this.tasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().work == work) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Moves the clock forward, running the work that is due on the way, in order.
+     * @param millis How far to move it, in milliseconds.
+     */
+    void advance(long millis) {
+        long end;
+        synchronized (this) {
+            end = this.now + millis;
+        }
+        while (true) {
+            Task task;
+            synchronized (this) {
+                if (this.tasks.isEmpty() || this.tasks.getFirst().time > end) {
+                    this.now = end;
+                    return;
+                }
+                task = this.tasks.removeFirst();
+                this.now = Math.max(this.now, task.time);
+            }
+            task.work.run();
+        }
+    }
+
+    /**
+     * Runs the work that is due, including work it hands over that is due right away.
+     */
+    void runDue() {
+        this.advance(0);
+    }
+
+    /**
+     * Waits for other threads to hand over work that is due, without running it.
+     * @param timeout Longest to wait, in milliseconds.
+     * @return Whether or not there is work that is due.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    synchronized boolean awaitWork(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (this.tasks.isEmpty() || this.tasks.getFirst().time > this.now) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            this.wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Work handed to the main thread, and when it is due.
+     */
+    private static class Task {
+
+        private Runnable work;
+
+        private long time;
+
+        Task(Runnable work, long time) {
+            this.work = work;
+            this.time = time;
+        }
+    }
+}
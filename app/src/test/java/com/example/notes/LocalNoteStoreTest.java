@@ -0,0 +1,128 @@
+package com.example.notes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests keeping a note as a snapshot followed by a journal, and reading it back after the app
+ * was closed, including when a new snapshot could not be written.
+ */
+public class LocalNoteStoreTest {
+
+    final private static String NOTE_ID = "test";
+
+    private FakeContext context;
+
+    // The note as it is on the device, and the store keeping it.
+    private NoteDocument document;
+    private LocalNoteStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        this.context = new FakeContext();
+        this.document = new NoteDocument(createItems("Line", 3));
+        this.store = new LocalNoteStore(this.context, NOTE_ID);
+        this.store.start(new LocalNoteStore.SnapshotSource() {
+            @Override
+            public SaveData getSaveData() {
+                return new SaveData(LocalNoteStoreTest.this.document.toList(), 14);
+            }
+        });
+    }
+
+    @Test
+    public void journaledChangesAreReplayed() {
+        this.insert(0, "First");
+        this.insert(4, "Last");
+        this.store.flush();
+        assertEquals(getTexts(this.document.toList()), this.loadAfterWrites());
+    }
+
+    @Test
+    public void failedSnapshotKeepsTheOldNote() throws IOException {
+        this.insert(0, "Journaled");
+        this.store.flush();
+        List<String> saved = this.loadAfterWrites();
+        assertEquals(getTexts(this.document.toList()), saved);
+
+        // Another note replaces this one, such as after a download, but it can not be written.
+        File blocker = new File(this.context.getFilesDir(), "note." + NOTE_ID + ".snapshot.tmp");
+        assertTrue(blocker.mkdir());
+        assertTrue(new File(blocker, "file").createNewFile());
+        this.document = new NoteDocument(createItems("Downloaded", 5));
+        this.store.checkpoint(new SaveData(this.document.toList(), 14), true);
+
+        // Changes to the new note are not journaled onto the old one.
+        this.insert(0, "Lost");
+        this.store.flush();
+        assertEquals(saved, this.loadAfterWrites());
+
+        // Until a snapshot can be written again.
+        assertTrue(new File(blocker, "file").delete());
+        assertTrue(blocker.delete());
+        this.store.checkpoint(new SaveData(this.document.toList(), 14), false);
+        this.insert(1, "Kept");
+        this.store.flush();
+        assertEquals(getTexts(this.document.toList()), this.loadAfterWrites());
+    }
+
+    /**
+     * Inserts a text item into the note, and records it.
+     * @param index Where to insert it.
+     * @param text The text of the item.
+     */
+    private void insert(int index, String text) {
+        ItemViewData item = new ItemViewData(text, ItemViewData.TYPE_TEXT);
+        EditOperation.insert(index, item).apply(this.document);
+        this.store.recordInsert(index, item);
+    }
+
+    /**
+     * Waits for every write handed to the writer, then reads the note back as it would be read
+     * after the app was closed.
+     * @return The text of every item.
+     */
+    private List<String> loadAfterWrites() {
+        // Reading the copy for merging waits for the writes handed to the writer before.
+        this.store.loadCrdt("test");
+        SaveData data = new LocalNoteStore(this.context, NOTE_ID).load();
+        assertNotNull(data);
+        return getTexts(data.getItems());
+    }
+
+    /**
+     * Creates text items.
+     * @param prefix What the text of every item starts with.
+     * @param count The number of items.
+     * @return The items.
+     */
+    private static List<ItemViewData> createItems(String prefix, int count) {
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        for (int i = 0; i < count; i ++) {
+            items.add(new ItemViewData(prefix + " " + i, ItemViewData.TYPE_TEXT));
+        }
+        return items;
+    }
+
+    /**
+     * Returns the text of every item.
+     * @param items The items.
+     * @return The texts.
+     */
+    private static List<String> getTexts(List<ItemViewData> items) {
+        ArrayList<String> texts = new ArrayList<>();
+        for (ItemViewData item : items) {
+            texts.add(item.getData());
+        }
+        return texts;
+    }
+}
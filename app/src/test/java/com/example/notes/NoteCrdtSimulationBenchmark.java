@@ -0,0 +1,43 @@
+package com.example.notes;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Runs the simulation of NoteCrdtSimulationTest, and prints how many rounds of syncing it took
+ * for every copy to be the same, and how much the copies hold and take up on the way.
+ */
+@Category(Benchmark.class)
+public class NoteCrdtSimulationBenchmark {
+
+    @Test
+    public void copiesConverge() throws IOException {
+        System.out.println("devices\tsync rounds\tlines\telements\tafter gc\tbytes\theap KB");
+        int[] counts = NoteCrdtSimulationTest.REPLICA_COUNTS;
+        for (int i = 0; i < counts.length; i ++) {
+            System.gc();
+            long heapBefore = getUsedHeap();
+            NoteCrdtSimulationTest.Simulation simulation =
+                    NoteCrdtSimulationTest.simulate(counts[i], new Random(i));
+            System.gc();
+            long heap = getUsedHeap() - heapBefore;
+            NoteCrdt replica = simulation.replicas[0];
+            int lines = NoteMerger.Lines.split(replica.getItems()).length;
+            System.out.println(counts[i] + "\t" + simulation.rounds + "\t" + lines + "\t"
+                    + simulation.elements + "\t" + replica.size() + "\t"
+                    + NoteCrdtSimulationTest.write(replica).length + "\t" + (heap / 1024));
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the heap in use.
+     * @return The number of bytes.
+     */
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
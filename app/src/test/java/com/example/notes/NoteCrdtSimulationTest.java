@@ -0,0 +1,359 @@
+package com.example.notes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates devices that edit copies of the same note at random, and merge each other's copies
+ * in random order, some of them through the stored form. Fails unless every copy ends up the
+ * same once they have all merged each other's. How much the copies hold and take up is measured
+ * by NoteCrdtSimulationBenchmark.
+ */
+public class NoteCrdtSimulationTest {
+
+    // Numbers of devices that are simulated.
+    final static int[] REPLICA_COUNTS = {2, 5, 10};
+
+    // Number of rounds in which devices edit and sync.
+    final private static int ROUNDS = 200;
+
+    // Chance of a device editing its copy in a round, and of it syncing with another one.
+    final private static double EDIT_CHANCE = 0.5;
+    final private static double SYNC_CHANCE = 0.3;
+
+    // Most rounds of syncing with a random device that it may take for every copy to be the same
+    // once editing has stopped.
+    final private static int MAX_CONVERGENCE_ROUNDS = 100;
+
+    // Words that the lines of the note are made of.
+    final private static String[] WORDS = {"milk", "eggs", "call", "back", "meeting", "Friday",
+            "ideas", "trip", "invoice", "project"};
+
+    @Test
+    public void copiesConverge() throws IOException {
+        for (int i = 0; i < REPLICA_COUNTS.length; i ++) {
+            simulate(REPLICA_COUNTS[i], new Random(i));
+        }
+    }
+
+    @Test
+    public void mergingIsOrderIndependent() {
+        Random random = new Random(42);
+        NoteCrdt start = new NoteCrdt("start");
+        start.update(createNote(random));
+        NoteCrdt[] copies = new NoteCrdt[3];
+        for (int i = 0; i < copies.length; i ++) {
+            copies[i] = new NoteCrdt("device" + i);
+            copies[i].merge(start);
+            for (int edit = 0; edit < 10; edit ++) {
+                copies[i].update(edit(copies[i].getItems(), random));
+            }
+        }
+
+        NoteCrdt forwards = new NoteCrdt("forwards");
+        NoteCrdt backwards = new NoteCrdt("backwards");
+        for (int i = 0; i < copies.length; i ++) {
+            forwards.merge(copies[i]);
+            backwards.merge(copies[copies.length - 1 - i]);
+        }
+        // Merging the same changes again makes no difference.
+        backwards.merge(copies[1]);
+        assertEquals(describe(forwards.getItems()), describe(backwards.getItems()));
+    }
+
+    @Test
+    public void itemsKeepTheirIdsOnThisDevice() {
+        Random random = new Random(7);
+        NoteCrdt local = new NoteCrdt("local");
+        List<ItemViewData> items = createNote(random);
+        local.update(items);
+        assertEquals(NoteMergerTest.getIds(items), NoteMergerTest.getIds(local.getItems()));
+
+        // A line added at the end of the first item elsewhere leaves every item the same one.
+        NoteCrdt remote = new NoteCrdt("remote");
+        remote.merge(local);
+        List<ItemViewData> remoteItems = remote.getItems();
+        remoteItems.set(0, new ItemViewData(remoteItems.get(0).getData() + "\nmore",
+                ItemViewData.TYPE_TEXT));
+        remote.update(remoteItems);
+        items = new ArrayList<>(items);
+        items.remove(1);
+        local.update(items);
+        local.merge(remote);
+        List<ItemViewData> merged = local.getItems();
+        assertTrue(merged.get(0).getData().endsWith("\nmore"));
+        assertEquals(NoteMergerTest.getIds(items), NoteMergerTest.getIds(merged));
+    }
+
+    /**
+     * Has devices edit and sync at random, then sync until every copy is the same, and collects
+     * the garbage of every copy once each has seen what every other one has.
+     * @param count The number of devices.
+     * @param random The source of the edits and of the order of syncing.
+     * @return How the simulation ended.
+     * @throws IOException If a copy could not be stored or read back.
+     */
+    static Simulation simulate(int count, Random random) throws IOException {
+        NoteCrdt[] replicas = new NoteCrdt[count];
+        replicas[0] = new NoteCrdt("device0");
+        replicas[0].update(createNote(random));
+        for (int i = 1; i < count; i ++) {
+            replicas[i] = new NoteCrdt("device" + i);
+            replicas[i].merge(replicas[0]);
+        }
+
+        for (int round = 0; round < ROUNDS; round ++) {
+            for (int i = 0; i < count; i ++) {
+                if (random.nextDouble() < EDIT_CHANCE) {
+                    replicas[i].update(edit(replicas[i].getItems(), random));
+                }
+                if (random.nextDouble() < SYNC_CHANCE) {
+                    sync(replicas, i, random);
+                }
+            }
+        }
+
+        // Keep syncing with random devices until every copy is the same.
+        int rounds = 0;
+        while (!isConverged(replicas)) {
+            assertTrue("Copies did not converge", rounds < MAX_CONVERGENCE_ROUNDS);
+            for (int i = 0; i < count; i ++) {
+                sync(replicas, i, random);
+            }
+            rounds ++;
+        }
+
+        // Once every device has seen what every other one has, only tombstones that something
+        // was added after are left.
+        for (int pass = 0; pass < 2; pass ++) {
+            for (int i = 0; i < count; i ++) {
+                for (int j = 0; j < count; j ++) {
+                    replicas[i].merge(replicas[j]);
+                }
+            }
+        }
+        int elements = replicas[0].size();
+        for (NoteCrdt replica : replicas) {
+            replica.collectGarbage();
+        }
+        assertTrue(isConverged(replicas));
+        int collected = replicas[0].size();
+        assertTrue(collected <= elements);
+        for (NoteCrdt replica : replicas) {
+            assertEquals(collected, replica.size());
+        }
+        assertTrue(collected >= NoteMerger.Lines.split(replicas[0].getItems()).length);
+        return new Simulation(replicas, rounds, elements);
+    }
+
+    /**
+     * Merges the copy of another device, picked at random, into that of the given one, and
+     * sometimes the other way around too. Every other merge goes through the stored form, as it
+     * would between devices.
+     * @param replicas The copies of every device.
+     * @param index The device that syncs.
+     * @param random The source of the other device.
+     * @throws IOException If a copy could not be stored or read back.
+     */
+    private static void sync(NoteCrdt[] replicas, int index, Random random)
+            throws IOException {
+        int other = random.nextInt(replicas.length);
+        if (other == index) {
+            return;
+        }
+        NoteCrdt copy = replicas[other];
+        if (random.nextBoolean()) {
+            // Read on the device that syncs, as it would be after downloading it.
+            copy = NoteCrdt.readFrom(new ByteArrayInputStream(write(copy)), "device" + index);
+        }
+        replicas[index].merge(copy);
+        if (random.nextBoolean()) {
+            replicas[other].merge(replicas[index]);
+        }
+        replicas[index].collectGarbage();
+    }
+
+    /**
+     * Returns whether or not every copy holds the same note.
+     * @param replicas The copies.
+     * @return True for yes, False for no.
+     */
+    private static boolean isConverged(NoteCrdt[] replicas) {
+        List<String> first = describe(replicas[0].getItems());
+        for (int i = 1; i < replicas.length; i ++) {
+            if (!first.equals(describe(replicas[i].getItems()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a note of a few text items and photos.
+     * @param random The source of the lines.
+     * @return The items of the note.
+     */
+    private static List<ItemViewData> createNote(Random random) {
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        for (int i = 0; i < 20; i ++) {
+            items.add(i % 5 == 4 ? createPhoto(random) : new ItemViewData(createLines(random),
+                    ItemViewData.TYPE_TEXT));
+        }
+        return items;
+    }
+
+    /**
+     * Makes a random edit to a note, of the kind users make: lines typed, changed or removed,
+     * items split, and items or photos added or removed.
+     * @param items The items of the note. Not changed.
+     * @param random The source of the edit.
+     * @return The items of the edited note.
+     */
+    private static List<ItemViewData> edit(List<ItemViewData> items, Random random) {
+        ArrayList<ItemViewData> edited = new ArrayList<>(items);
+        int index = edited.isEmpty() ? 0 : random.nextInt(edited.size());
+        int kind = random.nextInt(10);
+        if (edited.isEmpty() || kind == 0) {
+            edited.add(index, new ItemViewData(createLines(random), ItemViewData.TYPE_TEXT));
+        } else if (kind == 1) {
+            edited.add(index, createPhoto(random));
+        } else if (kind == 2) {
+            edited.remove(index);
+        } else if (edited.get(index).getViewType() == ItemViewData.TYPE_TEXT) {
+            ArrayList<String> lines = new ArrayList<>(Arrays.asList(
+                    edited.get(index).getData().split("\n", -1)));
+            int line = random.nextInt(lines.size());
+            if (kind == 3 && lines.size() > 1) {
+                // Split the item in two.
+                edited.set(index, createText(lines.subList(0, line + 1)));
+                edited.add(index + 1, createText(lines.subList(line + 1, lines.size())));
+                return edited;
+            } else if (kind == 4 && lines.size() > 1) {
+                lines.remove(line);
+            } else if (kind < 7) {
+                lines.add(line, createLine(random));
+            } else {
+                lines.set(line, createLine(random));
+            }
+            edited.set(index, createText(lines));
+        }
+        return edited;
+    }
+
+    /**
+     * Creates a text item of the given lines.
+     * @param lines The lines.
+     * @return The item.
+     */
+    private static ItemViewData createText(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines.size(); i ++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(lines.get(i));
+        }
+        return new ItemViewData(text.toString(), ItemViewData.TYPE_TEXT);
+    }
+
+    /**
+     * Creates the text of an item of a few lines.
+     * @param random The source of the lines.
+     * @return The text.
+     */
+    private static String createLines(Random random) {
+        StringBuilder text = new StringBuilder(createLine(random));
+        int count = random.nextInt(5);
+        for (int i = 0; i < count; i ++) {
+            text.append('\n').append(createLine(random));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Creates a line of a few words.
+     * @param random The source of the words.
+     * @return The line.
+     */
+    private static String createLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        int count = 1 + random.nextInt(4);
+        for (int i = 0; i < count; i ++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Creates a photo item.
+     * @param random The source of the name of the photo.
+     * @return The item.
+     */
+    private static ItemViewData createPhoto(Random random) {
+        String name = Long.toHexString(random.nextLong());
+        return new ItemViewData("photos/" + name + ".jpg", ItemViewData.TYPE_PHOTO, name);
+    }
+
+    /**
+     * Describes the given items, for comparing.
+     * @param items The items.
+     * @return The text of each text item, and the path and hash of each photo.
+     */
+    private static List<String> describe(List<ItemViewData> items) {
+        ArrayList<String> descriptions = new ArrayList<>(items.size());
+        for (ItemViewData item : items) {
+            if (item.getViewType() == ItemViewData.TYPE_PHOTO) {
+                descriptions.add("[" + item.getData() + " " + item.getHash() + "]");
+            } else {
+                descriptions.add(item.getData());
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * Stores a copy.
+     * @param crdt The copy.
+     * @return The stored form.
+     * @throws IOException If the copy could not be stored.
+     */
+    static byte[] write(NoteCrdt crdt) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        crdt.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * How a simulation ended.
+     */
+    static class Simulation {
+
+        // The copy of every device, once they are all the same and their garbage is collected.
+        final NoteCrdt[] replicas;
+
+        // Number of rounds of syncing it took for every copy to be the same.
+        final int rounds;
+
+        // Number of elements every copy held before its garbage was collected.
+        final int elements;
+
+        Simulation(NoteCrdt[] replicas, int rounds, int elements) {
+            this.replicas = replicas;
+            this.rounds = rounds;
+            this.elements = elements;
+        }
+    }
+}
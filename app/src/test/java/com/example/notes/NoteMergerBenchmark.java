@@ -0,0 +1,59 @@
+package com.example.notes;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long merging two copies of a large note takes, on the JVM, both for notes of
+ * unique lines and for notes of the same few lines over and over. Prints the results, and fails
+ * if the time per line grows with the size of the note.
+ */
+@Category(Benchmark.class)
+public class NoteMergerBenchmark {
+
+    // Sizes of the notes that are timed, in lines.
+    final private static int[] LINE_COUNTS = {5000, 50000};
+
+    // Number of times each note is merged. The fastest time is the one reported.
+    final private static int RUNS = 3;
+
+    @Test
+    public void mergeTimeGrowsLinearly() {
+        double[] nanosPerLine = new double[LINE_COUNTS.length];
+        System.out.println("lines\tmerge ms\tns/line\trepeated ms");
+        for (int i = 0; i < LINE_COUNTS.length; i ++) {
+            int count = LINE_COUNTS[i];
+            SaveData base = new SaveData(NoteMergerTest.createNote(count, false, false), 14);
+            SaveData local = new SaveData(NoteMergerTest.createNote(count, true, false), 14);
+            SaveData remote = new SaveData(NoteMergerTest.createNote(count, false, true), 14);
+            long best = Long.MAX_VALUE;
+            NoteMerger.Result result = null;
+            for (int run = 0; run < RUNS; run ++) {
+                long start = System.nanoTime();
+                result = NoteMerger.merge(base, local, remote);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            assertEquals(0, result.getConflicts());
+
+            SaveData repeated = new SaveData(NoteMergerTest.createRepeatedNote(count, false), 14);
+            SaveData changed = new SaveData(NoteMergerTest.createRepeatedNote(count, true), 14);
+            long bestRepeated = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run ++) {
+                long start = System.nanoTime();
+                result = NoteMerger.merge(repeated, changed, repeated);
+                bestRepeated = Math.min(bestRepeated, System.nanoTime() - start);
+            }
+            assertEquals(0, result.getConflicts());
+
+            nanosPerLine[i] = (double) Math.max(best, bestRepeated) / count;
+            System.out.println(count + "\t" + (best / 1000000.0) + "\t" + (int) nanosPerLine[i]
+                    + "\t" + (bestRepeated / 1000000.0));
+        }
+        // A quadratic merge would cost about ten times as much per line on the larger note.
+        assertTrue("Merging is not linear in the number of lines",
+                nanosPerLine[LINE_COUNTS.length - 1] < 5 * nanosPerLine[0]);
+    }
+}
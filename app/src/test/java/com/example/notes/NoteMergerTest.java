@@ -0,0 +1,316 @@
+package com.example.notes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests merging two copies of a note line by line: which changes are taken from which copy, when
+ * they conflict, and how photos and the ends of items are kept, on small notes and large ones.
+ * How long merging takes is measured by NoteMergerBenchmark.
+ */
+public class NoteMergerTest {
+
+    // Size of the large notes that are merged, in lines.
+    final private static int LARGE_NOTE_LINES = 50000;
+
+    // Number of lines in each text item of the large notes.
+    final private static int ITEM_LINES = 10;
+
+    // Conflict markers, as the merged text holds them.
+    final private static String CONFLICT_START = NoteMerger.CONFLICT_START;
+    final private static String CONFLICT_SEPARATOR = NoteMerger.CONFLICT_SEPARATOR;
+    final private static String CONFLICT_END = NoteMerger.CONFLICT_END;
+
+    @Test
+    public void changesToDifferentLinesAreBothTaken() {
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a\nb\nc\nd\ne")),
+                note(text("a\nB\nc\nd\ne")),
+                note(text("a\nb\nc\nD\ne")));
+        assertEquals(0, result.getConflicts());
+        assertEquals(Arrays.asList("a\nB\nc\nD\ne"), describe(result));
+    }
+
+    @Test
+    public void sameChangeInBothIsNoConflict() {
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a\nb\nc")),
+                note(text("a\nB\nc\nd")),
+                note(text("a\nB\nc\nd")));
+        assertEquals(0, result.getConflicts());
+        assertEquals(Arrays.asList("a\nB\nc\nd"), describe(result));
+    }
+
+    @Test
+    public void conflictsAreGroupedAndCounted() {
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a\nb\nc\nd\ne\nf\ng")),
+                note(text("a\nL1\nc\nd\ne\nL2\ng")),
+                note(text("a\nR1\nc\nd\ne\nR2\ng")));
+        assertEquals(2, result.getConflicts());
+        assertEquals(Arrays.asList("a\n" + conflict("L1", "R1") + "\nc\nd\ne\n"
+                + conflict("L2", "R2") + "\ng"), describe(result));
+    }
+
+    @Test
+    public void changesToAdjacentLinesConflict() {
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a\nb\nc\nd")),
+                note(text("a\nB\nc\nd")),
+                note(text("a\nb\nC\nd")));
+        assertEquals(1, result.getConflicts());
+        // Both versions hold the whole group of lines, as that copy has it.
+        assertEquals(Arrays.asList("a\n" + conflict("B\nc", "b\nC") + "\nd"), describe(result));
+
+        // So do insertions in the same place.
+        result = NoteMerger.merge(
+                note(text("a\nb")),
+                note(text("a\nlocal\nb")),
+                note(text("a\nremote\nb")));
+        assertEquals(1, result.getConflicts());
+        assertEquals(Arrays.asList("a\n" + conflict("local", "remote") + "\nb"),
+                describe(result));
+    }
+
+    @Test
+    public void photosAreMergedAsLines() {
+        // A photo removed by this device, and text changed by the other.
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a"), photo("one"), text("b\nc"), photo("two")),
+                note(text("a"), text("b\nc"), photo("two")),
+                note(text("a"), photo("one"), text("b\nC"), photo("two")));
+        assertEquals(0, result.getConflicts());
+        assertEquals(Arrays.asList("a", "b\nC", "[two]"), describe(result));
+        // The photos that are kept keep their hash.
+        List<ItemViewData> items = result.getData().getItems();
+        assertEquals("hash two", items.get(items.size() - 1).getHash());
+
+        // A photo swapped for another where the other device changed it too.
+        result = NoteMerger.merge(
+                note(text("a"), photo("one")),
+                note(text("a"), photo("three")),
+                note(text("a"), photo("four")));
+        assertEquals(1, result.getConflicts());
+        assertEquals(Arrays.asList("a", CONFLICT_START, "[three]", CONFLICT_SEPARATOR, "[four]",
+                CONFLICT_END), describe(result));
+    }
+
+    @Test
+    public void itemsKeepTheirBoundaries() {
+        // Each copy changes a different item.
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a\nb"), text("c\nd"), text("e")),
+                note(text("a\nB"), text("c\nd"), text("e")),
+                note(text("a\nb"), text("c\nd"), text("E")));
+        assertEquals(0, result.getConflicts());
+        assertEquals(Arrays.asList("a\nB", "c\nd", "E"), describe(result));
+
+        // This device splits an item in two, and the other device joins two items into one.
+        result = NoteMerger.merge(
+                note(text("a\nb"), text("c"), text("d"), text("e")),
+                note(text("a"), text("b"), text("c"), text("d"), text("e")),
+                note(text("a\nb"), text("c"), text("d\ne")));
+        assertEquals(0, result.getConflicts());
+        assertEquals(Arrays.asList("a", "b", "c", "d\ne"), describe(result));
+
+        // An empty text item is a line of its own too.
+        result = NoteMerger.merge(
+                note(text("a"), text("")),
+                note(text("a"), text("")),
+                note(text("a"), text(""), text("b")));
+        assertEquals(Arrays.asList("a", "", "b"), describe(result));
+    }
+
+    @Test
+    public void itemsKeepTheirIdsOnThisDevice() {
+        SaveData local = note(text("a\nB"), photo("one"), text("c"), text("d\ne"), text("f"));
+        NoteMerger.Result result = NoteMerger.merge(
+                note(text("a\nb"), photo("one"), text("c"), text("d\ne"), text("f")),
+                local,
+                note(text("a\nb"), photo("one"), text("c"), text("d\nE\nx"), text("f")));
+        assertEquals(0, result.getConflicts());
+        assertEquals(Arrays.asList("a\nB", "[one]", "c", "d\nE\nx", "f"), describe(result));
+        // Including the item changed on the other device, which is still the same item.
+        assertEquals(getIds(local.getItems()), getIds(result.getData().getItems()));
+
+        // An item split in two on the other device keeps its ID in the first half only.
+        local = note(text("a\nb"), text("c"));
+        result = NoteMerger.merge(note(text("a\nb"), text("c")), local,
+                note(text("a"), text("b"), text("c")));
+        List<ItemViewData> items = result.getData().getItems();
+        assertEquals(local.getItems().get(0).getId(), items.get(0).getId());
+        assertTrue(items.get(1).getId() != items.get(0).getId());
+        assertEquals(local.getItems().get(1).getId(), items.get(2).getId());
+    }
+
+    @Test
+    public void fontSizeChangeIsKept() {
+        SaveData base = new SaveData(Arrays.asList(text("a")), 14);
+        assertEquals(18, NoteMerger.merge(base, new SaveData(Arrays.asList(text("a")), 14),
+                new SaveData(Arrays.asList(text("a")), 18)).getData().getFontSize());
+        assertEquals(12, NoteMerger.merge(base, new SaveData(Arrays.asList(text("a")), 12),
+                new SaveData(Arrays.asList(text("a")), 18)).getData().getFontSize());
+    }
+
+    @Test
+    public void largeNotesAreMerged() {
+        SaveData base = new SaveData(createNote(LARGE_NOTE_LINES, false, false), 14);
+        SaveData local = new SaveData(createNote(LARGE_NOTE_LINES, true, false), 14);
+        SaveData remote = new SaveData(createNote(LARGE_NOTE_LINES, false, true), 14);
+        NoteMerger.Result result = NoteMerger.merge(base, local, remote);
+        assertEquals(0, result.getConflicts());
+        assertEquals(describe(createNote(LARGE_NOTE_LINES, true, true)), describe(result));
+
+        // Lines that repeat all over the note, such as those of a checklist, leave few unique
+        // lines to line up, and the rest is left to Myers' algorithm.
+        SaveData repeated = new SaveData(createRepeatedNote(LARGE_NOTE_LINES, false), 14);
+        SaveData changed = new SaveData(createRepeatedNote(LARGE_NOTE_LINES, true), 14);
+        result = NoteMerger.merge(repeated, changed, repeated);
+        assertEquals(0, result.getConflicts());
+        assertEquals(describe(changed.getItems()), describe(result));
+    }
+
+    /**
+     * Creates a note of unique lines in text items, as it is in the base, or as either copy
+     * changed it. The copy on this device changes a line of every hundred and inserts one every
+     * thousand lines. The other copy changes a different line of every hundred, and deletes one
+     * every thousand lines. None of them touch.
+     * @param count The number of lines in the base.
+     * @param localEdits Whether or not to make the changes of this device.
+     * @param remoteEdits Whether or not to make the changes of the other device.
+     * @return The items of the note.
+     */
+    static List<ItemViewData> createNote(int count, boolean localEdits, boolean remoteEdits) {
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i ++) {
+            String line = "Line " + i + " of the note";
+            if (localEdits && i % 100 == 10) {
+                line = "Changed here " + i;
+            } else if (remoteEdits && i % 100 == 60) {
+                line = "Changed elsewhere " + i;
+            }
+            if (!(remoteEdits && i % 1000 == 800)) {
+                text.append(line).append('\n');
+            }
+            if (localEdits && i % 1000 == 500) {
+                text.append("Inserted here ").append(i).append('\n');
+            }
+            if (i % ITEM_LINES == ITEM_LINES - 1 || i == count - 1) {
+                text.setLength(text.length() - 1);
+                items.add(text(text.toString()));
+                text.setLength(0);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Creates a checklist, in text items, of the same few lines over and over.
+     * @param count The number of lines.
+     * @param edited Whether or not to tick a box every hundred lines.
+     * @return The items of the note.
+     */
+    static List<ItemViewData> createRepeatedNote(int count, boolean edited) {
+        String[] lines = {"[ ] milk", "[ ] eggs", "[ ] bread", "[ ] coffee"};
+        ArrayList<ItemViewData> items = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i ++) {
+            String line = lines[i % lines.length];
+            if (edited && i % 100 == 50) {
+                line = line.replace("[ ]", "[x]");
+            }
+            text.append(line);
+            if (i % ITEM_LINES == ITEM_LINES - 1 || i == count - 1) {
+                items.add(text(text.toString()));
+                text.setLength(0);
+            } else {
+                text.append('\n');
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Creates a note of the given items.
+     * @param items The items.
+     * @return The note.
+     */
+    private static SaveData note(ItemViewData... items) {
+        return new SaveData(Arrays.asList(items), 14);
+    }
+
+    /**
+     * Creates a text item.
+     * @param text The text.
+     * @return The item.
+     */
+    private static ItemViewData text(String text) {
+        return new ItemViewData(text, ItemViewData.TYPE_TEXT);
+    }
+
+    /**
+     * Creates a photo item.
+     * @param name The name of the photo, which its path and hash are made of.
+     * @return The item.
+     */
+    private static ItemViewData photo(String name) {
+        return new ItemViewData(name, ItemViewData.TYPE_PHOTO, "hash " + name);
+    }
+
+    /**
+     * Returns the lines a conflict is made of, as they are in the merged text.
+     * @param local The lines of this device.
+     * @param remote The lines of the other device.
+     * @return The lines.
+     */
+    private static String conflict(String local, String remote) {
+        return CONFLICT_START + "\n" + local + "\n" + CONFLICT_SEPARATOR + "\n" + remote + "\n"
+                + CONFLICT_END;
+    }
+
+    /**
+     * Returns the IDs of the given items.
+     * @param items The items.
+     * @return The IDs, in order.
+     */
+    static List<Long> getIds(List<ItemViewData> items) {
+        ArrayList<Long> ids = new ArrayList<>(items.size());
+        for (ItemViewData item : items) {
+            ids.add(item.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Describes the items of a merged note, for comparing.
+     * @param result The result of the merge.
+     * @return The text of each text item, and the name of each photo between brackets.
+     */
+    static List<String> describe(NoteMerger.Result result) {
+        return describe(result.getData().getItems());
+    }
+
+    /**
+     * Describes the given items, for comparing.
+     * @param items The items.
+     * @return The text of each text item, and the name of each photo between brackets.
+     */
+    static List<String> describe(List<ItemViewData> items) {
+        ArrayList<String> descriptions = new ArrayList<>(items.size());
+        for (ItemViewData item : items) {
+            if (item.getViewType() == ItemViewData.TYPE_PHOTO) {
+                descriptions.add("[" + item.getData() + "]");
+            } else {
+                descriptions.add(item.getData());
+            }
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.notes;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests which failures are retried.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void connectionFailuresAreTransient() {
+        assertTrue(RetryPolicy.isTransient(new SocketTimeoutException("Read timed out")));
+        assertTrue(RetryPolicy.isTransient(new UnknownHostException("www.googleapis.com")));
+        assertTrue(RetryPolicy.isTransient(new ConnectException("Connection refused")));
+        assertTrue(RetryPolicy.isTransient(new SocketException("Connection reset")));
+        assertTrue(RetryPolicy.isTransient(new IOException(new SocketException("Broken pipe"))));
+        assertTrue(RetryPolicy.isTransient(new RetryPolicy.TransientException("No response")));
+    }
+
+    @Test
+    public void otherFailuresArePermanent() {
+        // Such as failing to get a token, which GoogleAuthIOException and its subclasses report.
+        assertFalse(RetryPolicy.isTransient(new IOException("Unable to authorize")));
+        assertFalse(RetryPolicy.isTransient(new FileNotFoundException("spool")));
+        assertFalse(RetryPolicy.isTransient(new InterruptedIOException("Cancelled")));
+    }
+
+    @Test
+    public void serverFailuresAreTransient() {
+        assertTrue(RetryPolicy.isTransient(createResponseException(503)));
+        assertTrue(RetryPolicy.isTransient(createResponseException(429)));
+        assertFalse(RetryPolicy.isTransient(createResponseException(401)));
+        assertFalse(RetryPolicy.isTransient(createResponseException(404)));
+    }
+
+    @Test
+    public void onlyTransientFailuresAreRetried() throws IOException {
+        final int[] attempts = {0};
+        String result = new RetryPolicy().execute(new RetryPolicy.Call<String>() {
+            @Override
+            public String call(int attempt) throws IOException {
+                attempts[0] ++;
+                if (attempt == 0) {
+                    throw new ConnectException("Connection refused");
+                }
+                return "done";
+            }
+        });
+        assertEquals("done", result);
+        assertEquals(2, attempts[0]);
+
+        attempts[0] = 0;
+        try {
+            new RetryPolicy().execute(new RetryPolicy.Call<String>() {
+                @Override
+                public String call(int attempt) throws IOException {
+                    attempts[0] ++;
+                    throw new IOException("Unable to authorize");
+                }
+            });
+            fail("The failure was not passed on.");
+        } catch (IOException e) {
+            assertEquals(1, attempts[0]);
+        }
+    }
+
+    /**
+     * Creates the error an HTTP request fails with.
+     * @param status The HTTP status code.
+     * @return The error.
+     */
+    private static HttpResponseException createResponseException(int status) {
+        return new HttpResponseException.Builder(status, null, new HttpHeaders()).build();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.notes;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long saving a note takes as it grows, on the JVM, and how much compressing it
+ * saves and costs on notes of different kinds. Prints the results, and fails if the time per line
+ * grows with the size of the note, as it did when the save data was built by concatenating
+ * Strings.
+ */
+@Category(Benchmark.class)
+public class SaveDataBenchmark {
+
+    // Sizes of the notes that are saved, in lines.
+    final private static int[] LINE_COUNTS = {100, 1000, 10000, 100000};
+
+    // Number of times each note is saved. The fastest time is the one reported.
+    final private static int RUNS = 5;
+
+    @Test
+    public void saveTimeGrowsLinearly() throws IOException {
+        double[] nanosPerLine = new double[LINE_COUNTS.length];
+        System.out.println("lines\tbytes\tsave ms\tns/line");
+        for (int i = 0; i < LINE_COUNTS.length; i ++) {
+            NoteDocument document = new NoteDocument(SaveDataTest.createLines(LINE_COUNTS[i],
+                    new Random(i)));
+            long best = Long.MAX_VALUE;
+            long bytes = 0;
+            for (int run = 0; run < RUNS; run ++) {
+                CountingOutputStream out = new CountingOutputStream();
+                long start = System.nanoTime();
+                SaveDataTest.save(document, out);
+                best = Math.min(best, System.nanoTime() - start);
+                bytes = out.count;
+            }
+            nanosPerLine[i] = (double) best / LINE_COUNTS[i];
+            System.out.println(LINE_COUNTS[i] + "\t" + bytes + "\t" + (best / 1000000.0) + "\t"
+                    + (int) nanosPerLine[i]);
+        }
+        // Saving is linear, so the largest note costs about as much per line as a small one. A
+        // quadratic save would cost about a hundred times as much per line.
+        assertTrue("Saving is not linear in the number of lines",
+                nanosPerLine[LINE_COUNTS.length - 1] < 10 * nanosPerLine[1]);
+    }
+
+    @Test
+    public void compressionCost() throws IOException {
+        System.out.println("note\tplain\tgzip\tratio\twrite ms\tgzip ms\tread ms\tgunzip ms");
+        for (int kind = 0; kind < SaveDataTest.SAMPLE_NAMES.length; kind ++) {
+            SaveData data = new SaveData(SaveDataTest.createSample(kind, 10000, new Random(kind)),
+                    14);
+            byte[] plain = SaveDataTest.write(data, false);
+            byte[] compressed = SaveDataTest.write(data, true);
+            double ratio = (double) compressed.length / plain.length;
+            System.out.println(SaveDataTest.SAMPLE_NAMES[kind] + "\t" + plain.length + "\t"
+                    + compressed.length + String.format("\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f", ratio,
+                    timeWrite(data, false), timeWrite(data, true), timeRead(plain),
+                    timeRead(compressed)));
+        }
+    }
+
+    /**
+     * Measures how long encoding the given note takes.
+     * @param data The note.
+     * @param compressed Whether or not to compress the items.
+     * @return The fastest of a few runs, in milliseconds.
+     * @throws IOException Never, since the bytes are only counted.
+     */
+    private static double timeWrite(SaveData data, boolean compressed) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run ++) {
+            long start = System.nanoTime();
+            data.writeTo(new CountingOutputStream(), compressed);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1000000.0;
+    }
+
+    /**
+     * Measures how long decoding the given note takes.
+     * @param bytes The encoded note.
+     * @return The fastest of a few runs, in milliseconds.
+     * @throws IOException If the note could not be decoded.
+     */
+    private static double timeRead(byte[] bytes) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run ++) {
+            long start = System.nanoTime();
+            SaveData.readFrom(new ByteArrayInputStream(bytes));
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1000000.0;
+    }
+
+    /**
+     * Stream that only counts what is written to it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            this.count ++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+}
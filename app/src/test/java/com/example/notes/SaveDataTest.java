@@ -0,0 +1,167 @@
+package com.example.notes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that saved notes read back as they were, compressed or not, and that compressing pays
+ * off for notes of different kinds. How long saving takes is measured by SaveDataBenchmark.
+ */
+public class SaveDataTest {
+
+    // Names of the kinds of notes createSample makes, by kind.
+    final static String[] SAMPLE_NAMES = {"prose", "checklist", "code", "photos", "random"};
+
+    // Words that the lines of the notes are made of.
+    final private static String[] WORDS = {"the", "note", "meeting", "tomorrow", "remember",
+            "to", "buy", "milk", "and", "eggs", "project", "deadline", "is", "on", "Friday",
+            "call", "back", "about", "the", "invoice", "ideas", "for", "the", "weekend", "trip"};
+
+    @Test
+    public void savedNoteReadsBack() throws IOException {
+        NoteDocument document = new NoteDocument(createLines(10000, new Random(42)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SaveData data = save(document, out);
+        assertEquals(data.getEncodedLength(), out.size());
+
+        SaveData read = SaveData.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(document.size(), read.getItems().size());
+        for (int i = 0; i < document.size(); i ++) {
+            assertEquals(document.get(i).getData(), read.getItems().get(i).getData());
+            assertEquals(document.get(i).getId(), read.getItems().get(i).getId());
+        }
+    }
+
+    @Test
+    public void compressionPaysOffForText() throws IOException {
+        for (int kind = 0; kind < SAMPLE_NAMES.length; kind ++) {
+            SaveData data = new SaveData(createSample(kind, 10000, new Random(kind)), 14);
+            byte[] plain = write(data, false);
+            byte[] compressed = write(data, true);
+
+            List<ItemViewData> read = SaveData.readFrom(new ByteArrayInputStream(compressed))
+                    .getItems();
+            assertEquals(data.getItems().size(), read.size());
+            for (int i = 0; i < read.size(); i ++) {
+                assertEquals(data.getItems().get(i).getData(), read.get(i).getData());
+            }
+            if (kind == SAMPLE_NAMES.length - 1) {
+                // Even text that compresses the least does not grow.
+                assertTrue(SAMPLE_NAMES[kind], compressed.length < plain.length);
+            } else {
+                assertTrue(SAMPLE_NAMES[kind], compressed.length < plain.length / 2);
+            }
+        }
+    }
+
+    /**
+     * Saves the note the way the app does: takes a snapshot of the items, as
+     * RecyclerViewAdapter.getSaveData does, and streams it into the upload.
+     * @param document The note.
+     * @param out The stream standing in for the upload.
+     * @return The snapshot that was saved.
+     * @throws IOException If the stream could not be written to.
+     */
+    static SaveData save(NoteDocument document, OutputStream out) throws IOException {
+        ArrayList<ItemViewData> items = new ArrayList<>(document.size());
+        for (ItemViewData item : document) {
+            items.add(new ItemViewData(item.getData(), item.getViewType(), item.getHash(),
+                    item.getId()));
+        }
+        SaveData data = new SaveData(items, 14);
+        data.writeTo(out);
+        return data;
+    }
+
+    /**
+     * Encodes the given note.
+     * @param data The note.
+     * @param compressed Whether or not to compress the items.
+     * @return The encoded note.
+     * @throws IOException Never, since the bytes are kept in memory.
+     */
+    static byte[] write(SaveData data, boolean compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        data.writeTo(out, compressed);
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a made up note of the given kind: 0 for prose, 1 for a checklist, 2 for code, 3 for
+     * photos with captions, and anything else for random characters, which compress the least.
+     * @param kind The kind of note.
+     * @param count The number of lines.
+     * @param random Picks the contents.
+     * @return The lines.
+     */
+    static List<ItemViewData> createSample(int kind, int count, Random random) {
+        if (kind == 0) {
+            return createLines(count, random);
+        }
+        ArrayList<ItemViewData> lines = new ArrayList<>(count);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i ++) {
+            builder.setLength(0);
+            if (kind == 1) {
+                builder.append(random.nextBoolean() ? "[x] " : "[ ] ")
+                        .append(WORDS[random.nextInt(WORDS.length)]).append(' ')
+                        .append(WORDS[random.nextInt(WORDS.length)]);
+            } else if (kind == 2) {
+                for (int j = random.nextInt(4); j > 0; j --) {
+                    builder.append("    ");
+                }
+                builder.append("if (").append(WORDS[random.nextInt(WORDS.length)])
+                        .append(" != null) { return ").append(random.nextInt(100)).append("; }");
+            } else if (kind == 3 && i % 2 == 0) {
+                for (int j = 0; j < 32; j ++) {
+                    builder.append(Character.forDigit(random.nextInt(16), 16));
+                }
+                lines.add(new ItemViewData("photos/" + builder + ".jpg",
+                        ItemViewData.TYPE_PHOTO, builder.toString()));
+                continue;
+            } else if (kind == 3) {
+                builder.append("Photo ").append(i / 2).append(": ")
+                        .append(WORDS[random.nextInt(WORDS.length)]);
+            } else {
+                for (int j = random.nextInt(80); j > 0; j --) {
+                    builder.append((char) (' ' + 1 + random.nextInt(94)));
+                }
+            }
+            lines.add(new ItemViewData(builder.toString(), ItemViewData.TYPE_TEXT));
+        }
+        return lines;
+    }
+
+    /**
+     * Creates lines of made up text.
+     * @param count The number of lines.
+     * @param random Picks the words.
+     * @return The lines.
+     */
+    static List<ItemViewData> createLines(int count, Random random) {
+        ArrayList<ItemViewData> lines = new ArrayList<>(count);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i ++) {
+            builder.setLength(0);
+            int words = random.nextInt(12);
+            for (int j = 0; j < words; j ++) {
+                if (j > 0) {
+                    builder.append(' ');
+                }
+                builder.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            lines.add(new ItemViewData(builder.toString(), ItemViewData.TYPE_TEXT));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.notes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that operations that are cancelled, or take too long, are interrupted, and that their
+ * results are never passed on, against a fake Drive whose requests can be made to stall.
+ */
+public class SyncSchedulerTest {
+
+    final private static String NOTE_ID = "test";
+
+    // Longest to wait for the threads of the scheduler, in milliseconds.
+    final private static long WAIT = 5000;
+
+    private FakeDrive drive;
+    private DriveService service;
+    private FakeMainThread mainThread;
+    private SyncScheduler scheduler;
+
+    // The results that were passed on, in order, each with the name of its operation.
+    private List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.drive = new FakeDrive();
+        FakeContext context = new FakeContext();
+        this.service = new DriveService(this.drive.createService(), new SaveVersionStore(context),
+                new UploadSessionStore(context));
+        this.mainThread = new FakeMainThread();
+        this.scheduler = new SyncScheduler(this.mainThread, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        this.drive.setStalling(false);
+        this.scheduler.shutdown();
+    }
+
+    @Test
+    public void operationThatTakesTooLongIsGivenUp() throws InterruptedException {
+        this.scheduler.shutdown();
+        this.scheduler = new SyncScheduler(this.mainThread, TimeUnit.MILLISECONDS);
+        this.drive.setStalling(true);
+        this.check("stalled");
+        this.awaitResults(1);
+        assertEquals(Collections.singletonList("stalled null"), this.results);
+        assertTrue(this.drive.awaitInterruptedRequests(1, WAIT));
+    }
+
+    @Test
+    public void cancelledOperationIsInterrupted() throws InterruptedException {
+        this.drive.setStalling(true);
+        SyncScheduler.SyncOperation operation = this.check("cancelled");
+        assertTrue(this.drive.awaitStalledRequests(1, WAIT));
+        operation.cancel();
+        assertTrue(operation.isCancelled());
+        assertTrue(this.drive.awaitInterruptedRequests(1, WAIT));
+
+        // The thread moves on to the next operation.
+        this.drive.setStalling(false);
+        this.check("next");
+        this.awaitResults(1);
+        assertEquals(Collections.singletonList("next false"), this.results);
+    }
+
+    @Test
+    public void cancelledQueuedOperationIsNotPassedOn() throws InterruptedException {
+        this.drive.setStalling(true);
+        this.check("running");
+        assertTrue(this.drive.awaitStalledRequests(1, WAIT));
+        this.check("cancelled").cancel();
+        this.check("queued");
+        this.drive.setStalling(false);
+        this.awaitResults(2);
+        assertEquals(Arrays.asList("running false", "queued false"), this.results);
+    }
+
+    @Test
+    public void resultOnItsWayIsNotPassedOnOnceCancelled() throws InterruptedException {
+        SyncScheduler.SyncOperation operation = this.check("cancelled");
+        assertTrue(this.mainThread.awaitWork(WAIT));
+        operation.cancel();
+        this.mainThread.runDue();
+        assertEquals(Collections.<String>emptyList(), this.results);
+    }
+
+    @Test
+    public void cancelAllCancelsRunningAndQueuedOperations() throws InterruptedException {
+        this.drive.setStalling(true);
+        this.check("running");
+        assertTrue(this.drive.awaitStalledRequests(1, WAIT));
+        this.check("queued");
+        this.scheduler.cancelAll();
+        assertTrue(this.drive.awaitInterruptedRequests(1, WAIT));
+
+        this.drive.setStalling(false);
+        this.check("next");
+        this.awaitResults(1);
+        assertEquals(Collections.singletonList("next false"), this.results);
+    }
+
+    /**
+     * Checks whether or not the note changed, and records the result once it is passed on.
+     * @param name The name to record the result with.
+     * @return The operation.
+     */
+    private SyncScheduler.SyncOperation check(final String name) {
+        return this.scheduler.checkForChanges(this.service, NOTE_ID,
+                new SyncCheckDoneListener() {
+            @Override
+            public void onSyncCheckComplete(Boolean changed) {
+                SyncSchedulerTest.this.results.add(name + " " + changed);
+            }
+        });
+    }
+
+    /**
+     * Passes on the results handed to the main thread, until there are the given number of them.
+     * @param count The number of results.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    private void awaitResults(int count) throws InterruptedException {
+        while (this.results.size() < count) {
+            assertTrue(this.mainThread.awaitWork(WAIT));
+            this.mainThread.runDue();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.notes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that only one operation runs at a time, and that the ones asked for meanwhile are queued
+ * once per kind and run in order, on a main thread that runs its work when the tests say so.
+ */
+public class SyncStateMachineTest {
+
+    private FakeMainThread mainThread;
+    private SyncStateMachine machine;
+
+    // The operations that ran, in order, and the states the listener was told about.
+    private List<String> ran = new ArrayList<>();
+    private List<SyncState> states = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        this.mainThread = new FakeMainThread();
+        this.machine = new SyncStateMachine(this.mainThread);
+        this.machine.addListener(new SyncStateListener() {
+            @Override
+            public void onSyncStateChanged(SyncState state) {
+                SyncStateMachineTest.this.states.add(state);
+            }
+        });
+    }
+
+    @Test
+    public void onlyOneOperationBegins() {
+        assertTrue(this.machine.begin(SyncState.DOWNLOADING));
+        assertFalse(this.machine.begin(SyncState.UPLOADING));
+        assertEquals(SyncState.DOWNLOADING, this.machine.getState());
+        this.machine.finish(SyncState.ERROR);
+        assertTrue(this.machine.begin(SyncState.UPLOADING));
+        this.mainThread.runDue();
+        assertEquals(Arrays.asList(SyncState.DOWNLOADING, SyncState.ERROR, SyncState.UPLOADING),
+                this.states);
+    }
+
+    @Test
+    public void operationRunsRightAwayWhenIdle() {
+        this.machine.runOrQueue(SyncStateMachine.Kind.SAVE,
+                this.operation("save", SyncState.UPLOADING));
+        assertEquals(Collections.singletonList("save"), this.ran);
+        assertEquals(SyncState.UPLOADING, this.machine.getState());
+    }
+
+    @Test
+    public void sameKindIsQueuedOnce() {
+        this.machine.begin(SyncState.UPLOADING);
+        this.machine.runOrQueue(SyncStateMachine.Kind.MERGE, this.operation("merge", null));
+        this.machine.runOrQueue(SyncStateMachine.Kind.SAVE, this.operation("save", null));
+        this.machine.runOrQueue(SyncStateMachine.Kind.MERGE, this.operation("merge again", null));
+        assertEquals(Collections.<String>emptyList(), this.ran);
+
+        this.machine.finish(SyncState.IDLE);
+        this.mainThread.runDue();
+        assertEquals(Arrays.asList("merge", "save"), this.ran);
+    }
+
+    @Test
+    public void kindsThatRunInTheSameStateAreBothQueued() {
+        this.machine.begin(SyncState.UPLOADING);
+        this.machine.runOrQueue(SyncStateMachine.Kind.LOAD, this.operation("load", null));
+        this.machine.runOrQueue(SyncStateMachine.Kind.CHECK, this.operation("check", null));
+        this.machine.finish(SyncState.IDLE);
+        this.mainThread.runDue();
+        assertEquals(Arrays.asList("load", "check"), this.ran);
+    }
+
+    @Test
+    public void queuedOperationsWaitForTheOneBeforeThem() {
+        this.machine.begin(SyncState.UPLOADING);
+        this.machine.runOrQueue(SyncStateMachine.Kind.CHECK,
+                this.operation("check", SyncState.DOWNLOADING));
+        this.machine.runOrQueue(SyncStateMachine.Kind.SAVE,
+                this.operation("save", SyncState.UPLOADING));
+        this.machine.finish(SyncState.IDLE);
+        this.mainThread.runDue();
+        assertEquals(Collections.singletonList("check"), this.ran);
+
+        // Asking for a check again while the queued save waits does not run it before the save.
+        this.machine.runOrQueue(SyncStateMachine.Kind.CHECK,
+                this.operation("check again", SyncState.DOWNLOADING));
+        this.machine.finish(SyncState.IDLE);
+        this.mainThread.runDue();
+        assertEquals(Arrays.asList("check", "save"), this.ran);
+        this.machine.finish(SyncState.IDLE);
+        this.mainThread.runDue();
+        assertEquals(Arrays.asList("check", "save", "check again"), this.ran);
+    }
+
+    @Test
+    public void clearedQueueIsNotRun() {
+        this.machine.begin(SyncState.DOWNLOADING);
+        this.machine.runOrQueue(SyncStateMachine.Kind.SAVE, this.operation("save", null));
+        this.machine.clearQueue();
+        this.machine.finish(SyncState.IDLE);
+        this.mainThread.runDue();
+        assertEquals(Collections.<String>emptyList(), this.ran);
+    }
+
+    /**
+     * Creates an operation that records that it ran.
+     * @param name The name to record.
+     * @param busyState The state it begins in, or null if it finds there is nothing to do.
+     * @return The operation.
+     */
+    private Runnable operation(final String name, final SyncState busyState) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                SyncStateMachineTest.this.ran.add(name);
+                if (busyState != null) {
+                    assertTrue(SyncStateMachineTest.this.machine.begin(busyState));
+                }
+            }
+        };
+    }
+}